@@ -0,0 +1,168 @@
+package com.gif.filtertestapp;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Recycles mutable bitmaps so that browsing filters does not allocate a new output bitmap for
+ * every preview.
+ * <p>
+ * Free bitmaps are grouped by width, height and config. {@link #acquire} prefers an exact match
+ * and otherwise reconfigures any free bitmap whose allocation is large enough, which also makes
+ * the pool usable as {@code inBitmap} for decoding. The pool holds at most a fixed number of bytes
+ * and drops the least recently used size first. All methods are thread-safe.
+ */
+public final class BitmapPool {
+
+    private static BitmapPool defaultPool;
+
+    private final long maxBytes;
+    // Access-ordered, so iteration starts at the size that was used least recently.
+    private final Map<String, ArrayDeque<Bitmap>> free = new LinkedHashMap<>(16, 0.75f, true);
+    private long pooledBytes;
+    private int hits;
+    private int misses;
+    private long allocatedBytes;
+
+    public BitmapPool(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns the shared pool, which may hold a sixteenth of the memory available to the app.
+     */
+    public static synchronized BitmapPool getDefault() {
+        if (defaultPool == null) {
+            defaultPool = new BitmapPool(Runtime.getRuntime().maxMemory() / 16);
+        }
+        return defaultPool;
+    }
+
+    /**
+     * Returns a mutable bitmap of the given size and config. Its pixels are undefined; callers
+     * must overwrite all of them.
+     */
+    public Bitmap acquire(int width, int height, Bitmap.Config config) {
+        Bitmap bitmap = take(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+            synchronized (this) {
+                misses++;
+                allocatedBytes += bitmap.getAllocationByteCount();
+            }
+        }
+        bitmap.setHasAlpha(true);
+        bitmap.setPremultiplied(true);
+        return bitmap;
+    }
+
+    /**
+     * Returns a free bitmap that can be passed as {@code inBitmap} to decode an image of at most
+     * {@code width} x {@code height}, or {@code null} if there is none. The decoder resizes it.
+     */
+    public Bitmap acquireForDecode(int width, int height, Bitmap.Config config) {
+        return take(width, height, config);
+    }
+
+    /**
+     * Hands a bitmap back to the pool. The caller must not use it afterwards. Immutable or recycled
+     * bitmaps are ignored.
+     */
+    public void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !bitmap.isMutable()) return;
+        synchronized (this) {
+            free.computeIfAbsent(key(bitmap.getWidth(), bitmap.getHeight(), bitmap.getConfig()),
+                    k -> new ArrayDeque<>()).push(bitmap);
+            pooledBytes += bitmap.getAllocationByteCount();
+            trimToSize(maxBytes);
+        }
+    }
+
+    /**
+     * Releases pooled bitmaps in response to {@link ComponentCallbacks2#onTrimMemory}.
+     */
+    public synchronized void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            trimToSize(0);
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            trimToSize(maxBytes / 2);
+        }
+    }
+
+    public synchronized void clear() {
+        trimToSize(0);
+    }
+
+    /**
+     * Returns hit and miss counts and the bytes allocated because of misses, for logging.
+     */
+    public synchronized String getStats() {
+        return "BitmapPool hits=" + hits + " misses=" + misses
+                + " allocatedBytes=" + allocatedBytes + " pooledBytes=" + pooledBytes;
+    }
+
+    private synchronized Bitmap take(int width, int height, Bitmap.Config config) {
+        ArrayDeque<Bitmap> exact = free.get(key(width, height, config));
+        Bitmap bitmap = exact != null ? exact.poll() : null;
+        if (bitmap == null) {
+            bitmap = takeLargeEnough(width, height, config);
+            if (bitmap == null) return null;
+            bitmap.reconfigure(width, height, config);
+        }
+        pooledBytes -= bitmap.getAllocationByteCount();
+        hits++;
+        return bitmap;
+    }
+
+    private Bitmap takeLargeEnough(int width, int height, Bitmap.Config config) {
+        long needed = (long) width * height * bytesPerPixel(config);
+        for (ArrayDeque<Bitmap> bitmaps : free.values()) {
+            for (Iterator<Bitmap> it = bitmaps.iterator(); it.hasNext(); ) {
+                Bitmap candidate = it.next();
+                if (candidate.getAllocationByteCount() >= needed) {
+                    it.remove();
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private void trimToSize(long size) {
+        Iterator<ArrayDeque<Bitmap>> groups = free.values().iterator();
+        while (pooledBytes > size && groups.hasNext()) {
+            ArrayDeque<Bitmap> bitmaps = groups.next();
+            while (pooledBytes > size && !bitmaps.isEmpty()) {
+                Bitmap bitmap = bitmaps.pollLast();
+                pooledBytes -= bitmap.getAllocationByteCount();
+                bitmap.recycle();
+            }
+            if (bitmaps.isEmpty()) {
+                groups.remove();
+            }
+        }
+    }
+
+    private static String key(int width, int height, Bitmap.Config config) {
+        return width + "x" + height + ":" + config;
+    }
+
+    private static int bytesPerPixel(Bitmap.Config config) {
+        switch (config) {
+            case ALPHA_8:
+                return 1;
+            case RGB_565:
+            case ARGB_4444:
+                return 2;
+            case RGBA_F16:
+                return 8;
+            default:
+                return 4;
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.gif.filtertestapp;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.util.LruCache;
+
+/**
+ * Keeps recently rendered filter results so switching back to a filter shows it immediately.
+ * <p>
+ * Entries are keyed by the source image and {@link FilterChain#getKey()}, and the cache is bounded
+ * by the bytes the bitmaps occupy rather than by their number. Bitmaps handed to the cache must
+ * not be modified or recycled afterwards.
+ */
+public final class FilterResultCache {
+
+    /**
+     * Notified when a bitmap leaves the cache, so its owner can recycle it.
+     */
+    public interface EvictionListener {
+        void onEvicted(Bitmap bitmap);
+    }
+
+    private final LruCache<String, Bitmap> cache;
+    private EvictionListener evictionListener;
+
+    public FilterResultCache(int maxBytes) {
+        cache = new LruCache<String, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                if (oldValue != newValue && evictionListener != null) {
+                    evictionListener.onEvicted(oldValue);
+                }
+            }
+        };
+    }
+
+    public void setEvictionListener(EvictionListener listener) {
+        evictionListener = listener;
+    }
+
+    /**
+     * Creates a cache that may use an eighth of the memory available to the app.
+     */
+    public static FilterResultCache forAvailableMemory() {
+        return new FilterResultCache((int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 8));
+    }
+
+    public Bitmap get(String sourceId, FilterChain chain) {
+        return cache.get(key(sourceId, chain));
+    }
+
+    public void put(String sourceId, FilterChain chain, Bitmap result) {
+        cache.put(key(sourceId, chain), result);
+    }
+
+    /**
+     * Releases memory in response to {@link ComponentCallbacks2#onTrimMemory}: everything once the
+     * app is in the background, half of the cache when the UI is hidden or memory runs low.
+     */
+    public void trimMemory(int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            cache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            cache.trimToSize(cache.maxSize() / 2);
+        }
+    }
+
+    public void clear() {
+        cache.evictAll();
+    }
+
+    /**
+     * Bytes currently held by cached bitmaps.
+     */
+    public int size() {
+        return cache.size();
+    }
+
+    private static String key(String sourceId, FilterChain chain) {
+        return sourceId + "|" + chain.getKey();
+    }
+}
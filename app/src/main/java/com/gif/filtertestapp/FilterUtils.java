@@ -2,7 +2,6 @@ package com.gif.filtertestapp;
 
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
-import android.graphics.Color;
 import android.graphics.ColorMatrix;
 import android.graphics.ColorMatrixColorFilter;
 import android.graphics.Paint;
@@ -12,188 +11,168 @@ import android.graphics.RadialGradient;
 import android.graphics.Shader;
 import android.util.Log;
 
+import java.util.function.BiConsumer;
+
 public class FilterUtils {
 
+    // Per-thread pixel buffers reused by the getPixels/setPixels based filters.
+    private static final ThreadLocal<PixelBuffer> SCRATCH_IN = ThreadLocal.withInitial(() -> new PixelBuffer(1, 1));
+    private static final ThreadLocal<PixelBuffer> SCRATCH_OUT = ThreadLocal.withInitial(() -> new PixelBuffer(1, 1));
+
+    private static final FilterChain SOLARIZE = FilterChain.of(FilterType.SOLARIZE);
+    private static final FilterChain POSTERIZE = FilterChain.of(FilterType.POSTERIZE);
+    private static final FilterChain HEATMAP = FilterChain.of(FilterType.HEATMAP);
+    private static final FilterChain SHARPEN = FilterChain.of(FilterType.SHARPEN);
+    private static final FilterChain EDGE_DETECT = FilterChain.of(FilterType.EDGE_DETECT);
+    private static final FilterChain EMBOSS = FilterChain.of(FilterType.EMBOSS);
+    private static final FilterChain UNSHARP_MASK = FilterChain.of(FilterType.UNSHARP_MASK);
+
     /**
      * Applies a grayscale filter to a bitmap.
      */
     public static Bitmap applyGrayscale(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix();
-        colorMatrix.setSaturation(0);
-        ColorMatrixColorFilter colorFilter = new ColorMatrixColorFilter(colorMatrix);
-        paint.setColorFilter(colorFilter);
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applyGrayscale(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a grayscale filter, writing into {@code dst}.
+     */
+    public static Bitmap applyGrayscale(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.grayscale());
     }
 
     /**
      * Applies a sepia filter to a bitmap.
      */
     public static Bitmap applySepia(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix();
-        colorMatrix.setSaturation(0);
-        ColorMatrix colorScale = new ColorMatrix();
-        colorScale.setScale(1f, 1f, 0.8f, 1f);
-        colorMatrix.postConcat(colorScale);
-        ColorMatrixColorFilter colorFilter = new ColorMatrixColorFilter(colorMatrix);
-        paint.setColorFilter(colorFilter);
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applySepia(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a sepia filter, writing into {@code dst}.
+     */
+    public static Bitmap applySepia(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.sepia());
     }
 
     /**
      * Applies an invert filter to a bitmap.
      */
     public static Bitmap applyInvert(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix(new float[]{
-                -1, 0, 0, 0, 255,
-                0, -1, 0, 0, 255,
-                0, 0, -1, 0, 255,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applyInvert(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies an invert filter, writing into {@code dst}.
+     */
+    public static Bitmap applyInvert(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.invert());
     }
 
     /**
      * Applies a vintage/cool filter to a bitmap.
      */
     public static Bitmap applyVintage(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix();
-        colorMatrix.setSaturation(0.8f);
-        ColorMatrix colorScale = new ColorMatrix();
-        colorScale.setScale(1f, 0.95f, 1.1f, 1f);
-        colorMatrix.postConcat(colorScale);
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applyVintage(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a vintage/cool filter, writing into {@code dst}.
+     */
+    public static Bitmap applyVintage(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.vintage());
     }
 
     /**
      * Increases the brightness of a bitmap.
      */
     public static Bitmap applyBrightness(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix(new float[]{
-                1, 0, 0, 0, 50,
-                0, 1, 0, 0, 50,
-                0, 0, 1, 0, 50,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applyBrightness(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Increases the brightness, writing into {@code dst}.
+     */
+    public static Bitmap applyBrightness(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.brightness(50));
     }
 
     /**
      * Increases the contrast of a bitmap.
      */
     public static Bitmap applyContrast(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        float contrast = 1.5f;
-        float translation = 128f * (1.0f - contrast);
-        ColorMatrix colorMatrix = new ColorMatrix(new float[]{
-                contrast, 0, 0, 0, translation,
-                0, contrast, 0, 0, translation,
-                0, 0, contrast, 0, translation,
-                0, 0, 0, 1, 0
-        });
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applyContrast(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Increases the contrast, writing into {@code dst}.
+     */
+    public static Bitmap applyContrast(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.contrast(1.5f));
     }
 
     /**
      * Applies a cool, "winter" themed filter to a bitmap.
      */
     public static Bitmap applyWinter(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
-        ColorMatrix colorMatrix = new ColorMatrix();
-        colorMatrix.setSaturation(0.6f);
-        ColorMatrix colorScale = new ColorMatrix();
-        colorScale.setScale(0.9f, 1f, 1.2f, 1f);
-        colorMatrix.postConcat(colorScale);
-        paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-        canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        return resultBitmap;
+        return applyWinter(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies the "winter" filter, writing into {@code dst}.
+     */
+    public static Bitmap applyWinter(Bitmap src, Bitmap dst) {
+        return applyColorMatrix(src, dst, ColorMatrices.winter());
     }
 
     /**
      * Applies a solarize effect to a bitmap.
      */
     public static Bitmap applySolarize(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = sourceBitmap.copy(sourceBitmap.getConfig(), true);
-        int width = resultBitmap.getWidth();
-        int height = resultBitmap.getHeight();
-        int[] pixels = new int[width * height];
-        resultBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        int threshold = 128;
-        for (int i = 0; i < pixels.length; i++) {
-            int p = pixels[i];
-            int r = Color.red(p);
-            int g = Color.green(p);
-            int b = Color.blue(p);
-            if (r > threshold) r = 255 - r;
-            if (g > threshold) g = 255 - g;
-            if (b > threshold) b = 255 - b;
-            pixels[i] = Color.argb(Color.alpha(p), r, g, b);
-        }
-        resultBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return resultBitmap;
+        return applySolarize(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a solarize effect, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applySolarize(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, SOLARIZE);
     }
 
     /**
      * Applies a posterize effect, reducing the number of color levels.
      */
     public static Bitmap applyPosterize(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = sourceBitmap.copy(sourceBitmap.getConfig(), true);
-        int width = resultBitmap.getWidth();
-        int height = resultBitmap.getHeight();
-        int[] pixels = new int[width * height];
-        resultBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        int numLevels = 4;
-        int levelSize = 256 / numLevels;
-        for (int i = 0; i < pixels.length; i++) {
-            int p = pixels[i];
-            int r = Color.red(p);
-            int g = Color.green(p);
-            int b = Color.blue(p);
-            r = (r / levelSize) * levelSize + levelSize / 2;
-            g = (g / levelSize) * levelSize + levelSize / 2;
-            b = (b / levelSize) * levelSize + levelSize / 2;
-            pixels[i] = Color.argb(Color.alpha(p), r, g, b);
-        }
-        resultBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return resultBitmap;
+        return applyPosterize(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a posterize effect, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applyPosterize(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, POSTERIZE);
     }
 
     /**
      * Adds a vignette effect, darkening the corners of the image.
      */
     public static Bitmap applyVignette(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = sourceBitmap.copy(sourceBitmap.getConfig(), true);
-        Canvas canvas = new Canvas(resultBitmap);
-        int width = sourceBitmap.getWidth();
-        int height = sourceBitmap.getHeight();
+        return applyVignette(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Adds a vignette effect, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applyVignette(Bitmap src, Bitmap dst) {
+        checkDestination(src, dst);
+        Canvas canvas = new Canvas(dst);
+        if (dst != src) {
+            Paint copyPaint = new Paint();
+            copyPaint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+            canvas.drawBitmap(src, 0, 0, copyPaint);
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
         float radius = (float) (width * 0.7);
         RadialGradient gradient = new RadialGradient(
                 width / 2f, height / 2f, radius,
@@ -205,96 +184,266 @@ public class FilterUtils {
         paint.setShader(gradient);
         paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC_OVER));
         canvas.drawRect(0, 0, width, height, paint);
-        return resultBitmap;
+        return dst;
     }
 
     /**
      * Applies a duotone heatmap effect.
      */
     public static Bitmap applyHeatmap(Bitmap sourceBitmap) {
-        Bitmap resultBitmap = sourceBitmap.copy(sourceBitmap.getConfig(), true);
-        int width = resultBitmap.getWidth();
-        int height = resultBitmap.getHeight();
-        int[] pixels = new int[width * height];
-        resultBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
-        int[] gradientColors = {Color.BLUE, Color.CYAN, Color.GREEN, Color.YELLOW, Color.RED};
-        for (int i = 0; i < pixels.length; i++) {
-            int p = pixels[i];
-            int luminance = (int) (0.299 * Color.red(p) + 0.587 * Color.green(p) + 0.114 * Color.blue(p));
-            float position = luminance / 255f;
-            int colorIndex = (int) (position * (gradientColors.length - 1));
-            pixels[i] = gradientColors[colorIndex];
-        }
-        resultBitmap.setPixels(pixels, 0, width, 0, 0, width, height);
-        return resultBitmap;
+        return applyHeatmap(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a duotone heatmap effect, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applyHeatmap(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, HEATMAP);
     }
 
     /**
      * Applies a sharpening effect using a convolution matrix.
      */
     public static Bitmap applySharpen(Bitmap sourceBitmap) {
-        float[] kernel = {
-                -1, -1, -1,
-                -1,  9, -1,
-                -1, -1, -1
-        };
-        Bitmap resultBitmap = sourceBitmap.copy(sourceBitmap.getConfig(), true);
+        return applySharpen(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies a sharpening effect, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applySharpen(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, SHARPEN);
+    }
+
+    /**
+     * Highlights edges using a Laplacian convolution.
+     */
+    public static Bitmap applyEdgeDetect(Bitmap sourceBitmap) {
+        return applyEdgeDetect(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Highlights edges, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applyEdgeDetect(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, EDGE_DETECT);
+    }
+
+    /**
+     * Applies an emboss effect using a convolution matrix.
+     */
+    public static Bitmap applyEmboss(Bitmap sourceBitmap) {
+        return applyEmboss(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Applies an emboss effect, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applyEmboss(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, EMBOSS);
+    }
+
+    /**
+     * Sharpens a bitmap with an unsharp mask.
+     */
+    public static Bitmap applyUnsharpMask(Bitmap sourceBitmap) {
+        return applyUnsharpMask(sourceBitmap, createResultBitmap(sourceBitmap));
+    }
+
+    /**
+     * Sharpens with an unsharp mask, writing into {@code dst}. {@code dst} may be {@code src}.
+     */
+    public static Bitmap applyUnsharpMask(Bitmap src, Bitmap dst) {
+        return applyFilterChain(src, dst, UNSHARP_MASK);
+    }
+
+    /**
+     * Applies a custom filter from a color matrix string.
+     */
+    public static Bitmap applyCustomFilter(Bitmap sourceBitmap, String colorMatrixString) {
+        float[] matrixValues = ColorMatrices.parse(colorMatrixString);
+        if (matrixValues == null) {
+            Log.e("FilterUtils", "Invalid color matrix string: " + colorMatrixString);
+            return sourceBitmap; // Return original if matrix is invalid
+        }
+        return applyCustomFilter(sourceBitmap, createResultBitmap(sourceBitmap), matrixValues);
+    }
+
+    /**
+     * Applies a custom 4x5 color matrix, writing into {@code dst}.
+     */
+    public static Bitmap applyCustomFilter(Bitmap src, Bitmap dst, float[] colorMatrix) {
+        return applyColorMatrix(src, dst, colorMatrix);
+    }
+
+    /**
+     * Applies a compiled filter chain to a bitmap.
+     */
+    public static Bitmap applyFilterChain(Bitmap sourceBitmap, FilterChain chain) {
+        return applyFilterChain(sourceBitmap, createResultBitmap(sourceBitmap), chain);
+    }
+
+    /**
+     * Applies a compiled filter chain, writing into {@code dst}. {@code dst} may be {@code src}.
+     * Chains that reduce to a single color matrix are drawn through {@link ColorMatrixColorFilter},
+     * everything else runs in row bands on {@link TileExecutor#getDefault()}.
+     */
+    public static Bitmap applyFilterChain(Bitmap src, Bitmap dst, FilterChain chain) {
+        return applyFilterChain(src, dst, chain, null);
+    }
+
+    /**
+     * Applies a compiled filter chain to a bitmap, giving up between bands once {@code token} is
+     * cancelled.
+     */
+    public static Bitmap applyFilterChain(Bitmap sourceBitmap, FilterChain chain, CancellationToken token) {
+        return applyFilterChain(sourceBitmap, createResultBitmap(sourceBitmap), chain, token);
+    }
+
+    /**
+     * Applies a compiled filter chain, writing into {@code dst}, and gives up with a
+     * {@link java.util.concurrent.CancellationException} between bands once {@code token} (which
+     * may be {@code null}) is cancelled.
+     */
+    public static Bitmap applyFilterChain(Bitmap src, Bitmap dst, FilterChain chain, CancellationToken token) {
+        float[] matrix = chain.getColorMatrix();
+        if (matrix != null) {
+            return applyColorMatrix(src, dst, matrix);
+        }
+        checkDestination(src, dst);
+        PerfStats stats = PerfStats.getDefault();
+        long pixels = (long) src.getWidth() * src.getHeight();
+        PixelBuffer in;
+        try (PerfStats.Span span = stats.begin("getPixels").setPixels(pixels)) {
+            in = readPixels(src, SCRATCH_IN.get());
+        }
+        PixelBuffer out = SCRATCH_OUT.get();
+        chain.apply(in, in, out, TileExecutor.getDefault(), token);
+        try (PerfStats.Span span = stats.begin("setPixels").setPixels(pixels)) {
+            writePixels(in, dst);
+        }
+        return dst;
+    }
+
+    /**
+     * Renders the image after the first {@code position} steps of {@code history}, starting from
+     * its nearest keyframe, into a bitmap from {@link BitmapPool#getDefault()}.
+     */
+    public static Bitmap renderHistory(EditHistory history, int position, Bitmap.Config config,
+                                       CancellationToken token) {
+        PixelBuffer pixels = SCRATCH_OUT.get();
+        history.render(position, pixels, TileExecutor.getDefault(), token);
+        Bitmap dst = BitmapPool.getDefault().acquire(pixels.getWidth(), pixels.getHeight(), config);
+        try (PerfStats.Span span = PerfStats.getDefault().begin("setPixels")) {
+            span.setPixels(pixels.size());
+            writePixels(pixels, dst);
+        }
+        return dst;
+    }
+
+    /**
+     * Computes the histograms of the image after the first {@code position} steps of
+     * {@code history} in one parallel sweep on {@link TileExecutor#getDefault()}, giving up between
+     * bands once {@code token} (which may be {@code null}) is cancelled.
+     */
+    public static ImageStatistics computeStatistics(EditHistory history, int position, CancellationToken token) {
+        PixelBuffer pixels = SCRATCH_OUT.get();
+        history.render(position, pixels, TileExecutor.getDefault(), token);
+        return ImageStatistics.compute(pixels, TileExecutor.getDefault(), token);
+    }
+
+    /**
+     * Picks a palette of at most {@code maxColors} colors for the image after the first
+     * {@code position} steps of {@code history}; see {@link ColorPalette#fromImage}.
+     */
+    public static ColorPalette computePalette(EditHistory history, int position, int maxColors,
+                                              CancellationToken token) {
+        PixelBuffer pixels = SCRATCH_OUT.get();
+        history.render(position, pixels, TileExecutor.getDefault(), token);
+        return ColorPalette.fromImage(pixels, maxColors);
+    }
+
+    /**
+     * Returns a downscaled copy of {@code sourceBitmap} that fits into {@code maxWidth} x
+     * {@code maxHeight}, or {@code null} if the source already fits and a proxy would not save
+     * any work.
+     */
+    public static Bitmap createProxyBitmap(Bitmap sourceBitmap, int maxWidth, int maxHeight) {
         int width = sourceBitmap.getWidth();
         int height = sourceBitmap.getHeight();
-        int[] srcPixels = new int[width * height];
-        int[] dstPixels = new int[width * height];
-        sourceBitmap.getPixels(srcPixels, 0, width, 0, 0, width, height);
-        for (int y = 1; y < height - 1; y++) {
-            for (int x = 1; x < width - 1; x++) {
-                float sumR = 0, sumG = 0, sumB = 0;
-                int kernelIndex = 0;
-                for (int ky = -1; ky <= 1; ky++) {
-                    for (int kx = -1; kx <= 1; kx++) {
-                        int pixel = srcPixels[(y + ky) * width + (x + kx)];
-                        float weight = kernel[kernelIndex++];
-                        sumR += Color.red(pixel) * weight;
-                        sumG += Color.green(pixel) * weight;
-                        sumB += Color.blue(pixel) * weight;
-                    }
-                }
-                int r = Math.min(255, Math.max(0, (int) sumR));
-                int g = Math.min(255, Math.max(0, (int) sumG));
-                int b = Math.min(255, Math.max(0, (int) sumB));
-                dstPixels[y * width + x] = Color.argb(255, r, g, b);
-            }
+        if (maxWidth <= 0 || maxHeight <= 0 || (width <= maxWidth && height <= maxHeight)) {
+            return null;
         }
-        resultBitmap.setPixels(dstPixels, 0, width, 0, 0, width, height);
-        return resultBitmap;
+        float scale = Math.min((float) maxWidth / width, (float) maxHeight / height);
+        int proxyWidth = Math.max(1, Math.round(width * scale));
+        int proxyHeight = Math.max(1, Math.round(height * scale));
+        return Bitmap.createScaledBitmap(sourceBitmap, proxyWidth, proxyHeight, true);
     }
 
     /**
-     * Applies a custom filter from a color matrix string.
+     * Copies the pixels of {@code bitmap} into {@code buffer}, reshaping it to the bitmap size.
      */
-    public static Bitmap applyCustomFilter(Bitmap sourceBitmap, String colorMatrixString) {
-        Bitmap resultBitmap = Bitmap.createBitmap(sourceBitmap.getWidth(), sourceBitmap.getHeight(), sourceBitmap.getConfig());
-        Canvas canvas = new Canvas(resultBitmap);
-        Paint paint = new Paint();
+    public static PixelBuffer readPixels(Bitmap bitmap, PixelBuffer buffer) {
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        buffer.reshape(width, height);
+        bitmap.getPixels(buffer.getPixels(), 0, width, 0, 0, width, height);
+        return buffer;
+    }
 
-        try {
-            String[] values = colorMatrixString.replaceAll("\\[|\\]", "").split(",");
-            if (values.length != 20) {
-                Log.e("FilterUtils", "Invalid color matrix string: " + colorMatrixString);
-                return sourceBitmap; // Return original if matrix is invalid
-            }
-
-            float[] matrixValues = new float[20];
-            for (int i = 0; i < 20; i++) {
-                matrixValues[i] = Float.parseFloat(values[i].trim());
-            }
-
-            ColorMatrix colorMatrix = new ColorMatrix(matrixValues);
-            paint.setColorFilter(new ColorMatrixColorFilter(colorMatrix));
-            canvas.drawBitmap(sourceBitmap, 0, 0, paint);
-        } catch (NumberFormatException e) {
-            Log.e("FilterUtils", "Error parsing color matrix string", e);
-            return sourceBitmap; // Return original on parsing error
+    /**
+     * Copies the pixels of {@code buffer} into {@code bitmap}, which must have the same size.
+     */
+    public static Bitmap writePixels(PixelBuffer buffer, Bitmap bitmap) {
+        int width = buffer.getWidth();
+        int height = buffer.getHeight();
+        if (bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            throw new IllegalArgumentException("Bitmap size does not match buffer");
         }
+        bitmap.setPixels(buffer.getPixels(), 0, width, 0, 0, width, height);
+        return bitmap;
+    }
+
+    /**
+     * Takes the output bitmap from {@link BitmapPool#getDefault()}. Callers that are done with a
+     * result can hand it back with {@link BitmapPool#release}.
+     */
+    private static Bitmap createResultBitmap(Bitmap sourceBitmap) {
+        Bitmap.Config config = sourceBitmap.getConfig() != null ? sourceBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        return BitmapPool.getDefault().acquire(sourceBitmap.getWidth(), sourceBitmap.getHeight(), config);
+    }
+
+    private static void checkDestination(Bitmap src, Bitmap dst) {
+        if (!dst.isMutable()) {
+            throw new IllegalArgumentException("Destination bitmap must be mutable");
+        }
+        if (dst.getWidth() != src.getWidth() || dst.getHeight() != src.getHeight()) {
+            throw new IllegalArgumentException("Destination bitmap must match the source size");
+        }
+    }
+
+    private static Bitmap applyColorMatrix(Bitmap src, Bitmap dst, float[] matrix) {
+        checkDestination(src, dst);
+        if (src == dst) {
+            // Canvas cannot draw a bitmap onto itself, so filter the pixels in place instead.
+            return applyKernel(src, dst, (in, out) -> PixelFilters.applyColorMatrix(in, out, matrix));
+        }
+        try (PerfStats.Span span = PerfStats.getDefault().begin("canvas:colorMatrix")) {
+            span.setPixels((long) src.getWidth() * src.getHeight());
+            Canvas canvas = new Canvas(dst);
+            Paint paint = new Paint();
+            paint.setColorFilter(new ColorMatrixColorFilter(new ColorMatrix(matrix)));
+            paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+            canvas.drawBitmap(src, 0, 0, paint);
+        }
+        return dst;
+    }
 
-        return resultBitmap;
+    private static Bitmap applyKernel(Bitmap src, Bitmap dst, BiConsumer<PixelBuffer, PixelBuffer> kernel) {
+        checkDestination(src, dst);
+        PixelBuffer buffer = readPixels(src, SCRATCH_IN.get());
+        kernel.accept(buffer, buffer);
+        writePixels(buffer, dst);
+        return dst;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package com.gif.filtertestapp;
+
+import com.google.ai.client.generativeai.GenerativeModel;
+import com.google.ai.client.generativeai.java.GenerativeModelFutures;
+import com.google.ai.client.generativeai.type.Content;
+import com.google.ai.client.generativeai.type.GenerateContentResponse;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Asks a Gemini text model for a color matrix. Requests that take longer than the timeout fail
+ * with a {@link java.util.concurrent.TimeoutException} and are cancelled.
+ */
+public final class GeminiColorMatrixModel implements ColorMatrixModel {
+
+    private final GenerativeModelFutures model;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final long timeoutMillis;
+
+    public GeminiColorMatrixModel(GenerativeModel model, ScheduledExecutorService timeoutScheduler, long timeoutMillis) {
+        this.model = GenerativeModelFutures.from(model);
+        this.timeoutScheduler = timeoutScheduler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public ListenableFuture<String> generate(String description) {
+        String prompt = "Erstelle eine ColorMatrix für einen Android-Bildfilter basierend auf dieser Beschreibung: '" + description + "'. Gib nur die 20 Float-Werte der Matrix als kommagetrennten String zurück, ohne weiteren Text oder Markdown-Formatierung. Beispiel: 1,0,0,0,0,0,1,0,0,0,0,0,1,0,0,0,0,0,1,0";
+        Content content = new Content.Builder().addText(prompt).build();
+        ListenableFuture<GenerateContentResponse> response = Futures.withTimeout(model.generateContent(content),
+                timeoutMillis, TimeUnit.MILLISECONDS, timeoutScheduler);
+        return Futures.transform(response, GenerateContentResponse::getText, MoreExecutors.directExecutor());
+    }
+}
@@ -0,0 +1,53 @@
+package com.gif.filtertestapp;
+
+import android.graphics.Bitmap;
+
+import com.google.ai.client.generativeai.GenerativeModel;
+import com.google.ai.client.generativeai.java.GenerativeModelFutures;
+import com.google.ai.client.generativeai.type.Content;
+import com.google.ai.client.generativeai.type.GenerateContentResponse;
+import com.google.ai.client.generativeai.type.ImagePart;
+import com.google.ai.client.generativeai.type.Part;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Edits images with a Gemini image model. The payload is sent as an already encoded blob, and the
+ * returned image is encoded as JPEG on {@code executor} so it can be cached as bytes.
+ */
+public final class GeminiImageEditModel implements ImageEditModel {
+
+    private static final int RESULT_QUALITY = 95;
+
+    private final GenerativeModelFutures model;
+    private final Executor executor;
+
+    public GeminiImageEditModel(GenerativeModel model, Executor executor) {
+        this.model = GenerativeModelFutures.from(model);
+        this.executor = executor;
+    }
+
+    @Override
+    public ListenableFuture<byte[]> edit(ImagePayload image, String prompt) {
+        Content content = new Content.Builder()
+                .addText(prompt)
+                .addBlob(image.getMimeType(), image.getData())
+                .build();
+        return Futures.transform(model.generateContent(content), this::encodeResult, executor);
+    }
+
+    private byte[] encodeResult(GenerateContentResponse response) {
+        for (Part part : response.getCandidates().get(0).getContent().getParts()) {
+            if (part instanceof ImagePart) {
+                Bitmap bitmap = ((ImagePart) part).getImage();
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                bitmap.compress(Bitmap.CompressFormat.JPEG, RESULT_QUALITY, out);
+                return out.toByteArray();
+            }
+        }
+        throw new IllegalStateException("Response contains no image");
+    }
+}
@@ -0,0 +1,222 @@
+package com.gif.filtertestapp;
+
+import android.content.ContentResolver;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.ImageDecoder;
+import android.graphics.Matrix;
+import android.media.ExifInterface;
+import android.net.Uri;
+import android.os.Build;
+import android.util.Size;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes images from content URIs straight to the size the app works with.
+ * <p>
+ * The encoded bytes are read from the content provider once. From API 28 {@link ImageDecoder}
+ * scales to the exact target size and applies the EXIF orientation while decoding. Older
+ * releases decode with {@link BitmapFactory}, which samples by a power of two and scales the rest
+ * of the way in the same pass through the density fields, and then rotate only if the EXIF data
+ * asks for it.
+ * <p>
+ * Images without alpha can be decoded as RGB_565, which halves their memory; the decoder keeps
+ * ARGB_8888 for anything with transparency.
+ */
+public final class ImageLoader {
+
+    private final ContentResolver contentResolver;
+    private final BitmapPool bitmapPool;
+
+    public ImageLoader(ContentResolver contentResolver, BitmapPool bitmapPool) {
+        this.contentResolver = contentResolver;
+        this.bitmapPool = bitmapPool;
+    }
+
+    /**
+     * Decodes {@code uri} scaled down so that it just covers {@code minWidth} x {@code minHeight},
+     * keeping its aspect ratio, or at its own size if it is smaller. The result is mutable and
+     * upright.
+     *
+     * @param lean whether an opaque image may be decoded as RGB_565
+     */
+    public Bitmap load(Uri uri, int minWidth, int minHeight, boolean lean) throws IOException {
+        byte[] data;
+        try (PerfStats.Span span = PerfStats.getDefault().begin("read")) {
+            data = readAll(uri);
+        }
+        try (PerfStats.Span span = PerfStats.getDefault().begin("decode")) {
+            Bitmap bitmap = Build.VERSION.SDK_INT >= Build.VERSION_CODES.P
+                    ? decode(data, minWidth, minHeight, lean)
+                    : decodeLegacy(data, minWidth, minHeight, lean);
+            span.setPixels((long) bitmap.getWidth() * bitmap.getHeight());
+            return bitmap;
+        }
+    }
+
+    /**
+     * Reads the EXIF orientation from the start of an encoded image; formats without EXIF data
+     * are {@link ExifOrientation#NORMAL}.
+     */
+    public static ExifOrientation readOrientation(InputStream in) {
+        try {
+            ExifInterface exif = new ExifInterface(in);
+            return ExifOrientation.fromExif(exif.getAttributeInt(
+                    ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL));
+        } catch (IOException e) {
+            return ExifOrientation.NORMAL;
+        }
+    }
+
+    /**
+     * Returns the factor in {@code (0, 1]} by which a {@code width} x {@code height} image is
+     * scaled to just cover {@code minWidth} x {@code minHeight}.
+     */
+    static float coverScale(int width, int height, int minWidth, int minHeight) {
+        return Math.min(1f, Math.max((float) minWidth / width, (float) minHeight / height));
+    }
+
+    private Bitmap decode(byte[] data, int minWidth, int minHeight, boolean lean) throws IOException {
+        ImageDecoder.Source source = ImageDecoder.createSource(ByteBuffer.wrap(data));
+        return ImageDecoder.decodeBitmap(source, (decoder, info, src) -> {
+            Size size = info.getSize();
+            float scale = coverScale(size.getWidth(), size.getHeight(), minWidth, minHeight);
+            if (scale < 1f) {
+                decoder.setTargetSize(Math.max(1, Math.round(size.getWidth() * scale)),
+                        Math.max(1, Math.round(size.getHeight() * scale)));
+            }
+            // Filters read and write pixels on the CPU, and the bitmap goes back to the pool.
+            decoder.setAllocator(ImageDecoder.ALLOCATOR_SOFTWARE);
+            decoder.setMutableRequired(true);
+            if (lean) {
+                decoder.setMemorySizePolicy(ImageDecoder.MEMORY_POLICY_LOW_RAM);
+            }
+        });
+    }
+
+    private Bitmap decodeLegacy(byte[] data, int minWidth, int minHeight, boolean lean) throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException("Unsupported image format");
+        }
+        ExifOrientation orientation = readOrientation(new ByteArrayInputStream(data));
+        int storedWidth = options.outWidth;
+        int storedHeight = options.outHeight;
+        // Cover the requested size in displayed orientation.
+        float scale = orientation.swapsAxes()
+                ? coverScale(storedWidth, storedHeight, minHeight, minWidth)
+                : coverScale(storedWidth, storedHeight, minWidth, minHeight);
+        int targetWidth = Math.max(1, Math.round(storedWidth * scale));
+        int targetHeight = Math.max(1, Math.round(storedHeight * scale));
+
+        int sampleSize = 1;
+        while (storedWidth / (sampleSize * 2) >= targetWidth && storedHeight / (sampleSize * 2) >= targetHeight) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        int sampledWidth = storedWidth / sampleSize;
+        boolean scaled = sampledWidth != targetWidth;
+        if (scaled) {
+            // Scales the sampled rows to the target width inside the decoder.
+            options.inScaled = true;
+            options.inDensity = sampledWidth;
+            options.inTargetDensity = targetWidth;
+        }
+        options.inPreferredConfig = lean ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+        options.inMutable = true;
+        // The size the decoder will produce, which the density rounding may put a pixel off the
+        // target in height.
+        int sampledHeight = storedHeight / sampleSize;
+        int decodedWidth = scaled ? densityScaled(sampledWidth, sampledWidth, targetWidth) : sampledWidth;
+        int decodedHeight = scaled ? densityScaled(sampledHeight, sampledWidth, targetWidth) : sampledHeight;
+        Bitmap reused = bitmapPool.acquireForDecode(decodedWidth, decodedHeight, options.inPreferredConfig);
+        options.inBitmap = reused;
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        } catch (IllegalArgumentException e) {
+            // The format does not support decoding into an existing bitmap, or the decoder
+            // picked a different size after all.
+            options.inBitmap = null;
+            bitmapPool.release(reused);
+            bitmap = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        }
+        if (bitmap == null) {
+            throw new IOException("Failed to decode image");
+        }
+        if (scaled) {
+            // The decoder stamped the bitmap with the made-up target density.
+            bitmap.setDensity(Resources.getSystem().getDisplayMetrics().densityDpi);
+        }
+        return orientation == ExifOrientation.NORMAL ? bitmap : rotate(bitmap, orientation);
+    }
+
+    /**
+     * Returns {@code size} scaled from {@code density} to {@code targetDensity} with the rounding
+     * of {@link BitmapFactory}.
+     */
+    static int densityScaled(int size, int density, int targetDensity) {
+        float scale = targetDensity / (float) density;
+        return (int) (size * scale + 0.5f);
+    }
+
+    private Bitmap rotate(Bitmap bitmap, ExifOrientation orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+            default:
+                return bitmap;
+        }
+        Bitmap rotated = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+        if (rotated != bitmap) {
+            bitmapPool.release(bitmap);
+        }
+        return rotated.isMutable() ? rotated : rotated.copy(rotated.getConfig(), true);
+    }
+
+    private byte[] readAll(Uri uri) throws IOException {
+        try (InputStream in = contentResolver.openInputStream(uri)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 64 * 1024));
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,318 @@
+package com.gif.filtertestapp;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.provider.MediaStore;
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+
+/**
+ * Encodes bitmaps into the gallery off the UI thread.
+ * <p>
+ * The encoder writes straight into the {@code MediaStore} output stream, and the entry stays
+ * pending until it is complete. Instead of a fixed quality the saver can aim for a file size or a
+ * PSNR; the quality is then searched on a downscaled probe of the image, so the full-size image is
+ * encoded only once.
+ */
+public final class ImageSaver {
+
+    public enum Format {
+        JPEG("image/jpeg", ".jpg"),
+        PNG("image/png", ".png"),
+        WEBP_LOSSY("image/webp", ".webp"),
+        WEBP_LOSSLESS("image/webp", ".webp");
+
+        final String mimeType;
+        final String extension;
+
+        Format(String mimeType, String extension) {
+            this.mimeType = mimeType;
+            this.extension = extension;
+        }
+
+        /**
+         * Whether this release can encode the format. Lossless WebP needs API 29.
+         */
+        public boolean isSupported() {
+            return this != WEBP_LOSSLESS || Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q;
+        }
+
+        /**
+         * Before API 30 both WebP formats go through the one deprecated {@code WEBP} format,
+         * which encodes lossy below API 29 and, from API 29, losslessly at quality 100 only.
+         */
+        @SuppressWarnings("deprecation")
+        Bitmap.CompressFormat compressFormat() {
+            switch (this) {
+                case JPEG:
+                    return Bitmap.CompressFormat.JPEG;
+                case PNG:
+                    return Bitmap.CompressFormat.PNG;
+                case WEBP_LOSSY:
+                    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                            ? Bitmap.CompressFormat.WEBP_LOSSY : Bitmap.CompressFormat.WEBP;
+                default:
+                    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
+                            ? Bitmap.CompressFormat.WEBP_LOSSLESS : Bitmap.CompressFormat.WEBP;
+            }
+        }
+
+        /**
+         * Returns the quality to pass to {@link #compressFormat()} so that it encodes this format
+         * for a requested {@code quality}.
+         */
+        int encoderQuality(int quality) {
+            if (Build.VERSION.SDK_INT == Build.VERSION_CODES.Q) {
+                if (this == WEBP_LOSSY) return Math.min(quality, 99);
+                if (this == WEBP_LOSSLESS) return 100;
+            }
+            return quality;
+        }
+
+        /** Whether the quality setting trades fidelity for size. */
+        boolean isLossy() {
+            return this == JPEG || this == WEBP_LOSSY;
+        }
+    }
+
+    /**
+     * What to encode with: a fixed quality, or a size or PSNR target for lossy formats. The
+     * factories throw {@link IllegalArgumentException} for a format that is not
+     * {@linkplain Format#isSupported() supported}.
+     */
+    public static final class Options {
+        final Format format;
+        final int quality;
+        final long targetBytes;
+        final double targetPsnr;
+
+        private Options(Format format, int quality, long targetBytes, double targetPsnr) {
+            if (!format.isSupported()) {
+                throw new IllegalArgumentException(format + " needs a newer Android release");
+            }
+            this.format = format;
+            this.quality = quality;
+            this.targetBytes = targetBytes;
+            this.targetPsnr = targetPsnr;
+        }
+
+        /**
+         * Encodes with a fixed quality (for lossless formats: compression effort).
+         */
+        public static Options quality(Format format, int quality) {
+            return new Options(format, quality, 0, 0);
+        }
+
+        /**
+         * Encodes with the highest quality that keeps the file at about {@code targetBytes}.
+         */
+        public static Options targetSize(Format format, long targetBytes) {
+            return new Options(format, 100, targetBytes, 0);
+        }
+
+        /**
+         * Encodes with the lowest quality that reaches {@code psnr} dB against the bitmap.
+         */
+        public static Options targetPsnr(Format format, double psnr) {
+            return new Options(format, 100, 0, psnr);
+        }
+    }
+
+    /**
+     * Writes an already encoded image, for encoders that produce their output incrementally.
+     */
+    public interface StreamWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    public interface Callback {
+        /**
+         * @param quality the quality the image was encoded with, or -1 if it came from a
+         *                {@link StreamWriter}
+         */
+        void onSaved(Uri uri, long bytes, int quality);
+
+        /**
+         * Also called for errors such as running out of memory while encoding, so that every
+         * save ends in exactly one callback.
+         */
+        void onFailed(Throwable error);
+    }
+
+    /** Longest side of the probe image used for the quality search. */
+    private static final int PROBE_SIZE = 512;
+    private static final int MIN_QUALITY = 30;
+    private static final int STREAM_BUFFER = 64 * 1024;
+
+    private final ContentResolver contentResolver;
+    private final Executor backgroundExecutor;
+    private final Executor resultExecutor;
+
+    /**
+     * @param backgroundExecutor runs the encoding; the bitmap must not change until the callback
+     * @param resultExecutor     delivers the callback, normally the main thread
+     */
+    public ImageSaver(ContentResolver contentResolver, Executor backgroundExecutor, Executor resultExecutor) {
+        this.contentResolver = contentResolver;
+        this.backgroundExecutor = backgroundExecutor;
+        this.resultExecutor = resultExecutor;
+    }
+
+    /**
+     * Saves {@code bitmap} to {@code Pictures/FilterTestApp} and reports the result to
+     * {@code callback}.
+     */
+    public void save(Bitmap bitmap, String baseName, Options options, Callback callback) {
+        backgroundExecutor.execute(() -> {
+            int quality;
+            try {
+                quality = options.format.encoderQuality(chooseQuality(bitmap, options));
+            } catch (Throwable e) {
+                resultExecutor.execute(() -> callback.onFailed(e));
+                return;
+            }
+            write(baseName + options.format.extension, options.format.mimeType, out -> {
+                try (PerfStats.Span span = PerfStats.getDefault().begin("encode:" + options.format)) {
+                    span.setPixels((long) bitmap.getWidth() * bitmap.getHeight());
+                    if (!bitmap.compress(options.format.compressFormat(), quality, out)) {
+                        throw new IOException("Encoder failed");
+                    }
+                }
+            }, quality, callback);
+        });
+    }
+
+    /**
+     * Saves whatever {@code writer} produces as a {@code mimeType} image.
+     */
+    public void save(String fileName, String mimeType, StreamWriter writer, Callback callback) {
+        backgroundExecutor.execute(() -> write(fileName, mimeType, writer, -1, callback));
+    }
+
+    /**
+     * Saves whatever {@code writer} produces as a {@code mimeType} image on the calling thread,
+     * for callers that already run in the background, and returns its URI. A failed entry is
+     * removed again.
+     */
+    public Uri saveNow(String fileName, String mimeType, StreamWriter writer) throws IOException {
+        Uri uri = insertPending(fileName, mimeType);
+        try {
+            writeEntry(uri, writer);
+            publish(uri);
+            return uri;
+        } catch (Throwable e) {
+            contentResolver.delete(uri, null, null);
+            throw e;
+        }
+    }
+
+    private void write(String fileName, String mimeType, StreamWriter writer, int quality, Callback callback) {
+        Uri uri = null;
+        try {
+            uri = insertPending(fileName, mimeType);
+            long bytes = writeEntry(uri, writer);
+            publish(uri);
+            Uri saved = uri;
+            resultExecutor.execute(() -> callback.onSaved(saved, bytes, quality));
+        } catch (Throwable e) {
+            try {
+                if (uri != null) {
+                    contentResolver.delete(uri, null, null);
+                }
+            } finally {
+                resultExecutor.execute(() -> callback.onFailed(e));
+            }
+        }
+    }
+
+    private long writeEntry(Uri uri, StreamWriter writer) throws IOException {
+        try (OutputStream stream = contentResolver.openOutputStream(uri)) {
+            if (stream == null) {
+                throw new IOException("Cannot open " + uri);
+            }
+            CountingOutputStream out = new CountingOutputStream(new BufferedOutputStream(stream, STREAM_BUFFER));
+            writer.writeTo(out);
+            out.flush();
+            return out.getCount();
+        }
+    }
+
+    private int chooseQuality(Bitmap bitmap, Options options) throws IOException {
+        if (!options.format.isLossy() || (options.targetBytes <= 0 && options.targetPsnr <= 0)) {
+            return options.quality;
+        }
+        try (PerfStats.Span span = PerfStats.getDefault().begin("qualitySearch")) {
+            return searchQuality(bitmap, options);
+        }
+    }
+
+    private int searchQuality(Bitmap bitmap, Options options) throws IOException {
+        Bitmap probe = FilterUtils.createProxyBitmap(bitmap, PROBE_SIZE, PROBE_SIZE);
+        Bitmap source = probe != null ? probe : bitmap;
+        Bitmap.CompressFormat format = options.format.compressFormat();
+        int maxQuality = options.format.encoderQuality(100);
+        try {
+            if (options.targetBytes > 0) {
+                // The probe has fewer pixels; scale its size up to the full image.
+                double scale = (double) bitmap.getWidth() * bitmap.getHeight() / (source.getWidth() * source.getHeight());
+                return QualitySearch.forTargetSize(options.targetBytes, MIN_QUALITY, maxQuality, quality -> {
+                    CountingOutputStream out = new CountingOutputStream(ByteStreams.nullOutputStream());
+                    source.compress(format, quality, out);
+                    return out.getCount() * scale;
+                });
+            }
+            int count = source.getWidth() * source.getHeight();
+            int[] expected = new int[count];
+            int[] actual = new int[count];
+            source.getPixels(expected, 0, source.getWidth(), 0, 0, source.getWidth(), source.getHeight());
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            return QualitySearch.forTargetScore(options.targetPsnr, MIN_QUALITY, maxQuality, quality -> {
+                encoded.reset();
+                source.compress(format, quality, encoded);
+                Bitmap decoded = BitmapFactory.decodeByteArray(encoded.toByteArray(), 0, encoded.size());
+                decoded.getPixels(actual, 0, source.getWidth(), 0, 0, source.getWidth(), source.getHeight());
+                decoded.recycle();
+                return QualitySearch.psnr(expected, actual, count);
+            });
+        } finally {
+            if (probe != null) {
+                probe.recycle();
+            }
+        }
+    }
+
+    private Uri insertPending(String fileName, String mimeType) throws IOException {
+        ContentValues values = new ContentValues();
+        values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
+        values.put(MediaStore.Images.Media.MIME_TYPE, mimeType);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            values.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/FilterTestApp");
+            // Hides the entry from other apps until the file is complete.
+            values.put(MediaStore.Images.Media.IS_PENDING, 1);
+        }
+        Uri uri = contentResolver.insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
+        if (uri == null) {
+            throw new IOException("Failed to create new image file");
+        }
+        return uri;
+    }
+
+    private void publish(Uri uri) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            ContentValues values = new ContentValues();
+            values.put(MediaStore.Images.Media.IS_PENDING, 0);
+            contentResolver.update(uri, values, null, null);
+        }
+    }
+}
@@ -1,14 +1,19 @@
 package com.gif.filtertestapp;
 
-import android.content.ContentValues;
+import android.app.AlertDialog;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
-import android.os.Build;
 import android.os.Bundle;
-import android.provider.MediaStore;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.os.Trace;
 import android.util.Log;
+import android.util.LruCache;
 import android.view.View;
+import android.widget.Button;
+import android.widget.SeekBar;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
@@ -17,28 +22,106 @@ import androidx.appcompat.app.AppCompatActivity;
 
 import com.gif.filtertestapp.databinding.ActivityMainBinding;
 import com.google.ai.client.generativeai.GenerativeModel;
-import com.google.ai.client.generativeai.java.GenerativeModelFutures;
-import com.google.ai.client.generativeai.type.Content;
-import com.google.ai.client.generativeai.type.GenerateContentResponse;
-import com.google.ai.client.generativeai.type.ImagePart;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.concurrent.Executor;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 
 public class MainActivity extends AppCompatActivity {
 
     private static final String TAG = "MainActivity";
+    private static final int THUMBNAIL_SIZE_DP = 56;
+    // The picked image is decoded just large enough to cover this in both directions, so blurs
+    // look on the preview as their values say.
+    private static final int IMAGE_MIN_SIZE = FilterType.BLUR_REFERENCE_SIZE;
+    private static final int AI_IMAGE_SIZE = 1024;
+    private static final int AI_IMAGE_QUALITY = 90;
+    // Defaults offered when saving an edited bitmap.
+    private static final int SAVE_QUALITY = 90;
+    private static final long SAVE_TARGET_BYTES = 1L << 20;
+    private static final double SAVE_TARGET_PSNR = 40;
+    private static final long AI_TEXT_TIMEOUT_MILLIS = 30_000;
+    private static final long AI_IMAGE_TIMEOUT_MILLIS = 90_000;
+    // Resolution of the filter parameter slider.
+    private static final int SLIDER_STEPS = 1000;
+    private static final int STATISTICS_CACHE_SIZE = 16;
+    // Colors of the posterize that picks them from the image.
+    private static final int SMART_POSTERIZE_COLORS = 16;
+    // Imported 3D LUTs, compiled, by the URI they were read from.
+    private static final int LUT_CACHE_SIZE = 8;
+    // Memory for history keyframes, a handful of images at the working size.
+    private static final long HISTORY_KEYFRAME_BUDGET_BYTES = 24L << 20;
+    // Longer chains are not previewed on the proxy: recomputing them from the source would take
+    // longer than the history needs from its nearest keyframe.
+    private static final int PROXY_MAX_PASSES = 2;
     private ActivityMainBinding binding;
     private Bitmap originalBitmap;
     private Bitmap filteredBitmap;
+    // Where originalBitmap came from and the chain behind filteredBitmap, for full-size export.
+    private Uri sourceUri;
+    private FilterChain filteredChain;
+    // The filter steps applied to originalBitmap, for undo and redo.
+    private EditHistory history;
+
+    // Filter jobs run on this thread; only the newest request is rendered.
+    private ExecutorService filterExecutor;
+    private FilterScheduler filterScheduler;
+    private ExecutorService exportExecutor;
+    private ImageSaver imageSaver;
+    private FilterResultCache resultCache;
+    // Histograms of recently edited images by source and steps, for the automatic adjustments.
+    private final LruCache<String, ImageStatistics> statisticsCache = new LruCache<>(STATISTICS_CACHE_SIZE);
+    private final LruCache<String, CubeLut> lutCache = new LruCache<>(LUT_CACHE_SIZE);
+    // Reads and writes the small on-disk caches.
+    private ExecutorService ioExecutor;
+    private ColorMatrixCache colorMatrixCache;
+    // Shared by all model calls: a few threads, a short queue, and timeouts.
+    private ListeningExecutorService aiExecutor;
+    private ScheduledExecutorService aiTimeoutScheduler;
+    private ImageEditPipeline imageEditPipeline;
+    private ListenableFuture<ImagePayload> aiPayload;
+    private Bitmap aiPayloadSource;
+    private ListenableFuture<Bitmap> pendingAiEdit;
+    private final BitmapPool bitmapPool = BitmapPool.getDefault();
+    private ImageLoader imageLoader;
+    // What the preview shows, and whether nothing else references it so it can go back to the
+    // pool once replaced (proxy previews and results already evicted from the cache).
+    private Bitmap shownBitmap;
+    private boolean shownIsDisposable;
+    private final Map<FilterType, Button> filterButtons = new EnumMap<>(FilterType.class);
+    private CancellationToken thumbnailToken;
+    // Low-resolution copy of originalBitmap that every filter renders first, at half the size of
+    // the preview view (a quarter of its pixels), or null if the image is already that small.
+    private Bitmap previewProxy;
+    // Counts image picks, so that only the result of the latest one is shown.
+    private int imageGeneration;
+    // When the bitmap now in the preview was set, until the next frame draws it; 0 when drawn.
+    private long displayStartNanos;
+    private long displayPixels;
+    // The filter the slider adjusts, or null while it is hidden.
+    private FilterType adjustedFilter;
+    private boolean sliderTracking;
+    private SliderPreview sliderPreview;
 
     // NEU: Separates Modell für die Bildbearbeitung
     private GenerativeModel generativeModelImage;
@@ -48,18 +131,90 @@ public class MainActivity extends AppCompatActivity {
     private final ActivityResultLauncher<String> pickImageLauncher =
             registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
                 if (uri != null) {
-                    try {
-                        originalBitmap = loadBitmapFromUri(uri);
-                        binding.imageViewPreview.setImageBitmap(originalBitmap);
-                        filteredBitmap = null;
-                        binding.btnSave.setEnabled(false);
-                    } catch (FileNotFoundException e) {
-                        Log.e(TAG, "File not found", e);
-                        Toast.makeText(this, "Image not found.", Toast.LENGTH_SHORT).show();
-                    }
+                    loadImage(uri);
+                }
+            });
+
+    private final ActivityResultLauncher<String> batchLauncher =
+            registerForActivityResult(new ActivityResultContracts.GetMultipleContents(), uris -> {
+                if (uris != null && !uris.isEmpty()) {
+                    runBatch(uris);
                 }
             });
 
+    private final ActivityResultLauncher<String> importLutLauncher =
+            registerForActivityResult(new ActivityResultContracts.GetContent(), uri -> {
+                if (uri != null) {
+                    applyLut(uri);
+                }
+            });
+
+    /**
+     * Decodes {@code uri}, copies its pixels for the edit history and scales the preview proxy on
+     * the I/O thread, then shows them together on the UI thread. A newer pick supersedes a load
+     * still in progress.
+     */
+    private void loadImage(Uri uri) {
+        showLoading(true);
+        int generation = ++imageGeneration;
+        int proxyWidth = binding.imageViewPreview.getWidth() / 2;
+        int proxyHeight = binding.imageViewPreview.getHeight() / 2;
+        ioExecutor.execute(() -> {
+            try {
+                Bitmap bitmap = imageLoader.load(uri, IMAGE_MIN_SIZE, IMAGE_MIN_SIZE, true);
+                PixelBuffer pixels = FilterUtils.readPixels(bitmap, new PixelBuffer(1, 1));
+                Bitmap proxy = FilterUtils.createProxyBitmap(bitmap, proxyWidth, proxyHeight);
+                runOnUiThread(() -> showLoadedImage(generation, uri, bitmap, pixels, proxy));
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Failed to decode image", e);
+                runOnUiThread(() -> {
+                    if (generation != imageGeneration) return;
+                    showLoading(false);
+                    Toast.makeText(this, e instanceof FileNotFoundException ? "Image not found."
+                            : "Image could not be loaded.", Toast.LENGTH_SHORT).show();
+                });
+            }
+        });
+    }
+
+    private void showLoadedImage(int generation, Uri uri, Bitmap bitmap, PixelBuffer pixels, Bitmap proxy) {
+        if (generation != imageGeneration || isDestroyed()) {
+            bitmapPool.release(bitmap);
+            bitmapPool.release(proxy);
+            return;
+        }
+        Bitmap previousOriginal = originalBitmap;
+        Bitmap previousProxy = previewProxy;
+        ListenableFuture<ImagePayload> previousPayload = aiPayload;
+        originalBitmap = bitmap;
+        sourceUri = uri;
+        previewProxy = proxy;
+        aiPayloadSource = null;
+        aiPayload = null;
+        filterScheduler.cancelAll();
+        hideSlider();
+        // The slider holds pixels and bitmaps of the old image.
+        sliderPreview.release();
+        history = new EditHistory(pixels, HISTORY_KEYFRAME_BUDGET_BYTES);
+        filteredBitmap = null;
+        filteredChain = null;
+        showLoading(false);
+        binding.btnSave.setEnabled(false);
+        showBitmap(originalBitmap, false);
+        renderThumbnails();
+        // Jobs still running on the old image finish before this runs, and so does the AI
+        // payload, which may still be compressing it.
+        Runnable release = () -> {
+            bitmapPool.release(previousOriginal);
+            bitmapPool.release(previousProxy);
+        };
+        if (previousPayload != null) {
+            previousPayload.addListener(release, filterExecutor);
+        } else {
+            filterExecutor.execute(release);
+        }
+    }
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -78,33 +233,201 @@ public class MainActivity extends AppCompatActivity {
                 BuildConfig.GEMINI_API_KEY
         );
 
+        imageLoader = new ImageLoader(getContentResolver(), bitmapPool);
+        ioExecutor = Executors.newSingleThreadExecutor();
+        aiExecutor = ImageEditPipeline.newBoundedExecutor(2, 8);
+        aiTimeoutScheduler = Executors.newSingleThreadScheduledExecutor();
+        colorMatrixCache = new ColorMatrixCache(
+                new GeminiColorMatrixModel(generativeModelText, aiTimeoutScheduler, AI_TEXT_TIMEOUT_MILLIS),
+                new File(getCacheDir(), "color_matrices.txt"), 100, ioExecutor);
+        imageEditPipeline = new ImageEditPipeline(new GeminiImageEditModel(generativeModelImage, aiExecutor),
+                new File(getCacheDir(), "ai_edits"), 64L << 20, aiExecutor, aiTimeoutScheduler,
+                AI_IMAGE_TIMEOUT_MILLIS);
+
+        filterExecutor = Executors.newSingleThreadExecutor();
+        filterScheduler = new FilterScheduler(filterExecutor, this::runOnUiThread);
+        sliderPreview = new SliderPreview(filterExecutor, this::runOnUiThread, bitmapPool,
+                preview -> showBitmap(preview, false));
+        exportExecutor = Executors.newSingleThreadExecutor();
+        imageSaver = new ImageSaver(getContentResolver(), exportExecutor, this::runOnUiThread);
+        resultCache = FilterResultCache.forAvailableMemory();
+        resultCache.setEvictionListener(bitmap -> {
+            if (bitmap == shownBitmap) {
+                shownIsDisposable = true;
+            } else {
+                bitmapPool.release(bitmap);
+            }
+        });
+
+        installPerfHooks();
+        binding.imageViewPreview.getViewTreeObserver().addOnDrawListener(() -> {
+            if (displayStartNanos != 0) {
+                // Until the frame is recorded; the texture upload itself shows up in system traces.
+                PerfStats.getDefault().record("display", SystemClock.elapsedRealtimeNanos() - displayStartNanos,
+                        displayPixels);
+                displayStartNanos = 0;
+            }
+        });
+
         setupButtonListeners();
     }
 
+    /**
+     * Sends {@link PerfStats} spans to {@link Trace} and measures allocations with the runtime's
+     * process-wide counter.
+     */
+    private static void installPerfHooks() {
+        PerfStats stats = PerfStats.getDefault();
+        stats.setTracer(new PerfStats.Tracer() {
+            @Override
+            public void beginSection(String name) {
+                Trace.beginSection(name);
+            }
+
+            @Override
+            public void endSection() {
+                Trace.endSection();
+            }
+        });
+        stats.setAllocationCounter(() -> {
+            String bytes = Debug.getRuntimeStat("art.gc.bytes-allocated");
+            return bytes != null ? Long.parseLong(bytes) : 0;
+        });
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        dumpPerfStats();
+    }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        filterScheduler.cancelAll();
+        sliderPreview.release();
+        filterExecutor.shutdown();
+        exportExecutor.shutdown();
+        ioExecutor.shutdown();
+        if (pendingAiEdit != null) {
+            pendingAiEdit.cancel(true);
+        }
+        aiExecutor.shutdown();
+        aiTimeoutScheduler.shutdownNow();
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        resultCache.trimMemory(level);
+        bitmapPool.trimMemory(level);
+    }
+
     private void setupButtonListeners() {
         binding.btnSelectImage.setOnClickListener(v -> pickImageLauncher.launch("image/*"));
 
         binding.btnRemoveFilter.setOnClickListener(v -> {
             if (originalBitmap != null) {
-                binding.imageViewPreview.setImageBitmap(originalBitmap);
-                filteredBitmap = null;
-                binding.btnSave.setEnabled(false);
+                // Undoable, like any other step.
+                hideSlider();
+                history.jumpTo(0);
+                renderHistory(true);
+            }
+        });
+
+        binding.btnUndo.setOnClickListener(v -> {
+            if (history != null && history.canUndo()) {
+                hideSlider();
+                history.undo();
+                renderHistory(true);
+            }
+        });
+
+        binding.btnRedo.setOnClickListener(v -> {
+            if (history != null && history.canRedo()) {
+                hideSlider();
+                history.redo();
+                renderHistory(true);
             }
         });
 
         // Filter listeners
-        binding.btnGrayscale.setOnClickListener(v -> applyFilter(FilterType.GRAYSCALE));
-        binding.btnSepia.setOnClickListener(v -> applyFilter(FilterType.SEPIA));
-        binding.btnInvert.setOnClickListener(v -> applyFilter(FilterType.INVERT));
-        binding.btnVintage.setOnClickListener(v -> applyFilter(FilterType.VINTAGE));
-        binding.btnBrightness.setOnClickListener(v -> applyFilter(FilterType.BRIGHTNESS));
-        binding.btnContrast.setOnClickListener(v -> applyFilter(FilterType.CONTRAST));
-        binding.btnWinter.setOnClickListener(v -> applyFilter(FilterType.WINTER));
-        binding.btnSolarize.setOnClickListener(v -> applyFilter(FilterType.SOLARIZE));
-        binding.btnPosterize.setOnClickListener(v -> applyFilter(FilterType.POSTERIZE));
-        binding.btnVignette.setOnClickListener(v -> applyFilter(FilterType.VIGNETTE));
-        binding.btnHeatmap.setOnClickListener(v -> applyFilter(FilterType.HEATMAP));
-        binding.btnSharpen.setOnClickListener(v -> applyFilter(FilterType.SHARPEN));
+        filterButtons.put(FilterType.GRAYSCALE, binding.btnGrayscale);
+        filterButtons.put(FilterType.SEPIA, binding.btnSepia);
+        filterButtons.put(FilterType.INVERT, binding.btnInvert);
+        filterButtons.put(FilterType.VINTAGE, binding.btnVintage);
+        filterButtons.put(FilterType.BRIGHTNESS, binding.btnBrightness);
+        filterButtons.put(FilterType.CONTRAST, binding.btnContrast);
+        filterButtons.put(FilterType.WINTER, binding.btnWinter);
+        filterButtons.put(FilterType.SOLARIZE, binding.btnSolarize);
+        filterButtons.put(FilterType.POSTERIZE, binding.btnPosterize);
+        filterButtons.put(FilterType.VIGNETTE, binding.btnVignette);
+        filterButtons.put(FilterType.HEATMAP, binding.btnHeatmap);
+        filterButtons.put(FilterType.SHARPEN, binding.btnSharpen);
+        filterButtons.put(FilterType.EDGE_DETECT, binding.btnEdgeDetect);
+        filterButtons.put(FilterType.EMBOSS, binding.btnEmboss);
+        filterButtons.put(FilterType.UNSHARP_MASK, binding.btnUnsharpMask);
+        filterButtons.put(FilterType.BLUR, binding.btnBlur);
+        filterButtons.put(FilterType.BACKGROUND_BLUR, binding.btnBackgroundBlur);
+        for (Map.Entry<FilterType, Button> entry : filterButtons.entrySet()) {
+            FilterType filterType = entry.getKey();
+            entry.getValue().setOnClickListener(v -> applyFilter(filterType));
+        }
+
+        binding.btnSmartPosterize.setOnClickListener(v -> applySmartPosterize());
+        binding.btnBatch.setOnClickListener(v -> {
+            if (history == null) {
+                Toast.makeText(this, "Please select an image first.", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            batchLauncher.launch("image/*");
+        });
+
+        binding.btnImportLut.setOnClickListener(v -> {
+            if (originalBitmap == null) {
+                Toast.makeText(this, "Please select an image first.", Toast.LENGTH_SHORT).show();
+                return;
+            }
+            importLutLauncher.launch("*/*");
+        });
+        binding.btnAutoLevels.setOnClickListener(v -> applyAutoAdjustment(AutoAdjustment.LEVELS));
+        binding.btnAutoContrast.setOnClickListener(v -> applyAutoAdjustment(AutoAdjustment.CONTRAST));
+        binding.btnWhiteBalance.setOnClickListener(v -> applyAutoAdjustment(AutoAdjustment.WHITE_BALANCE));
+
+        binding.seekBarFilterValue.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+            @Override
+            public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                if (!fromUser || adjustedFilter == null || originalBitmap == null) return;
+                FilterChain step = FilterChain.of(adjustedFilter, sliderValue(adjustedFilter, progress));
+                if (sliderTracking) {
+                    // The adjusted step is the current one; the steps before it are recomputed
+                    // along with it, still in one pass while they are all point filters.
+                    FilterChain chain = new FilterChain.Builder()
+                            .addChain(history.getChain(history.getPosition() - 1)).addChain(step).build();
+                    sliderPreview.update(chain, originalBitmap, previewProxy);
+                } else {
+                    // Keyboard and accessibility changes come without a drag.
+                    history.replaceCurrent(step);
+                    renderHistory(true);
+                }
+            }
+
+            @Override
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                sliderTracking = true;
+                filterScheduler.cancelAll();
+            }
+
+            @Override
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                sliderTracking = false;
+                sliderPreview.cancel();
+                if (adjustedFilter == null || originalBitmap == null) return;
+                history.replaceCurrent(FilterChain.of(adjustedFilter, sliderValue(adjustedFilter, seekBar.getProgress())));
+                // Point filters were already previewed at full size.
+                renderHistory(history.getChain().getHaloSize() > 0);
+            }
+        });
 
 
         binding.btnApplyCustomFilter.setOnClickListener(v -> {
@@ -132,7 +455,9 @@ public class MainActivity extends AppCompatActivity {
 
 
         binding.btnSave.setOnClickListener(v -> {
-            if (filteredBitmap != null) {
+            if (filteredChain != null && sourceUri != null) {
+                exportToGallery(sourceUri, filteredChain);
+            } else if (filteredBitmap != null) {
                 saveImageToGallery(filteredBitmap);
             } else {
                 Toast.makeText(this, "Apply a filter before saving.", Toast.LENGTH_SHORT).show();
@@ -140,11 +465,6 @@ public class MainActivity extends AppCompatActivity {
         });
     }
 
-    private enum FilterType {
-        GRAYSCALE, SEPIA, INVERT, VINTAGE, BRIGHTNESS, CONTRAST, WINTER,
-        SOLARIZE, POSTERIZE, VIGNETTE, HEATMAP, SHARPEN
-    }
-
     private void showLoading(boolean isLoading) {
         binding.progressBar.setVisibility(isLoading ? View.VISIBLE : View.GONE);
 
@@ -155,6 +475,7 @@ public class MainActivity extends AppCompatActivity {
         // NEU: Auch die neuen UI-Elemente de-/aktivieren
         binding.etAiPhotoshop.setEnabled(!isLoading);
         binding.btnApplyAiPhotoshop.setEnabled(!isLoading);
+        binding.seekBarFilterValue.setEnabled(!isLoading);
 
 
         // Deaktiviere alle Buttons in der ScrollView
@@ -165,6 +486,7 @@ public class MainActivity extends AppCompatActivity {
 
         if (!isLoading) {
             binding.btnSave.setEnabled(filteredBitmap != null);
+            updateHistoryButtons();
         } else {
             binding.btnSave.setEnabled(false);
         }
@@ -177,195 +499,494 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        switch (filterType) {
-            case GRAYSCALE:
-                filteredBitmap = FilterUtils.applyGrayscale(originalBitmap);
-                break;
-            case SEPIA:
-                filteredBitmap = FilterUtils.applySepia(originalBitmap);
-                break;
-            case INVERT:
-                filteredBitmap = FilterUtils.applyInvert(originalBitmap);
-                break;
-            case VINTAGE:
-                filteredBitmap = FilterUtils.applyVintage(originalBitmap);
-                break;
-            case BRIGHTNESS:
-                filteredBitmap = FilterUtils.applyBrightness(originalBitmap);
-                break;
-            case CONTRAST:
-                filteredBitmap = FilterUtils.applyContrast(originalBitmap);
-                break;
-            case WINTER:
-                filteredBitmap = FilterUtils.applyWinter(originalBitmap);
-                break;
-            case SOLARIZE:
-                filteredBitmap = FilterUtils.applySolarize(originalBitmap);
-                break;
-            case POSTERIZE:
-                filteredBitmap = FilterUtils.applyPosterize(originalBitmap);
-                break;
-            case VIGNETTE:
-                filteredBitmap = FilterUtils.applyVignette(originalBitmap);
-                break;
-            case HEATMAP:
-                filteredBitmap = FilterUtils.applyHeatmap(originalBitmap);
-                break;
-            case SHARPEN:
-                filteredBitmap = FilterUtils.applySharpen(originalBitmap);
-                break;
+        if (filterType.isAdjustable()) {
+            adjustedFilter = filterType;
+            float range = filterType.getMaxValue() - filterType.getMinValue();
+            binding.seekBarFilterValue.setProgress(
+                    Math.round((filterType.getDefaultValue() - filterType.getMinValue()) / range * SLIDER_STEPS));
+            binding.seekBarFilterValue.setVisibility(View.VISIBLE);
+        } else {
+            hideSlider();
         }
+        pushStep(FilterChain.of(filterType));
+    }
 
-        binding.imageViewPreview.setImageBitmap(filteredBitmap);
-        binding.btnSave.setEnabled(true);
+    /**
+     * Applies {@code step} on top of the current image as a new history step.
+     */
+    private void pushStep(FilterChain step) {
+        history.push(step);
+        renderHistory(true);
     }
 
-    private void applyCustomFilter(String text) {
+    private void updateHistoryButtons() {
+        binding.btnUndo.setEnabled(history != null && history.canUndo());
+        binding.btnRedo.setEnabled(history != null && history.canRedo());
+    }
+
+    /**
+     * Applies a correction derived from the histograms of the current image. The histograms are
+     * computed on the filter thread once per image and set of steps, and shared by all automatic
+     * adjustments.
+     */
+    private void applyAutoAdjustment(AutoAdjustment adjustment) {
         if (originalBitmap == null) {
-            Toast.makeText(this, "Bitte wähle zuerst ein Bild aus.", Toast.LENGTH_SHORT).show();
+            Toast.makeText(this, "Please select an image first.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        hideSlider();
+        EditHistory edits = history;
+        int position = edits.getPosition();
+        String statisticsKey = sourceUri + "\n" + edits.getChain().getKey();
+        ImageStatistics statistics = statisticsCache.get(statisticsKey);
+        if (statistics != null) {
+            pushStep(adjustment.addTo(new FilterChain.Builder(), statistics).build());
             return;
         }
+        filterScheduler.submit(token -> FilterUtils.computeStatistics(edits, position, token),
+                new FilterScheduler.Callback<ImageStatistics>() {
+                    @Override
+                    public void onResult(ImageStatistics result) {
+                        statisticsCache.put(statisticsKey, result);
+                        if (history == edits && edits.getPosition() == position) {
+                            pushStep(adjustment.addTo(new FilterChain.Builder(), result).build());
+                        }
+                    }
 
-        showLoading(true);
+                    @Override
+                    public void onError(Throwable error) {
+                        Log.e(TAG, "Error computing image statistics", error);
+                        Toast.makeText(MainActivity.this, "Failed to apply filter.", Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
 
-        String prompt = "Erstelle eine ColorMatrix für einen Android-Bildfilter basierend auf dieser Beschreibung: '" + text + "'. Gib nur die 20 Float-Werte der Matrix als kommagetrennten String zurück, ohne weiteren Text oder Markdown-Formatierung. Beispiel: 1,0,0,0,0,0,1,0,0,0,0,0,1,0,0,0,0,0,1,0";
+    /**
+     * Posterizes to a palette picked from the current image on the filter thread, dithered so
+     * that gradients do not band. The palette becomes part of the step, so undo, redo and export
+     * replay it without looking at the image again.
+     */
+    private void applySmartPosterize() {
+        if (originalBitmap == null) {
+            Toast.makeText(this, "Please select an image first.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        hideSlider();
+        EditHistory edits = history;
+        int position = edits.getPosition();
+        filterScheduler.submit(token -> FilterUtils.computePalette(edits, position, SMART_POSTERIZE_COLORS, token),
+                new FilterScheduler.Callback<ColorPalette>() {
+                    @Override
+                    public void onResult(ColorPalette result) {
+                        if (history == edits && edits.getPosition() == position) {
+                            pushStep(new FilterChain.Builder()
+                                    .addDither(result, DitherKernel.FLOYD_STEINBERG)
+                                    .build());
+                        }
+                    }
 
-        GenerativeModelFutures modelFutures = GenerativeModelFutures.from(generativeModelText);
-        Content content = new Content.Builder().addText(prompt).build();
-        Executor executor = Executors.newSingleThreadExecutor();
+                    @Override
+                    public void onError(Throwable error) {
+                        Log.e(TAG, "Error computing palette", error);
+                        Toast.makeText(MainActivity.this, "Failed to apply filter.", Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
 
-        ListenableFuture<GenerateContentResponse> response = modelFutures.generateContent(content);
-        Futures.addCallback(response, new FutureCallback<GenerateContentResponse>() {
+    /**
+     * Adds the {@code .cube} LUT at {@code uri} as a step. The file is read and compiled on the
+     * I/O thread the first time and kept in {@link #lutCache} afterwards.
+     */
+    private void applyLut(Uri uri) {
+        hideSlider();
+        String key = uri.toString();
+        CubeLut cached = lutCache.get(key);
+        if (cached != null) {
+            pushStep(new FilterChain.Builder().addLut(cached).build());
+            return;
+        }
+        EditHistory edits = history;
+        ioExecutor.execute(() -> {
+            CubeLut lut;
+            try (InputStream in = getContentResolver().openInputStream(uri)) {
+                if (in == null) throw new FileNotFoundException(key);
+                lut = CubeLut.parse(new InputStreamReader(in, StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to read LUT " + uri, e);
+                runOnUiThread(() -> Toast.makeText(this, "Not a valid .cube LUT.", Toast.LENGTH_SHORT).show());
+                return;
+            }
+            runOnUiThread(() -> {
+                lutCache.put(key, lut);
+                if (history == edits) {
+                    pushStep(new FilterChain.Builder().addLut(lut).build());
+                }
+            });
+        });
+    }
+
+    private void hideSlider() {
+        adjustedFilter = null;
+        sliderPreview.cancel();
+        binding.seekBarFilterValue.setVisibility(View.GONE);
+    }
+
+    /**
+     * Maps a slider position to the parameter range of {@code type}.
+     */
+    private static float sliderValue(FilterType type, int progress) {
+        float value = type.getMinValue() + (type.getMaxValue() - type.getMinValue()) * progress / SLIDER_STEPS;
+        return Math.max(type.getMinValue(), Math.min(type.getMaxValue(), value));
+    }
+
+    /**
+     * Renders the current step of the history on the filter thread and shows the result, unless
+     * another edit was made in the meantime. The image is recomputed from the nearest keyframe of
+     * the history. With {@code showProxy} short chains first run on a small proxy so that
+     * something appears right away; the full-resolution result replaces it when ready.
+     */
+    private void renderHistory(boolean showProxy) {
+        updateHistoryButtons();
+        EditHistory edits = history;
+        int position = edits.getPosition();
+        FilterChain chain = edits.getChain();
+        if (position == 0) {
+            filterScheduler.cancelAll();
+            showBitmap(originalBitmap, false);
+            filteredBitmap = null;
+            filteredChain = null;
+            binding.btnSave.setEnabled(false);
+            return;
+        }
+        String sourceId = sourceUri.toString();
+        Bitmap cached = resultCache.get(sourceId, chain);
+        if (cached != null) {
+            filterScheduler.cancelAll();
+            showFilterResult(cached, chain);
+            return;
+        }
+        Bitmap.Config config = originalBitmap.getConfig() != null ? originalBitmap.getConfig() : Bitmap.Config.ARGB_8888;
+        Bitmap proxy = showProxy && chain.getPassCount() <= PROXY_MAX_PASSES ? previewProxy : null;
+        filterScheduler.submit((token, preview) -> {
+            if (proxy != null) {
+                preview.accept(FilterUtils.applyFilterChain(proxy, chain, token));
+            }
+            return FilterUtils.renderHistory(edits, position, config, token);
+        }, new FilterScheduler.Callback<Bitmap>() {
             @Override
-            public void onSuccess(GenerateContentResponse result) {
-                String colorMatrixString = result.getText();
-                runOnUiThread(() -> {
-                    filteredBitmap = FilterUtils.applyCustomFilter(originalBitmap, colorMatrixString);
-                    binding.imageViewPreview.setImageBitmap(filteredBitmap);
-                    binding.btnSave.setEnabled(true);
-                    showLoading(false);
-                });
+            public void onPreview(Bitmap preview) {
+                showBitmap(preview, true);
+            }
+
+            @Override
+            public void onResult(Bitmap result) {
+                // Shown first, so that a result too large for the cache is marked disposable.
+                showFilterResult(result, chain);
+                resultCache.put(sourceId, chain, result);
+                logMemoryStats();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                Log.e(TAG, "Error applying filter", error);
+                Toast.makeText(MainActivity.this, "Failed to apply filter.", Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    private void showFilterResult(Bitmap result, FilterChain chain) {
+        filteredBitmap = result;
+        filteredChain = chain;
+        showBitmap(filteredBitmap, false);
+        binding.btnSave.setEnabled(true);
+    }
+
+    /**
+     * Puts {@code bitmap} into the preview and returns the previously shown bitmap to the pool if
+     * nothing else references it.
+     */
+    private void showBitmap(Bitmap bitmap, boolean disposable) {
+        Bitmap previous = shownBitmap;
+        boolean releasePrevious = shownIsDisposable && previous != bitmap;
+        shownBitmap = bitmap;
+        shownIsDisposable = disposable;
+        displayStartNanos = SystemClock.elapsedRealtimeNanos();
+        displayPixels = (long) bitmap.getWidth() * bitmap.getHeight();
+        binding.imageViewPreview.setImageBitmap(bitmap);
+        if (releasePrevious) {
+            bitmapPool.release(previous);
+        }
+    }
+
+    /**
+     * Logs the pipeline timings and writes them to {@code perf_stats.json} in the files
+     * directory, where a bug report or {@code adb shell run-as} can pick them up.
+     */
+    private void dumpPerfStats() {
+        String json = PerfStats.getDefault().snapshot().toJson();
+        Log.d(TAG, json);
+        File file = new File(getFilesDir(), "perf_stats.json");
+        ioExecutor.execute(() -> {
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(json.getBytes(StandardCharsets.UTF_8));
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write " + file, e);
+            }
+        });
+    }
+
+    private void logMemoryStats() {
+        Log.d(TAG, bitmapPool.getStats()
+                + " gcCount=" + Debug.getRuntimeStat("art.gc.gc-count")
+                + " gcBytesAllocated=" + Debug.getRuntimeStat("art.gc.bytes-allocated"));
+    }
+
+    /**
+     * Renders a thumbnail of every filter for the current image in one parallel batch and puts
+     * them on the filter buttons. Runs on the filter thread, ahead of any filter tapped later.
+     */
+    private void renderThumbnails() {
+        if (thumbnailToken != null) {
+            thumbnailToken.cancel();
+        }
+        CancellationToken token = new CancellationToken();
+        thumbnailToken = token;
+        Bitmap source = originalBitmap;
+        int size = Math.round(THUMBNAIL_SIZE_DP * getResources().getDisplayMetrics().density);
+        filterExecutor.execute(() -> {
+            Bitmap thumbnail = FilterUtils.createProxyBitmap(source, size, size);
+            PixelBuffer pixels = FilterUtils.readPixels(thumbnail != null ? thumbnail : source, new PixelBuffer(1, 1));
+            FilterType[] types = filterButtons.keySet().toArray(new FilterType[0]);
+            List<FilterChain> chains = new ArrayList<>();
+            for (FilterType type : types) {
+                chains.add(FilterChain.of(type));
+            }
+            PixelBuffer[] results;
+            try {
+                results = FilterThumbnails.render(pixels, chains, TileExecutor.getDefault(), token);
+            } catch (CancellationException e) {
+                return;
+            }
+            Bitmap[] bitmaps = new Bitmap[results.length];
+            for (int i = 0; i < results.length; i++) {
+                bitmaps[i] = Bitmap.createBitmap(results[i].getPixels(), results[i].getWidth(),
+                        results[i].getHeight(), Bitmap.Config.ARGB_8888);
+            }
+            runOnUiThread(() -> {
+                if (token.isCancelled()) return;
+                for (int i = 0; i < types.length; i++) {
+                    filterButtons.get(types[i]).setCompoundDrawablesRelativeWithIntrinsicBounds(
+                            null, new BitmapDrawable(getResources(), bitmaps[i]), null, null);
+                }
+            });
+        });
+    }
+
+    private void applyCustomFilter(String text) {
+        if (originalBitmap == null) {
+            Toast.makeText(this, "Bitte wähle zuerst ein Bild aus.", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        ListenableFuture<float[]> colorMatrix = colorMatrixCache.get(text);
+        if (!colorMatrix.isDone()) {
+            showLoading(true);
+        }
+        Futures.addCallback(colorMatrix, new FutureCallback<float[]>() {
+            @Override
+            public void onSuccess(float[] result) {
+                showLoading(false);
+                hideSlider();
+                pushStep(new FilterChain.Builder().addColorMatrix(result).build());
             }
 
             @Override
             public void onFailure(Throwable t) {
                 Log.e(TAG, "Fehler bei der Filtererstellung", t);
-                runOnUiThread(() -> {
-                    Toast.makeText(MainActivity.this, "Filter konnte nicht erstellt werden.", Toast.LENGTH_SHORT).show();
-                    showLoading(false);
-                });
+                Toast.makeText(MainActivity.this, "Filter konnte nicht erstellt werden.", Toast.LENGTH_SHORT).show();
+                showLoading(false);
             }
-        }, executor);
+        }, this::runOnUiThread);
     }
 
     // NEU: Methode für das "AI Photoshop" Feature
     private void applyAiPhotoshop(String promptText, Bitmap image) {
         showLoading(true);
 
-        GenerativeModelFutures modelFutures = GenerativeModelFutures.from(generativeModelImage);
+        ListenableFuture<byte[]> edited = Futures.transformAsync(getAiPayload(image),
+                payload -> imageEditPipeline.edit(payload, promptText), aiExecutor);
+        ListenableFuture<Bitmap> response = Futures.transform(edited,
+                data -> BitmapFactory.decodeByteArray(data, 0, data.length), aiExecutor);
+        pendingAiEdit = response;
 
-        // Erstelle den Content, der sowohl Text als auch das Bild enthält
-        Content content = new Content.Builder()
-                .addText(promptText)
-                .addImage(image)
-                .build();
-
-        Executor executor = Executors.newSingleThreadExecutor();
-        ListenableFuture<GenerateContentResponse> response = modelFutures.generateContent(content);
-
-        Futures.addCallback(response, new FutureCallback<GenerateContentResponse>() {
+        Futures.addCallback(response, new FutureCallback<Bitmap>() {
             @Override
-            public void onSuccess(GenerateContentResponse result) {
-                // Das Ergebnis-Bild aus der Antwort extrahieren
-                filteredBitmap = result.getCandidates().get(0).getContent().getParts().stream()
-                        .filter(part -> part instanceof ImagePart)
-                        .map(part -> ((ImagePart) part).getImage())
-                        .findFirst()
-                        .orElse(null);
-
-                runOnUiThread(() -> {
-                    if (filteredBitmap != null) {
-                        binding.imageViewPreview.setImageBitmap(filteredBitmap);
-                        binding.btnSave.setEnabled(true);
-                    } else {
-                        Toast.makeText(MainActivity.this, "Bild konnte nicht bearbeitet werden.", Toast.LENGTH_SHORT).show();
-                    }
-                    showLoading(false);
-                });
+            public void onSuccess(Bitmap result) {
+                filterScheduler.cancelAll();
+                hideSlider();
+                if (result != null) {
+                    filteredBitmap = result;
+                    filteredChain = null;
+                    showBitmap(filteredBitmap, false);
+                    binding.btnSave.setEnabled(true);
+                } else {
+                    Toast.makeText(MainActivity.this, "Bild konnte nicht bearbeitet werden.", Toast.LENGTH_SHORT).show();
+                }
+                showLoading(false);
             }
 
             @Override
             public void onFailure(Throwable t) {
+                if (response.isCancelled()) return;
                 Log.e(TAG, "Fehler bei der Bildbearbeitung", t);
-                runOnUiThread(() -> {
-                    Toast.makeText(MainActivity.this, "Bildbearbeitung fehlgeschlagen.", Toast.LENGTH_SHORT).show();
-                    showLoading(false);
-                });
+                Toast.makeText(MainActivity.this, "Bildbearbeitung fehlgeschlagen.", Toast.LENGTH_SHORT).show();
+                showLoading(false);
             }
-        }, executor);
+        }, this::runOnUiThread);
     }
 
-
-    private Bitmap loadBitmapFromUri(Uri uri) throws FileNotFoundException {
-        InputStream inputStream = getContentResolver().openInputStream(uri);
-        BitmapFactory.Options options = new BitmapFactory.Options();
-        options.inJustDecodeBounds = true;
-        BitmapFactory.decodeStream(inputStream, null, options);
-        try {
-            if (inputStream != null) inputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Returns the image as sent to the image model: downscaled and JPEG-encoded once per source
+     * image, on the AI executor.
+     */
+    private ListenableFuture<ImagePayload> getAiPayload(Bitmap image) {
+        if (aiPayloadSource != image) {
+            aiPayloadSource = image;
+            aiPayload = aiExecutor.submit(() -> {
+                Bitmap scaled = FilterUtils.createProxyBitmap(image, AI_IMAGE_SIZE, AI_IMAGE_SIZE);
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                (scaled != null ? scaled : image).compress(Bitmap.CompressFormat.JPEG, AI_IMAGE_QUALITY, out);
+                return new ImagePayload(out.toByteArray(), "image/jpeg");
+            });
         }
+        return aiPayload;
+    }
 
-        options.inSampleSize = calculateInSampleSize(options, 800, 800);
 
-        options.inJustDecodeBounds = false;
-        inputStream = getContentResolver().openInputStream(uri);
-        Bitmap bitmap = BitmapFactory.decodeStream(inputStream, null, options);
-        try {
-            if (inputStream != null) inputStream.close();
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Re-decodes {@code source} at its original resolution, applies {@code chain} strip by strip
+     * and saves the result as PNG, off the UI thread. GIFs are saved as GIFs with every frame
+     * filtered.
+     */
+    private void exportToGallery(Uri source, FilterChain chain) {
+        showLoading(true);
+        if ("image/gif".equals(getContentResolver().getType(source))) {
+            AnimatedGifProcessor processor = new AnimatedGifProcessor.Builder(chain)
+                    .setDither(DitherKernel.FLOYD_STEINBERG)
+                    .build();
+            imageSaver.save("FilteredImage_" + System.currentTimeMillis() + ".gif", "image/gif", out -> {
+                try (InputStream in = getContentResolver().openInputStream(source)) {
+                    if (in == null) {
+                        throw new FileNotFoundException("Cannot open " + source);
+                    }
+                    processor.run(in, out, null);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Export interrupted");
+                }
+            }, saveCallback);
+            return;
         }
-        return bitmap;
+        TiledExporter exporter = new TiledExporter(getContentResolver());
+        imageSaver.save("FilteredImage_" + System.currentTimeMillis() + ".png", "image/png",
+                out -> exporter.export(source, chain, out, null), saveCallback);
     }
 
-    private static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-        final int height = options.outHeight;
-        final int width = options.outWidth;
-        int inSampleSize = 1;
-
-        if (height > reqHeight || width > reqWidth) {
-            final int halfHeight = height / 2;
-            final int halfWidth = width / 2;
-            while ((halfHeight / inSampleSize) >= reqHeight && (halfWidth / inSampleSize) >= reqWidth) {
-                inSampleSize *= 2;
+    /**
+     * Applies the current steps to {@code sources} at full resolution and saves each result to
+     * the gallery, on the export thread. Finished images are journalled per set of steps, so a
+     * batch cut short by the process being killed resumes where it stopped; the journal is
+     * deleted once a batch completes.
+     */
+    private void runBatch(List<Uri> sources) {
+        FilterChain chain = history.getChain();
+        File journal = new File(getCacheDir(),
+                "batch_" + ImagePayload.sha256(chain.getKey().getBytes(StandardCharsets.UTF_8)) + ".txt");
+        UriBatchCodec codec = new UriBatchCodec(imageLoader, imageSaver, bitmapPool);
+        // One full-size image per stage at a time, each split into bands instead.
+        BatchProcessor<Uri> processor = new BatchProcessor.Builder<>(codec, codec, chain)
+                .setJournal(journal)
+                .setThreads(1, 1, 1)
+                .setQueueCapacity(1)
+                .setTileExecutor(TileExecutor.getDefault())
+                .setListener(new BatchProcessor.Listener<Uri>() {
+                    @Override
+                    public void onFailed(Uri source, Throwable error) {
+                        Log.e(TAG, "Batch failed for " + source, error);
+                    }
+                })
+                .build();
+        showLoading(true);
+        exportExecutor.execute(() -> {
+            String message;
+            try {
+                BatchProcessor.Progress progress = processor.run(sources, null);
+                if (progress.isFinished() && !journal.delete()) {
+                    Log.w(TAG, "Could not delete " + journal);
+                }
+                message = "Saved " + (progress.completed + progress.skipped) + " of " + progress.total
+                        + " images" + (progress.failed > 0 ? ", " + progress.failed + " failed." : ".");
+            } catch (IOException | RuntimeException e) {
+                Log.e(TAG, "Batch failed", e);
+                message = "Batch failed.";
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             }
-        }
-        return inSampleSize;
+            String result = message;
+            runOnUiThread(() -> {
+                showLoading(false);
+                Toast.makeText(this, result, Toast.LENGTH_LONG).show();
+            });
+        });
     }
 
+    /**
+     * Asks for a format, and for lossy ones a fixed quality or a size or PSNR target, and saves
+     * {@code bitmap} with it.
+     */
     private void saveImageToGallery(Bitmap bitmap) {
-        String fileName = "FilteredImage_" + System.currentTimeMillis() + ".jpg";
-        ContentValues values = new ContentValues();
-        values.put(MediaStore.Images.Media.DISPLAY_NAME, fileName);
-        values.put(MediaStore.Images.Media.MIME_TYPE, "image/jpeg");
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            values.put(MediaStore.Images.Media.RELATIVE_PATH, "Pictures/FilterTestApp");
-        }
-        Uri uri = getContentResolver().insert(MediaStore.Images.Media.EXTERNAL_CONTENT_URI, values);
-        if (uri != null) {
-            try (OutputStream outputStream = getContentResolver().openOutputStream(uri)) {
-                if (outputStream != null) {
-                    bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream);
-                    Toast.makeText(this, "Image saved to Gallery!", Toast.LENGTH_SHORT).show();
-                }
-            } catch (IOException e) {
-                Log.e(TAG, "Error saving image to gallery", e);
-                Toast.makeText(this, "Failed to save image.", Toast.LENGTH_SHORT).show();
-            }
-        } else {
-            Toast.makeText(this, "Failed to create new image file.", Toast.LENGTH_SHORT).show();
+        List<String> labels = new ArrayList<>();
+        List<ImageSaver.Options> choices = new ArrayList<>();
+        labels.add("JPEG");
+        choices.add(ImageSaver.Options.quality(ImageSaver.Format.JPEG, SAVE_QUALITY));
+        labels.add("JPEG, about 1 MB");
+        choices.add(ImageSaver.Options.targetSize(ImageSaver.Format.JPEG, SAVE_TARGET_BYTES));
+        labels.add("JPEG, " + (int) SAVE_TARGET_PSNR + " dB PSNR");
+        choices.add(ImageSaver.Options.targetPsnr(ImageSaver.Format.JPEG, SAVE_TARGET_PSNR));
+        labels.add("WebP");
+        choices.add(ImageSaver.Options.quality(ImageSaver.Format.WEBP_LOSSY, SAVE_QUALITY));
+        labels.add("WebP, about 1 MB");
+        choices.add(ImageSaver.Options.targetSize(ImageSaver.Format.WEBP_LOSSY, SAVE_TARGET_BYTES));
+        if (ImageSaver.Format.WEBP_LOSSLESS.isSupported()) {
+            labels.add("WebP lossless");
+            choices.add(ImageSaver.Options.quality(ImageSaver.Format.WEBP_LOSSLESS, 100));
         }
+        labels.add("PNG");
+        choices.add(ImageSaver.Options.quality(ImageSaver.Format.PNG, 100));
+        new AlertDialog.Builder(this)
+                .setTitle("Save as")
+                .setItems(labels.toArray(new String[0]), (dialog, which) -> {
+                    showLoading(true);
+                    imageSaver.save(bitmap, "FilteredImage_" + System.currentTimeMillis(), choices.get(which),
+                            saveCallback);
+                })
+                .show();
     }
-}
\ No newline at end of file
+
+    private final ImageSaver.Callback saveCallback = new ImageSaver.Callback() {
+        @Override
+        public void onSaved(Uri uri, long bytes, int quality) {
+            Log.d(TAG, "Saved " + uri + ": " + bytes + " bytes, quality " + quality);
+            showLoading(false);
+            Toast.makeText(MainActivity.this, "Image saved to Gallery!", Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onFailed(Throwable error) {
+            Log.e(TAG, "Error saving image to gallery", error);
+            showLoading(false);
+            Toast.makeText(MainActivity.this, "Failed to save image.", Toast.LENGTH_SHORT).show();
+        }
+    };
+}
@@ -0,0 +1,180 @@
+package com.gif.filtertestapp;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Re-renders a filter while its parameter slider is dragged, at most once per display frame.
+ * <p>
+ * Slider events arrive faster than frames and faster than filters run, so updates only record
+ * the newest chain and ask {@link Choreographer} for the next frame. On that frame the chain is
+ * rendered on the filter thread unless a render is still running, in which case the newest chain
+ * follows as soon as it finishes; intermediate values are skipped.
+ * <p>
+ * The source pixels are read once per image. Point filters then cost a single pass into a reused
+ * output buffer and bitmap; chains with neighbourhood passes render from the low-resolution proxy
+ * instead and are expected to be refined at full size once the slider is released. Output bitmaps
+ * alternate between two, so the one on screen is never written to. They stay owned by this class
+ * and must not be put into caches.
+ * <p>
+ * All methods except the rendering itself run on the UI thread.
+ */
+public final class SliderPreview implements Choreographer.FrameCallback {
+
+    /**
+     * Receives rendered previews on the UI thread.
+     */
+    public interface Display {
+        void show(Bitmap preview);
+    }
+
+    private final Executor renderExecutor;
+    private final Executor uiExecutor;
+    private final BitmapPool bitmapPool;
+    private final Display display;
+
+    private FilterChain pendingChain;
+    private Bitmap pendingSource;
+    private boolean frameScheduled;
+    private boolean rendering;
+    // Renders started before the last cancel() are not shown.
+    private int generation;
+
+    // Only touched on the render thread.
+    private final Target fullTarget = new Target();
+    private final Target proxyTarget = new Target();
+
+    /**
+     * @param renderExecutor runs one render at a time, normally the filter thread
+     * @param uiExecutor     posts to the UI thread
+     */
+    public SliderPreview(Executor renderExecutor, Executor uiExecutor, BitmapPool bitmapPool, Display display) {
+        this.renderExecutor = renderExecutor;
+        this.uiExecutor = uiExecutor;
+        this.bitmapPool = bitmapPool;
+        this.display = display;
+    }
+
+    /**
+     * Schedules {@code chain} for the next frame, replacing any chain not yet started.
+     * {@code proxy}, which may be {@code null}, is used for chains with neighbourhood passes.
+     */
+    public void update(FilterChain chain, Bitmap source, Bitmap proxy) {
+        pendingChain = chain;
+        pendingSource = chain.getHaloSize() > 0 && proxy != null ? proxy : source;
+        scheduleFrame();
+    }
+
+    /**
+     * Drops the pending chain and keeps a running render from being shown, for example because
+     * the final result is about to replace the preview.
+     */
+    public void cancel() {
+        pendingChain = null;
+        pendingSource = null;
+        generation++;
+        if (frameScheduled) {
+            frameScheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+    }
+
+    /**
+     * Cancels and hands the output bitmaps back to the pool once no render uses them. Call when
+     * the preview no longer shows any of them.
+     */
+    public void release() {
+        cancel();
+        renderExecutor.execute(() -> {
+            fullTarget.reset(null);
+            proxyTarget.reset(null);
+        });
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        if (pendingChain == null || rendering) return;
+        FilterChain chain = pendingChain;
+        Bitmap source = pendingSource;
+        boolean proxy = chain.getHaloSize() > 0;
+        pendingChain = null;
+        pendingSource = null;
+        rendering = true;
+        int renderGeneration = generation;
+        long start = SystemClock.elapsedRealtimeNanos();
+        renderExecutor.execute(() -> {
+            Bitmap result = null;
+            try {
+                result = (proxy ? proxyTarget : fullTarget).render(source, chain);
+            } finally {
+                Bitmap preview = result;
+                uiExecutor.execute(() -> {
+                    rendering = false;
+                    if (preview != null && renderGeneration == generation) {
+                        display.show(preview);
+                        PerfStats.getDefault().record("slider", SystemClock.elapsedRealtimeNanos() - start,
+                                (long) preview.getWidth() * preview.getHeight());
+                    }
+                    if (pendingChain != null) {
+                        scheduleFrame();
+                    }
+                });
+            }
+        });
+    }
+
+    private void scheduleFrame() {
+        if (!frameScheduled && !rendering) {
+            frameScheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * The pixels of one source bitmap and the buffers its previews are rendered into.
+     */
+    private final class Target {
+        private Bitmap source;
+        private final PixelBuffer in = new PixelBuffer(1, 1);
+        private final PixelBuffer out = new PixelBuffer(1, 1);
+        private final PixelBuffer scratch = new PixelBuffer(1, 1);
+        private final Bitmap[] outputs = new Bitmap[2];
+        private int next;
+
+        Bitmap render(Bitmap bitmap, FilterChain chain) {
+            if (bitmap != source) {
+                reset(bitmap);
+                try (PerfStats.Span span = PerfStats.getDefault().begin("getPixels")) {
+                    span.setPixels((long) bitmap.getWidth() * bitmap.getHeight());
+                    FilterUtils.readPixels(bitmap, in);
+                }
+            }
+            chain.apply(in, out, scratch, TileExecutor.getDefault());
+            Bitmap output = outputs[next];
+            if (output == null) {
+                Bitmap.Config config = bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888;
+                output = bitmapPool.acquire(bitmap.getWidth(), bitmap.getHeight(), config);
+                outputs[next] = output;
+            }
+            next ^= 1;
+            try (PerfStats.Span span = PerfStats.getDefault().begin("setPixels")) {
+                span.setPixels((long) out.size());
+                FilterUtils.writePixels(out, output);
+            }
+            return output;
+        }
+
+        void reset(Bitmap bitmap) {
+            source = bitmap;
+            for (int i = 0; i < outputs.length; i++) {
+                bitmapPool.release(outputs[i]);
+                outputs[i] = null;
+            }
+            next = 0;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.gif.filtertestapp;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Rect;
+import android.net.Uri;
+import android.os.Build;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Exports an image at its original resolution with a {@link FilterChain} applied.
+ * <p>
+ * The source is decoded strip by strip with {@link BitmapRegionDecoder}, filtered by
+ * {@link TiledRenderer} and streamed into a {@link PngStreamWriter}, so peak memory depends on the
+ * strip size and not on the size of the photo. Photos with an EXIF orientation are turned upright
+ * on the way: for a quarter turn each output strip is decoded from a strip of stored columns.
+ */
+public final class TiledExporter {
+
+    /** Pixels per strip, about 4 MB per buffer. */
+    private static final int STRIP_PIXELS = 1 << 20;
+
+    private final ContentResolver contentResolver;
+
+    public TiledExporter(ContentResolver contentResolver) {
+        this.contentResolver = contentResolver;
+    }
+
+    /**
+     * Decodes {@code source}, applies {@code chain} and writes the result to {@code out} as PNG.
+     *
+     * @param token may be {@code null}; cancelling it stops the export between strips or bands
+     */
+    public void export(Uri source, FilterChain chain, OutputStream out, CancellationToken token) throws IOException {
+        ExifOrientation orientation = readOrientation(source);
+        BitmapRegionDecoder decoder = newDecoder(source);
+        try {
+            int storedWidth = decoder.getWidth();
+            int storedHeight = decoder.getHeight();
+            int width = orientation.displayedWidth(storedWidth, storedHeight);
+            int height = orientation.displayedHeight(storedWidth, storedHeight);
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+            Rect region = new Rect();
+            int[] bounds = new int[4];
+            int[][] stored = new int[1][];
+            TiledRenderer.RegionSource regionSource = (top, bottom, target) -> {
+                // Rotated images are read as strips of stored columns.
+                orientation.sourceRegion(storedWidth, storedHeight, top, bottom, bounds);
+                region.set(bounds[0], bounds[1], bounds[2], bounds[3]);
+                Bitmap strip;
+                try (PerfStats.Span span = PerfStats.getDefault().begin("decodeRegion")) {
+                    strip = decoder.decodeRegion(region, options);
+                    span.setPixels((long) region.width() * region.height());
+                }
+                if (strip == null) {
+                    throw new IOException("Failed to decode rows " + top + " to " + bottom);
+                }
+                int regionWidth = region.width();
+                int regionHeight = region.height();
+                if (orientation == ExifOrientation.NORMAL) {
+                    strip.getPixels(target.getPixels(), 0, width, 0, 0, width, bottom - top);
+                } else {
+                    if (stored[0] == null || stored[0].length < regionWidth * regionHeight) {
+                        stored[0] = new int[regionWidth * regionHeight];
+                    }
+                    strip.getPixels(stored[0], 0, regionWidth, 0, 0, regionWidth, regionHeight);
+                    orientation.copyRows(stored[0], region.left, region.top, regionWidth,
+                            storedWidth, storedHeight, top, target);
+                }
+                // Decode the next strip into the same bitmap while the size stays the same.
+                options.inBitmap = strip.getWidth() == regionWidth && strip.getHeight() == regionHeight ? strip : null;
+            };
+            boolean hasAlpha = !"image/jpeg".equals(mimeType(source));
+            try (PngStreamWriter writer = new PngStreamWriter(out, width, height, hasAlpha, Deflater.BEST_SPEED)) {
+                TiledRenderer renderer = new TiledRenderer(chain, TileExecutor.getDefault(),
+                        TiledRenderer.stripHeightFor(width, STRIP_PIXELS));
+                renderer.render(width, height, regionSource, (pixels, offset, rowCount) -> {
+                    try (PerfStats.Span span = PerfStats.getDefault().begin("encode:PNG")) {
+                        span.setPixels((long) width * rowCount);
+                        writer.writeRows(pixels, offset, rowCount);
+                    }
+                }, token);
+                writer.finish();
+            }
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    /**
+     * Returns the EXIF orientation of {@code source}, so the export comes out upright like the
+     * preview from {@link ImageLoader}.
+     */
+    private ExifOrientation readOrientation(Uri source) throws IOException {
+        try (InputStream in = contentResolver.openInputStream(source)) {
+            return in != null ? ImageLoader.readOrientation(in) : ExifOrientation.NORMAL;
+        }
+    }
+
+    private BitmapRegionDecoder newDecoder(Uri source) throws IOException {
+        try (InputStream in = contentResolver.openInputStream(source)) {
+            if (in == null) {
+                throw new IOException("Cannot open " + source);
+            }
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                return BitmapRegionDecoder.newInstance(in);
+            }
+            //noinspection deprecation
+            return BitmapRegionDecoder.newInstance(in, false);
+        }
+    }
+
+    private String mimeType(Uri source) {
+        return contentResolver.getType(source);
+    }
+}
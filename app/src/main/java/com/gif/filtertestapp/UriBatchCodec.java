@@ -0,0 +1,65 @@
+package com.gif.filtertestapp;
+
+import android.graphics.Bitmap;
+import android.net.Uri;
+
+import java.io.IOException;
+
+/**
+ * Decodes content URIs at full resolution and saves the filtered results to the gallery as JPEG,
+ * for {@link BatchProcessor} in the app.
+ * <p>
+ * Sources are decoded upright by {@link ImageLoader}. Results are written by
+ * {@link ImageSaver#saveNow}, whose gallery entry stays pending until it is complete, so an
+ * interrupted batch never leaves a truncated image behind.
+ */
+final class UriBatchCodec implements BatchProcessor.Decoder<Uri>, BatchProcessor.Encoder<Uri> {
+
+    private static final int JPEG_QUALITY = 90;
+
+    private final ImageLoader imageLoader;
+    private final ImageSaver imageSaver;
+    private final BitmapPool bitmapPool;
+
+    UriBatchCodec(ImageLoader imageLoader, ImageSaver imageSaver, BitmapPool bitmapPool) {
+        this.imageLoader = imageLoader;
+        this.imageSaver = imageSaver;
+        this.bitmapPool = bitmapPool;
+    }
+
+    @Override
+    public PixelBuffer decode(Uri source, PixelBuffer reuse) throws IOException {
+        // Asking to cover an unbounded size keeps the image at its own size.
+        Bitmap bitmap = imageLoader.load(source, Integer.MAX_VALUE, Integer.MAX_VALUE, false);
+        try {
+            return FilterUtils.readPixels(bitmap, reuse != null ? reuse : new PixelBuffer(1, 1));
+        } finally {
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    @Override
+    public void encode(Uri source, PixelBuffer image) throws IOException {
+        Bitmap bitmap = bitmapPool.acquire(image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+        try {
+            FilterUtils.writePixels(image, bitmap);
+            imageSaver.saveNow(outputName(source), "image/jpeg", out -> {
+                if (!bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out)) {
+                    throw new IOException("Encoder failed");
+                }
+            });
+        } finally {
+            bitmapPool.release(bitmap);
+        }
+    }
+
+    /**
+     * Names a result after the last segment of its source URI, which is all a content provider
+     * reliably gives away.
+     */
+    static String outputName(Uri source) {
+        String segment = source.getLastPathSegment();
+        String base = segment != null ? segment.replaceAll("[^A-Za-z0-9._-]", "_") : "image";
+        return "Filtered_" + base + ".jpg";
+    }
+}
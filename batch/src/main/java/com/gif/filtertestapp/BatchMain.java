@@ -0,0 +1,157 @@
+package com.gif.filtertestapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Command line front end for {@link BatchProcessor}:
+ * <pre>
+ * batch --filters SEPIA,VIGNETTE --out DIR [--format png|jpg] [--quality 0.9]
+ *       [--threads DECODE,FILTER,ENCODE] [--queue N] [--journal FILE] INPUT...
+ * </pre>
+ * Inputs are PNG or JPEG files or directories holding them. Finished images are listed in
+ * {@code DIR/.batch-journal} unless another journal is given, so running the same command
+ * again after an interruption only processes what is left. Timings are printed as
+ * {@link PerfStats} JSON at the end.
+ */
+public final class BatchMain {
+
+    private BatchMain() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.exit(run(args, System.err));
+    }
+
+    /**
+     * Runs a batch and returns the process exit code: 0 if every image was written, 1 if some
+     * failed, 2 for invalid arguments.
+     */
+    static int run(String[] args, PrintStream log) throws InterruptedException {
+        FilterChain.Builder filters = new FilterChain.Builder();
+        boolean hasFilters = false;
+        File outputDir = null;
+        File journal = null;
+        ImageIoCodec.Format format = ImageIoCodec.Format.PNG;
+        float quality = 0.9f;
+        int[] threads = {1, Math.max(1, Runtime.getRuntime().availableProcessors() - 1), 1};
+        int queueCapacity = 2;
+        List<File> inputs = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--filters":
+                        for (String name : args[++i].split(",")) {
+                            filters.add(FilterType.valueOf(name.trim().toUpperCase(Locale.ROOT)));
+                            hasFilters = true;
+                        }
+                        break;
+                    case "--out":
+                        outputDir = new File(args[++i]);
+                        break;
+                    case "--format":
+                        format = args[++i].toLowerCase(Locale.ROOT).startsWith("jp")
+                                ? ImageIoCodec.Format.JPEG : ImageIoCodec.Format.PNG;
+                        break;
+                    case "--quality":
+                        quality = Float.parseFloat(args[++i]);
+                        break;
+                    case "--threads":
+                        String[] counts = args[++i].split(",");
+                        if (counts.length != 3) throw new IllegalArgumentException("--threads needs three counts");
+                        for (int k = 0; k < 3; k++) {
+                            threads[k] = Integer.parseInt(counts[k].trim());
+                        }
+                        break;
+                    case "--queue":
+                        queueCapacity = Integer.parseInt(args[++i]);
+                        break;
+                    case "--journal":
+                        journal = new File(args[++i]);
+                        break;
+                    default:
+                        if (args[i].startsWith("--")) throw new IllegalArgumentException("Unknown option " + args[i]);
+                        addInputs(new File(args[i]), inputs);
+                }
+            }
+            if (!hasFilters || outputDir == null || inputs.isEmpty()) {
+                throw new IllegalArgumentException("Need --filters, --out and at least one input");
+            }
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            log.println(e.getMessage() != null ? e.getMessage() : "Missing option value");
+            log.println("Usage: batch --filters SEPIA,VIGNETTE --out DIR [--format png|jpg] [--quality 0.9]"
+                    + " [--threads DECODE,FILTER,ENCODE] [--queue N] [--journal FILE] INPUT...");
+            return 2;
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            log.println("Cannot create " + outputDir);
+            return 1;
+        }
+
+        ImageIoCodec codec = new ImageIoCodec(outputDir, format, quality);
+        CancellationToken token = new CancellationToken();
+        BatchProcessor<File> processor = new BatchProcessor.Builder<>(codec, codec, filters.build())
+                .setKeyFunction(File::getAbsolutePath)
+                .setJournal(journal != null ? journal : new File(outputDir, ".batch-journal"))
+                .setThreads(threads[0], threads[1], threads[2])
+                .setQueueCapacity(queueCapacity)
+                .setListener(new BatchProcessor.Listener<File>() {
+                    @Override
+                    public void onProgress(BatchProcessor.Progress progress) {
+                        log.println(progress);
+                    }
+
+                    @Override
+                    public void onFailed(File source, Throwable error) {
+                        log.println("Failed " + source + ": " + error);
+                    }
+                })
+                .build();
+
+        // Ctrl-C stops after the images in flight; the journal makes the next run resume.
+        Thread main = Thread.currentThread();
+        Thread stopper = new Thread(() -> {
+            token.cancel();
+            try {
+                main.join(30_000);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(stopper);
+        try {
+            BatchProcessor.Progress progress = processor.run(inputs, token);
+            log.println("Done: " + progress);
+            log.println(PerfStats.getDefault().snapshot().toJson());
+            return progress.failed == 0 && progress.isFinished() ? 0 : 1;
+        } catch (IOException e) {
+            log.println("Batch failed: " + e);
+            return 1;
+        } finally {
+            try {
+                Runtime.getRuntime().removeShutdownHook(stopper);
+            } catch (IllegalStateException ignored) {
+                // Already shutting down.
+            }
+        }
+    }
+
+    private static void addInputs(File input, List<File> inputs) {
+        if (input.isDirectory()) {
+            File[] files = input.listFiles();
+            if (files == null) return;
+            Arrays.sort(files);
+            for (File file : files) {
+                if (file.isFile() && ImageIoCodec.isSupported(file)) {
+                    inputs.add(file);
+                }
+            }
+        } else {
+            inputs.add(input);
+        }
+    }
+}
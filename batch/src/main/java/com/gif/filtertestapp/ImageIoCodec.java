@@ -0,0 +1,117 @@
+package com.gif.filtertestapp;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Reads PNG and JPEG files and writes the filtered results into an output directory, for
+ * {@link BatchProcessor} on the JVM.
+ * <p>
+ * Results keep the base name of their source and get the extension of the output format. They
+ * are written to a temporary file first and renamed when complete.
+ */
+final class ImageIoCodec implements BatchProcessor.Decoder<File>, BatchProcessor.Encoder<File> {
+
+    enum Format {
+        PNG("png", true),
+        JPEG("jpg", false);
+
+        final String extension;
+        final boolean hasAlpha;
+
+        Format(String extension, boolean hasAlpha) {
+            this.extension = extension;
+            this.hasAlpha = hasAlpha;
+        }
+    }
+
+    private final File outputDir;
+    private final Format format;
+    private final float jpegQuality;
+
+    /**
+     * @param jpegQuality between 0 and 1, only used for {@link Format#JPEG}
+     */
+    ImageIoCodec(File outputDir, Format format, float jpegQuality) {
+        this.outputDir = outputDir;
+        this.format = format;
+        this.jpegQuality = jpegQuality;
+    }
+
+    File outputFor(File source) {
+        String name = source.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(outputDir, (dot > 0 ? name.substring(0, dot) : name) + "." + format.extension);
+    }
+
+    @Override
+    public PixelBuffer decode(File source, PixelBuffer reuse) throws IOException {
+        BufferedImage image = ImageIO.read(source);
+        if (image == null) {
+            throw new IOException("Unsupported image " + source);
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        PixelBuffer buffer = reuse != null ? reuse : new PixelBuffer(width, height);
+        buffer.reshape(width, height);
+        image.getRGB(0, 0, width, height, buffer.getPixels(), 0, width);
+        return buffer;
+    }
+
+    @Override
+    public void encode(File source, PixelBuffer pixels) throws IOException {
+        int width = pixels.getWidth();
+        int height = pixels.getHeight();
+        BufferedImage image = new BufferedImage(width, height,
+                format.hasAlpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        // Both types store one int per pixel in the same layout; RGB ignores the alpha byte.
+        int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(pixels.getPixels(), 0, data, 0, width * height);
+
+        File target = outputFor(source);
+        File temp = new File(target.getPath() + ".tmp");
+        if (format == Format.JPEG) {
+            writeJpeg(image, temp);
+        } else if (!ImageIO.write(image, "png", temp)) {
+            throw new IOException("No PNG writer");
+        }
+        if ((target.exists() && !target.delete()) || !temp.renameTo(target)) {
+            throw new IOException("Failed to replace " + target);
+        }
+    }
+
+    private void writeJpeg(BufferedImage image, File file) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName("jpeg");
+        if (!writers.hasNext()) {
+            throw new IOException("No JPEG writer");
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        param.setCompressionQuality(jpegQuality);
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot overwrite " + file);
+        }
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+    }
+
+    static boolean isSupported(File file) {
+        String name = file.getName().toLowerCase(Locale.ROOT);
+        return name.endsWith(".png") || name.endsWith(".jpg") || name.endsWith(".jpeg");
+    }
+}
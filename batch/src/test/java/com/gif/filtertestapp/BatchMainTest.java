@@ -0,0 +1,82 @@
+package com.gif.filtertestapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class BatchMainTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeImage(File dir, String name, int color) throws Exception {
+        BufferedImage image = new BufferedImage(37, 23, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < 23; y++) {
+            for (int x = 0; x < 37; x++) {
+                image.setRGB(x, y, color + x);
+            }
+        }
+        File file = new File(dir, name);
+        ImageIO.write(image, "png", file);
+        return file;
+    }
+
+    @Test
+    public void folder_isFilteredIntoOutputDirectory() throws Exception {
+        File input = folder.newFolder("in");
+        File output = new File(folder.getRoot(), "out");
+        writeImage(input, "a.png", 0xFF102030);
+        writeImage(input, "b.png", 0x80405060);
+        Files.write(new File(input, "notes.txt").toPath(), "skip me".getBytes(StandardCharsets.UTF_8));
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+
+        int exit = BatchMain.run(new String[]{"--filters", "invert", "--out", output.getPath(),
+                "--threads", "1,2,1", input.getPath()}, new PrintStream(log, true));
+
+        assertEquals(log.toString(), 0, exit);
+        BufferedImage a = ImageIO.read(new File(output, "a.png"));
+        assertEquals(0xFFEFDFCF, a.getRGB(0, 0));
+        assertEquals(0xFFEFDFCF - 5, a.getRGB(5, 7));
+        BufferedImage b = ImageIO.read(new File(output, "b.png"));
+        assertEquals(0x80BFAF9F, b.getRGB(0, 0));
+        assertEquals(2, Files.readAllLines(new File(output, ".batch-journal").toPath()).size());
+
+        // A second run finds everything in the journal.
+        log.reset();
+        assertEquals(0, BatchMain.run(new String[]{"--filters", "INVERT", "--out", output.getPath(),
+                input.getPath()}, new PrintStream(log, true)));
+        assertTrue(log.toString(), log.toString().contains("skipped 2"));
+    }
+
+    @Test
+    public void jpegOutput_dropsAlpha() throws Exception {
+        File source = writeImage(folder.getRoot(), "photo.png", 0xFF808080);
+        File output = new File(folder.getRoot(), "out");
+
+        int exit = BatchMain.run(new String[]{"--filters", "GRAYSCALE", "--format", "jpg", "--quality", "0.95",
+                "--out", output.getPath(), source.getPath()}, new PrintStream(new ByteArrayOutputStream(), true));
+
+        assertEquals(0, exit);
+        BufferedImage result = ImageIO.read(new File(output, "photo.jpg"));
+        assertEquals(37, result.getWidth());
+        assertFalse(result.getColorModel().hasAlpha());
+    }
+
+    @Test
+    public void missingOptions_printUsage() throws Exception {
+        ByteArrayOutputStream log = new ByteArrayOutputStream();
+        assertEquals(2, BatchMain.run(new String[]{"--filters", "SEPIA"}, new PrintStream(log, true)));
+        assertTrue(log.toString().contains("Usage"));
+    }
+}
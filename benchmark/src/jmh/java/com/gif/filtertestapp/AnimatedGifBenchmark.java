@@ -0,0 +1,72 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to filter a 48-frame animation by number of frame workers, which should fall close to
+ * linearly until the serial decoding dominates, next to decoding alone for that floor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AnimatedGifBenchmark {
+
+    private static final int FRAMES = 48;
+
+    @Param({"480x270", "1280x720"})
+    public String size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private byte[] gif;
+    private AnimatedGifProcessor processor;
+    private ByteArrayOutputStream out;
+    private PixelBuffer frame;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(encoded, dimensions[0], dimensions[1], 0);
+        for (int i = 0; i < FRAMES; i++) {
+            encoder.writeFrame(SyntheticImages.photo(dimensions[0], dimensions[1], i), 40);
+        }
+        encoder.finish();
+        gif = encoded.toByteArray();
+        FilterChain chain = new FilterChain.Builder()
+                .addBlur(BlurKernel.gaussian(3), EdgeMode.MIRROR)
+                .add(FilterType.SEPIA)
+                .build();
+        processor = new AnimatedGifProcessor.Builder(chain).setThreads(threads).build();
+        out = new ByteArrayOutputStream(gif.length);
+        frame = new PixelBuffer(dimensions[0], dimensions[1]);
+    }
+
+    @Benchmark
+    public int filter() throws IOException, InterruptedException {
+        out.reset();
+        return processor.run(new ByteArrayInputStream(gif), out, null);
+    }
+
+    @Benchmark
+    public int decodeOnly() throws IOException {
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(gif));
+        while (decoder.readFrame(frame)) {
+        }
+        return decoder.getFrameCount();
+    }
+}
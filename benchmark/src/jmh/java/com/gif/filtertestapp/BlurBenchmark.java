@@ -0,0 +1,72 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the running-sum blurs by radius, which should hardly change between 2 and 50 pixels,
+ * next to the 5x5 convolution behind {@link FilterType#UNSHARP_MASK} for scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BlurBenchmark {
+
+    @Param({"1024x768", "4000x3000"})
+    public String size;
+
+    @Param({"2", "10", "50"})
+    public int radius;
+
+    private PixelBuffer src;
+    private PixelBuffer dst;
+    private BlurKernel box;
+    private BlurKernel stack;
+    private BlurKernel gaussian;
+    private ConvolutionKernel convolution;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        src = SyntheticImages.photo(dimensions[0], dimensions[1], 42);
+        dst = new PixelBuffer(dimensions[0], dimensions[1]);
+        box = BlurKernel.box(radius);
+        stack = BlurKernel.stack(radius);
+        // A Gaussian reaching about as far as the box.
+        gaussian = BlurKernel.gaussian(radius / 2f);
+        convolution = ConvolutionKernel.unsharpMask(1f);
+    }
+
+    @Benchmark
+    public int[] box() {
+        Blur.apply(src, dst, box, EdgeMode.MIRROR, TileExecutor.getDefault(), null);
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] stack() {
+        Blur.apply(src, dst, stack, EdgeMode.MIRROR, TileExecutor.getDefault(), null);
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] gaussian() {
+        Blur.apply(src, dst, gaussian, EdgeMode.MIRROR, TileExecutor.getDefault(), null);
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] convolution5x5() {
+        Convolution.apply(src, dst, convolution, EdgeMode.CLAMP);
+        return dst.getPixels();
+    }
+}
@@ -0,0 +1,87 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of a 3D LUT pass next to the color matrix pass it is meant to keep up with, and of
+ * parsing and compiling the {@code .cube} text, which an import pays once.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class CubeLutBenchmark {
+
+    @Param({"1024x768", "4000x3000"})
+    public String size;
+
+    @Param({"17", "33", "65"})
+    public int lutSize;
+
+    private PixelBuffer src;
+    private PixelBuffer dst;
+    private String cubeText;
+    private FilterChain lut;
+    private FilterChain matrix;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        src = SyntheticImages.photo(dimensions[0], dimensions[1], 42);
+        dst = new PixelBuffer(dimensions[0], dimensions[1]);
+        cubeText = filmLook(lutSize);
+        lut = new FilterChain.Builder().addLut(CubeLut.parse(new StringReader(cubeText))).build();
+        matrix = FilterChain.of(FilterType.VINTAGE);
+    }
+
+    /**
+     * Lifted, warm shadows and cool, compressed highlights: curves that cross between channels.
+     */
+    static String filmLook(int size) {
+        StringBuilder text = new StringBuilder("TITLE \"film\"\nLUT_3D_SIZE ").append(size).append('\n');
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    double red = r / (size - 1.0);
+                    double green = g / (size - 1.0);
+                    double blue = b / (size - 1.0);
+                    double luma = 0.3 * red + 0.6 * green + 0.1 * blue;
+                    text.append(String.format(Locale.ROOT, "%.6f %.6f %.6f%n",
+                            0.05 + 0.9 * Math.pow(red, 0.9) + 0.05 * (1 - luma),
+                            0.03 + 0.92 * green,
+                            0.08 + 0.8 * blue + 0.1 * luma * luma));
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    @Benchmark
+    public int[] lut3d() {
+        lut.apply(src, dst, null, TileExecutor.getDefault());
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] colorMatrix() {
+        matrix.apply(src, dst, null, TileExecutor.getDefault());
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public CubeLut parse() throws IOException {
+        return CubeLut.parse(new StringReader(cubeText));
+    }
+}
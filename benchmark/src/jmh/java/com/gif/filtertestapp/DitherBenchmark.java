@@ -0,0 +1,65 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of error diffusion by number of row workers, which should fall close to linearly as long
+ * as there are many more rows than workers, next to mapping to the same palette without
+ * dithering for scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DitherBenchmark {
+
+    @Param({"1024x768", "4000x3000"})
+    public String size;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"FLOYD_STEINBERG", "ATKINSON"})
+    public DitherKernel kernel;
+
+    private PixelBuffer src;
+    private PixelBuffer dst;
+    private ColorPalette palette;
+    private TileExecutor executor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        src = SyntheticImages.photo(dimensions[0], dimensions[1], 42);
+        dst = new PixelBuffer(dimensions[0], dimensions[1]);
+        palette = ColorPalette.fromImage(src, 16);
+        executor = new TileExecutor(threads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public int[] dither() {
+        Dither.apply(src, dst, palette, kernel, executor, null);
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] map() {
+        palette.map(src.getPixels(), dst.getPixels(), 0, src.size());
+        return dst.getPixels();
+    }
+}
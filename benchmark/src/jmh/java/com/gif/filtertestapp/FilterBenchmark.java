@@ -0,0 +1,177 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of every built-in filter on a synthetic photo at preview, 12 MP and 48 MP size.
+ * <p>
+ * Each {@link Implementation} is one way of running the same filter. Before a trial starts its
+ * output is compared with {@link Implementation#REFERENCE} pixel by pixel and the trial fails on
+ * any difference, so a faster implementation can only be measured once it is exact. The
+ * reference itself is pinned by {@code GoldenOutputTest} in the core module.
+ * <p>
+ * Besides operations per second, the {@code megapixels} counter reports megapixels per second,
+ * and the gc profiler configured in {@code build.gradle} reports bytes allocated per operation
+ * as {@code gc.alloc.rate.norm}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FilterBenchmark {
+
+    public enum Implementation {
+        /** The standalone {@link PixelFilters} kernel on the calling thread. */
+        REFERENCE {
+            @Override
+            void run(FilterBenchmark state) {
+                reference(state.filter, state.src, state.dst);
+            }
+        },
+        /** A {@link FilterChain} on the calling thread. */
+        CHAIN_SERIAL {
+            @Override
+            void run(FilterBenchmark state) {
+                state.chain.apply(state.src, state.dst, state.scratch, null);
+            }
+        },
+        /** A {@link FilterChain} split into bands on the shared {@link TileExecutor}. */
+        CHAIN_PARALLEL {
+            @Override
+            void run(FilterBenchmark state) {
+                state.chain.apply(state.src, state.dst, state.scratch, TileExecutor.getDefault());
+            }
+        };
+
+        abstract void run(FilterBenchmark state);
+    }
+
+    /**
+     * Counts processed pixels; JMH reports the counter as a rate next to the score.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public double megapixels;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megapixels = 0;
+        }
+    }
+
+    @Param({"1024x768", "4000x3000", "8000x6000"})
+    public String size;
+
+    @Param
+    public FilterType filter;
+
+    @Param
+    public Implementation implementation;
+
+    private PixelBuffer src;
+    private PixelBuffer dst;
+    private PixelBuffer scratch;
+    private FilterChain chain;
+    private double megapixelsPerOp;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        int width = dimensions[0];
+        int height = dimensions[1];
+        src = SyntheticImages.photo(width, height, 42);
+        dst = new PixelBuffer(width, height);
+        scratch = new PixelBuffer(width, height);
+        chain = FilterChain.of(filter);
+        megapixelsPerOp = width * (double) height / 1e6;
+
+        PixelBuffer expected = new PixelBuffer(width, height);
+        reference(filter, src, expected);
+        implementation.run(this);
+        int[] want = expected.getPixels();
+        int[] got = dst.getPixels();
+        for (int i = 0; i < expected.size(); i++) {
+            if (want[i] != got[i]) {
+                throw new IllegalStateException(implementation + " changes " + filter + " output at pixel ("
+                        + i % width + ", " + i / width + "): expected " + Integer.toHexString(want[i])
+                        + " but was " + Integer.toHexString(got[i]));
+            }
+        }
+    }
+
+    @Benchmark
+    public int[] filter(Counters counters) {
+        implementation.run(this);
+        counters.megapixels += megapixelsPerOp;
+        return dst.getPixels();
+    }
+
+    static void reference(FilterType type, PixelBuffer src, PixelBuffer dst) {
+        switch (type) {
+            case GRAYSCALE:
+                PixelFilters.applyGrayscale(src, dst);
+                break;
+            case SEPIA:
+                PixelFilters.applySepia(src, dst);
+                break;
+            case INVERT:
+                PixelFilters.applyInvert(src, dst);
+                break;
+            case VINTAGE:
+                PixelFilters.applyVintage(src, dst);
+                break;
+            case BRIGHTNESS:
+                PixelFilters.applyBrightness(src, dst);
+                break;
+            case CONTRAST:
+                PixelFilters.applyContrast(src, dst);
+                break;
+            case WINTER:
+                PixelFilters.applyWinter(src, dst);
+                break;
+            case SOLARIZE:
+                PixelFilters.applySolarize(src, dst);
+                break;
+            case POSTERIZE:
+                PixelFilters.applyPosterize(src, dst);
+                break;
+            case VIGNETTE:
+                PixelFilters.applyVignette(src, dst);
+                break;
+            case HEATMAP:
+                PixelFilters.applyHeatmap(src, dst);
+                break;
+            case SHARPEN:
+                PixelFilters.applySharpen(src, dst);
+                break;
+            case EDGE_DETECT:
+                PixelFilters.applyEdgeDetect(src, dst);
+                break;
+            case EMBOSS:
+                PixelFilters.applyEmboss(src, dst);
+                break;
+            case UNSHARP_MASK:
+                PixelFilters.applyUnsharpMask(src, dst);
+                break;
+            case BLUR:
+                PixelFilters.applyBlur(src, dst);
+                break;
+            case BACKGROUND_BLUR:
+                PixelFilters.applyBackgroundBlur(src, dst);
+                break;
+            default:
+                throw new IllegalArgumentException("No reference kernel for " + type);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to pick a palette from an image and to map the image to it, separately and as the smart
+ * posterize does both, next to the fixed posterize for scale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class QuantizerBenchmark {
+
+    @Param({"1024x768", "4000x3000"})
+    public String size;
+
+    @Param({"16", "256"})
+    public int colors;
+
+    private PixelBuffer src;
+    private PixelBuffer dst;
+    private ColorPalette palette;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        src = SyntheticImages.photo(dimensions[0], dimensions[1], 42);
+        dst = new PixelBuffer(dimensions[0], dimensions[1]);
+        palette = ColorPalette.fromImage(src, colors);
+    }
+
+    @Benchmark
+    public ColorPalette buildPalette() {
+        return ColorPalette.fromImage(src, colors);
+    }
+
+    @Benchmark
+    public int[] map() {
+        palette.map(src.getPixels(), dst.getPixels(), 0, src.size());
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] smartPosterize() {
+        PixelFilters.applySmartPosterize(src, dst, colors);
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] posterize() {
+        PixelFilters.applyPosterize(src, dst);
+        return dst.getPixels();
+    }
+}
@@ -0,0 +1,58 @@
+package com.gif.filtertestapp;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time of the histogram sweep behind the automatic adjustments, next to a single point filter
+ * pass over the same image for scale. {@code autoLevels} is the whole uncached cost of an
+ * automatic adjustment: statistics, building the tables and applying them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class StatisticsBenchmark {
+
+    @Param({"1024x768", "4000x3000", "8000x6000"})
+    public String size;
+
+    private PixelBuffer src;
+    private PixelBuffer dst;
+    private FilterChain pointPass;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int[] dimensions = SyntheticImages.parseSize(size);
+        src = SyntheticImages.photo(dimensions[0], dimensions[1], 42);
+        dst = new PixelBuffer(dimensions[0], dimensions[1]);
+        pointPass = FilterChain.of(FilterType.POSTERIZE);
+    }
+
+    @Benchmark
+    public ImageStatistics statistics() {
+        return ImageStatistics.compute(src, TileExecutor.getDefault(), null);
+    }
+
+    @Benchmark
+    public int[] pointPass() {
+        pointPass.apply(src, dst, null, TileExecutor.getDefault());
+        return dst.getPixels();
+    }
+
+    @Benchmark
+    public int[] autoLevels() {
+        ImageStatistics statistics = ImageStatistics.compute(src, TileExecutor.getDefault(), null);
+        AutoAdjustment.LEVELS.addTo(new FilterChain.Builder(), statistics).build()
+                .apply(src, dst, null, TileExecutor.getDefault());
+        return dst.getPixels();
+    }
+}
@@ -0,0 +1,50 @@
+package com.gif.filtertestapp;
+
+/**
+ * Deterministic ARGB test images for the benchmarks.
+ */
+final class SyntheticImages {
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Returns an opaque image with smooth gradients, like sky and skin, overlaid with per-pixel
+     * noise, like sensor grain and texture, so that no kernel sees long runs of equal pixels.
+     * The same arguments always produce the same pixels.
+     */
+    static PixelBuffer photo(int width, int height, long seed) {
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        int[] pixels = buffer.getPixels();
+        long state = seed | 1;
+        for (int y = 0; y < height; y++) {
+            int g = y * 255 / Math.max(1, height - 1);
+            for (int x = 0; x < width; x++) {
+                // xorshift64
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                int noise = (int) state;
+                int r = x * 255 / Math.max(1, width - 1);
+                int b = ((x + y) * 255 / Math.max(1, width + height - 2));
+                pixels[y * width + x] = 0xFF000000
+                        | (grain(r, noise) << 16)
+                        | (grain(g, noise >> 8) << 8)
+                        | grain(b, noise >> 16);
+            }
+        }
+        return buffer;
+    }
+
+    private static int grain(int value, int noise) {
+        return Math.max(0, Math.min(255, value + (noise & 0x3F) - 32));
+    }
+
+    /**
+     * Parses a size parameter such as {@code "4000x3000"} into {@code {width, height}}.
+     */
+    static int[] parseSize(String size) {
+        int x = size.indexOf('x');
+        return new int[]{Integer.parseInt(size.substring(0, x)), Integer.parseInt(size.substring(x + 1))};
+    }
+}
@@ -0,0 +1,317 @@
+package com.gif.filtertestapp;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Applies one {@link FilterChain} to every frame of an animated GIF, streaming from a
+ * {@link GifDecoder} to a {@link GifEncoder}.
+ * <p>
+ * Decoding has to run in order, since every frame is composited onto the one before it, and so
+ * does writing; filtering and encoding do not, and they are where the time goes. The calling
+ * thread decodes, a pool of workers filters and encodes whole frames side by side, and whichever
+ * worker finishes the next frame due writes it, together with any later frames that finished
+ * early. A frame counts as in flight from the start of its decoding until it is written, and
+ * their number is capped, so memory is bounded by the pool width and not by the length of the
+ * animation: when one frame is slow, decoding waits for it instead of running ahead.
+ * <p>
+ * Frames are filtered independently on their worker threads; each output frame is the same
+ * whatever the number of threads.
+ */
+public final class AnimatedGifProcessor {
+
+    private final FilterChain chain;
+    private final int threads;
+    private final int maxFramesInFlight;
+    private final TileExecutor tileExecutor;
+    private final DitherKernel dither;
+
+    private AnimatedGifProcessor(Builder builder) {
+        this.chain = builder.chain;
+        this.threads = builder.threads;
+        this.maxFramesInFlight = builder.maxFramesInFlight > 0 ? builder.maxFramesInFlight : 2 * builder.threads;
+        this.tileExecutor = builder.tileExecutor;
+        this.dither = builder.dither;
+    }
+
+    /**
+     * Reads a GIF from {@code in}, filters it and writes the result to {@code out}, keeping the
+     * frame delays and loop count. Neither stream is closed.
+     *
+     * @param token may be {@code null}; cancelling it stops the run between frames
+     * @return the number of frames written
+     * @throws CancellationException if {@code token} was cancelled; {@code out} then holds a
+     *                               truncated file
+     */
+    public int run(InputStream in, OutputStream out, CancellationToken token) throws IOException, InterruptedException {
+        CancellationToken cancel = token != null ? token : new CancellationToken();
+        GifDecoder decoder = new GifDecoder(in);
+        Run run = new Run(out, decoder, cancel);
+        try {
+            run.decodeLoop();
+        } catch (Exception e) {
+            cancel.cancel();
+            run.stop();
+            throw e;
+        }
+        run.stop();
+        if (run.error != null) {
+            if (run.error instanceof IOException) throw (IOException) run.error;
+            if (run.error instanceof Error) throw (Error) run.error;
+            throw (RuntimeException) run.error;
+        }
+        cancel.throwIfCancelled();
+        if (run.encoder == null) {
+            throw new IOException("No frames");
+        }
+        run.encoder.finish();
+        return run.written;
+    }
+
+    /**
+     * A frame on its way from the decoder to the file. {@link #END} tells a worker that decoding
+     * has finished.
+     */
+    private static final class Frame {
+        final int index;
+        final PixelBuffer image;
+        final int delayMillis;
+        byte[] encoded;
+
+        Frame(int index, PixelBuffer image, int delayMillis) {
+            this.index = index;
+            this.image = image;
+            this.delayMillis = delayMillis;
+        }
+    }
+
+    private static final Frame END = new Frame(-1, null, 0);
+
+    /**
+     * The state of one call to {@link #run}.
+     */
+    private final class Run {
+        final OutputStream out;
+        final GifDecoder decoder;
+        final CancellationToken token;
+        final Semaphore inFlight = new Semaphore(maxFramesInFlight);
+        final BlockingQueue<Frame> decoded = new ArrayBlockingQueue<>(maxFramesInFlight);
+        final BlockingQueue<PixelBuffer> free = new LinkedBlockingQueue<>();
+        final CountDownLatch finished = new CountDownLatch(threads);
+        final ExecutorService workers = Executors.newFixedThreadPool(threads);
+        // Encoded frames that finished before the ones ahead of them, by index modulo the cap.
+        final Frame[] reorder = new Frame[maxFramesInFlight];
+        GifEncoder encoder;
+        int next;
+        int written;
+        Throwable error;
+
+        Run(OutputStream out, GifDecoder decoder, CancellationToken token) {
+            this.out = out;
+            this.decoder = decoder;
+            this.token = token;
+            for (int i = 0; i < threads; i++) {
+                workers.execute(this::filterLoop);
+            }
+        }
+
+        void decodeLoop() throws IOException, InterruptedException {
+            int index = 0;
+            while (!token.isCancelled()) {
+                inFlight.acquire();
+                PixelBuffer image = free.poll();
+                if (image == null) {
+                    image = new PixelBuffer(1, 1);
+                }
+                if (!decoder.readFrame(image)) {
+                    inFlight.release();
+                    break;
+                }
+                if (index == 0) {
+                    // The loop extension comes before the first frame. The queue publishes the
+                    // encoder to the workers along with the frame.
+                    encoder = new GifEncoder(out, decoder.getWidth(), decoder.getHeight(), decoder.getLoopCount());
+                }
+                decoded.put(new Frame(index++, image, decoder.getDelayMillis()));
+            }
+        }
+
+        /**
+         * Sends every worker the end marker and waits for them; the frames still queued are
+         * dropped if the run was cancelled.
+         */
+        void stop() throws InterruptedException {
+            try {
+                for (int i = 0; i < threads; i++) {
+                    putUninterruptibly(decoded, END);
+                }
+                finished.await();
+            } finally {
+                workers.shutdown();
+            }
+        }
+
+        private void filterLoop() {
+            PixelBuffer scratch = new PixelBuffer(1, 1);
+            GifEncoder.FrameEncoder frameEncoder = new GifEncoder.FrameEncoder(null, dither);
+            try {
+                Frame frame;
+                while ((frame = takeUninterruptibly(decoded)) != END) {
+                    // Errors too, since a frame that never completes keeps its slot and the
+                    // decoder waits for it forever.
+                    try {
+                        if (!token.isCancelled()) {
+                            try (PerfStats.Span span = PerfStats.getDefault().begin("gif:frame")) {
+                                span.setPixels(frame.image.size());
+                                chain.apply(frame.image, frame.image, scratch, tileExecutor);
+                                frame.encoded = frameEncoder.encode(frame.image, frame.delayMillis);
+                            }
+                        }
+                    } catch (Throwable e) {
+                        fail(e);
+                    } finally {
+                        free.offer(frame.image);
+                        complete(frame);
+                    }
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        /**
+         * Writes {@code frame} if it is the next one due, followed by any later frames that are
+         * already waiting, and frees their slots for the decoder.
+         */
+        private synchronized void complete(Frame frame) {
+            reorder[frame.index % maxFramesInFlight] = frame;
+            Frame due;
+            while ((due = reorder[next % maxFramesInFlight]) != null && due.index == next) {
+                reorder[next % maxFramesInFlight] = null;
+                next++;
+                if (due.encoded != null && !token.isCancelled()) {
+                    try {
+                        encoder.writeFrame(due.encoded);
+                        written++;
+                    } catch (Throwable e) {
+                        fail(e);
+                    }
+                }
+                inFlight.release();
+            }
+        }
+
+        private synchronized void fail(Throwable e) {
+            if (error == null) {
+                error = e;
+            }
+            token.cancel();
+        }
+    }
+
+    // As in BatchProcessor, workers are stopped through the token and the end markers only, so
+    // that an interrupt never leaves a frame without a slot to return.
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static final class Builder {
+        private final FilterChain chain;
+        private int threads = Runtime.getRuntime().availableProcessors();
+        private int maxFramesInFlight;
+        private TileExecutor tileExecutor;
+        private DitherKernel dither;
+
+        public Builder(FilterChain chain) {
+            this.chain = chain;
+        }
+
+        /**
+         * Sets how many frames are filtered and encoded at the same time; the number of cores by
+         * default.
+         */
+        public Builder setThreads(int threads) {
+            if (threads < 1) {
+                throw new IllegalArgumentException("Invalid thread count " + threads);
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        /**
+         * Sets how many frames may be between decoding and writing, which bounds memory to about
+         * that many canvases; twice the thread count by default, so that workers need not wait
+         * for a frame that is slower than the others. Must be at least the thread count.
+         */
+        public Builder setMaxFramesInFlight(int maxFramesInFlight) {
+            if (maxFramesInFlight < 1) {
+                throw new IllegalArgumentException("Invalid frame count " + maxFramesInFlight);
+            }
+            this.maxFramesInFlight = maxFramesInFlight;
+            return this;
+        }
+
+        /**
+         * Additionally splits each frame into bands on {@code tileExecutor}; by default every
+         * frame is filtered on its worker thread alone, which suits animations of many frames.
+         */
+        public Builder setTileExecutor(TileExecutor tileExecutor) {
+            this.tileExecutor = tileExecutor;
+            return this;
+        }
+
+        /**
+         * Dithers every frame to its GIF palette with {@code dither}, so that gradients do not
+         * band; by default, or if it is {@code null}, each pixel gets the nearest palette color.
+         */
+        public Builder setDither(DitherKernel dither) {
+            this.dither = dither;
+            return this;
+        }
+
+        public AnimatedGifProcessor build() {
+            if (maxFramesInFlight > 0 && maxFramesInFlight < threads) {
+                throw new IllegalStateException("Fewer frames in flight than threads");
+            }
+            return new AnimatedGifProcessor(this);
+        }
+    }
+}
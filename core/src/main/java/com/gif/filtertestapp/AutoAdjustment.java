@@ -0,0 +1,94 @@
+package com.gif.filtertestapp;
+
+/**
+ * Corrections whose strength is derived from the {@link ImageStatistics} of the image they are
+ * applied to.
+ * <p>
+ * The statistics are turned into an ordinary color matrix or set of lookup tables, so the
+ * resulting chain is a single point pass that fuses with neighbouring point filters, and tiles,
+ * proxies and the full-size export of the same image all get exactly the same correction.
+ */
+public enum AutoAdjustment {
+
+    /**
+     * Stretches each channel on its own so that its darkest and brightest
+     * {@value #CLIP_PERCENT}% map to 0 and 255. Also removes color casts in the shadows and
+     * highlights.
+     */
+    LEVELS {
+        @Override
+        public FilterChain.Builder addTo(FilterChain.Builder builder, ImageStatistics statistics) {
+            return builder.addCurves(stretch(statistics, ImageStatistics.Channel.RED),
+                    stretch(statistics, ImageStatistics.Channel.GREEN),
+                    stretch(statistics, ImageStatistics.Channel.BLUE));
+        }
+    },
+
+    /**
+     * Stretches all channels by the same amount, chosen from the luminance histogram, so that
+     * contrast increases without changing hues.
+     */
+    CONTRAST {
+        @Override
+        public FilterChain.Builder addTo(FilterChain.Builder builder, ImageStatistics statistics) {
+            int low = statistics.getPercentile(ImageStatistics.Channel.LUMINANCE, CLIP_PERCENT);
+            int high = statistics.getPercentile(ImageStatistics.Channel.LUMINANCE, 100 - CLIP_PERCENT);
+            if (high <= low) {
+                return builder.addColorMatrix(ColorMatrices.identity());
+            }
+            float scale = 255f / (high - low);
+            float offset = -low * scale;
+            return builder.addColorMatrix(new float[]{
+                    scale, 0, 0, 0, offset,
+                    0, scale, 0, 0, offset,
+                    0, 0, scale, 0, offset,
+                    0, 0, 0, 1, 0
+            });
+        }
+    },
+
+    /**
+     * Gray-world white balance: scales each channel so that its mean matches the mean luminance.
+     * Gains are limited to {@value #MAX_GAIN} in either direction so that images dominated by one
+     * color are not turned gray.
+     */
+    WHITE_BALANCE {
+        @Override
+        public FilterChain.Builder addTo(FilterChain.Builder builder, ImageStatistics statistics) {
+            double target = statistics.getMean(ImageStatistics.Channel.LUMINANCE);
+            return builder.addColorMatrix(ColorMatrices.scale(
+                    gain(target, statistics.getMean(ImageStatistics.Channel.RED)),
+                    gain(target, statistics.getMean(ImageStatistics.Channel.GREEN)),
+                    gain(target, statistics.getMean(ImageStatistics.Channel.BLUE)), 1f));
+        }
+    };
+
+    /** Share of pixels, in percent, that may clip at either end of a stretch. */
+    public static final double CLIP_PERCENT = 0.5;
+    /** Largest factor by which white balance brightens or darkens a channel. */
+    public static final float MAX_GAIN = 2f;
+
+    /**
+     * Adds the correction for an image with the given statistics to {@code builder}.
+     */
+    public abstract FilterChain.Builder addTo(FilterChain.Builder builder, ImageStatistics statistics);
+
+    private static int[] stretch(ImageStatistics statistics, ImageStatistics.Channel channel) {
+        int low = statistics.getPercentile(channel, CLIP_PERCENT);
+        int high = statistics.getPercentile(channel, 100 - CLIP_PERCENT);
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            if (high <= low) {
+                table[v] = v;
+            } else {
+                table[v] = Math.max(0, Math.min(255, Math.round((v - low) * 255f / (high - low))));
+            }
+        }
+        return table;
+    }
+
+    private static float gain(double target, double mean) {
+        if (mean <= 0) return 1f;
+        return (float) Math.max(1 / MAX_GAIN, Math.min(MAX_GAIN, target / mean));
+    }
+}
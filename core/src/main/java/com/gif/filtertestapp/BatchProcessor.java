@@ -0,0 +1,469 @@
+package com.gif.filtertestapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Applies one {@link FilterChain} to many images, with decoding, filtering and encoding running
+ * as three pipelined stages.
+ * <p>
+ * Each stage has its own number of worker threads, and the stages are connected by bounded
+ * queues: when encoding falls behind, the filter workers block on a full queue and the decoders
+ * behind them stop reading, so no more than a fixed number of images is ever in memory. Pixel
+ * buffers that made it through the encoder are handed back to the decoders for reuse.
+ * <p>
+ * Every finished image is appended to a journal file. A run that finds a journal skips the
+ * sources it lists, so an interrupted batch resumes where it stopped. An image that fails in any
+ * stage is reported and left out of the journal; the batch carries on with the others, unless
+ * the failure is an {@link Error} such as running out of memory, which cancels the run.
+ * <p>
+ * Sources are opaque to the processor: the app passes content URIs with bitmap-based codecs,
+ * the JVM tool passes files with {@code javax.imageio}.
+ */
+public final class BatchProcessor<S> {
+
+    /**
+     * Reads a source into pixels.
+     */
+    public interface Decoder<S> {
+        /**
+         * Decodes {@code source}, into {@code reuse} if it is not {@code null} and large enough.
+         */
+        PixelBuffer decode(S source, PixelBuffer reuse) throws IOException;
+    }
+
+    /**
+     * Writes the filtered pixels of a source. Should write to a temporary file and rename it, so
+     * an interrupted write never leaves a truncated result behind.
+     */
+    public interface Encoder<S> {
+        void encode(S source, PixelBuffer image) throws IOException;
+    }
+
+    /**
+     * Receives progress from the worker threads; implementations must be thread-safe.
+     */
+    public interface Listener<S> {
+        /**
+         * Called after each image, successful or not, with the counts so far.
+         */
+        default void onProgress(Progress progress) {
+        }
+
+        default void onFailed(S source, Throwable error) {
+        }
+    }
+
+    /**
+     * Counts of a run. {@code skipped} are sources already listed in the journal.
+     */
+    public static final class Progress {
+        public final int total;
+        public final int skipped;
+        public final int completed;
+        public final int failed;
+
+        Progress(int total, int skipped, int completed, int failed) {
+            this.total = total;
+            this.skipped = skipped;
+            this.completed = completed;
+            this.failed = failed;
+        }
+
+        /**
+         * Whether every source was handled, i.e. nothing was left out by a cancellation.
+         */
+        public boolean isFinished() {
+            return skipped + completed + failed == total;
+        }
+
+        @Override
+        public String toString() {
+            return (skipped + completed + failed) + "/" + total + " (skipped " + skipped
+                    + ", completed " + completed + ", failed " + failed + ")";
+        }
+    }
+
+    private final Decoder<S> decoder;
+    private final Encoder<S> encoder;
+    private final FilterChain chain;
+    private final Function<S, String> keyFunction;
+    private final File journal;
+    private final int decodeThreads;
+    private final int filterThreads;
+    private final int encodeThreads;
+    private final int queueCapacity;
+    private final TileExecutor tileExecutor;
+    private final Listener<S> listener;
+
+    private BatchProcessor(Builder<S> builder) {
+        this.decoder = builder.decoder;
+        this.encoder = builder.encoder;
+        this.chain = builder.chain;
+        this.keyFunction = builder.keyFunction;
+        this.journal = builder.journal;
+        this.decodeThreads = builder.decodeThreads;
+        this.filterThreads = builder.filterThreads;
+        this.encodeThreads = builder.encodeThreads;
+        this.queueCapacity = builder.queueCapacity;
+        this.tileExecutor = builder.tileExecutor;
+        this.listener = builder.listener;
+    }
+
+    /**
+     * Processes every source not yet in the journal and returns once all of them are done, or,
+     * after {@code token} (which may be {@code null}) is cancelled, once the images already
+     * being worked on are. If the calling thread is interrupted the run is cancelled the same
+     * way before the {@link InterruptedException} is thrown.
+     */
+    public Progress run(List<S> sources, CancellationToken token) throws IOException, InterruptedException {
+        CancellationToken cancel = token != null ? token : new CancellationToken();
+        Set<String> done = readJournal();
+        List<S> pending = new ArrayList<>();
+        for (S source : sources) {
+            if (!done.contains(keyFunction.apply(source))) {
+                pending.add(source);
+            }
+        }
+        Run run = new Run(sources.size(), sources.size() - pending.size(), pending, cancel);
+        try (OutputStream journalOut = journal != null ? new FileOutputStream(journal, true) : null) {
+            run.journalOut = journalOut;
+            run.start();
+            try {
+                run.finished.await();
+            } catch (InterruptedException e) {
+                cancel.cancel();
+                run.finished.await();
+                throw e;
+            } finally {
+                run.workers.shutdown();
+            }
+        }
+        if (run.journalError != null) {
+            throw run.journalError;
+        }
+        return run.progress();
+    }
+
+    private Set<String> readJournal() throws IOException {
+        Set<String> done = new HashSet<>();
+        if (journal == null || !journal.exists()) return done;
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(journal), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.isEmpty()) {
+                    done.add(line);
+                }
+            }
+        }
+        return done;
+    }
+
+    /**
+     * An image on its way through the stages. {@link #END} tells a worker that its input stage
+     * has finished.
+     */
+    private static final class Item<S> {
+        final S source;
+        final PixelBuffer image;
+
+        Item(S source, PixelBuffer image) {
+            this.source = source;
+            this.image = image;
+        }
+    }
+
+    private static final Item<?> END = new Item<>(null, null);
+
+    /**
+     * The state of one call to {@link #run}.
+     */
+    private final class Run {
+        final int total;
+        final int skipped;
+        final List<S> pending;
+        final CancellationToken token;
+        final AtomicInteger next = new AtomicInteger();
+        final AtomicInteger completed = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final BlockingQueue<Item<S>> decoded = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<Item<S>> filtered = new ArrayBlockingQueue<>(queueCapacity);
+        final BlockingQueue<PixelBuffer> free = new LinkedBlockingQueue<>();
+        final AtomicInteger decodersLeft = new AtomicInteger(decodeThreads);
+        final AtomicInteger filtersLeft = new AtomicInteger(filterThreads);
+        final CountDownLatch finished = new CountDownLatch(encodeThreads);
+        final ExecutorService workers = Executors.newFixedThreadPool(decodeThreads + filterThreads + encodeThreads);
+        OutputStream journalOut;
+        IOException journalError;
+
+        Run(int total, int skipped, List<S> pending, CancellationToken token) {
+            this.total = total;
+            this.skipped = skipped;
+            this.pending = pending;
+            this.token = token;
+        }
+
+        void start() {
+            for (int i = 0; i < decodeThreads; i++) {
+                workers.execute(this::decodeLoop);
+            }
+            for (int i = 0; i < filterThreads; i++) {
+                workers.execute(this::filterLoop);
+            }
+            for (int i = 0; i < encodeThreads; i++) {
+                workers.execute(this::encodeLoop);
+            }
+        }
+
+        Progress progress() {
+            return new Progress(total, skipped, completed.get(), failed.get());
+        }
+
+        private void decodeLoop() {
+            try {
+                int index;
+                while (!token.isCancelled() && (index = next.getAndIncrement()) < pending.size()) {
+                    S source = pending.get(index);
+                    PixelBuffer image;
+                    try (PerfStats.Span span = PerfStats.getDefault().begin("batch:decode")) {
+                        image = decoder.decode(source, free.poll());
+                        span.setPixels(image.size());
+                    } catch (Throwable e) {
+                        fail(source, null, e);
+                        continue;
+                    }
+                    putUninterruptibly(decoded, new Item<>(source, image));
+                }
+            } finally {
+                if (decodersLeft.decrementAndGet() == 0) {
+                    for (int i = 0; i < filterThreads; i++) {
+                        putUninterruptibly(decoded, end());
+                    }
+                }
+            }
+        }
+
+        private void filterLoop() {
+            PixelBuffer scratch = new PixelBuffer(1, 1);
+            try {
+                Item<S> item;
+                while ((item = takeUninterruptibly(decoded)) != END) {
+                    if (token.isCancelled()) {
+                        free.offer(item.image);
+                        continue;
+                    }
+                    try {
+                        chain.apply(item.image, item.image, scratch, tileExecutor);
+                    } catch (Throwable e) {
+                        fail(item.source, item.image, e);
+                        continue;
+                    }
+                    putUninterruptibly(filtered, item);
+                }
+            } finally {
+                if (filtersLeft.decrementAndGet() == 0) {
+                    for (int i = 0; i < encodeThreads; i++) {
+                        putUninterruptibly(filtered, end());
+                    }
+                }
+            }
+        }
+
+        private void encodeLoop() {
+            try {
+                Item<S> item;
+                while ((item = takeUninterruptibly(filtered)) != END) {
+                    if (token.isCancelled()) {
+                        free.offer(item.image);
+                        continue;
+                    }
+                    try (PerfStats.Span span = PerfStats.getDefault().begin("batch:encode")) {
+                        span.setPixels(item.image.size());
+                        encoder.encode(item.source, item.image);
+                    } catch (Throwable e) {
+                        fail(item.source, item.image, e);
+                        continue;
+                    }
+                    free.offer(item.image);
+                    record(item.source);
+                    completed.incrementAndGet();
+                    listener.onProgress(progress());
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+
+        private void record(S source) {
+            if (journalOut == null) return;
+            byte[] line = (keyFunction.apply(source) + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (this) {
+                try {
+                    journalOut.write(line);
+                    journalOut.flush();
+                } catch (IOException e) {
+                    if (journalError == null) {
+                        journalError = e;
+                    }
+                    // Without a journal a resumed run would redo everything from here on.
+                    token.cancel();
+                }
+            }
+        }
+
+        /**
+         * Reports a failed image. The worker carries on taking items until its END marker either
+         * way, so that no stage upstream is left blocked on a full queue; after an {@link Error}
+         * it only drops them.
+         */
+        private void fail(S source, PixelBuffer image, Throwable error) {
+            if (image != null) {
+                free.offer(image);
+            }
+            if (error instanceof Error) {
+                token.cancel();
+            }
+            failed.incrementAndGet();
+            listener.onFailed(source, error);
+            listener.onProgress(progress());
+        }
+
+        @SuppressWarnings("unchecked")
+        private Item<S> end() {
+            return (Item<S>) END;
+        }
+    }
+
+    // The workers are only ever stopped through the token, never by interrupting them, so that
+    // every END marker arrives and no stage waits forever.
+
+    private static <T> void putUninterruptibly(BlockingQueue<T> queue, T element) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(element);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static <T> T takeUninterruptibly(BlockingQueue<T> queue) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return queue.take();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public static final class Builder<S> {
+        private final Decoder<S> decoder;
+        private final Encoder<S> encoder;
+        private final FilterChain chain;
+        private Function<S, String> keyFunction = String::valueOf;
+        private File journal;
+        private int decodeThreads = 1;
+        private int filterThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        private int encodeThreads = 1;
+        private int queueCapacity = 2;
+        private TileExecutor tileExecutor;
+        private Listener<S> listener = new Listener<S>() {
+        };
+
+        public Builder(Decoder<S> decoder, Encoder<S> encoder, FilterChain chain) {
+            this.decoder = decoder;
+            this.encoder = encoder;
+            this.chain = chain;
+        }
+
+        /**
+         * Sets how a source is identified in the journal; {@code toString()} by default. Keys must
+         * not contain line breaks.
+         */
+        public Builder<S> setKeyFunction(Function<S, String> keyFunction) {
+            this.keyFunction = keyFunction;
+            return this;
+        }
+
+        /**
+         * Sets the file that lists finished sources, one key per line. Without one nothing is
+         * resumed.
+         */
+        public Builder<S> setJournal(File journal) {
+            this.journal = journal;
+            return this;
+        }
+
+        public Builder<S> setThreads(int decodeThreads, int filterThreads, int encodeThreads) {
+            if (decodeThreads < 1 || filterThreads < 1 || encodeThreads < 1) {
+                throw new IllegalArgumentException("Every stage needs at least one thread");
+            }
+            this.decodeThreads = decodeThreads;
+            this.filterThreads = filterThreads;
+            this.encodeThreads = encodeThreads;
+            return this;
+        }
+
+        /**
+         * Sets how many images may wait between two stages. Together with the thread counts this
+         * bounds the number of images in memory.
+         */
+        public Builder<S> setQueueCapacity(int queueCapacity) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("Invalid queue capacity " + queueCapacity);
+            }
+            this.queueCapacity = queueCapacity;
+            return this;
+        }
+
+        /**
+         * Additionally splits each image into bands on {@code tileExecutor}; by default every
+         * image is filtered on its worker thread alone, which suits batches of many images.
+         */
+        public Builder<S> setTileExecutor(TileExecutor tileExecutor) {
+            this.tileExecutor = tileExecutor;
+            return this;
+        }
+
+        public Builder<S> setListener(Listener<S> listener) {
+            this.listener = listener;
+            return this;
+        }
+
+        public BatchProcessor<S> build() {
+            return new BatchProcessor<>(this);
+        }
+    }
+}
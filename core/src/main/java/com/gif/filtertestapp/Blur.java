@@ -0,0 +1,285 @@
+package com.gif.filtertestapp;
+
+/**
+ * Constant-time-per-pixel blurs over {@link PixelBuffer}s, with {@link BlurKernel}s.
+ * <p>
+ * The image is blurred along its rows and written out transposed, then the transposed image is
+ * blurred along its rows, which are the original columns, and transposed back. Both passes thus
+ * read memory sequentially, and the transposed writes go out in blocks of
+ * {@value #BLOCK_ROWS} rows so that every cache line written is filled completely. Within a row
+ * the channels are unpacked into planar ints and every stage of the kernel keeps running integer
+ * sums, adding the sample that enters the window and subtracting the one that leaves it. Alpha
+ * is copied from the centre pixel.
+ */
+public final class Blur {
+
+    /** Rows blurred before they are written out as columns together. */
+    static final int BLOCK_ROWS = 16;
+
+    /** Distance from the centre, relative to the inscribed ellipse, where a background blur starts. */
+    static final float FOCUS_INNER = 0.35f;
+    /** Distance from the centre, relative to the inscribed ellipse, where it reaches full strength. */
+    static final float FOCUS_OUTER = 1f;
+
+    // The transposed intermediate image, reused by every blur on the calling thread.
+    private static final ThreadLocal<PixelBuffer> TRANSPOSED = ThreadLocal.withInitial(() -> new PixelBuffer(1, 1));
+
+    private Blur() {
+    }
+
+    /**
+     * Blurs {@code src} into {@code dst} on the calling thread. The buffers must not share pixels.
+     */
+    public static void apply(PixelBuffer src, PixelBuffer dst, BlurKernel kernel, EdgeMode edgeMode) {
+        apply(src, dst, kernel, edgeMode, null, null);
+    }
+
+    /**
+     * Blurs {@code src} into {@code dst}, splitting both passes into bands on {@code executor} (or
+     * running serially if it is {@code null}). {@code token}, which may be {@code null}, is
+     * checked before each band. A relative {@code kernel} is sized for {@code src}.
+     */
+    public static void apply(PixelBuffer src, PixelBuffer dst, BlurKernel kernel, EdgeMode edgeMode,
+                             TileExecutor executor, CancellationToken token) {
+        if (src.getPixels() == dst.getPixels()) {
+            throw new IllegalArgumentException("Blur cannot run in place");
+        }
+        int width = src.getWidth();
+        int height = src.getHeight();
+        kernel = kernel.forImage(width, height);
+        dst.reshape(width, height);
+        PixelBuffer transposed = TRANSPOSED.get();
+        transposed.reshape(height, width);
+
+        Stages across = new Stages(kernel, edgeMode, width);
+        int[] in = src.getPixels();
+        int[] mid = transposed.getPixels();
+        forEachBand(executor, width, height,
+                (startRow, endRow) -> blurRowsTransposed(in, mid, width, height, across, startRow, endRow), token);
+
+        Stages down = new Stages(kernel, edgeMode, height);
+        int[] out = dst.getPixels();
+        forEachBand(executor, height, width,
+                (startRow, endRow) -> blurRowsTransposed(mid, out, height, width, down, startRow, endRow), token);
+    }
+
+    /**
+     * Turns rows of {@code dst}, which holds the blur of {@code src}, into the unsharp mask
+     * {@code src + amount * (src - blur)}, with {@code amount} in 1/256ths.
+     */
+    static void unsharpRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, int amount) {
+        int[] in = src.getPixels();
+        int[] out = dst.getPixels();
+        int end = endRow * src.getWidth();
+        for (int i = startRow * src.getWidth(); i < end; i++) {
+            int p = in[i];
+            int b = out[i];
+            out[i] = (p & 0xFF000000)
+                    | (sharpen((p >> 16) & 0xFF, (b >> 16) & 0xFF, amount) << 16)
+                    | (sharpen((p >> 8) & 0xFF, (b >> 8) & 0xFF, amount) << 8)
+                    | sharpen(p & 0xFF, b & 0xFF, amount);
+        }
+    }
+
+    private static int sharpen(int value, int blurred, int amount) {
+        return ColorMatrices.clamp(value + (((value - blurred) * amount + 128) >> 8));
+    }
+
+    /**
+     * Turns rows of {@code dst}, which holds the blur of {@code src}, into a background blur:
+     * {@code src} stays sharp in an ellipse around the image centre and fades into the blur
+     * towards the edges. {@code src} is the tile at ({@code left}, {@code top}) of an
+     * {@code imageWidth} x {@code imageHeight} image; the fade is computed in image coordinates.
+     */
+    static void backgroundRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow,
+                               int imageWidth, int imageHeight, int left, int top) {
+        int width = src.getWidth();
+        int[] in = src.getPixels();
+        int[] out = dst.getPixels();
+        float cx = imageWidth / 2f;
+        float cy = imageHeight / 2f;
+        for (int y = startRow; y < endRow; y++) {
+            float dy = (top + y + 0.5f - cy) / cy;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                float dx = (left + x + 0.5f - cx) / cx;
+                float t = (float) Math.sqrt(dx * dx + dy * dy);
+                if (t >= FOCUS_OUTER) continue;
+                int p = in[row + x];
+                if (t <= FOCUS_INNER) {
+                    out[row + x] = p;
+                    continue;
+                }
+                int weight = (int) ((t - FOCUS_INNER) / (FOCUS_OUTER - FOCUS_INNER) * 256 + 0.5f);
+                int b = out[row + x];
+                out[row + x] = (p & 0xFF000000)
+                        | (mix((p >> 16) & 0xFF, (b >> 16) & 0xFF, weight) << 16)
+                        | (mix((p >> 8) & 0xFF, (b >> 8) & 0xFF, weight) << 8)
+                        | mix(p & 0xFF, b & 0xFF, weight);
+            }
+        }
+    }
+
+    private static int mix(int value, int blurred, int weight) {
+        return value + (((blurred - value) * weight + 128) >> 8);
+    }
+
+    private static void forEachBand(TileExecutor executor, int width, int height, TileExecutor.BandKernel kernel,
+                                    CancellationToken token) {
+        if (executor == null) {
+            kernel.processRows(0, height);
+        } else {
+            executor.forEachBand(width, height, kernel, token);
+        }
+    }
+
+    /**
+     * Blurs rows {@code [startRow, endRow)} of {@code in}, a {@code width} x {@code height} image,
+     * along the row and stores them as the same columns of {@code out}, a {@code height} x
+     * {@code width} image.
+     */
+    private static void blurRowsTransposed(int[] in, int[] out, int width, int height, Stages stages,
+                                           int startRow, int endRow) {
+        int[] red = new int[width];
+        int[] green = new int[width];
+        int[] blue = new int[width];
+        int[] padded = new int[stages.paddedLength];
+        int[] block = new int[BLOCK_ROWS * width];
+        for (int blockRow = startRow; blockRow < endRow; blockRow += BLOCK_ROWS) {
+            int rows = Math.min(BLOCK_ROWS, endRow - blockRow);
+            for (int b = 0; b < rows; b++) {
+                int rowOffset = (blockRow + b) * width;
+                unpack(in, rowOffset, width, red, green, blue);
+                stages.filter(red, padded);
+                stages.filter(green, padded);
+                stages.filter(blue, padded);
+                pack(in, rowOffset, width, red, green, blue, block, b * width);
+            }
+            transpose(block, rows, width, out, height, blockRow);
+        }
+    }
+
+    // Small per-row loops for the same reason as in Convolution.
+
+    private static void unpack(int[] in, int rowOffset, int width, int[] red, int[] green, int[] blue) {
+        for (int x = 0; x < width; x++) {
+            int p = in[rowOffset + x];
+            red[x] = (p >> 16) & 0xFF;
+            green[x] = (p >> 8) & 0xFF;
+            blue[x] = p & 0xFF;
+        }
+    }
+
+    private static void pack(int[] in, int rowOffset, int width, int[] red, int[] green, int[] blue,
+                             int[] target, int targetOffset) {
+        for (int x = 0; x < width; x++) {
+            target[targetOffset + x] = (in[rowOffset + x] & 0xFF000000) | (red[x] << 16) | (green[x] << 8) | blue[x];
+        }
+    }
+
+    /**
+     * Writes {@code rows} rows of {@code width} pixels from {@code block} into columns
+     * {@code column ..} of {@code out}, whose rows are {@code height} pixels long.
+     */
+    private static void transpose(int[] block, int rows, int width, int[] out, int height, int column) {
+        for (int x = 0; x < width; x++) {
+            int outOffset = x * height + column;
+            for (int b = 0; b < rows; b++) {
+                out[outOffset + b] = block[b * width + x];
+            }
+        }
+    }
+
+    /**
+     * The stages of a kernel for lines of one length, with the padding resolved through the
+     * {@link EdgeMode} in advance so that the running sums need no bounds checks.
+     */
+    private static final class Stages {
+        final boolean triangular;
+        final int[] radii;
+        // Source index of every padded sample, and the reciprocal of the weight sum as a 32-bit
+        // fraction.
+        final int[][] maps;
+        final long[] reciprocals;
+        final int paddedLength;
+
+        Stages(BlurKernel kernel, EdgeMode edgeMode, int length) {
+            triangular = kernel.isTriangular();
+            radii = kernel.radii();
+            maps = new int[radii.length][];
+            reciprocals = new long[radii.length];
+            int longest = 0;
+            for (int s = 0; s < radii.length; s++) {
+                int radius = radii[s];
+                int[] map = new int[length + 2 * radius + (triangular ? 2 : 1)];
+                for (int i = 0; i < map.length; i++) {
+                    map[i] = edgeMode.map(i - radius, length);
+                }
+                maps[s] = map;
+                long weightSum = triangular ? (long) (radius + 1) * (radius + 1) : 2 * radius + 1;
+                reciprocals[s] = ((1L << 32) + weightSum / 2) / weightSum;
+                longest = Math.max(longest, map.length);
+            }
+            paddedLength = longest;
+        }
+
+        /**
+         * Runs every stage over one channel of a line, in place.
+         */
+        void filter(int[] values, int[] padded) {
+            for (int s = 0; s < radii.length; s++) {
+                if (radii[s] == 0) continue;
+                int[] map = maps[s];
+                for (int i = 0; i < map.length; i++) {
+                    padded[i] = values[map[i]];
+                }
+                if (triangular) {
+                    triangle(padded, values, radii[s], reciprocals[s]);
+                } else {
+                    box(padded, values, radii[s], reciprocals[s]);
+                }
+            }
+        }
+
+        /**
+         * Box average: the sum over the window gains the sample entering on the right and loses
+         * the one leaving on the left.
+         */
+        private static void box(int[] padded, int[] values, int radius, long reciprocal) {
+            int span = 2 * radius + 1;
+            int sum = 0;
+            for (int i = 0; i < span; i++) {
+                sum += padded[i];
+            }
+            for (int x = 0; x < values.length; x++) {
+                values[x] = (int) ((sum * reciprocal + (1L << 31)) >>> 32);
+                sum += padded[x + span] - padded[x];
+            }
+        }
+
+        /**
+         * Triangle-weighted average. Moving the window by one adds 1 to the weights of the samples
+         * right of the centre and subtracts 1 from the others, so the weighted sum changes by the
+         * difference of the two halves, and each half is itself a running sum.
+         */
+        private static void triangle(int[] padded, int[] values, int radius, long reciprocal) {
+            int sum = 0;
+            for (int k = 0; k <= 2 * radius; k++) {
+                sum += (radius + 1 - Math.abs(k - radius)) * padded[k];
+            }
+            // Samples leaving weight (the centre and left) and gaining it (right, shifted by one).
+            int sumOut = 0;
+            int sumIn = 0;
+            for (int k = 0; k <= radius; k++) {
+                sumOut += padded[k];
+                sumIn += padded[radius + 1 + k];
+            }
+            for (int x = 0; x < values.length; x++) {
+                values[x] = (int) ((sum * reciprocal + (1L << 31)) >>> 32);
+                sum += sumIn - sumOut;
+                sumOut += padded[x + radius + 1] - padded[x];
+                sumIn += padded[x + 2 * radius + 2] - padded[x + radius + 1];
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.gif.filtertestapp;
+
+import java.util.Arrays;
+
+/**
+ * A blur made of running-sum stages, run by {@link Blur} along rows and then along columns.
+ * <p>
+ * Every stage is either a box, the plain average of the {@code 2r + 1} samples around a pixel, or
+ * a stack blur, the triangle-weighted average of the same samples. Both are updated in constant
+ * time when the window moves by one pixel, so the cost per pixel does not depend on the radius.
+ * A Gaussian is approximated by three box stages whose combined variance matches it.
+ * <p>
+ * Kernels are either fixed in pixels or, from {@link #relativeGaussian}, sized relative to the
+ * image, and then only resolved into stages by {@link #forImage} once the image size is known.
+ */
+public final class BlurKernel {
+
+    /** Largest radius of a single stage. */
+    public static final int MAX_RADIUS = 1000;
+
+    private final String name;
+    private final boolean triangular;
+    private final int[] radii;
+    // Standard deviation at an image whose shorter side is referenceSize, or 0 for fixed kernels.
+    private final float relativeSigma;
+    private final int referenceSize;
+
+    private BlurKernel(String name, boolean triangular, int[] radii) {
+        this(name, triangular, radii, 0, 0);
+    }
+
+    private BlurKernel(String name, boolean triangular, int[] radii, float relativeSigma, int referenceSize) {
+        this.name = name;
+        this.triangular = triangular;
+        this.radii = radii;
+        this.relativeSigma = relativeSigma;
+        this.referenceSize = referenceSize;
+    }
+
+    /**
+     * The unweighted average of the {@code (2 * radius + 1)^2} pixels around each pixel.
+     */
+    public static BlurKernel box(int radius) {
+        checkRadius(radius);
+        return new BlurKernel("box(" + radius + ")", false, new int[]{radius});
+    }
+
+    /**
+     * Stack blur: weights fall off linearly from {@code radius + 1} at the centre to 1 at
+     * {@code radius} pixels, in each direction. Smoother than a box of the same radius at the
+     * same cost.
+     */
+    public static BlurKernel stack(int radius) {
+        checkRadius(radius);
+        return new BlurKernel("stack(" + radius + ")", true, new int[]{radius});
+    }
+
+    /**
+     * Three box blurs with the variance of a Gaussian with standard deviation {@code sigma}
+     * pixels.
+     */
+    public static BlurKernel gaussian(float sigma) {
+        if (!(sigma > 0)) {
+            throw new IllegalArgumentException("Invalid sigma " + sigma);
+        }
+        int[] radii = gaussianBoxRadii(sigma, 3);
+        for (int radius : radii) {
+            checkRadius(radius);
+        }
+        return new BlurKernel("gaussian(" + sigma + ")", false, radii);
+    }
+
+    /**
+     * A {@link #gaussian} with standard deviation {@code sigma} pixels on an image whose shorter
+     * side is {@code referenceSize} pixels, scaled in proportion on other images, so that a proxy,
+     * a preview and the full-resolution image come out blurred alike.
+     */
+    public static BlurKernel relativeGaussian(float sigma, int referenceSize) {
+        if (referenceSize <= 0) {
+            throw new IllegalArgumentException("Invalid reference size " + referenceSize);
+        }
+        BlurKernel reference = gaussian(sigma);
+        return new BlurKernel("gaussian(" + sigma + "/" + referenceSize + ")", false, reference.radii,
+                sigma, referenceSize);
+    }
+
+    /**
+     * Returns the fixed kernel to use on a {@code width} x {@code height} image: this kernel
+     * itself unless it is relative to the image size.
+     */
+    public BlurKernel forImage(int width, int height) {
+        if (referenceSize == 0) return this;
+        int shorterSide = Math.max(1, Math.min(width, height));
+        if (shorterSide == referenceSize) return gaussian(relativeSigma);
+        return gaussian(Math.min(MAX_RADIUS, relativeSigma * shorterSide / referenceSize));
+    }
+
+    /**
+     * Radii of {@code count} box blurs whose widths differ by at most 2 and whose variances add
+     * up as close as possible to {@code sigma^2}.
+     */
+    static int[] gaussianBoxRadii(float sigma, int count) {
+        double variance = (double) sigma * sigma;
+        int lower = (int) Math.floor(Math.sqrt(12 * variance / count + 1));
+        if (lower % 2 == 0) lower--;
+        int upper = lower + 2;
+        // Number of boxes of the lower width that brings the total variance closest to sigma^2.
+        int lowerCount = (int) Math.round((12 * variance - count * lower * lower - 4 * count * lower - 3 * count)
+                / (-4.0 * lower - 4));
+        lowerCount = Math.max(0, Math.min(count, lowerCount));
+        int[] radii = new int[count];
+        for (int i = 0; i < count; i++) {
+            radii[i] = ((i < lowerCount ? lower : upper) - 1) / 2;
+        }
+        return radii;
+    }
+
+    /**
+     * How far, in pixels, the blur reads around each output pixel; for a relative kernel, on an
+     * image of the reference size.
+     */
+    public int getRadius() {
+        int radius = 0;
+        for (int r : radii) {
+            radius += r;
+        }
+        return radius;
+    }
+
+    /**
+     * Describes the kernel, such as {@code "gaussian(4.0)"}; equal kernels have equal names.
+     */
+    public String getName() {
+        return name;
+    }
+
+    boolean isTriangular() {
+        return triangular;
+    }
+
+    int[] radii() {
+        return radii;
+    }
+
+    @Override
+    public String toString() {
+        return name + Arrays.toString(radii);
+    }
+
+    private static void checkRadius(int radius) {
+        if (radius < 0 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Invalid blur radius " + radius);
+        }
+    }
+}
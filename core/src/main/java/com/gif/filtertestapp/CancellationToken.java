@@ -0,0 +1,28 @@
+package com.gif.filtertestapp;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cooperative cancellation flag checked by long-running pixel work between bands and passes.
+ */
+public final class CancellationToken {
+
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @throws CancellationException if {@link #cancel()} has been called
+     */
+    public void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.gif.filtertestapp;
+
+/**
+ * Plain-Java 4x5 color matrices in the row-major layout used by {@code android.graphics.ColorMatrix}.
+ * <p>
+ * The factories reproduce the matrices that {@code FilterUtils} builds with the framework class, so
+ * the same filters can run on a {@link PixelBuffer} in unit tests and off the Canvas path.
+ */
+public final class ColorMatrices {
+
+    /** Fractional bits of the fixed-point coefficients used by {@link #apply}. */
+    private static final int SHIFT = 12;
+    private static final int ONE = 1 << SHIFT;
+    private static final int HALF = ONE >> 1;
+
+    private ColorMatrices() {
+    }
+
+    public static float[] identity() {
+        return new float[]{
+                1, 0, 0, 0, 0,
+                0, 1, 0, 0, 0,
+                0, 0, 1, 0, 0,
+                0, 0, 0, 1, 0
+        };
+    }
+
+    /**
+     * Same as {@code ColorMatrix.setSaturation}.
+     */
+    public static float[] saturation(float sat) {
+        float invSat = 1 - sat;
+        float r = 0.213f * invSat;
+        float g = 0.715f * invSat;
+        float b = 0.072f * invSat;
+        return new float[]{
+                r + sat, g, b, 0, 0,
+                r, g + sat, b, 0, 0,
+                r, g, b + sat, 0, 0,
+                0, 0, 0, 1, 0
+        };
+    }
+
+    /**
+     * Same as {@code ColorMatrix.setScale}.
+     */
+    public static float[] scale(float rScale, float gScale, float bScale, float aScale) {
+        return new float[]{
+                rScale, 0, 0, 0, 0,
+                0, gScale, 0, 0, 0,
+                0, 0, bScale, 0, 0,
+                0, 0, 0, aScale, 0
+        };
+    }
+
+    /**
+     * Returns the matrix that applies {@code first} and then {@code then}, the equivalent of
+     * {@code first.postConcat(then)}.
+     */
+    public static float[] concat(float[] first, float[] then) {
+        float[] result = new float[20];
+        int index = 0;
+        for (int j = 0; j < 20; j += 5) {
+            for (int i = 0; i < 4; i++) {
+                result[index++] = then[j] * first[i] + then[j + 1] * first[i + 5]
+                        + then[j + 2] * first[i + 10] + then[j + 3] * first[i + 15];
+            }
+            result[index++] = then[j] * first[4] + then[j + 1] * first[9]
+                    + then[j + 2] * first[14] + then[j + 3] * first[19] + then[j + 4];
+        }
+        return result;
+    }
+
+    public static float[] grayscale() {
+        return saturation(0);
+    }
+
+    public static float[] sepia() {
+        return concat(saturation(0), scale(1f, 1f, 0.8f, 1f));
+    }
+
+    public static float[] invert() {
+        return new float[]{
+                -1, 0, 0, 0, 255,
+                0, -1, 0, 0, 255,
+                0, 0, -1, 0, 255,
+                0, 0, 0, 1, 0
+        };
+    }
+
+    public static float[] vintage() {
+        return concat(saturation(0.8f), scale(1f, 0.95f, 1.1f, 1f));
+    }
+
+    public static float[] brightness(float offset) {
+        return new float[]{
+                1, 0, 0, 0, offset,
+                0, 1, 0, 0, offset,
+                0, 0, 1, 0, offset,
+                0, 0, 0, 1, 0
+        };
+    }
+
+    public static float[] contrast(float contrast) {
+        float translation = 128f * (1.0f - contrast);
+        return new float[]{
+                contrast, 0, 0, 0, translation,
+                0, contrast, 0, 0, translation,
+                0, 0, contrast, 0, translation,
+                0, 0, 0, 1, 0
+        };
+    }
+
+    public static float[] winter() {
+        return concat(saturation(0.6f), scale(0.9f, 1f, 1.2f, 1f));
+    }
+
+    /**
+     * Parses a comma separated list of 20 floats, optionally wrapped in brackets.
+     *
+     * @return the matrix, or {@code null} if the string does not describe a valid matrix
+     */
+    public static float[] parse(String colorMatrixString) {
+        if (colorMatrixString == null) return null;
+        String[] values = colorMatrixString.replaceAll("\\[|\\]", "").split(",");
+        if (values.length != 20) {
+            return null;
+        }
+        float[] matrix = new float[20];
+        try {
+            for (int i = 0; i < 20; i++) {
+                matrix[i] = Float.parseFloat(values[i].trim());
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return matrix;
+    }
+
+    /**
+     * Converts a float matrix into the fixed-point form consumed by {@link #apply}.
+     * Coefficients are clamped so the per-channel sum cannot overflow an int.
+     */
+    public static int[] toFixedPoint(float[] matrix) {
+        int[] fixed = new int[20];
+        for (int i = 0; i < 20; i++) {
+            float limit = (i % 5 == 4) ? 32768f : 128f;
+            float value = Math.max(-limit, Math.min(limit, matrix[i]));
+            fixed[i] = Math.round(value * ONE);
+        }
+        return fixed;
+    }
+
+    /**
+     * Applies a fixed-point matrix to pixels {@code [from, to)} of {@code src}, writing the same
+     * indices of {@code dst}. The arrays may be the same.
+     */
+    public static void apply(int[] m, int[] src, int[] dst, int from, int to) {
+        int m0 = m[0], m1 = m[1], m2 = m[2], m3 = m[3], m4 = m[4] + HALF;
+        int m5 = m[5], m6 = m[6], m7 = m[7], m8 = m[8], m9 = m[9] + HALF;
+        int m10 = m[10], m11 = m[11], m12 = m[12], m13 = m[13], m14 = m[14] + HALF;
+        int m15 = m[15], m16 = m[16], m17 = m[17], m18 = m[18], m19 = m[19] + HALF;
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            int a = p >>> 24;
+            int r = (p >> 16) & 0xFF;
+            int g = (p >> 8) & 0xFF;
+            int b = p & 0xFF;
+            int nr = clamp((m0 * r + m1 * g + m2 * b + m3 * a + m4) >> SHIFT);
+            int ng = clamp((m5 * r + m6 * g + m7 * b + m8 * a + m9) >> SHIFT);
+            int nb = clamp((m10 * r + m11 * g + m12 * b + m13 * a + m14) >> SHIFT);
+            int na = clamp((m15 * r + m16 * g + m17 * b + m18 * a + m19) >> SHIFT);
+            dst[i] = (na << 24) | (nr << 16) | (ng << 8) | nb;
+        }
+    }
+
+    static int clamp(int value) {
+        return value < 0 ? 0 : (value > 255 ? 255 : value);
+    }
+}
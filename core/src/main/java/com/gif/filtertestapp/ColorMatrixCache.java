@@ -0,0 +1,193 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers which color matrix the model produced for a filter description.
+ * <p>
+ * Descriptions are normalized (trimmed, lower case, whitespace collapsed) so trivial variations hit
+ * the same entry. Matrices are kept in an LRU map and written to a small text file, so a
+ * description used before resolves immediately, also after a restart. While the model is still
+ * working on a description, further requests for it share the same future instead of calling the
+ * model again. Replies that do not parse as a matrix fail the future and are not cached.
+ */
+public final class ColorMatrixCache {
+
+    private static final Logger LOG = Logger.getLogger(ColorMatrixCache.class.getName());
+
+    private final ColorMatrixModel model;
+    private final File file;
+    private final int maxEntries;
+    private final Executor ioExecutor;
+
+    private final LinkedHashMap<String, float[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<String, ListenableFuture<float[]>> inFlight = new HashMap<>();
+
+    /**
+     * Creates the cache and starts loading {@code file} on {@code ioExecutor}, which also writes
+     * every change back.
+     */
+    public ColorMatrixCache(ColorMatrixModel model, File file, int maxEntries, Executor ioExecutor) {
+        this.model = model;
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.ioExecutor = ioExecutor;
+        ioExecutor.execute(this::load);
+    }
+
+    /**
+     * Returns the matrix for {@code description}, from the cache if possible. The returned array is
+     * a copy the caller may keep.
+     */
+    public ListenableFuture<float[]> get(String description) {
+        String key = normalize(description);
+        SettableFuture<float[]> result;
+        synchronized (this) {
+            float[] cached = entries.get(key);
+            if (cached != null) {
+                return Futures.immediateFuture(cached.clone());
+            }
+            ListenableFuture<float[]> pending = inFlight.get(key);
+            if (pending != null) {
+                return copyOf(pending);
+            }
+            result = SettableFuture.create();
+            inFlight.put(key, result);
+        }
+        ListenableFuture<String> reply;
+        try {
+            reply = PerfStats.getDefault().recordFuture("model:colorMatrix", model.generate(description.trim()));
+        } catch (RuntimeException e) {
+            reply = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(reply, new FutureCallback<String>() {
+            @Override
+            public void onSuccess(String text) {
+                float[] matrix = ColorMatrices.parse(text);
+                synchronized (ColorMatrixCache.this) {
+                    inFlight.remove(key);
+                    if (matrix != null) {
+                        put(key, matrix);
+                    }
+                }
+                if (matrix == null) {
+                    result.setException(new IllegalArgumentException("Invalid color matrix string: " + text));
+                } else {
+                    ioExecutor.execute(ColorMatrixCache.this::save);
+                    result.set(matrix);
+                }
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+                synchronized (ColorMatrixCache.this) {
+                    inFlight.remove(key);
+                }
+                result.setException(t);
+            }
+        }, MoreExecutors.directExecutor());
+        return copyOf(result);
+    }
+
+    /**
+     * Returns the key a description is stored under.
+     */
+    static String normalize(String description) {
+        return description.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private static ListenableFuture<float[]> copyOf(ListenableFuture<float[]> future) {
+        return Futures.transform(future, float[]::clone, MoreExecutors.directExecutor());
+    }
+
+    private void put(String key, float[] matrix) {
+        entries.put(key, matrix);
+        if (entries.size() > maxEntries) {
+            String eldest = entries.keySet().iterator().next();
+            entries.remove(eldest);
+        }
+    }
+
+    /**
+     * Reads the file, one {@code description<TAB>matrix} line per entry, oldest first. Entries
+     * added while loading win over the file.
+     */
+    private void load() {
+        if (!file.exists()) return;
+        Map<String, float[]> loaded = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int tab = line.indexOf('\t');
+                if (tab < 0) continue;
+                float[] matrix = ColorMatrices.parse(line.substring(tab + 1));
+                if (matrix != null) {
+                    loaded.put(line.substring(0, tab), matrix);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to read " + file, e);
+            return;
+        }
+        synchronized (this) {
+            Map<String, float[]> newer = new LinkedHashMap<>(entries);
+            entries.clear();
+            for (Map.Entry<String, float[]> entry : loaded.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+            for (Map.Entry<String, float[]> entry : newer.entrySet()) {
+                put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void save() {
+        Map<String, float[]> snapshot;
+        synchronized (this) {
+            snapshot = new LinkedHashMap<>(entries);
+        }
+        File temp = new File(file.getPath() + ".tmp");
+        try (Writer writer = new BufferedWriter(
+                new OutputStreamWriter(new FileOutputStream(temp), StandardCharsets.UTF_8))) {
+            for (Map.Entry<String, float[]> entry : snapshot.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write('\t');
+                float[] matrix = entry.getValue();
+                for (int i = 0; i < matrix.length; i++) {
+                    if (i > 0) writer.write(',');
+                    writer.write(Float.toString(matrix[i]));
+                }
+                writer.write('\n');
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to write " + file, e);
+            return;
+        }
+        if (!temp.renameTo(file)) {
+            LOG.warning("Failed to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Turns a free-text filter description into the raw text of a 4x5 color matrix, as understood by
+ * {@link ColorMatrices#parse}.
+ */
+public interface ColorMatrixModel {
+    ListenableFuture<String> generate(String description);
+}
@@ -0,0 +1,483 @@
+package com.gif.filtertestapp;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A set of up to 256 opaque colors with a fast nearest-color lookup, for posterizing and for
+ * indexed output such as GIF.
+ * <p>
+ * {@link #fromImage} picks the colors by median cut: the opaque pixels of a sample of the image
+ * are counted in a histogram of 32 levels per channel, and the box of histogram cells with the
+ * largest squared error is split along its widest axis until there are enough boxes; each color is
+ * the mean of the pixels in its box. Rather than at the median, a box is split where the squared
+ * errors of the two halves add up to the least, which keeps clusters of similar colors together.
+ * An image with no more distinct colors than requested gets exactly those colors instead.
+ * <p>
+ * Nearest colors are looked up in an inverse color cube: for each of the 32^3 histogram cells the
+ * index of the palette color nearest to the centre of the cell, found once when the palette is
+ * created. Mapping a pixel then costs a table read instead of a search of the palette. Colors of
+ * the palette itself always map to themselves.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class ColorPalette {
+
+    public static final int MAX_COLORS = 256;
+
+    /** Bits per channel of the histogram and the inverse cube. */
+    private static final int CELL_BITS = 5;
+    private static final int CELLS = 1 << (3 * CELL_BITS);
+    /** Pixels counted for the histogram of a large image. */
+    private static final int MAX_SAMPLES = 1 << 18;
+    /** Open-addressing table for the exact colors, at most half full. */
+    private static final int EXACT_BITS = 9;
+    private static final int EXACT_TABLE_SIZE = 1 << EXACT_BITS;
+
+    // The histogram of the image being quantized, reused by every palette built on the thread.
+    private static final ThreadLocal<Histogram> HISTOGRAM = ThreadLocal.withInitial(Histogram::new);
+
+    private final int[] colors;
+    private final byte[] inverse;
+    // Each color of the palette at its hash slot, or 0, for colors that must map exactly, and
+    // a bit per cell that holds one of them so that other pixels skip the hash lookup.
+    private final int[] exactColors;
+    private final long[] exactCells;
+    private final byte[] exactIndices;
+    private final String key;
+
+    private ColorPalette(int[] colors) {
+        this.colors = colors;
+        this.inverse = inverseCube(colors);
+        this.exactColors = new int[EXACT_TABLE_SIZE];
+        this.exactIndices = new byte[EXACT_TABLE_SIZE];
+        this.exactCells = new long[CELLS / 64];
+        for (int i = 0; i < colors.length; i++) {
+            int cell = cell(colors[i]);
+            exactCells[cell >>> 6] |= 1L << cell;
+            int slot = slot(exactColors, colors[i]);
+            if (exactColors[slot] == 0) {
+                exactColors[slot] = colors[i];
+                exactIndices[slot] = (byte) i;
+            }
+        }
+        ByteBuffer bytes = ByteBuffer.allocate(4 * colors.length);
+        bytes.asIntBuffer().put(colors);
+        this.key = ImagePayload.sha256(bytes.array());
+    }
+
+    /**
+     * Returns a palette of the given colors, in that order. Alpha is ignored.
+     */
+    public static ColorPalette of(int... colors) {
+        if (colors.length < 1 || colors.length > MAX_COLORS) {
+            throw new IllegalArgumentException("Invalid number of colors " + colors.length);
+        }
+        int[] opaque = new int[colors.length];
+        for (int i = 0; i < colors.length; i++) {
+            opaque[i] = 0xFF000000 | colors[i];
+        }
+        return new ColorPalette(opaque);
+    }
+
+    /**
+     * Returns a palette of at most {@code maxColors} colors for the opaque pixels of
+     * {@code image}, those with an alpha of at least one half. An image without any gets a
+     * palette of black.
+     */
+    public static ColorPalette fromImage(PixelBuffer image, int maxColors) {
+        if (maxColors < 1 || maxColors > MAX_COLORS) {
+            throw new IllegalArgumentException("Invalid number of colors " + maxColors);
+        }
+        try (PerfStats.Span span = PerfStats.getDefault().begin("palette")) {
+            span.setPixels(image.size());
+            int[] exact = distinctColors(image.getPixels(), image.size(), maxColors);
+            if (exact != null) {
+                return new ColorPalette(exact.length > 0 ? exact : new int[]{0xFF000000});
+            }
+            Histogram histogram = HISTOGRAM.get();
+            histogram.count(image);
+            return new ColorPalette(histogram.medianCut(maxColors));
+        }
+    }
+
+    public int size() {
+        return colors.length;
+    }
+
+    /**
+     * Returns the colors, all opaque.
+     */
+    public int[] getColors() {
+        return colors.clone();
+    }
+
+    public int getColor(int index) {
+        return colors[index];
+    }
+
+    /**
+     * Identifies the colors and their order.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the index of the palette color nearest to {@code color}, ignoring alpha.
+     */
+    public int indexOf(int color) {
+        int cell = cell(color);
+        if ((exactCells[cell >>> 6] & 1L << cell) != 0) {
+            int opaque = 0xFF000000 | color;
+            int slot = slot(exactColors, opaque);
+            if (exactColors[slot] == opaque) {
+                return exactIndices[slot] & 0xFF;
+            }
+        }
+        return inverse[cell] & 0xFF;
+    }
+
+    /**
+     * Replaces pixels {@code [from, to)} of {@code src} by their nearest palette colors in
+     * {@code dst}, keeping their alpha.
+     */
+    public void map(int[] src, int[] dst, int from, int to) {
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            dst[i] = (p & 0xFF000000) | (colors[indexOf(p)] & 0xFFFFFF);
+        }
+    }
+
+    /**
+     * Writes the palette index of each of the first {@code count} pixels of {@code src} to
+     * {@code dst}, or {@code transparentIndex} for pixels with an alpha below one half.
+     *
+     * @return whether any pixel was transparent
+     */
+    boolean index(int[] src, byte[] dst, int count, int transparentIndex) {
+        boolean transparent = false;
+        for (int i = 0; i < count; i++) {
+            int p = src[i];
+            if (p >>> 31 == 0) {
+                dst[i] = (byte) transparentIndex;
+                transparent = true;
+            } else {
+                dst[i] = (byte) indexOf(p);
+            }
+        }
+        return transparent;
+    }
+
+    private static int cell(int color) {
+        return (color >> 9) & 0x7C00 | (color >> 6) & 0x3E0 | (color >> 3) & 0x1F;
+    }
+
+    private static int slot(int[] table, int color) {
+        int slot = (color * 0x9E3779B1) >>> (32 - EXACT_BITS);
+        while (table[slot] != 0 && table[slot] != color) {
+            slot = (slot + 1) & (EXACT_TABLE_SIZE - 1);
+        }
+        return slot;
+    }
+
+    /**
+     * Returns the distinct opaque colors of the first {@code count} pixels, or {@code null} as
+     * soon as there are more than {@code maxColors}. Photos give up within a few rows.
+     */
+    private static int[] distinctColors(int[] pixels, int count, int maxColors) {
+        int[] table = new int[EXACT_TABLE_SIZE];
+        int[] found = new int[maxColors];
+        int size = 0;
+        int last = 0;
+        for (int i = 0; i < count; i++) {
+            int p = pixels[i];
+            if (p >>> 31 == 0) continue;
+            int color = p | 0xFF000000;
+            if (color == last) continue;
+            last = color;
+            int slot = slot(table, color);
+            if (table[slot] == 0) {
+                if (size == maxColors) return null;
+                table[slot] = color;
+                found[size++] = color;
+            }
+        }
+        return Arrays.copyOf(found, size);
+    }
+
+    /**
+     * For every cell of the histogram, finds the nearest color to its centre. The colors are
+     * sorted by green so that the search can stop once the green difference alone exceeds the
+     * best distance so far.
+     */
+    private static byte[] inverseCube(int[] colors) {
+        int n = colors.length;
+        long[] byGreen = new long[n];
+        for (int i = 0; i < n; i++) {
+            byGreen[i] = (long) ((colors[i] >> 8) & 0xFF) << 32 | i;
+        }
+        Arrays.sort(byGreen);
+        int[] reds = new int[n];
+        int[] greens = new int[n];
+        int[] blues = new int[n];
+        int[] indices = new int[n];
+        for (int k = 0; k < n; k++) {
+            int i = (int) byGreen[k];
+            indices[k] = i;
+            reds[k] = (colors[i] >> 16) & 0xFF;
+            greens[k] = (colors[i] >> 8) & 0xFF;
+            blues[k] = colors[i] & 0xFF;
+        }
+        int shift = 8 - CELL_BITS;
+        int half = 1 << (shift - 1);
+        byte[] inverse = new byte[CELLS];
+        for (int gc = 0; gc < 1 << CELL_BITS; gc++) {
+            int g = gc << shift | half;
+            // Where the colors with the nearest green start; the search walks outwards from there.
+            int start = 0;
+            while (start < n && greens[start] < g) start++;
+            for (int rc = 0; rc < 1 << CELL_BITS; rc++) {
+                int r = rc << shift | half;
+                for (int bc = 0; bc < 1 << CELL_BITS; bc++) {
+                    int b = bc << shift | half;
+                    int best = -1;
+                    int bestDistance = Integer.MAX_VALUE;
+                    for (int up = start, down = start - 1; up < n || down >= 0; up++, down--) {
+                        boolean searched = false;
+                        if (up < n) {
+                            int dg = greens[up] - g;
+                            if (dg * dg < bestDistance) {
+                                searched = true;
+                                int dr = reds[up] - r;
+                                int db = blues[up] - b;
+                                int distance = dr * dr + dg * dg + db * db;
+                                if (distance < bestDistance || (distance == bestDistance && indices[up] < best)) {
+                                    bestDistance = distance;
+                                    best = indices[up];
+                                }
+                            } else {
+                                up = n;
+                            }
+                        }
+                        if (down >= 0) {
+                            int dg = greens[down] - g;
+                            if (dg * dg < bestDistance) {
+                                searched = true;
+                                int dr = reds[down] - r;
+                                int db = blues[down] - b;
+                                int distance = dr * dr + dg * dg + db * db;
+                                if (distance < bestDistance || (distance == bestDistance && indices[down] < best)) {
+                                    bestDistance = distance;
+                                    best = indices[down];
+                                }
+                            } else {
+                                down = -1;
+                            }
+                        }
+                        if (!searched) break;
+                    }
+                    inverse[rc << (2 * CELL_BITS) | gc << CELL_BITS | bc] = (byte) best;
+                }
+            }
+        }
+        return inverse;
+    }
+
+    /**
+     * Pixel counts and channel sums per cell of a sampled image, and the median cut over them.
+     */
+    private static final class Histogram {
+        final int[] counts = new int[CELLS];
+        final long[] sumR = new long[CELLS];
+        final long[] sumG = new long[CELLS];
+        final long[] sumB = new long[CELLS];
+        final int[] cells = new int[CELLS];
+        final int[] sorted = new int[CELLS];
+
+        /**
+         * Counts every {@code step}-th pixel of every {@code step}-th row, so that at most about
+         * {@link #MAX_SAMPLES} are read.
+         */
+        void count(PixelBuffer image) {
+            Arrays.fill(counts, 0);
+            Arrays.fill(sumR, 0);
+            Arrays.fill(sumG, 0);
+            Arrays.fill(sumB, 0);
+            int width = image.getWidth();
+            int height = image.getHeight();
+            int step = (int) Math.ceil(Math.sqrt((double) image.size() / MAX_SAMPLES));
+            int[] pixels = image.getPixels();
+            for (int y = 0; y < height; y += step) {
+                for (int i = y * width, end = i + width; i < end; i += step) {
+                    int p = pixels[i];
+                    if (p >>> 31 == 0) continue;
+                    int cell = cell(p);
+                    counts[cell]++;
+                    sumR[cell] += (p >> 16) & 0xFF;
+                    sumG[cell] += (p >> 8) & 0xFF;
+                    sumB[cell] += p & 0xFF;
+                }
+            }
+        }
+
+        int[] medianCut(int maxColors) {
+            int cellCount = 0;
+            for (int cell = 0; cell < CELLS; cell++) {
+                if (counts[cell] > 0) {
+                    cells[cellCount++] = cell;
+                }
+            }
+            // Boxes are ranges of cells; a split sorts its range along one axis and cuts it.
+            int[] starts = new int[maxColors];
+            int[] ends = new int[maxColors];
+            double[] errors = new double[maxColors];
+            int boxes = 1;
+            starts[0] = 0;
+            ends[0] = cellCount;
+            errors[0] = error(0, cellCount);
+            while (boxes < maxColors) {
+                int worst = -1;
+                for (int box = 0; box < boxes; box++) {
+                    if (ends[box] - starts[box] > 1 && (worst < 0 || errors[box] > errors[worst])) {
+                        worst = box;
+                    }
+                }
+                if (worst < 0) break;
+                int start = starts[worst];
+                int end = ends[worst];
+                int middle = split(start, end);
+                ends[worst] = middle;
+                errors[worst] = error(start, middle);
+                starts[boxes] = middle;
+                ends[boxes] = end;
+                errors[boxes] = error(middle, end);
+                boxes++;
+            }
+            int[] palette = new int[boxes];
+            for (int box = 0; box < boxes; box++) {
+                long n = 0, r = 0, g = 0, b = 0;
+                for (int i = starts[box]; i < ends[box]; i++) {
+                    int cell = cells[i];
+                    n += counts[cell];
+                    r += sumR[cell];
+                    g += sumG[cell];
+                    b += sumB[cell];
+                }
+                palette[box] = n == 0 ? 0xFF000000 : 0xFF000000
+                        | (int) ((r + n / 2) / n) << 16 | (int) ((g + n / 2) / n) << 8 | (int) ((b + n / 2) / n);
+            }
+            return palette;
+        }
+
+        /**
+         * Sum of squared distances of the pixels in cells {@code [start, end)} to their mean,
+         * in cell units.
+         */
+        private double error(int start, int end) {
+            double total = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                total += variance(start, end, axis);
+            }
+            return total;
+        }
+
+        private double variance(int start, int end, int axis) {
+            double n = 0, sum = 0, squares = 0;
+            for (int i = start; i < end; i++) {
+                int cell = cells[i];
+                int c = coordinate(cell, axis);
+                int count = counts[cell];
+                n += count;
+                sum += (double) count * c;
+                squares += (double) count * c * c;
+            }
+            return n == 0 ? 0 : squares - sum * sum / n;
+        }
+
+        /**
+         * Sorts cells {@code [start, end)} along the axis with the largest spread and returns
+         * the index at which to cut them so that the squared errors of the two halves add up to
+         * the least. Both halves keep at least one cell.
+         */
+        private int split(int start, int end) {
+            int axis = 0;
+            double widest = -1;
+            for (int a = 0; a < 3; a++) {
+                double v = variance(start, end, a);
+                if (v > widest) {
+                    widest = v;
+                    axis = a;
+                }
+            }
+            // Counting sort on the 32 values of the coordinate, which also sums up each value.
+            int levels = 1 << CELL_BITS;
+            int[] offsets = new int[levels + 1];
+            double[] n = new double[levels];
+            double[] sums = new double[3 * levels];
+            double[] squares = new double[3 * levels];
+            for (int i = start; i < end; i++) {
+                int cell = cells[i];
+                int level = coordinate(cell, axis);
+                offsets[level + 1]++;
+                double count = counts[cell];
+                n[level] += count;
+                for (int a = 0; a < 3; a++) {
+                    int c = coordinate(cell, a);
+                    sums[a * levels + level] += count * c;
+                    squares[a * levels + level] += count * c * c;
+                }
+            }
+            for (int level = 0; level < levels; level++) {
+                offsets[level + 1] += offsets[level];
+            }
+            int[] next = offsets.clone();
+            for (int i = start; i < end; i++) {
+                int cell = cells[i];
+                sorted[start + next[coordinate(cell, axis)]++] = cell;
+            }
+            System.arraycopy(sorted, start, cells, start, end - start);
+
+            double totalN = 0;
+            double[] totalSums = new double[3];
+            double[] totalSquares = new double[3];
+            for (int level = 0; level < levels; level++) {
+                totalN += n[level];
+                for (int a = 0; a < 3; a++) {
+                    totalSums[a] += sums[a * levels + level];
+                    totalSquares[a] += squares[a * levels + level];
+                }
+            }
+            double leftN = 0;
+            double[] leftSums = new double[3];
+            double[] leftSquares = new double[3];
+            int middle = -1;
+            double best = Double.MAX_VALUE;
+            for (int level = 0; level < levels - 1; level++) {
+                leftN += n[level];
+                for (int a = 0; a < 3; a++) {
+                    leftSums[a] += sums[a * levels + level];
+                    leftSquares[a] += squares[a * levels + level];
+                }
+                int cut = offsets[level + 1];
+                if (cut == 0 || cut == end - start) continue;
+                double rightN = totalN - leftN;
+                double error = 0;
+                for (int a = 0; a < 3; a++) {
+                    double rightSum = totalSums[a] - leftSums[a];
+                    error += leftSquares[a] - leftSums[a] * leftSums[a] / leftN
+                            + totalSquares[a] - leftSquares[a] - rightSum * rightSum / rightN;
+                }
+                if (error < best) {
+                    best = error;
+                    middle = start + cut;
+                }
+            }
+            return middle;
+        }
+
+        private static int coordinate(int cell, int axis) {
+            return (cell >> (CELL_BITS * (2 - axis))) & ((1 << CELL_BITS) - 1);
+        }
+    }
+}
@@ -0,0 +1,215 @@
+package com.gif.filtertestapp;
+
+import java.util.Arrays;
+
+/**
+ * Integer NxN convolution over {@link PixelBuffer}s.
+ * <p>
+ * Each source row is unpacked into planar red, green and blue ints once and kept in a sliding
+ * window of {@code N} rows, with the columns outside the image already resolved through the
+ * {@link EdgeMode}; the inner loop therefore has no bounds checks and no channel extraction.
+ * Separable kernels keep horizontally filtered rows in the window instead, which turns
+ * {@code N * N} taps into {@code 2 * N}. Alpha is copied from the centre pixel.
+ */
+public final class Convolution {
+
+    private Convolution() {
+    }
+
+    /**
+     * Convolves {@code src} into {@code dst}. The buffers must not share pixels.
+     */
+    public static void apply(PixelBuffer src, PixelBuffer dst, ConvolutionKernel kernel, EdgeMode edgeMode) {
+        if (src.getPixels() == dst.getPixels()) {
+            throw new IllegalArgumentException("Convolution cannot run in place");
+        }
+        dst.reshape(src.getWidth(), src.getHeight());
+        applyRows(src, dst, kernel, edgeMode, 0, src.getHeight());
+    }
+
+    /**
+     * Convolves rows {@code [startRow, endRow)}, reading up to {@code kernel.getRadius()} rows
+     * above and below the range from {@code src}.
+     */
+    static void applyRows(PixelBuffer src, PixelBuffer dst, ConvolutionKernel kernel, EdgeMode edgeMode,
+                          int startRow, int endRow) {
+        if (startRow >= endRow) return;
+        if (kernel.isSeparable()) {
+            separableRows(src, dst, kernel, edgeMode, startRow, endRow);
+        } else {
+            generalRows(src, dst, kernel, edgeMode, startRow, endRow);
+        }
+    }
+
+    private static void generalRows(PixelBuffer src, PixelBuffer dst, ConvolutionKernel kernel, EdgeMode edgeMode,
+                                     int startRow, int endRow) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int size = kernel.getSize();
+        int radius = kernel.getRadius();
+        int paddedWidth = width + 2 * radius;
+        int[] columnMap = columnMap(width, radius, edgeMode);
+
+        // Only the non-zero taps, as (row in window, column offset, weight).
+        int[] weights = kernel.weights();
+        int tapCount = 0;
+        for (int w : weights) if (w != 0) tapCount++;
+        int[] tapRow = new int[tapCount];
+        int[] tapColumn = new int[tapCount];
+        int[] tapWeight = new int[tapCount];
+        for (int i = 0, t = 0; i < weights.length; i++) {
+            if (weights[i] == 0) continue;
+            tapRow[t] = i / size;
+            tapColumn[t] = i % size;
+            tapWeight[t] = weights[i];
+            t++;
+        }
+
+        int[][] window = new int[size][3 * paddedWidth];
+        for (int k = 0; k < size; k++) {
+            unpackRow(src, edgeMode.map(startRow - radius + k, height), columnMap, window[k]);
+        }
+
+        int shift = kernel.getShift();
+        int round = (1 << shift) >> 1;
+        int[] sums = new int[3 * width];
+        for (int y = startRow; y < endRow; y++) {
+            if (y > startRow) {
+                slide(window);
+                unpackRow(src, edgeMode.map(y + radius, height), columnMap, window[size - 1]);
+            }
+            Arrays.fill(sums, round);
+            for (int t = 0; t < tapCount; t++) {
+                int[] row = window[tapRow[t]];
+                for (int c = 0; c < 3; c++) {
+                    accumulate(sums, c * width, row, c * paddedWidth + tapColumn[t], width, tapWeight[t]);
+                }
+            }
+            pack(src, dst, y, sums, shift);
+        }
+    }
+
+    private static void separableRows(PixelBuffer src, PixelBuffer dst, ConvolutionKernel kernel, EdgeMode edgeMode,
+                                      int startRow, int endRow) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int size = kernel.getSize();
+        int radius = kernel.getRadius();
+        int paddedWidth = width + 2 * radius;
+        int[] columnMap = columnMap(width, radius, edgeMode);
+        int[] rowFactors = kernel.rowFactors();
+        int[] columnFactors = kernel.columnFactors();
+        int delta = kernel.centerDelta();
+
+        int[] unpacked = new int[3 * paddedWidth];
+        int[][] window = new int[size][3 * width];
+        for (int k = 0; k < size; k++) {
+            filterRow(src, edgeMode.map(startRow - radius + k, height), columnMap, rowFactors, unpacked, window[k]);
+        }
+
+        int shift = kernel.getShift();
+        int round = (1 << shift) >> 1;
+        int[] in = src.getPixels();
+        int[] sums = new int[3 * width];
+        for (int y = startRow; y < endRow; y++) {
+            if (y > startRow) {
+                slide(window);
+                filterRow(src, edgeMode.map(y + radius, height), columnMap, rowFactors, unpacked, window[size - 1]);
+            }
+            initCenter(in, y * width, width, delta, round, sums);
+            for (int k = 0; k < size; k++) {
+                if (columnFactors[k] != 0) {
+                    accumulate(sums, 0, window[k], 0, sums.length, columnFactors[k]);
+                }
+            }
+            pack(src, dst, y, sums, shift);
+        }
+    }
+
+    // The per-row loops live in small methods so the JIT compiles them early, independent of how
+    // many times the enclosing whole-image loop has run.
+
+    private static void accumulate(int[] sums, int sumOffset, int[] row, int rowOffset, int length, int weight) {
+        for (int i = 0; i < length; i++) {
+            sums[sumOffset + i] += weight * row[rowOffset + i];
+        }
+    }
+
+    private static void initCenter(int[] in, int rowOffset, int width, int delta, int round, int[] sums) {
+        for (int x = 0; x < width; x++) {
+            int center = in[rowOffset + x];
+            sums[x] = round + delta * ((center >> 16) & 0xFF);
+            sums[width + x] = round + delta * ((center >> 8) & 0xFF);
+            sums[2 * width + x] = round + delta * (center & 0xFF);
+        }
+    }
+
+    /**
+     * Writes planar channel sums back as pixels of row {@code y}, keeping the source alpha.
+     */
+    private static void pack(PixelBuffer src, PixelBuffer dst, int y, int[] sums, int shift) {
+        int width = src.getWidth();
+        int[] in = src.getPixels();
+        int[] out = dst.getPixels();
+        int rowOffset = y * width;
+        for (int x = 0; x < width; x++) {
+            out[rowOffset + x] = (in[rowOffset + x] & 0xFF000000)
+                    | (ColorMatrices.clamp(sums[x] >> shift) << 16)
+                    | (ColorMatrices.clamp(sums[width + x] >> shift) << 8)
+                    | ColorMatrices.clamp(sums[2 * width + x] >> shift);
+        }
+    }
+
+    /**
+     * Source column for each padded column {@code -radius .. width + radius - 1}.
+     */
+    private static int[] columnMap(int width, int radius, EdgeMode edgeMode) {
+        int[] map = new int[width + 2 * radius];
+        for (int i = 0; i < map.length; i++) {
+            map[i] = edgeMode.map(i - radius, width);
+        }
+        return map;
+    }
+
+    /**
+     * Unpacks source row {@code y} into planar R, G, B segments of {@code paddedWidth} each.
+     */
+    private static void unpackRow(PixelBuffer src, int y, int[] columnMap, int[] target) {
+        int[] in = src.getPixels();
+        int rowOffset = y * src.getWidth();
+        int paddedWidth = columnMap.length;
+        for (int i = 0; i < paddedWidth; i++) {
+            int p = in[rowOffset + columnMap[i]];
+            target[i] = (p >> 16) & 0xFF;
+            target[paddedWidth + i] = (p >> 8) & 0xFF;
+            target[2 * paddedWidth + i] = p & 0xFF;
+        }
+    }
+
+    /**
+     * Applies the row factors to source row {@code y}, writing planar R, G, B sums of
+     * {@code width} each into {@code target}.
+     */
+    private static void filterRow(PixelBuffer src, int y, int[] columnMap, int[] rowFactors, int[] unpacked,
+                                  int[] target) {
+        unpackRow(src, y, columnMap, unpacked);
+        int paddedWidth = columnMap.length;
+        int width = src.getWidth();
+        Arrays.fill(target, 0);
+        for (int k = 0; k < rowFactors.length; k++) {
+            if (rowFactors[k] == 0) continue;
+            for (int c = 0; c < 3; c++) {
+                accumulate(target, c * width, unpacked, c * paddedWidth + k, width, rowFactors[k]);
+            }
+        }
+    }
+
+    /**
+     * Moves every row of the window up by one; the oldest row becomes the last slot for reuse.
+     */
+    private static void slide(int[][] window) {
+        int[] recycled = window[0];
+        System.arraycopy(window, 1, window, 0, window.length - 1);
+        window[window.length - 1] = recycled;
+    }
+}
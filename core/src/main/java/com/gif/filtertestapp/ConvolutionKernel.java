@@ -0,0 +1,204 @@
+package com.gif.filtertestapp;
+
+/**
+ * A square NxN convolution kernel with integer fixed-point weights.
+ * <p>
+ * The filtered value of a channel is {@code (sum(weight * sample) + round) >> shift}. On
+ * construction the kernel is checked for the form {@code outer(column, row) + delta * identity};
+ * kernels of that shape (box and Gaussian blurs, the usual sharpen and edge kernels, unsharp
+ * masks) are run by {@link Convolution} as two 1D passes plus a centre term.
+ */
+public final class ConvolutionKernel {
+
+    private final int size;
+    private final int[] weights;
+    private final int shift;
+
+    // Separable decomposition, or null if the kernel has none.
+    private final int[] rowFactors;
+    private final int[] columnFactors;
+    private final int centerDelta;
+
+    /**
+     * @param size    odd kernel width and height
+     * @param weights {@code size * size} weights in row-major order
+     * @param shift   number of fractional bits in the weights
+     */
+    public ConvolutionKernel(int size, int[] weights, int shift) {
+        if (size < 1 || size % 2 == 0) {
+            throw new IllegalArgumentException("Kernel size must be odd: " + size);
+        }
+        if (weights.length != size * size) {
+            throw new IllegalArgumentException("Expected " + size * size + " weights");
+        }
+        if (shift < 0 || shift > 24) {
+            throw new IllegalArgumentException("Invalid shift " + shift);
+        }
+        this.size = size;
+        this.weights = weights.clone();
+        this.shift = shift;
+
+        int[][] factors = factorize(size, this.weights);
+        if (factors != null) {
+            rowFactors = factors[0];
+            columnFactors = factors[1];
+            centerDelta = factors[2][0];
+        } else {
+            rowFactors = null;
+            columnFactors = null;
+            centerDelta = 0;
+        }
+    }
+
+    /**
+     * Creates a kernel from float weights, quantized to {@code shift} fractional bits.
+     */
+    public static ConvolutionKernel fromFloats(int size, float[] weights, int shift) {
+        int[] fixed = new int[weights.length];
+        for (int i = 0; i < weights.length; i++) {
+            fixed[i] = Math.round(weights[i] * (1 << shift));
+        }
+        return new ConvolutionKernel(size, fixed, shift);
+    }
+
+    public static ConvolutionKernel sharpen() {
+        return new ConvolutionKernel(3, new int[]{
+                -1, -1, -1,
+                -1,  9, -1,
+                -1, -1, -1
+        }, 0);
+    }
+
+    public static ConvolutionKernel edgeDetect() {
+        return new ConvolutionKernel(3, new int[]{
+                -1, -1, -1,
+                -1,  8, -1,
+                -1, -1, -1
+        }, 0);
+    }
+
+    public static ConvolutionKernel emboss() {
+        return new ConvolutionKernel(3, new int[]{
+                -2, -1, 0,
+                -1,  1, 1,
+                 0,  1, 2
+        }, 0);
+    }
+
+    /**
+     * Unsharp mask over a 5x5 binomial blur: {@code (1 + amount) * pixel - amount * blur}.
+     */
+    public static ConvolutionKernel unsharpMask(float amount) {
+        int[] binomial = {1, 4, 6, 4, 1};
+        int scaledAmount = Math.round(amount * 16);
+        int[] weights = new int[25];
+        for (int y = 0; y < 5; y++) {
+            for (int x = 0; x < 5; x++) {
+                weights[y * 5 + x] = -scaledAmount * binomial[y] * binomial[x];
+            }
+        }
+        weights[12] += (16 + scaledAmount) * 256;
+        return new ConvolutionKernel(5, weights, 12);
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getRadius() {
+        return size / 2;
+    }
+
+    public int getShift() {
+        return shift;
+    }
+
+    public int[] getWeights() {
+        return weights.clone();
+    }
+
+    public boolean isSeparable() {
+        return rowFactors != null;
+    }
+
+    int[] weights() {
+        return weights;
+    }
+
+    int[] rowFactors() {
+        return rowFactors;
+    }
+
+    int[] columnFactors() {
+        return columnFactors;
+    }
+
+    int centerDelta() {
+        return centerDelta;
+    }
+
+    /**
+     * Tries to write {@code weights} as {@code outer(column, row) + delta} at the centre with
+     * integer factors. Returns {@code {row, column, {delta}}} or {@code null}.
+     */
+    private static int[][] factorize(int size, int[] weights) {
+        if (size == 1) return null;
+        int center = size / 2;
+        // Any row other than the centre row is untouched by the delta term, so it fixes the
+        // direction of the row factor.
+        int pivotRow = -1;
+        for (int y = 0; y < size && pivotRow < 0; y++) {
+            if (y == center) continue;
+            for (int x = 0; x < size; x++) {
+                if (weights[y * size + x] != 0) {
+                    pivotRow = y;
+                    break;
+                }
+            }
+        }
+        if (pivotRow < 0) return null;
+
+        int gcd = 0;
+        for (int x = 0; x < size; x++) {
+            gcd = gcd(gcd, Math.abs(weights[pivotRow * size + x]));
+        }
+        int[] row = new int[size];
+        for (int x = 0; x < size; x++) {
+            row[x] = weights[pivotRow * size + x] / gcd;
+        }
+        // Reference column for reading off the column factor; avoid the centre column so the
+        // centre row is not thrown off by the delta term.
+        int refColumn = -1;
+        for (int x = 0; x < size; x++) {
+            if (x != center && row[x] != 0) {
+                refColumn = x;
+                break;
+            }
+        }
+        if (refColumn < 0) return null;
+
+        int[] column = new int[size];
+        for (int y = 0; y < size; y++) {
+            int w = weights[y * size + refColumn];
+            if (w % row[refColumn] != 0) return null;
+            column[y] = w / row[refColumn];
+        }
+        int delta = weights[center * size + center] - column[center] * row[center];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int expected = column[y] * row[x] + (x == center && y == center ? delta : 0);
+                if (weights[y * size + x] != expected) return null;
+            }
+        }
+        return new int[][]{row, column, {delta}};
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+}
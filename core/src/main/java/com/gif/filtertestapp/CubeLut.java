@@ -0,0 +1,288 @@
+package com.gif.filtertestapp;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * A 3D color lookup table read from a {@code .cube} file, compiled for integer interpolation.
+ * <p>
+ * The table is compiled once, on parsing: every lattice point becomes a single {@code long}
+ * holding its red, green and blue output in 21-bit lanes, so that one multiply-add weights all
+ * three channels and a 33³ table takes 280 KB. Pixels are mapped with tetrahedral interpolation,
+ * which reads four lattice points instead of the eight of trilinear interpolation and keeps the
+ * gray axis exact. Add a LUT to a chain with {@link FilterChain.Builder#addLut(CubeLut)}; since
+ * instances are immutable, callers can keep parsed LUTs in a cache and reuse them in any number
+ * of chains.
+ */
+public final class CubeLut {
+
+    /** Fractional bits of the interpolation weights. */
+    static final int WEIGHT_BITS = 8;
+    /** Position of the cell offset in the input tables, above a weight of up to {@code 1 << WEIGHT_BITS}. */
+    static final int INPUT_SHIFT = WEIGHT_BITS + 1;
+    /** Lattice outputs are stored as {@code value * OUTPUT_SCALE}, four steps per 8-bit level. */
+    static final int OUTPUT_SCALE = 4 * 255;
+
+    static final int RED_SHIFT = 42;
+    static final int GREEN_SHIFT = 21;
+    static final long LANE_MASK = (1L << 21) - 1;
+
+    // Keeps cell offsets within the 22 bits above the weight in the input tables.
+    private static final int MAX_SIZE = 128;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    private final String title;
+    private final int size;
+    private final float[] domainMin;
+    private final float[] domainMax;
+    private final long[] lattice;
+    private final String key;
+
+    private CubeLut(String title, int size, float[] domainMin, float[] domainMax, long[] lattice) {
+        this.title = title;
+        this.size = size;
+        this.domainMin = domainMin;
+        this.domainMax = domainMax;
+        this.lattice = lattice;
+        this.key = digest(size, domainMin, domainMax, lattice);
+    }
+
+    /**
+     * Reads a {@code .cube} file: an optional {@code TITLE}, {@code LUT_3D_SIZE}, optional
+     * {@code DOMAIN_MIN} and {@code DOMAIN_MAX} (or {@code LUT_3D_INPUT_RANGE}) and
+     * {@code size^3} lines of red, green and blue output with red changing fastest. Outputs are
+     * clamped to {@code [0, 1]}.
+     *
+     * @throws IOException if reading fails or the file is not a valid 3D LUT
+     */
+    public static CubeLut parse(Reader reader) throws IOException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String title = "";
+        int size = 0;
+        float[] domainMin = {0, 0, 0};
+        float[] domainMax = {1, 1, 1};
+        long[] lattice = null;
+        int count = 0;
+        int lineNumber = 0;
+        String line;
+        while ((line = lines.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            char first = line.charAt(0);
+            if (Character.isLetter(first)) {
+                if (lattice != null) {
+                    throw new IOException("Line " + lineNumber + ": keyword after table data");
+                }
+                String[] words = WHITESPACE.split(line, 2);
+                String keyword = words[0].toUpperCase(Locale.ROOT);
+                String arguments = words.length > 1 ? words[1] : "";
+                switch (keyword) {
+                    case "TITLE":
+                        title = arguments.replace("\"", "").trim();
+                        break;
+                    case "LUT_3D_SIZE":
+                        size = parseInt(arguments, lineNumber);
+                        if (size < 2 || size > MAX_SIZE) {
+                            throw new IOException("Line " + lineNumber + ": unsupported size " + size);
+                        }
+                        break;
+                    case "DOMAIN_MIN":
+                        domainMin = parseTriple(arguments, lineNumber);
+                        break;
+                    case "DOMAIN_MAX":
+                        domainMax = parseTriple(arguments, lineNumber);
+                        break;
+                    case "LUT_3D_INPUT_RANGE": {
+                        float[] range = parseFloats(arguments, 2, lineNumber);
+                        domainMin = new float[]{range[0], range[0], range[0]};
+                        domainMax = new float[]{range[1], range[1], range[1]};
+                        break;
+                    }
+                    case "LUT_1D_SIZE":
+                        throw new IOException("Line " + lineNumber + ": 1D LUTs are not supported");
+                    default:
+                        // Other keywords, such as LUT_1D_INPUT_RANGE, do not affect a 3D table.
+                        break;
+                }
+                continue;
+            }
+            if (size == 0) {
+                throw new IOException("Line " + lineNumber + ": table data before LUT_3D_SIZE");
+            }
+            if (lattice == null) {
+                lattice = new long[size * size * size];
+            }
+            if (count == lattice.length) {
+                throw new IOException("Line " + lineNumber + ": more than " + lattice.length + " entries");
+            }
+            float[] rgb = parseTriple(line, lineNumber);
+            lattice[count++] = pack(rgb[0], rgb[1], rgb[2]);
+        }
+        if (lattice == null || count != lattice.length) {
+            throw new IOException("Expected " + (size * size * size) + " entries, found " + count);
+        }
+        for (int c = 0; c < 3; c++) {
+            if (!(domainMax[c] > domainMin[c])) {
+                throw new IOException("Empty domain " + domainMin[c] + ".." + domainMax[c]);
+            }
+        }
+        return new CubeLut(title, size, domainMin, domainMax, lattice);
+    }
+
+    /**
+     * The title from the file, or an empty string.
+     */
+    public String getTitle() {
+        return title;
+    }
+
+    /**
+     * Number of lattice points along each axis.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Identifies the compiled table; LUTs that map every pixel the same way have the same key,
+     * whatever their title or formatting.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    long[] lattice() {
+        return lattice;
+    }
+
+    /**
+     * Returns, for every input level of channel {@code channel} (0 red, 1 green, 2 blue), the
+     * offset of the lattice cell below it shifted left by {@link #INPUT_SHIFT}, plus the
+     * interpolation weight of the cell above it in {@code 1 << WEIGHT_BITS}ths. Levels outside the
+     * domain are clamped to its edges.
+     */
+    int[] inputTable(int channel) {
+        int stride = channel == 0 ? 1 : channel == 1 ? size : size * size;
+        int[] table = new int[256];
+        for (int v = 0; v < 256; v++) {
+            float position = (v / 255f - domainMin[channel]) / (domainMax[channel] - domainMin[channel]) * (size - 1);
+            position = Math.max(0, Math.min(size - 1, position));
+            int cell = Math.min(size - 2, (int) position);
+            table[v] = cell * stride << INPUT_SHIFT | Math.round((position - cell) * (1 << WEIGHT_BITS));
+        }
+        return table;
+    }
+
+    /**
+     * Maps pixels {@code [from, to)} of {@code src} into {@code dst} through the lattice, with
+     * input tables from {@link #inputTable}. Alpha passes through unchanged.
+     */
+    static void apply(long[] lattice, int size, int[] redInput, int[] greenInput, int[] blueInput,
+                      int[] src, int[] dst, int from, int to) {
+        int[] axisOffsets = {1, size, size * size};
+        int far = 1 + size + size * size;
+        int one = 1 << WEIGHT_BITS;
+        int weightMask = (1 << INPUT_SHIFT) - 1;
+        for (int i = from; i < to; i++) {
+            int p = src[i];
+            int r = redInput[(p >> 16) & 0xFF];
+            int g = greenInput[(p >> 8) & 0xFF];
+            int b = blueInput[p & 0xFF];
+            int base = (r >>> INPUT_SHIFT) + (g >>> INPUT_SHIFT) + (b >>> INPUT_SHIFT);
+            // The tetrahedron holding p runs from the cell's low corner to its high corner along
+            // the axes in order of decreasing weight. Sorting the weights with the axis in the low
+            // bits picks it with min and max instead of branches, which would mispredict often.
+            int keyR = (r & weightMask) << 2;
+            int keyG = (g & weightMask) << 2 | 1;
+            int keyB = (b & weightMask) << 2 | 2;
+            int high = Math.max(keyR, Math.max(keyG, keyB));
+            int low = Math.min(keyR, Math.min(keyG, keyB));
+            int middle = keyR + keyG + keyB - high - low;
+            int w1 = high >> 2;
+            int w2 = middle >> 2;
+            int w3 = low >> 2;
+            long sum = (one - w1) * lattice[base]
+                    + (w1 - w2) * lattice[base + axisOffsets[high & 3]]
+                    + (w2 - w3) * lattice[base + far - axisOffsets[low & 3]]
+                    + w3 * lattice[base + far];
+            dst[i] = (p & 0xFF000000)
+                    | toLevel(sum >>> RED_SHIFT) << 16
+                    | toLevel((sum >>> GREEN_SHIFT) & LANE_MASK) << 8
+                    | toLevel(sum & LANE_MASK);
+        }
+    }
+
+    /**
+     * Rounds a lane of weighted lattice outputs to an 8-bit level.
+     */
+    private static int toLevel(long lane) {
+        int shift = WEIGHT_BITS + 2;
+        return (int) ((lane + (1 << (shift - 1))) >> shift);
+    }
+
+    private static long pack(float r, float g, float b) {
+        return (long) quantize(r) << RED_SHIFT | (long) quantize(g) << GREEN_SHIFT | quantize(b);
+    }
+
+    private static int quantize(float value) {
+        return Math.round(Math.max(0f, Math.min(1f, value)) * OUTPUT_SCALE);
+    }
+
+    private static String digest(int size, float[] domainMin, float[] domainMax, long[] lattice) {
+        ByteBuffer bytes = ByteBuffer.allocate(4 + 6 * 4 + 8 * lattice.length);
+        bytes.putInt(size);
+        for (int c = 0; c < 3; c++) {
+            bytes.putFloat(domainMin[c]).putFloat(domainMax[c]);
+        }
+        for (long node : lattice) {
+            bytes.putLong(node);
+        }
+        return ImagePayload.sha256(bytes.array());
+    }
+
+    private static int parseInt(String text, int lineNumber) throws IOException {
+        try {
+            return Integer.parseInt(text.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Line " + lineNumber + ": invalid number " + text, e);
+        }
+    }
+
+    private static float[] parseTriple(String text, int lineNumber) throws IOException {
+        return parseFloats(text, 3, lineNumber);
+    }
+
+    /**
+     * Splits {@code text} at whitespace into exactly {@code count} numbers. Table lines go through
+     * here tens of thousands of times, so this scans the characters instead of using a regex.
+     */
+    private static float[] parseFloats(String text, int count, int lineNumber) throws IOException {
+        float[] values = new float[count];
+        int found = 0;
+        int length = text.length();
+        int i = 0;
+        while (true) {
+            while (i < length && Character.isWhitespace(text.charAt(i))) i++;
+            if (i == length) break;
+            int start = i;
+            while (i < length && !Character.isWhitespace(text.charAt(i))) i++;
+            if (found == count) {
+                throw new IOException("Line " + lineNumber + ": expected " + count + " numbers");
+            }
+            try {
+                values[found++] = Float.parseFloat(text.substring(start, i));
+            } catch (NumberFormatException e) {
+                throw new IOException("Line " + lineNumber + ": invalid number in " + text, e);
+            }
+        }
+        if (found != count) {
+            throw new IOException("Line " + lineNumber + ": expected " + count + " numbers");
+        }
+        return values;
+    }
+}
@@ -0,0 +1,281 @@
+package com.gif.filtertestapp;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Error-diffusion dithering to a {@link ColorPalette}, with {@link DitherKernel}s.
+ * <p>
+ * Pixels are visited row by row, left to right. Each one is replaced by the palette color nearest
+ * to its value plus the error it received from the pixels before it, and the difference is passed
+ * on. Since a pixel depends on the row above up to one column to its right, rows cannot be split
+ * into independent bands. Instead they run as a wavefront: workers take the next row as they
+ * become free and follow the row above at least two columns behind, waiting for it every
+ * {@value #CHUNK} columns, so that as many rows are in progress at once as there are workers.
+ * <p>
+ * Every pixel reads the errors of the pixels that feed it rather than having them added to it,
+ * so no two workers write the same memory and only the errors of the last few rows are kept.
+ * Errors are split into integer shares exactly as the serial algorithm does, so the result is the
+ * same regardless of the number of threads. Alpha is kept.
+ * <p>
+ * Since no pixel depends on the rows below it, an image can also be dithered in horizontal strips
+ * from top to bottom with {@link Strips}, which carries the errors of the last rows of each strip
+ * over to the next.
+ */
+public final class Dither {
+
+    /** Columns a row advances between checks of the row above. */
+    static final int CHUNK = 64;
+
+    private Dither() {
+    }
+
+    /**
+     * Dithers {@code src} into {@code dst} on the calling thread. {@code dst} may be {@code src}.
+     */
+    public static void apply(PixelBuffer src, PixelBuffer dst, ColorPalette palette, DitherKernel kernel) {
+        apply(src, dst, palette, kernel, null, null);
+    }
+
+    /**
+     * Dithers {@code src} into {@code dst} with one row worker per thread of {@code executor}, or
+     * serially if it is {@code null}. {@code dst} may be {@code src}. {@code token}, which may be
+     * {@code null}, is checked before each row.
+     */
+    public static void apply(PixelBuffer src, PixelBuffer dst, ColorPalette palette, DitherKernel kernel,
+                             TileExecutor executor, CancellationToken token) {
+        dst.reshape(src.getWidth(), src.getHeight());
+        applyRows(src, dst, 0, src.getHeight(), palette, kernel, executor, token,
+                new int[DitherKernel.MAX_ROWS][]);
+    }
+
+    /**
+     * Dithers rows {@code [startRow, endRow)} of {@code src} into the same rows of {@code dst},
+     * which already has the size of {@code src}. {@code carry} holds the errors of the
+     * {@link DitherKernel#MAX_ROWS} rows above {@code startRow}, nearest first, or {@code null}
+     * for rows above the image top; it is updated to those of the rows above {@code endRow}.
+     */
+    static void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, ColorPalette palette,
+                          DitherKernel kernel, TileExecutor executor, CancellationToken token, int[][] carry) {
+        int width = src.getWidth();
+        int height = endRow - startRow;
+        if (height <= 0) return;
+        int workers = executor == null ? 1 : Math.min(executor.getParallelism(), height);
+        Wavefront wavefront = new Wavefront(src.getPixels(), dst.getPixels(), width, startRow, height, palette,
+                kernel, workers, token, carry);
+        try (PerfStats.Span span = PerfStats.getDefault().begin("dither")) {
+            span.setPixels((long) width * height);
+            if (workers == 1) {
+                wavefront.run();
+            } else {
+                executor.forEachIndex(workers, worker -> wavefront.run(), token);
+            }
+        }
+        wavefront.carryOver(carry);
+    }
+
+    /**
+     * Dithers one image strip by strip, top to bottom, with the same result as dithering it whole.
+     * <p>
+     * Strips come with margins, as {@link TiledRenderer} reads them: their first and last
+     * {@code margin} rows, unless at the image edge, are the ones the filters before the dither
+     * could not compute exactly. Every other row is dithered exactly once, in order, continuing
+     * from the errors the strip above left; rows it already dithered are copied from the last
+     * strip, and the inexact rows, which only feed margins that are discarded, are mapped to the
+     * nearest colors.
+     */
+    static final class Strips {
+        private final ColorPalette palette;
+        private final DitherKernel kernel;
+        private final int imageHeight;
+        private final int margin;
+        private final int[][] carry = new int[DitherKernel.MAX_ROWS][];
+        // The first row not dithered yet, and the output of the last strip from its top row to it.
+        private int nextRow;
+        private int[] previous = new int[0];
+        private int previousTop;
+
+        Strips(ColorPalette palette, DitherKernel kernel, int imageHeight, int margin) {
+            this.palette = palette;
+            this.kernel = kernel;
+            this.imageHeight = imageHeight;
+            this.margin = margin;
+        }
+
+        /**
+         * Dithers {@code src}, the strip whose first row is row {@code top} of the image, into
+         * {@code dst}, which already has its size and may be {@code src}.
+         *
+         * @throws IllegalStateException if the strip leaves a gap below the one before
+         */
+        void apply(PixelBuffer src, PixelBuffer dst, int top, TileExecutor executor, CancellationToken token) {
+            int width = src.getWidth();
+            int bottom = top + src.getHeight();
+            int exactStart = top == 0 ? 0 : top + margin;
+            int exactEnd = bottom == imageHeight ? imageHeight : bottom - margin;
+            int dithered = nextRow;
+            // Rows from exactStart up to the ones dithered so far must be in the last strip.
+            if (exactStart > dithered || exactStart < dithered && exactStart < previousTop) {
+                throw new IllegalStateException("Strips must be dithered top to bottom");
+            }
+            if (exactEnd > dithered) {
+                applyRows(src, dst, dithered - top, exactEnd - top, palette, kernel, executor, token, carry);
+                nextRow = exactEnd;
+            }
+            int[] in = src.getPixels();
+            int[] out = dst.getPixels();
+            for (int y = top; y < bottom; y++) {
+                if (y >= dithered && y < exactEnd) continue;
+                int offset = (y - top) * width;
+                if (y < dithered && y >= previousTop) {
+                    System.arraycopy(previous, (y - previousTop) * width, out, offset, width);
+                } else {
+                    palette.map(in, out, offset, offset + width);
+                }
+            }
+            int kept = (nextRow - top) * width;
+            if (previous.length < kept) {
+                previous = new int[kept];
+            }
+            System.arraycopy(out, 0, previous, 0, kept);
+            previousTop = top;
+        }
+    }
+
+    private static int clamp(int value) {
+        return value < 0 ? 0 : Math.min(value, 255);
+    }
+
+    /**
+     * The rows of one image in progress. A row is only taken once every row more than
+     * {@code workers} above it has finished, so the errors of a row live in a ring of
+     * {@code workers + }{@link DitherKernel#MAX_ROWS} slots, and are overwritten only after the
+     * rows below that read them are done.
+     */
+    private static final class Wavefront {
+        private final int[] in;
+        private final int[] out;
+        private final int width;
+        private final int startRow;
+        private final int height;
+        private final ColorPalette palette;
+        private final int[] taps;
+        private final int shift;
+        private final int round;
+        private final CancellationToken token;
+
+        private final AtomicInteger nextRow = new AtomicInteger();
+        // Per slot of the ring, row * (width + 1) + the columns of that row finished so far.
+        private final AtomicLongArray progress;
+        // Red, green and blue error of every pixel of the rows in the ring.
+        private final int[][] errors;
+        // Errors of the rows above the first one, nearest first, as passed to applyRows.
+        private final int[][] above;
+        private volatile boolean failed;
+
+        Wavefront(int[] in, int[] out, int width, int startRow, int height, ColorPalette palette,
+                  DitherKernel kernel, int workers, CancellationToken token, int[][] above) {
+            this.in = in;
+            this.out = out;
+            this.width = width;
+            this.startRow = startRow;
+            this.height = height;
+            this.palette = palette;
+            this.taps = kernel.taps;
+            this.shift = kernel.shift;
+            this.round = 1 << (kernel.shift - 1);
+            this.token = token;
+            int slots = workers + DitherKernel.MAX_ROWS;
+            this.progress = new AtomicLongArray(slots);
+            this.errors = new int[slots][3 * width];
+            this.above = above.clone();
+        }
+
+        /**
+         * Stores the errors of the last rows in {@code carry}, for the rows below them.
+         */
+        void carryOver(int[][] carry) {
+            for (int dy = 0; dy < carry.length; dy++) {
+                carry[dy] = dy < height ? errors[(height - 1 - dy) % errors.length] : above[dy - height];
+            }
+        }
+
+        /**
+         * Dithers rows until there are none left.
+         */
+        void run() {
+            try {
+                int y;
+                while ((y = nextRow.getAndIncrement()) < height) {
+                    if (token != null) {
+                        token.throwIfCancelled();
+                    }
+                    ditherRow(y);
+                }
+            } catch (RuntimeException | Error e) {
+                // Rows below the failed one would otherwise wait for it forever.
+                failed = true;
+                throw e;
+            }
+        }
+
+        private void ditherRow(int y) {
+            int slots = errors.length;
+            int[][] rows = new int[DitherKernel.MAX_ROWS + 1][];
+            for (int dy = 0; dy <= DitherKernel.MAX_ROWS; dy++) {
+                rows[dy] = dy <= y ? errors[(y - dy) % slots] : above[dy - y - 1];
+            }
+            int[] own = rows[0];
+            int[] taps = this.taps;
+            int offset = (startRow + y) * width;
+            long rowStart = (long) y * (width + 1);
+            for (int start = 0; start < width; start += CHUNK) {
+                int end = Math.min(width, start + CHUNK);
+                if (y > 0) {
+                    // The last pixel of the chunk reads the row above one column further right.
+                    awaitRow(y - 1, Math.min(width, end + 1));
+                }
+                for (int x = start; x < end; x++) {
+                    int er = 0;
+                    int eg = 0;
+                    int eb = 0;
+                    for (int t = 0; t < taps.length; t += 3) {
+                        int dy = taps[t + 1];
+                        int source = x - taps[t];
+                        int[] row = rows[dy];
+                        if (row == null || source < 0 || source >= width) continue;
+                        int weight = taps[t + 2];
+                        er += (row[3 * source] * weight + round) >> shift;
+                        eg += (row[3 * source + 1] * weight + round) >> shift;
+                        eb += (row[3 * source + 2] * weight + round) >> shift;
+                    }
+                    int p = in[offset + x];
+                    int r = clamp(((p >> 16) & 0xFF) + er);
+                    int g = clamp(((p >> 8) & 0xFF) + eg);
+                    int b = clamp((p & 0xFF) + eb);
+                    int color = palette.getColor(palette.indexOf(r << 16 | g << 8 | b));
+                    own[3 * x] = r - ((color >> 16) & 0xFF);
+                    own[3 * x + 1] = g - ((color >> 8) & 0xFF);
+                    own[3 * x + 2] = b - (color & 0xFF);
+                    out[offset + x] = (p & 0xFF000000) | (color & 0xFFFFFF);
+                }
+                progress.set(y % slots, rowStart + end);
+            }
+        }
+
+        /**
+         * Returns once row {@code y} has finished its first {@code columns} columns.
+         */
+        private void awaitRow(int y, int columns) {
+            int slot = y % errors.length;
+            long target = (long) y * (width + 1) + columns;
+            while (progress.get(slot) < target) {
+                if (failed) {
+                    throw new CancellationException("Row " + y + " failed");
+                }
+                Thread.yield();
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.gif.filtertestapp;
+
+/**
+ * How {@link Dither} spreads the quantization error of a pixel over the pixels that come after it.
+ */
+public enum DitherKernel {
+    /** 7/16 to the right and 3/16, 5/16 and 1/16 to the row below. */
+    FLOYD_STEINBERG(4, new int[]{
+            1, 0, 7,
+            -1, 1, 3,
+            0, 1, 5,
+            1, 1, 1}),
+    /**
+     * 1/8 each to the next two pixels, the three below and the one two rows down. The remaining
+     * quarter of the error is dropped, which keeps more contrast than Floyd–Steinberg.
+     */
+    ATKINSON(3, new int[]{
+            1, 0, 1,
+            2, 0, 1,
+            -1, 1, 1,
+            0, 1, 1,
+            1, 1, 1,
+            0, 2, 1});
+
+    /** Rows below a pixel that receive part of its error. */
+    static final int MAX_ROWS = 2;
+
+    final int shift;
+    /** {dx, dy, weight} for every pixel that receives a share of {@code weight >> shift}. */
+    final int[] taps;
+
+    DitherKernel(int shift, int[] taps) {
+        this.shift = shift;
+        this.taps = taps;
+    }
+}
@@ -0,0 +1,33 @@
+package com.gif.filtertestapp;
+
+/**
+ * How a neighbourhood filter samples pixels that fall outside the image.
+ */
+public enum EdgeMode {
+    /** Repeat the outermost row or column. */
+    CLAMP,
+    /** Reflect around the outermost pixel without repeating it. */
+    MIRROR,
+    /** Continue from the opposite side of the image. */
+    WRAP;
+
+    /**
+     * Maps a possibly out-of-range coordinate to one inside {@code [0, size)}.
+     */
+    public int map(int i, int size) {
+        if (i >= 0 && i < size) return i;
+        switch (this) {
+            case MIRROR:
+                if (size == 1) return 0;
+                int period = 2 * size - 2;
+                i = Math.abs(i) % period;
+                return i < size ? i : period - i;
+            case WRAP:
+                i %= size;
+                return i < 0 ? i + size : i;
+            case CLAMP:
+            default:
+                return i < 0 ? 0 : size - 1;
+        }
+    }
+}
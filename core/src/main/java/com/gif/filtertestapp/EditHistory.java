@@ -0,0 +1,288 @@
+package com.gif.filtertestapp;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Undo and redo for a sequence of filter steps applied on top of each other.
+ * <p>
+ * The history stores the steps as {@link FilterChain}s, not as images, so its size hardly grows
+ * with the number of steps. The image at any step is recomputed from the nearest earlier
+ * keyframe, a stored copy of the image after some step; the source image is the keyframe at step
+ * 0. Consecutive steps are concatenated into one chain for that, so runs of point filters cost a
+ * single pass no matter how many steps they span.
+ * <p>
+ * Every rendered image becomes a keyframe candidate, remembered with the time it took to compute
+ * from its own base. Keyframes are limited to a byte budget; when it is exceeded, the keyframe
+ * that saves the least recompute time, discounted by its distance from the current step, is
+ * dropped first, and the keyframe after it inherits its cost. Memory therefore stays flat
+ * however long the history gets, while expensive steps and the steps around the cursor stay
+ * cheap to return to.
+ * <p>
+ * Editing methods and queries are cheap and may be called from any thread, typically the UI
+ * thread; {@link #render} runs one at a time, typically on a background thread.
+ */
+public final class EditHistory {
+
+    private final PixelBuffer source;
+    private final int maxKeyframes;
+
+    private final List<FilterChain> steps = new ArrayList<>();
+    private int position;
+    // Keyframes by step, without the source at step 0; guarded by this.
+    private final TreeMap<Integer, Keyframe> keyframes = new TreeMap<>();
+
+    // Guards rendering, the scratch buffer and the pixels of keyframes.
+    private final Object renderLock = new Object();
+    private final PixelBuffer scratch = new PixelBuffer(1, 1);
+    private PixelBuffer spare;
+    private LongSupplier clock = System::nanoTime;
+
+    /**
+     * Creates an empty history for {@code source}, which must not change afterwards. At most
+     * {@code keyframeBudgetBytes} are spent on keyframes besides the source.
+     */
+    public EditHistory(PixelBuffer source, long keyframeBudgetBytes) {
+        this.source = source;
+        long bytesPerKeyframe = Math.max(4L, 4L * source.size());
+        this.maxKeyframes = (int) Math.min(Integer.MAX_VALUE, keyframeBudgetBytes / bytesPerKeyframe);
+    }
+
+    /**
+     * Replaces {@link System#nanoTime()}, for tests.
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    public PixelBuffer getSource() {
+        return source;
+    }
+
+    /**
+     * Adds {@code step} after the current step and makes it current. Steps that were undone are
+     * discarded.
+     */
+    public synchronized void push(FilterChain step) {
+        truncate(position);
+        steps.add(step);
+        position++;
+    }
+
+    /**
+     * Replaces the current step, for example with the same filter at another strength. Steps
+     * that were undone are discarded.
+     */
+    public synchronized void replaceCurrent(FilterChain step) {
+        if (position == 0) {
+            throw new IllegalStateException("No step to replace");
+        }
+        truncate(position - 1);
+        steps.add(step);
+    }
+
+    public synchronized boolean canUndo() {
+        return position > 0;
+    }
+
+    public synchronized boolean canRedo() {
+        return position < steps.size();
+    }
+
+    public synchronized void undo() {
+        if (!canUndo()) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        position--;
+    }
+
+    public synchronized void redo() {
+        if (!canRedo()) {
+            throw new IllegalStateException("Nothing to redo");
+        }
+        position++;
+    }
+
+    /**
+     * Makes the image after the first {@code position} steps current; 0 is the source.
+     */
+    public synchronized void jumpTo(int position) {
+        checkPosition(position);
+        this.position = position;
+    }
+
+    /**
+     * Number of steps applied to the current image.
+     */
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    /**
+     * Number of steps, including those that were undone.
+     */
+    public synchronized int getSize() {
+        return steps.size();
+    }
+
+    public synchronized FilterChain getStep(int index) {
+        return steps.get(index);
+    }
+
+    /**
+     * Returns the steps up to the current one as a single chain, which turns the source into the
+     * current image. Its key identifies the current image, for example for result caches.
+     */
+    public synchronized FilterChain getChain() {
+        return concat(0, position);
+    }
+
+    /**
+     * Returns the first {@code position} steps as a single chain.
+     */
+    public synchronized FilterChain getChain(int position) {
+        checkPosition(position);
+        return concat(0, position);
+    }
+
+    public synchronized int getKeyframeCount() {
+        return keyframes.size();
+    }
+
+    /**
+     * Computes the image after the first {@code position} steps into {@code dst}, from the nearest
+     * keyframe, and keeps it as a keyframe if it is worth its memory. Passes run in row bands on
+     * {@code executor}, or serially if it is {@code null}; {@code token} (which may be
+     * {@code null}) stops the render with a {@link java.util.concurrent.CancellationException}.
+     */
+    public void render(int position, PixelBuffer dst, TileExecutor executor, CancellationToken token) {
+        synchronized (renderLock) {
+            List<FilterChain> prefix;
+            int basePosition;
+            PixelBuffer base;
+            FilterChain chain;
+            synchronized (this) {
+                checkPosition(position);
+                prefix = new ArrayList<>(steps.subList(0, position));
+                Integer floor = keyframes.floorKey(position);
+                basePosition = floor != null ? floor : 0;
+                base = floor != null ? keyframes.get(floor).pixels : source;
+                chain = concat(basePosition, position);
+            }
+            if (basePosition == position) {
+                dst.copyFrom(base);
+                return;
+            }
+            long start = clock.getAsLong();
+            try (PerfStats.Span span = PerfStats.getDefault().begin("history:render")) {
+                span.setPixels((long) base.size() * chain.getPassCount());
+                chain.apply(base, dst, scratch, executor, token);
+            }
+            long cost = clock.getAsLong() - start;
+            offerKeyframe(prefix, position, dst, cost);
+        }
+    }
+
+    private void offerKeyframe(List<FilterChain> prefix, int position, PixelBuffer pixels, long cost) {
+        PixelBuffer copy;
+        synchronized (this) {
+            if (maxKeyframes == 0 || !hasPrefix(prefix)) return;
+            if (keyframes.size() >= maxKeyframes) {
+                Integer weakest = weakestKeyframe();
+                if (value(position, cost) <= value(weakest, keyframes.get(weakest).cost)) return;
+                evict(weakest);
+            }
+            copy = spare != null ? spare : new PixelBuffer(pixels.getWidth(), pixels.getHeight());
+            spare = null;
+        }
+        // Only render() reads keyframe pixels, and it holds the render lock like this caller.
+        copy.copyFrom(pixels);
+        synchronized (this) {
+            if (hasPrefix(prefix) && !keyframes.containsKey(position)) {
+                keyframes.put(position, new Keyframe(copy, cost));
+            } else {
+                spare = copy;
+            }
+        }
+    }
+
+    private boolean hasPrefix(List<FilterChain> prefix) {
+        if (steps.size() < prefix.size()) return false;
+        for (int i = 0; i < prefix.size(); i++) {
+            if (steps.get(i) != prefix.get(i)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * The recompute time a keyframe saves, weighted down with its distance from the current step.
+     */
+    private double value(int keyframePosition, long cost) {
+        return cost / (1.0 + Math.abs(keyframePosition - position));
+    }
+
+    private Integer weakestKeyframe() {
+        Integer weakest = null;
+        double weakestValue = Double.MAX_VALUE;
+        for (Map.Entry<Integer, Keyframe> entry : keyframes.entrySet()) {
+            double value = value(entry.getKey(), entry.getValue().cost);
+            if (value < weakestValue) {
+                weakestValue = value;
+                weakest = entry.getKey();
+            }
+        }
+        return weakest;
+    }
+
+    private void evict(int keyframePosition) {
+        Keyframe removed = keyframes.remove(keyframePosition);
+        // The next keyframe now has to be recomputed through the evicted one's steps as well.
+        Integer next = keyframes.higherKey(keyframePosition);
+        if (next != null) {
+            keyframes.get(next).cost += removed.cost;
+        }
+        spare = removed.pixels;
+    }
+
+    /**
+     * Drops the steps after the first {@code length} and the keyframes that depend on them.
+     */
+    private void truncate(int length) {
+        while (steps.size() > length) {
+            steps.remove(steps.size() - 1);
+        }
+        Iterator<Integer> stale = keyframes.tailMap(length, false).keySet().iterator();
+        while (stale.hasNext()) {
+            spare = keyframes.get(stale.next()).pixels;
+            stale.remove();
+        }
+    }
+
+    private FilterChain concat(int from, int to) {
+        FilterChain.Builder builder = new FilterChain.Builder();
+        for (int i = from; i < to; i++) {
+            builder.addChain(steps.get(i));
+        }
+        return builder.build();
+    }
+
+    private void checkPosition(int position) {
+        if (position < 0 || position > steps.size()) {
+            throw new IndexOutOfBoundsException("Invalid position " + position + " of " + steps.size());
+        }
+    }
+
+    private static final class Keyframe {
+        final PixelBuffer pixels;
+        long cost;
+
+        Keyframe(PixelBuffer pixels, long cost) {
+            this.pixels = pixels;
+            this.cost = cost;
+        }
+    }
+}
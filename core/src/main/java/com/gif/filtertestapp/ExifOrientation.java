@@ -0,0 +1,113 @@
+package com.gif.filtertestapp;
+
+/**
+ * The eight EXIF orientations and how they map displayed pixels back to stored pixels.
+ * <p>
+ * Every orientation is an affine map with unit coefficients: the stored pixel behind displayed
+ * pixel {@code (x, y)} is {@code (a0 + ax * x + ay * y, b0 + bx * x + by * y)}. That lets
+ * {@link #copyRows} walk the stored region with a constant stride instead of branching per pixel,
+ * and lets {@link #sourceRegion} tell a strip decoder which stored pixels a displayed strip needs.
+ */
+public enum ExifOrientation {
+    NORMAL(1, 0, 1, 0, 0, 0, 1),
+    FLIP_HORIZONTAL(2, 1, -1, 0, 0, 0, 1),
+    ROTATE_180(3, 1, -1, 0, 1, 0, -1),
+    FLIP_VERTICAL(4, 0, 1, 0, 1, 0, -1),
+    TRANSPOSE(5, 0, 0, 1, 0, 1, 0),
+    ROTATE_90(6, 0, 0, 1, 1, -1, 0),
+    TRANSVERSE(7, 1, 0, -1, 1, -1, 0),
+    ROTATE_270(8, 1, 0, -1, 0, 1, 0);
+
+    private final int exifValue;
+    // Whether the offsets start at the far edge (width - 1 or height - 1) of the stored image.
+    private final int xFromEnd;
+    private final int ax;
+    private final int ay;
+    private final int yFromEnd;
+    private final int bx;
+    private final int by;
+
+    ExifOrientation(int exifValue, int xFromEnd, int ax, int ay, int yFromEnd, int bx, int by) {
+        this.exifValue = exifValue;
+        this.xFromEnd = xFromEnd;
+        this.ax = ax;
+        this.ay = ay;
+        this.yFromEnd = yFromEnd;
+        this.bx = bx;
+        this.by = by;
+    }
+
+    /**
+     * Returns the orientation for an EXIF {@code Orientation} tag value; unknown values mean
+     * {@link #NORMAL}.
+     */
+    public static ExifOrientation fromExif(int value) {
+        for (ExifOrientation orientation : values()) {
+            if (orientation.exifValue == value) return orientation;
+        }
+        return NORMAL;
+    }
+
+    public int getExifValue() {
+        return exifValue;
+    }
+
+    /**
+     * Returns whether displayed rows come from stored columns, i.e. width and height swap.
+     */
+    public boolean swapsAxes() {
+        return ax == 0;
+    }
+
+    public int displayedWidth(int storedWidth, int storedHeight) {
+        return swapsAxes() ? storedHeight : storedWidth;
+    }
+
+    public int displayedHeight(int storedWidth, int storedHeight) {
+        return swapsAxes() ? storedWidth : storedHeight;
+    }
+
+    /**
+     * Writes the stored bounds {@code {left, top, right, bottom}} that displayed rows
+     * {@code [top, bottom)} are read from into {@code bounds}.
+     */
+    public void sourceRegion(int storedWidth, int storedHeight, int top, int bottom, int[] bounds) {
+        if (swapsAxes()) {
+            int first = xFromEnd == 1 ? storedWidth - bottom : top;
+            bounds[0] = first;
+            bounds[1] = 0;
+            bounds[2] = first + bottom - top;
+            bounds[3] = storedHeight;
+        } else {
+            int first = yFromEnd == 1 ? storedHeight - bottom : top;
+            bounds[0] = 0;
+            bounds[1] = first;
+            bounds[2] = storedWidth;
+            bounds[3] = first + bottom - top;
+        }
+    }
+
+    /**
+     * Fills {@code target} with displayed rows {@code [top, top + target.getHeight())}.
+     * {@code region} holds the stored pixels at {@code regionLeft, regionTop} with a stride of
+     * {@code regionWidth} and must cover {@link #sourceRegion} for those rows.
+     */
+    public void copyRows(int[] region, int regionLeft, int regionTop, int regionWidth,
+                         int storedWidth, int storedHeight, int top, PixelBuffer target) {
+        int width = target.getWidth();
+        int rows = target.getHeight();
+        int[] out = target.getPixels();
+        int x0 = xFromEnd * (storedWidth - 1) - regionLeft;
+        int y0 = yFromEnd * (storedHeight - 1) - regionTop;
+        int step = ax + bx * regionWidth;
+        for (int row = 0; row < rows; row++) {
+            int y = top + row;
+            int in = (y0 + by * y) * regionWidth + x0 + ay * y;
+            int outOffset = row * width;
+            for (int x = 0; x < width; x++) {
+                out[outOffset + x] = region[in];
+                in += step;
+            }
+        }
+    }
+}
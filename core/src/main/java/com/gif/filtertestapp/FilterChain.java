@@ -0,0 +1,1015 @@
+package com.gif.filtertestapp;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An ordered list of filters that is compiled into as few full-image passes as possible.
+ * <p>
+ * Consecutive color matrix filters are concatenated into a single matrix, consecutive per-channel
+ * point filters (solarize, posterize, curves) are composed into one set of 256-entry lookup
+ * tables, and the heatmap palette absorbs any lookup table before it and any point filter after
+ * it; 3D lookup tables and color palettes absorb the per-channel tables before them as well.
+ * Matrices and tables that end up next to each other still run in one pass over the pixels. Only
+ * filters that depend on pixel position or neighbours (vignette, convolutions, blurs, dithering)
+ * start a new pass.
+ * <p>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class FilterChain {
+
+    /** Pixels processed per op before moving on, small enough to stay in cache between ops. */
+    private static final int CHUNK_SIZE = 2048;
+
+    private final List<Pass> passes;
+    private final String key;
+
+    private FilterChain(List<Pass> passes, String key) {
+        this.passes = Collections.unmodifiableList(passes);
+        this.key = key;
+    }
+
+    /**
+     * Creates a chain that applies the given filters in order.
+     */
+    public static FilterChain of(FilterType... types) {
+        Builder builder = new Builder();
+        for (FilterType type : types) {
+            builder.add(type);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Creates a chain of the adjustable filter {@code type} with its parameter set to
+     * {@code value}. Rebuilding such a chain only recomputes a matrix, a table or a kernel, so it
+     * is cheap enough to do on every frame of a slider drag.
+     */
+    public static FilterChain of(FilterType type, float value) {
+        return new Builder().add(type, value).build();
+    }
+
+    /**
+     * Returns a string that identifies the filters and parameters of this chain, for use in cache
+     * keys. Chains built from the same steps have the same key.
+     */
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * Number of full-image passes this chain needs.
+     */
+    public int getPassCount() {
+        return passes.size();
+    }
+
+    /**
+     * {@link #getHaloSize(int, int)} for an image whose shorter side is
+     * {@link FilterType#BLUR_REFERENCE_SIZE}; zero exactly when the chain has no neighbourhood
+     * passes.
+     */
+    public int getHaloSize() {
+        return getHaloSize(FilterType.BLUR_REFERENCE_SIZE, FilterType.BLUR_REFERENCE_SIZE);
+    }
+
+    /**
+     * Number of rows (and columns) around a tile of an {@code imageWidth} x {@code imageHeight}
+     * image whose output depends on pixels outside it: the sum of the radii of all neighbourhood
+     * passes. Tiles padded by this much on every side that does not touch the image edge come out
+     * exactly like the same area of the whole image.
+     */
+    public int getHaloSize(int imageWidth, int imageHeight) {
+        int halo = 0;
+        for (Pass pass : passes) {
+            halo += pass.haloSize(imageWidth, imageHeight);
+        }
+        return halo;
+    }
+
+    /**
+     * Returns the concatenated color matrix if the whole chain reduced to a single affine filter,
+     * so callers can hand it to {@code ColorMatrixColorFilter}; {@code null} otherwise.
+     */
+    public float[] getColorMatrix() {
+        if (passes.size() != 1 || !(passes.get(0) instanceof PointPass)) return null;
+        PointOp[] ops = ((PointPass) passes.get(0)).ops;
+        if (ops.length != 1 || !(ops[0] instanceof MatrixOp)) return null;
+        return ((MatrixOp) ops[0]).matrix.clone();
+    }
+
+    /**
+     * Runs the chain from {@code src} into {@code dst} on the calling thread. The buffers may be
+     * the same.
+     */
+    public void apply(PixelBuffer src, PixelBuffer dst) {
+        apply(src, dst, null, null);
+    }
+
+    /**
+     * Runs the chain from {@code src} into {@code dst}, splitting every pass into row bands on
+     * {@code executor} (or running serially if it is {@code null}). {@code scratch}, which may also
+     * be {@code null}, holds intermediate results of passes that cannot write over their input.
+     */
+    public void apply(PixelBuffer src, PixelBuffer dst, PixelBuffer scratch, TileExecutor executor) {
+        apply(src, dst, scratch, executor, null);
+    }
+
+    /**
+     * Like {@link #apply(PixelBuffer, PixelBuffer, PixelBuffer, TileExecutor)}, but stops with a
+     * {@link java.util.concurrent.CancellationException} between bands once {@code token} is
+     * cancelled. {@code dst} is left partially written in that case.
+     */
+    public void apply(PixelBuffer src, PixelBuffer dst, PixelBuffer scratch, TileExecutor executor,
+                      CancellationToken token) {
+        applyTile(src, dst, scratch, executor, token, src.getWidth(), src.getHeight(), 0, 0);
+    }
+
+    /**
+     * Like {@link #apply(PixelBuffer, PixelBuffer, PixelBuffer, TileExecutor, CancellationToken)}
+     * for a tile of a larger image: {@code src} holds the area whose top-left corner is at
+     * ({@code left}, {@code top}) of an {@code imageWidth} x {@code imageHeight} image.
+     * Position-dependent filters use image coordinates; neighbourhood filters treat the tile edges
+     * as image edges, so tiles need a margin of {@link #getHaloSize(int, int)} pixels that is
+     * discarded afterwards. This is exact for {@link EdgeMode#CLAMP} and {@link EdgeMode#MIRROR};
+     * a {@link EdgeMode#WRAP} convolution would need pixels from the opposite side of the image.
+     * A dither treats the tile as a whole image; use {@link #applyStrip} to dither exactly.
+     */
+    public void applyTile(PixelBuffer src, PixelBuffer dst, PixelBuffer scratch, TileExecutor executor,
+                          CancellationToken token, int imageWidth, int imageHeight, int left, int top) {
+        applyTile(src, dst, scratch, executor, token, imageWidth, imageHeight, left, top, null);
+    }
+
+    /**
+     * Creates the state that {@link #applyStrip} carries from one strip of an
+     * {@code imageWidth} x {@code imageHeight} image to the next.
+     */
+    public StripState newStripState(int imageWidth, int imageHeight) {
+        Object[] states = new Object[passes.size()];
+        int halo = 0;
+        for (int i = 0; i < states.length; i++) {
+            Pass pass = passes.get(i);
+            states[i] = pass.newStripState(imageWidth, imageHeight, halo);
+            halo += pass.haloSize(imageWidth, imageHeight);
+        }
+        return new StripState(imageWidth, imageHeight, states);
+    }
+
+    /**
+     * Like {@link #applyTile} for a strip that spans the width of the image and starts at row
+     * {@code top}, with the same margins. Strips must be applied top to bottom with the same
+     * {@code state}, which lets passes that depend on every row above, such as a dither, go on
+     * where the strip above stopped; the result is then exact for those passes too.
+     */
+    public void applyStrip(PixelBuffer src, PixelBuffer dst, PixelBuffer scratch, TileExecutor executor,
+                           CancellationToken token, StripState state, int top) {
+        applyTile(src, dst, scratch, executor, token, state.imageWidth, state.imageHeight, 0, top, state.states);
+    }
+
+    private void applyTile(PixelBuffer src, PixelBuffer dst, PixelBuffer scratch, TileExecutor executor,
+                           CancellationToken token, int imageWidth, int imageHeight, int left, int top,
+                           Object[] stripStates) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        PixelBuffer current = src;
+        for (int i = 0; i < passes.size(); i++) {
+            Pass pass = passes.get(i);
+            Frame frame = new Frame(imageWidth, imageHeight, left, top, stripStates != null ? stripStates[i] : null);
+            PixelBuffer target = dst;
+            if (!pass.isInPlace() && current.getPixels() == dst.getPixels()) {
+                if (scratch == null) {
+                    scratch = new PixelBuffer(width, height);
+                }
+                target = scratch;
+            }
+            target.reshape(width, height);
+            PixelBuffer in = current;
+            PixelBuffer out = target;
+            if (token != null) {
+                token.throwIfCancelled();
+            }
+            try (PerfStats.Span span = PerfStats.getDefault().begin(pass.stageName())) {
+                span.setPixels((long) width * height);
+                pass.apply(in, out, executor, token, frame);
+            }
+            current = target;
+        }
+        if (current != dst) {
+            dst.copyFrom(current);
+        }
+    }
+
+    /**
+     * Collects filters and compiles them into passes on {@link #build()}.
+     */
+    public static final class Builder {
+
+        private final List<Pass> passes = new ArrayList<>();
+        private final List<PointOp> ops = new ArrayList<>();
+        private final StringBuilder key = new StringBuilder();
+
+        public Builder add(FilterType type) {
+            return add(type, type.getDefaultValue());
+        }
+
+        /**
+         * Adds {@code type} with its parameter set to {@code value}, which must lie within the
+         * range of the filter. The value is ignored for filters that are not adjustable.
+         */
+        public Builder add(FilterType type, float value) {
+            if (type.isAdjustable() && !(value >= type.getMinValue() && value <= type.getMaxValue())) {
+                throw new IllegalArgumentException("Value " + value + " out of range for " + type);
+            }
+            switch (type) {
+                case GRAYSCALE:
+                    return addColorMatrix(ColorMatrices.grayscale());
+                case SEPIA:
+                    return addColorMatrix(ColorMatrices.sepia());
+                case INVERT:
+                    return addColorMatrix(ColorMatrices.invert());
+                case VINTAGE:
+                    return addColorMatrix(ColorMatrices.vintage());
+                case BRIGHTNESS:
+                    return addColorMatrix(ColorMatrices.brightness(value));
+                case CONTRAST:
+                    return addColorMatrix(ColorMatrices.contrast(value));
+                case WINTER:
+                    return addColorMatrix(ColorMatrices.winter());
+                case SOLARIZE:
+                    return addSolarize(Math.round(value));
+                case POSTERIZE:
+                    return addPosterize(Math.round(value));
+                case VIGNETTE:
+                    return addVignette(value);
+                case HEATMAP:
+                    return addHeatmap();
+                case SHARPEN:
+                    return addConvolution(ConvolutionKernel.sharpen(), EdgeMode.CLAMP);
+                case EDGE_DETECT:
+                    return addConvolution(ConvolutionKernel.edgeDetect(), EdgeMode.CLAMP);
+                case EMBOSS:
+                    return addConvolution(ConvolutionKernel.emboss(), EdgeMode.CLAMP);
+                case UNSHARP_MASK:
+                    return addConvolution(ConvolutionKernel.unsharpMask(value), EdgeMode.CLAMP);
+                case BLUR:
+                    return addBlur(BlurKernel.relativeGaussian(value, FilterType.BLUR_REFERENCE_SIZE), EdgeMode.MIRROR);
+                case BACKGROUND_BLUR:
+                    return addBackgroundBlur(BlurKernel.relativeGaussian(value, FilterType.BLUR_REFERENCE_SIZE));
+                default:
+                    throw new IllegalArgumentException("Unknown filter " + type);
+            }
+        }
+
+        /**
+         * Appends {@code chain} as one step: the result is exactly that of running {@code chain}
+         * on the output of the filters added before. Point filters on both sides of the seam
+         * still share a pass, but are not merged with each other, since concatenating two color
+         * matrices skips the clamping in between.
+         */
+        public Builder addChain(FilterChain chain) {
+            if (chain.key.isEmpty()) return this;
+            appendKey("[" + chain.key + "]");
+            boolean seam = true;
+            for (Pass pass : chain.passes) {
+                if (pass instanceof PointPass) {
+                    for (PointOp op : ((PointPass) pass).ops) {
+                        if (seam) {
+                            ops.add(op);
+                        } else {
+                            addOp(op);
+                        }
+                        seam = false;
+                    }
+                } else {
+                    addPass(pass);
+                    seam = false;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Adds a vignette whose ramp ends at {@code radius} times the image width.
+         */
+        public Builder addVignette(float radius) {
+            if (!(radius > 0)) {
+                throw new IllegalArgumentException("Invalid vignette radius " + radius);
+            }
+            appendKey("vignette(" + radius + ")");
+            return addPass(new KernelPass("vignette", true, 0) {
+                @Override
+                void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+                    PixelFilters.vignetteRows(src, dst, startRow, endRow,
+                            frame.imageWidth, frame.imageHeight, frame.left, frame.top, radius);
+                }
+            });
+        }
+
+        /**
+         * Adds a convolution, which always starts a pass of its own.
+         */
+        public Builder addConvolution(ConvolutionKernel kernel, EdgeMode edgeMode) {
+            appendKey("convolution(" + kernel.getSize() + "," + kernel.getShift() + ","
+                    + Arrays.toString(kernel.weights()) + "," + edgeMode + ")");
+            String name = "convolution" + kernel.getSize() + "x" + kernel.getSize();
+            return addPass(new KernelPass(name, false, kernel.getRadius()) {
+                @Override
+                void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+                    Convolution.applyRows(src, dst, kernel, edgeMode, startRow, endRow);
+                }
+            });
+        }
+
+        /**
+         * Adds a blur, which always starts a pass of its own and costs the same for any radius.
+         */
+        public Builder addBlur(BlurKernel kernel, EdgeMode edgeMode) {
+            appendKey("blur(" + kernel.getName() + "," + edgeMode + ")");
+            return addPass(new BlurPass("blur", kernel, edgeMode));
+        }
+
+        /**
+         * Adds an unsharp mask, {@code pixel + amount * (pixel - blur)}, over {@code kernel}. Unlike
+         * {@link FilterType#UNSHARP_MASK}, whose blur is a fixed 5x5 convolution, this also works
+         * for the large radii that bring out local contrast.
+         */
+        public Builder addUnsharpMask(BlurKernel kernel, float amount) {
+            if (!(amount >= 0)) {
+                throw new IllegalArgumentException("Invalid amount " + amount);
+            }
+            int fixedAmount = Math.round(amount * 256);
+            appendKey("unsharp(" + kernel.getName() + "," + fixedAmount + ")");
+            return addPass(new BlurPass("unsharp", kernel, EdgeMode.MIRROR) {
+                @Override
+                boolean blends() {
+                    return true;
+                }
+
+                @Override
+                void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+                    Blur.unsharpRows(src, dst, startRow, endRow, fixedAmount);
+                }
+            });
+        }
+
+        /**
+         * Blurs the image with {@code kernel} towards the edges while keeping an ellipse around
+         * the centre sharp, as if the subject there were in focus.
+         */
+        public Builder addBackgroundBlur(BlurKernel kernel) {
+            appendKey("backgroundBlur(" + kernel.getName() + ")");
+            return addPass(new BlurPass("backgroundBlur", kernel, EdgeMode.MIRROR) {
+                @Override
+                boolean blends() {
+                    return true;
+                }
+
+                @Override
+                void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+                    Blur.backgroundRows(src, dst, startRow, endRow,
+                            frame.imageWidth, frame.imageHeight, frame.left, frame.top);
+                }
+            });
+        }
+
+        /**
+         * Adds a 4x5 color matrix, for example the one parsed for a custom filter.
+         */
+        public Builder addColorMatrix(float[] matrix) {
+            if (matrix.length != 20) {
+                throw new IllegalArgumentException("Color matrix needs 20 values");
+            }
+            appendKey("matrix" + Arrays.toString(matrix));
+            return addOp(new MatrixOp(matrix.clone()));
+        }
+
+        public Builder addSolarize(int threshold) {
+            appendKey("solarize(" + threshold + ")");
+            int[] table = new int[256];
+            for (int v = 0; v < 256; v++) {
+                table[v] = v > threshold ? 255 - v : v;
+            }
+            return addOp(new LutOp(table, table, table));
+        }
+
+        public Builder addPosterize(int numLevels) {
+            if (numLevels < 1 || numLevels > 256) {
+                throw new IllegalArgumentException("Invalid number of levels " + numLevels);
+            }
+            appendKey("posterize(" + numLevels + ")");
+            int levelSize = 256 / numLevels;
+            int[] table = new int[256];
+            for (int v = 0; v < 256; v++) {
+                table[v] = Math.min(255, (v / levelSize) * levelSize + levelSize / 2);
+            }
+            return addOp(new LutOp(table, table, table));
+        }
+
+        /**
+         * Adds per-channel tone curves given as 256-entry lookup tables of output values.
+         */
+        public Builder addCurves(int[] red, int[] green, int[] blue) {
+            checkCurve(red);
+            checkCurve(green);
+            checkCurve(blue);
+            appendKey("curves(" + Arrays.toString(red) + "," + Arrays.toString(green) + ","
+                    + Arrays.toString(blue) + ")");
+            return addOp(new LutOp(red.clone(), green.clone(), blue.clone()));
+        }
+
+        /**
+         * Adds a 3D lookup table. Per-channel tables before it are folded into its input tables,
+         * and any point filter next to it runs in the same pass.
+         */
+        public Builder addLut(CubeLut lut) {
+            appendKey("lut3d(" + lut.getKey() + ")");
+            return addOp(new CubeOp(lut));
+        }
+
+        /**
+         * Replaces every color by the nearest one of {@code palette}, for example one built by
+         * {@link ColorPalette#fromImage} for a posterize that adapts to the image. Per-channel
+         * tables before it are folded into its lookup.
+         */
+        public Builder addPalette(ColorPalette palette) {
+            appendKey("quantize(" + palette.getKey() + ")");
+            return addOp(new QuantizeOp(palette));
+        }
+
+        /**
+         * Maps the image to {@code palette}, diffusing the error with {@code kernel} so that
+         * gradients do not band; see {@link Dither}. Each pixel depends on every pixel above it
+         * but none below, so the pass needs no halo: {@link #applyStrip} carries the errors from
+         * one strip to the next instead.
+         */
+        public Builder addDither(ColorPalette palette, DitherKernel kernel) {
+            appendKey("dither(" + palette.getKey() + "," + kernel + ")");
+            return addPass(new DitherPass(palette, kernel));
+        }
+
+        /**
+         * Adds the luminance-to-palette step of the heatmap filter.
+         */
+        public Builder addHeatmap() {
+            appendKey("heatmap");
+            double[] lumaR = new double[256];
+            double[] lumaG = new double[256];
+            double[] lumaB = new double[256];
+            int[] colors = new int[256];
+            for (int v = 0; v < 256; v++) {
+                lumaR[v] = 0.299 * v;
+                lumaG[v] = 0.587 * v;
+                lumaB[v] = 0.114 * v;
+                float position = v / 255f;
+                colors[v] = PixelFilters.HEATMAP_COLORS[(int) (position * (PixelFilters.HEATMAP_COLORS.length - 1))];
+            }
+            return addOp(new PaletteOp(lumaR, lumaG, lumaB, colors));
+        }
+
+        public FilterChain build() {
+            flushOps();
+            return new FilterChain(new ArrayList<>(passes), key.toString());
+        }
+
+        private static void checkCurve(int[] table) {
+            if (table.length != 256) {
+                throw new IllegalArgumentException("Curve needs 256 values");
+            }
+            for (int value : table) {
+                if (value < 0 || value > 255) {
+                    throw new IllegalArgumentException("Invalid curve value " + value);
+                }
+            }
+        }
+
+        private void appendKey(String step) {
+            if (key.length() > 0) {
+                key.append(';');
+            }
+            key.append(step);
+        }
+
+        private Builder addPass(Pass pass) {
+            flushOps();
+            passes.add(pass);
+            return this;
+        }
+
+        private Builder addOp(PointOp op) {
+            if (!ops.isEmpty()) {
+                PointOp fused = ops.get(ops.size() - 1).fuse(op);
+                if (fused != null) {
+                    ops.set(ops.size() - 1, fused);
+                    return this;
+                }
+            }
+            ops.add(op);
+            return this;
+        }
+
+        private void flushOps() {
+            if (ops.isEmpty()) return;
+            passes.add(new PointPass(ops.toArray(new PointOp[0])));
+            ops.clear();
+        }
+    }
+
+    /**
+     * What passes keep between the strips of one image; see {@link #newStripState}. Not
+     * thread-safe.
+     */
+    public static final class StripState {
+        final int imageWidth;
+        final int imageHeight;
+        // Per pass, in order; null for the passes that keep nothing.
+        final Object[] states;
+
+        private StripState(int imageWidth, int imageHeight, Object[] states) {
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.states = states;
+        }
+    }
+
+    /**
+     * Where the buffer being filtered sits in the whole image, and what the pass kept from the
+     * strip above, if anything.
+     */
+    private static final class Frame {
+        final int imageWidth;
+        final int imageHeight;
+        final int left;
+        final int top;
+        final Object stripState;
+
+        Frame(int imageWidth, int imageHeight, int left, int top, Object stripState) {
+            this.imageWidth = imageWidth;
+            this.imageHeight = imageHeight;
+            this.left = left;
+            this.top = top;
+            this.stripState = stripState;
+        }
+    }
+
+    private abstract static class Pass {
+        private String stageName;
+
+        /** Short description for {@link PerfStats}, such as {@code "matrix+lut"}. */
+        abstract String name();
+
+        final String stageName() {
+            if (stageName == null) {
+                stageName = "pass:" + name();
+            }
+            return stageName;
+        }
+
+        /** Whether the pass may read and write the same buffer. */
+        abstract boolean isInPlace();
+
+        /** How far, in pixels, the pass reads around each output pixel of the given image. */
+        int haloSize(int imageWidth, int imageHeight) {
+            return 0;
+        }
+
+        /**
+         * Returns what the pass keeps from one strip to the next, or {@code null} if strips are
+         * independent for it. {@code margin} is the halo of the passes before it.
+         */
+        Object newStripState(int imageWidth, int imageHeight, int margin) {
+            return null;
+        }
+
+        /**
+         * Writes all of {@code dst}, which already has the size of {@code src}, in row bands on
+         * {@code executor} or serially if it is {@code null}.
+         */
+        void apply(PixelBuffer src, PixelBuffer dst, TileExecutor executor, CancellationToken token, Frame frame) {
+            if (executor == null) {
+                applyRows(src, dst, 0, src.getHeight(), frame);
+            } else {
+                executor.forEachBand(src.getWidth(), src.getHeight(),
+                        (startRow, endRow) -> applyRows(src, dst, startRow, endRow, frame), token);
+            }
+        }
+
+        /**
+         * Writes rows {@code [startRow, endRow)} of {@code dst}, which already has the size of
+         * {@code src}. Passes that are not in place may read any row of {@code src}.
+         */
+        abstract void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame);
+    }
+
+    private abstract static class KernelPass extends Pass {
+        private final String name;
+        private final boolean inPlace;
+        private final int haloSize;
+
+        KernelPass(String name, boolean inPlace, int haloSize) {
+            this.name = name;
+            this.inPlace = inPlace;
+            this.haloSize = haloSize;
+        }
+
+        @Override
+        String name() {
+            return name;
+        }
+
+        @Override
+        boolean isInPlace() {
+            return inPlace;
+        }
+
+        @Override
+        int haloSize(int imageWidth, int imageHeight) {
+            return haloSize;
+        }
+    }
+
+    /**
+     * A {@link Blur} of the whole input, which cannot be split into row bands since its column
+     * pass needs every row; both of its passes are split into bands instead. Subclasses may then
+     * blend the input back into the blurred rows in {@link #applyRows}. Relative kernels are sized
+     * for the whole image rather than the tile.
+     */
+    private static class BlurPass extends KernelPass {
+        private final BlurKernel kernel;
+        private final EdgeMode edgeMode;
+
+        BlurPass(String name, BlurKernel kernel, EdgeMode edgeMode) {
+            super(name, false, 0);
+            this.kernel = kernel;
+            this.edgeMode = edgeMode;
+        }
+
+        @Override
+        int haloSize(int imageWidth, int imageHeight) {
+            return kernel.forImage(imageWidth, imageHeight).getRadius();
+        }
+
+        @Override
+        void apply(PixelBuffer src, PixelBuffer dst, TileExecutor executor, CancellationToken token, Frame frame) {
+            Blur.apply(src, dst, kernel.forImage(frame.imageWidth, frame.imageHeight), edgeMode, executor, token);
+            if (blends()) {
+                super.apply(src, dst, executor, token, frame);
+            }
+        }
+
+        boolean blends() {
+            return false;
+        }
+
+        @Override
+        void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+        }
+    }
+
+    /**
+     * A {@link Dither} of the whole input, whose rows run as a wavefront rather than in bands, or
+     * of the next strip of an image.
+     */
+    private static final class DitherPass extends Pass {
+        private final ColorPalette palette;
+        private final DitherKernel kernel;
+
+        DitherPass(ColorPalette palette, DitherKernel kernel) {
+            this.palette = palette;
+            this.kernel = kernel;
+        }
+
+        @Override
+        String name() {
+            return "dither";
+        }
+
+        @Override
+        boolean isInPlace() {
+            return true;
+        }
+
+        @Override
+        Object newStripState(int imageWidth, int imageHeight, int margin) {
+            return new Dither.Strips(palette, kernel, imageHeight, margin);
+        }
+
+        @Override
+        void apply(PixelBuffer src, PixelBuffer dst, TileExecutor executor, CancellationToken token, Frame frame) {
+            if (frame.stripState != null) {
+                ((Dither.Strips) frame.stripState).apply(src, dst, frame.top, executor, token);
+            } else {
+                Dither.apply(src, dst, palette, kernel, executor, token);
+            }
+        }
+
+        @Override
+        void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+        }
+    }
+
+    /**
+     * Runs a sequence of point ops in one sweep, chunk by chunk, so each pixel is loaded from and
+     * stored to memory once.
+     */
+    private static final class PointPass extends Pass {
+        final PointOp[] ops;
+
+        PointPass(PointOp[] ops) {
+            this.ops = ops;
+        }
+
+        @Override
+        String name() {
+            StringBuilder name = new StringBuilder();
+            for (PointOp op : ops) {
+                if (name.length() > 0) name.append('+');
+                name.append(op.name());
+            }
+            return name.toString();
+        }
+
+        @Override
+        boolean isInPlace() {
+            return true;
+        }
+
+        @Override
+        void applyRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow, Frame frame) {
+            int[] in = src.getPixels();
+            int[] out = dst.getPixels();
+            int end = endRow * src.getWidth();
+            for (int from = startRow * src.getWidth(); from < end; from += CHUNK_SIZE) {
+                int to = Math.min(end, from + CHUNK_SIZE);
+                ops[0].apply(in, out, from, to);
+                for (int i = 1; i < ops.length; i++) {
+                    ops[i].apply(out, out, from, to);
+                }
+            }
+        }
+    }
+
+    private abstract static class PointOp {
+        abstract String name();
+
+        abstract void apply(int[] src, int[] dst, int from, int to);
+
+        /**
+         * Returns a single op equivalent to this op followed by {@code next}, or {@code null} if
+         * the two cannot be merged.
+         */
+        abstract PointOp fuse(PointOp next);
+    }
+
+    private static final class MatrixOp extends PointOp {
+        final float[] matrix;
+        final int[] fixed;
+
+        MatrixOp(float[] matrix) {
+            this.matrix = matrix;
+            this.fixed = ColorMatrices.toFixedPoint(matrix);
+        }
+
+        @Override
+        String name() {
+            return "matrix";
+        }
+
+        @Override
+        void apply(int[] src, int[] dst, int from, int to) {
+            ColorMatrices.apply(fixed, src, dst, from, to);
+        }
+
+        @Override
+        PointOp fuse(PointOp next) {
+            if (next instanceof MatrixOp) {
+                return new MatrixOp(ColorMatrices.concat(matrix, ((MatrixOp) next).matrix));
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Per-channel 256-entry lookup tables; alpha passes through unchanged.
+     */
+    private static final class LutOp extends PointOp {
+        final int[] red;
+        final int[] green;
+        final int[] blue;
+        private final int[] redShifted = new int[256];
+        private final int[] greenShifted = new int[256];
+
+        LutOp(int[] red, int[] green, int[] blue) {
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            for (int v = 0; v < 256; v++) {
+                redShifted[v] = red[v] << 16;
+                greenShifted[v] = green[v] << 8;
+            }
+        }
+
+        @Override
+        String name() {
+            return "lut";
+        }
+
+        @Override
+        void apply(int[] src, int[] dst, int from, int to) {
+            int[] r = redShifted;
+            int[] g = greenShifted;
+            int[] b = blue;
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                dst[i] = (p & 0xFF000000) | r[(p >> 16) & 0xFF] | g[(p >> 8) & 0xFF] | b[p & 0xFF];
+            }
+        }
+
+        @Override
+        PointOp fuse(PointOp next) {
+            if (next instanceof LutOp) {
+                LutOp lut = (LutOp) next;
+                return new LutOp(compose(red, lut.red), compose(green, lut.green), compose(blue, lut.blue));
+            }
+            if (next instanceof CubeOp) {
+                return ((CubeOp) next).after(this);
+            }
+            if (next instanceof QuantizeOp) {
+                return ((QuantizeOp) next).after(this);
+            }
+            if (next instanceof PaletteOp) {
+                PaletteOp palette = (PaletteOp) next;
+                return new PaletteOp(compose(red, palette.lumaR), compose(green, palette.lumaG),
+                        compose(blue, palette.lumaB), palette.colors);
+            }
+            return null;
+        }
+
+        private static int[] compose(int[] first, int[] then) {
+            int[] result = new int[256];
+            for (int v = 0; v < 256; v++) {
+                result[v] = then[first[v]];
+            }
+            return result;
+        }
+
+        private static double[] compose(int[] first, double[] then) {
+            double[] result = new double[256];
+            for (int v = 0; v < 256; v++) {
+                result[v] = then[first[v]];
+            }
+            return result;
+        }
+    }
+
+    /**
+     * A 3D lookup table. Each channel reaches the lattice through a 256-entry table of cell offsets
+     * and weights, so lookup tables in front of it fold into those exactly.
+     */
+    private static final class CubeOp extends PointOp {
+        final CubeLut lut;
+        final int[][] inputs;
+
+        CubeOp(CubeLut lut) {
+            this(lut, new int[][]{lut.inputTable(0), lut.inputTable(1), lut.inputTable(2)});
+        }
+
+        private CubeOp(CubeLut lut, int[][] inputs) {
+            this.lut = lut;
+            this.inputs = inputs;
+        }
+
+        /**
+         * Returns this table with {@code first} applied to its input.
+         */
+        CubeOp after(LutOp first) {
+            return new CubeOp(lut, new int[][]{
+                    LutOp.compose(first.red, inputs[0]),
+                    LutOp.compose(first.green, inputs[1]),
+                    LutOp.compose(first.blue, inputs[2])});
+        }
+
+        @Override
+        String name() {
+            return "lut3d";
+        }
+
+        @Override
+        void apply(int[] src, int[] dst, int from, int to) {
+            CubeLut.apply(lut.lattice(), lut.getSize(), inputs[0], inputs[1], inputs[2], src, dst, from, to);
+        }
+
+        @Override
+        PointOp fuse(PointOp next) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps each pixel to the nearest color of a {@link ColorPalette}, keeping its alpha. The
+     * channels reach the palette through 256-entry tables, so lookup tables in front of it fold
+     * into those exactly.
+     */
+    private static final class QuantizeOp extends PointOp {
+        private static final int[] IDENTITY = new int[256];
+
+        static {
+            for (int v = 0; v < 256; v++) {
+                IDENTITY[v] = v;
+            }
+        }
+
+        final ColorPalette palette;
+        final int[] red;
+        final int[] green;
+        final int[] blue;
+        private final int[] redShifted = new int[256];
+        private final int[] greenShifted = new int[256];
+
+        QuantizeOp(ColorPalette palette) {
+            this(palette, IDENTITY, IDENTITY, IDENTITY);
+        }
+
+        private QuantizeOp(ColorPalette palette, int[] red, int[] green, int[] blue) {
+            this.palette = palette;
+            this.red = red;
+            this.green = green;
+            this.blue = blue;
+            for (int v = 0; v < 256; v++) {
+                redShifted[v] = red[v] << 16;
+                greenShifted[v] = green[v] << 8;
+            }
+        }
+
+        /**
+         * Returns this quantization with {@code first} applied to its input.
+         */
+        QuantizeOp after(LutOp first) {
+            return new QuantizeOp(palette, LutOp.compose(first.red, red),
+                    LutOp.compose(first.green, green), LutOp.compose(first.blue, blue));
+        }
+
+        @Override
+        String name() {
+            return "quantize";
+        }
+
+        @Override
+        void apply(int[] src, int[] dst, int from, int to) {
+            int[] r = redShifted;
+            int[] g = greenShifted;
+            int[] b = blue;
+            ColorPalette palette = this.palette;
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                int color = r[(p >> 16) & 0xFF] | g[(p >> 8) & 0xFF] | b[p & 0xFF];
+                dst[i] = (p & 0xFF000000) | (palette.getColor(palette.indexOf(color)) & 0xFFFFFF);
+            }
+        }
+
+        @Override
+        PointOp fuse(PointOp next) {
+            return null;
+        }
+    }
+
+    /**
+     * Maps the weighted luminance of a pixel to one of 256 output colors. The luminance weights are
+     * kept as per-channel tables so lookup tables in front of the palette fold into them.
+     */
+    private static final class PaletteOp extends PointOp {
+        final double[] lumaR;
+        final double[] lumaG;
+        final double[] lumaB;
+        final int[] colors;
+
+        PaletteOp(double[] lumaR, double[] lumaG, double[] lumaB, int[] colors) {
+            this.lumaR = lumaR;
+            this.lumaG = lumaG;
+            this.lumaB = lumaB;
+            this.colors = colors;
+        }
+
+        @Override
+        String name() {
+            return "palette";
+        }
+
+        @Override
+        void apply(int[] src, int[] dst, int from, int to) {
+            for (int i = from; i < to; i++) {
+                int p = src[i];
+                int luminance = (int) (lumaR[(p >> 16) & 0xFF] + lumaG[(p >> 8) & 0xFF] + lumaB[p & 0xFF]);
+                dst[i] = colors[luminance];
+            }
+        }
+
+        @Override
+        PointOp fuse(PointOp next) {
+            int[] mapped = colors.clone();
+            next.apply(mapped, mapped, 0, mapped.length);
+            return new PaletteOp(lumaR, lumaG, lumaB, mapped);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.gif.filtertestapp;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Runs filter jobs off the UI thread with latest-wins semantics.
+ * <p>
+ * At most one job runs at a time and at most one waits behind it. Submitting a job replaces the
+ * waiting one (which then never starts) and cancels the running one, which stops at its next
+ * band boundary. A burst of taps therefore renders only the last filter. Results are handed to the
+ * callback on the result executor, and only if no newer job was submitted in the meantime.
+ * <p>
+ * A {@link ProgressiveJob} may publish cheaper previews before its final result; they go through
+ * the same checks and arrive at {@link Callback#onPreview} before the result.
+ */
+public final class FilterScheduler {
+
+    /**
+     * Work to run on the background executor. Implementations should pass the token down to
+     * {@link TileExecutor} so that superseded jobs stop early.
+     */
+    public interface Job<T> {
+        T run(CancellationToken token) throws Exception;
+    }
+
+    /**
+     * A job that can hand out intermediate results while it keeps working.
+     */
+    public interface ProgressiveJob<T> {
+        T run(CancellationToken token, Consumer<T> preview) throws Exception;
+    }
+
+    public interface Callback<T> {
+        /**
+         * Receives a preview published by a {@link ProgressiveJob}. Does nothing by default.
+         */
+        default void onPreview(T preview) {
+        }
+
+        void onResult(T result);
+
+        void onError(Throwable error);
+    }
+
+    private final Executor backgroundExecutor;
+    private final Executor resultExecutor;
+
+    private final Object lock = new Object();
+    private Request<?> pending;
+    private Request<?> running;
+    private boolean draining;
+    private long latestGeneration;
+
+    /**
+     * @param backgroundExecutor runs the jobs; the scheduler never has more than one task on it
+     * @param resultExecutor     delivers results, normally the main thread
+     */
+    public FilterScheduler(Executor backgroundExecutor, Executor resultExecutor) {
+        this.backgroundExecutor = backgroundExecutor;
+        this.resultExecutor = resultExecutor;
+    }
+
+    /**
+     * Schedules {@code job}, superseding every job submitted before it.
+     */
+    public <T> void submit(Job<T> job, Callback<T> callback) {
+        submit((ProgressiveJob<T>) (token, preview) -> job.run(token), callback);
+    }
+
+    /**
+     * Schedules {@code job}, superseding every job submitted before it. Previews published after
+     * the job was superseded are dropped.
+     */
+    public <T> void submit(ProgressiveJob<T> job, Callback<T> callback) {
+        synchronized (lock) {
+            Request<T> request = new Request<>(job, callback, ++latestGeneration);
+            if (pending != null) {
+                pending.token.cancel();
+            }
+            if (running != null) {
+                running.token.cancel();
+            }
+            pending = request;
+            if (!draining) {
+                draining = true;
+                backgroundExecutor.execute(this::drain);
+            }
+        }
+    }
+
+    /**
+     * Cancels the running and the waiting job without scheduling anything new.
+     */
+    public void cancelAll() {
+        synchronized (lock) {
+            latestGeneration++;
+            if (pending != null) {
+                pending.token.cancel();
+                pending = null;
+            }
+            if (running != null) {
+                running.token.cancel();
+            }
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Request<?> request;
+            synchronized (lock) {
+                request = pending;
+                pending = null;
+                running = request;
+                if (request == null) {
+                    draining = false;
+                    return;
+                }
+            }
+            request.execute();
+        }
+    }
+
+    private boolean isLatest(Request<?> request) {
+        synchronized (lock) {
+            return request.generation == latestGeneration && !request.token.isCancelled();
+        }
+    }
+
+    private final class Request<T> {
+        final ProgressiveJob<T> job;
+        final Callback<T> callback;
+        final long generation;
+        final CancellationToken token = new CancellationToken();
+
+        Request(ProgressiveJob<T> job, Callback<T> callback, long generation) {
+            this.job = job;
+            this.callback = callback;
+            this.generation = generation;
+        }
+
+        void execute() {
+            if (token.isCancelled()) return;
+            T result;
+            try {
+                result = job.run(token, this::publish);
+            } catch (CancellationException e) {
+                return;
+            } catch (Throwable t) {
+                resultExecutor.execute(() -> {
+                    if (isLatest(this)) callback.onError(t);
+                });
+                return;
+            }
+            resultExecutor.execute(() -> {
+                if (isLatest(this)) callback.onResult(result);
+            });
+        }
+
+        void publish(T preview) {
+            if (token.isCancelled()) return;
+            resultExecutor.execute(() -> {
+                if (isLatest(this)) callback.onPreview(preview);
+            });
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.gif.filtertestapp;
+
+import java.util.List;
+
+/**
+ * Renders a batch of filter chains onto one small image, for previews of every filter at once.
+ * <p>
+ * The source thumbnail is shared read-only by all chains; each chain runs serially into its own
+ * buffers and the chains run in parallel on the executor. At thumbnail size a single pass is far
+ * below the size where splitting it into bands pays off, so parallelism across filters is the
+ * cheaper way to use the cores.
+ */
+public final class FilterThumbnails {
+
+    private FilterThumbnails() {
+    }
+
+    /**
+     * Applies every chain to {@code thumbnail} and returns the results in the same order.
+     *
+     * @param executor runs the chains in parallel, or {@code null} to render on the calling thread
+     * @param token    may be {@code null}; once cancelled, rendering stops with a
+     *                 {@link java.util.concurrent.CancellationException}
+     */
+    public static PixelBuffer[] render(PixelBuffer thumbnail, List<FilterChain> chains, TileExecutor executor,
+                                       CancellationToken token) {
+        PixelBuffer[] results = new PixelBuffer[chains.size()];
+        TileExecutor runner = executor != null ? executor : new TileExecutor(1);
+        runner.forEachIndex(chains.size(), i -> {
+            PixelBuffer result = new PixelBuffer(thumbnail.getWidth(), thumbnail.getHeight());
+            chains.get(i).apply(thumbnail, result, null, null);
+            results[i] = result;
+        }, token);
+        return results;
+    }
+}
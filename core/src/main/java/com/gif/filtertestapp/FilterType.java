@@ -0,0 +1,65 @@
+package com.gif.filtertestapp;
+
+/**
+ * The built-in filters offered by the filter button bar.
+ * <p>
+ * Adjustable filters take one parameter between {@link #getMinValue()} and {@link #getMaxValue()}:
+ * the offset added to every channel for {@link #BRIGHTNESS}, the contrast factor, the threshold
+ * above which {@link #SOLARIZE} inverts, the number of {@link #POSTERIZE} levels, the
+ * {@link #VIGNETTE} radius as a fraction of the image width, the {@link #UNSHARP_MASK} amount and
+ * the standard deviation of the Gaussian behind {@link #BLUR} and {@link #BACKGROUND_BLUR}, in
+ * pixels of an image whose shorter side is {@link #BLUR_REFERENCE_SIZE} and in proportion on
+ * smaller or larger ones.
+ * Their default values are the fixed strengths the filters had before they became adjustable.
+ */
+public enum FilterType {
+    GRAYSCALE, SEPIA, INVERT, VINTAGE,
+    BRIGHTNESS(-100, 100, 50),
+    CONTRAST(0, 3, 1.5f),
+    WINTER,
+    SOLARIZE(0, 255, 128),
+    POSTERIZE(2, 16, 4),
+    VIGNETTE(0.3f, 1.5f, 0.7f),
+    HEATMAP, SHARPEN, EDGE_DETECT, EMBOSS,
+    UNSHARP_MASK(0, 3, 1),
+    BLUR(1, 50, 6),
+    BACKGROUND_BLUR(1, 50, 12);
+
+    /** Shorter image side at which blur values are in pixels, the size previews are decoded at. */
+    public static final int BLUR_REFERENCE_SIZE = 800;
+
+    private final boolean adjustable;
+    private final float minValue;
+    private final float maxValue;
+    private final float defaultValue;
+
+    FilterType() {
+        this.adjustable = false;
+        this.minValue = 0;
+        this.maxValue = 0;
+        this.defaultValue = 0;
+    }
+
+    FilterType(float minValue, float maxValue, float defaultValue) {
+        this.adjustable = true;
+        this.minValue = minValue;
+        this.maxValue = maxValue;
+        this.defaultValue = defaultValue;
+    }
+
+    public boolean isAdjustable() {
+        return adjustable;
+    }
+
+    public float getMinValue() {
+        return minValue;
+    }
+
+    public float getMaxValue() {
+        return maxValue;
+    }
+
+    public float getDefaultValue() {
+        return defaultValue;
+    }
+}
@@ -0,0 +1,430 @@
+package com.gif.filtertestapp;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads the frames of a GIF one at a time, each composited onto the full canvas.
+ * <p>
+ * Only the canvas and the frame being decoded are held, never the whole animation, so a long GIF
+ * can be streamed through {@link AnimatedGifProcessor} in constant memory. Frames are composited
+ * the way browsers do: the canvas starts out transparent, a frame's transparent pixels leave what
+ * is below them, and the disposal method of each frame (keep, clear to transparent, or restore
+ * the previous canvas) is applied before the next one is drawn. Truncated image data ends the
+ * frame early instead of failing, since such files are common and viewers show them.
+ * <p>
+ * The stream is not closed.
+ */
+public final class GifDecoder {
+
+    /** Larger canvases would not fit an {@code int[]} of ARGB pixels anyway. */
+    private static final long MAX_PIXELS = 1L << 28;
+    private static final int MAX_CODES = 1 << 12;
+
+    private static final int DISPOSE_BACKGROUND = 2;
+    private static final int DISPOSE_PREVIOUS = 3;
+
+    private final InputStream in;
+    private final int width;
+    private final int height;
+    private final int[] globalColors;
+    private int loopCount = -1;
+
+    private final int[] canvas;
+    private int[] saved;
+    private final int[] localColors = new int[256];
+    private final byte[] block = new byte[255];
+    private byte[] data = new byte[4096];
+    private byte[] indices = new byte[0];
+    private final short[] prefix = new short[MAX_CODES];
+    private final byte[] suffix = new byte[MAX_CODES];
+    private final byte[] stack = new byte[MAX_CODES + 1];
+
+    // Graphic control of the next frame, and disposal of the last one drawn.
+    private int delayMillis;
+    private int disposal;
+    private int transparentIndex = -1;
+    private int lastDisposal;
+    private int lastLeft, lastTop, lastWidth, lastHeight;
+    private int frameCount;
+    private boolean ended;
+
+    /**
+     * Reads the header and logical screen descriptor.
+     *
+     * @throws IOException if the stream is not a GIF
+     */
+    public GifDecoder(InputStream in) throws IOException {
+        this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in);
+        byte[] header = new byte[6];
+        readFully(header, 6);
+        String signature = new String(header, 0, 6, StandardCharsets.US_ASCII);
+        if (!signature.equals("GIF87a") && !signature.equals("GIF89a")) {
+            throw new IOException("Not a GIF");
+        }
+        width = readShort();
+        height = readShort();
+        int packed = readByte();
+        readByte(); // background color, which browsers ignore in favour of transparency
+        readByte(); // pixel aspect ratio
+        if (width == 0 || height == 0 || (long) width * height > MAX_PIXELS) {
+            throw new IOException("Unsupported canvas " + width + "x" + height);
+        }
+        globalColors = (packed & 0x80) != 0 ? readColorTable(new int[256], 2 << (packed & 7)) : null;
+        canvas = new int[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * How often the animation repeats after the first time, 0 for forever, or -1 if the file
+     * has no loop extension and plays once. Known once the first frame has been read.
+     */
+    public int getLoopCount() {
+        return loopCount;
+    }
+
+    /**
+     * How long the frame returned by the last {@link #readFrame} is shown.
+     */
+    public int getDelayMillis() {
+        return delayMillis;
+    }
+
+    /**
+     * Number of frames read so far.
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * Decodes the next frame and copies the composited canvas into {@code target}, which is
+     * reshaped to the canvas size.
+     *
+     * @return {@code false}, leaving {@code target} unchanged, once there are no more frames
+     * @throws IOException if reading fails or the file is malformed before its first frame
+     */
+    public boolean readFrame(PixelBuffer target) throws IOException {
+        if (ended) return false;
+        int frameDelay = 0;
+        disposal = 0;
+        transparentIndex = -1;
+        while (true) {
+            int introducer = in.read();
+            if (introducer == 0x2C) {
+                delayMillis = frameDelay;
+                break;
+            }
+            if (introducer == 0x21) {
+                int label = readByte();
+                if (label == 0xF9) {
+                    frameDelay = readGraphicControl();
+                } else if (label == 0xFF) {
+                    readApplication();
+                } else {
+                    skipSubBlocks();
+                }
+            } else if (introducer == 0x3B || (introducer == -1 && frameCount > 0)) {
+                ended = true;
+                return false;
+            } else if (introducer == -1) {
+                throw new EOFException("No frames");
+            } else if (introducer == 0) {
+                // Stray block terminators are tolerated by every viewer.
+                continue;
+            } else {
+                throw new IOException("Unexpected block 0x" + Integer.toHexString(introducer));
+            }
+        }
+        try (PerfStats.Span span = PerfStats.getDefault().begin("gif:decode")) {
+            span.setPixels(canvas.length);
+            readImage();
+        }
+        frameCount++;
+        target.reshape(width, height);
+        System.arraycopy(canvas, 0, target.getPixels(), 0, canvas.length);
+        return true;
+    }
+
+    private int readGraphicControl() throws IOException {
+        int size = readByte();
+        int packed = readByte();
+        int delay = readShort();
+        int transparent = readByte();
+        skip(size - 4);
+        skipSubBlocks();
+        disposal = (packed >> 2) & 7;
+        transparentIndex = (packed & 1) != 0 ? transparent : -1;
+        return delay * 10;
+    }
+
+    private void readApplication() throws IOException {
+        int size = readSubBlock();
+        boolean netscape = size == 11 && new String(block, 0, 11, StandardCharsets.US_ASCII)
+                .matches("NETSCAPE2\\.0|ANIMEXTS1\\.0");
+        while ((size = readSubBlock()) > 0) {
+            if (netscape && size >= 3 && block[0] == 1) {
+                loopCount = (block[1] & 0xFF) | (block[2] & 0xFF) << 8;
+            }
+        }
+    }
+
+    private void readImage() throws IOException {
+        int left = readShort();
+        int top = readShort();
+        int frameWidth = readShort();
+        int frameHeight = readShort();
+        int packed = readByte();
+        int[] colors = (packed & 0x80) != 0 ? readColorTable(localColors, 2 << (packed & 7)) : globalColors;
+        if (colors == null) {
+            throw new IOException("Frame " + frameCount + " has no color table");
+        }
+        // Frames are only clipped to the canvas when drawn, so their indices must fit in memory.
+        if ((long) frameWidth * frameHeight > MAX_PIXELS) {
+            throw new IOException("Unsupported frame " + frameWidth + "x" + frameHeight);
+        }
+        boolean interlaced = (packed & 0x40) != 0;
+        int minCodeSize = readByte();
+        int length = readImageData();
+
+        disposeLast();
+        if (disposal == DISPOSE_PREVIOUS) {
+            if (saved == null) {
+                saved = new int[canvas.length];
+            }
+            System.arraycopy(canvas, 0, saved, 0, canvas.length);
+        }
+        lastDisposal = disposal;
+        lastLeft = left;
+        lastTop = top;
+        lastWidth = frameWidth;
+        lastHeight = frameHeight;
+
+        int count = frameWidth * frameHeight;
+        if (count == 0) return;
+        if (indices.length < count) {
+            indices = new byte[count];
+        }
+        if (minCodeSize < 2 || minCodeSize > 8) {
+            throw new IOException("Invalid LZW code size " + minCodeSize);
+        }
+        int decoded = decodeLzw(minCodeSize, length, indices, count);
+        draw(colors, left, top, frameWidth, frameHeight, interlaced, decoded);
+    }
+
+    /**
+     * Applies the disposal method of the previous frame to the canvas.
+     */
+    private void disposeLast() {
+        if (lastDisposal == DISPOSE_BACKGROUND) {
+            int right = Math.min(width, lastLeft + lastWidth);
+            int bottom = Math.min(height, lastTop + lastHeight);
+            for (int y = lastTop; y < bottom; y++) {
+                if (lastLeft < right) {
+                    Arrays.fill(canvas, y * width + lastLeft, y * width + right, 0);
+                }
+            }
+        } else if (lastDisposal == DISPOSE_PREVIOUS && saved != null) {
+            System.arraycopy(saved, 0, canvas, 0, canvas.length);
+        }
+    }
+
+    /**
+     * Draws the first {@code decoded} indices of a frame, clipped to the canvas.
+     */
+    private void draw(int[] colors, int left, int top, int frameWidth, int frameHeight,
+                      boolean interlaced, int decoded) {
+        int transparent = transparentIndex;
+        int right = Math.min(width, left + frameWidth);
+        int pass = 0;
+        int step = interlaced ? 8 : 1;
+        int row = 0;
+        for (int line = 0; line < frameHeight; line++) {
+            int y = top + row;
+            int start = line * frameWidth;
+            if (start >= decoded) break;
+            if (y < height) {
+                int end = Math.min(decoded, start + right - left);
+                int offset = y * width + left - start;
+                for (int i = start; i < end; i++) {
+                    int index = indices[i] & 0xFF;
+                    if (index != transparent) {
+                        canvas[offset + i] = colors[index];
+                    }
+                }
+            }
+            row += step;
+            // Interlaced frames store every 8th row from 0, every 8th from 4, every 4th from 2
+            // and finally every 2nd from 1.
+            while (interlaced && row >= frameHeight && pass < 3) {
+                pass++;
+                row = 8 >> pass;
+                step = row * 2;
+            }
+        }
+    }
+
+    /**
+     * Reads the sub-blocks of an image into {@link #data} and returns their total length.
+     */
+    private int readImageData() throws IOException {
+        int length = 0;
+        int size;
+        while ((size = in.read()) > 0) {
+            if (data.length < length + size) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + size));
+            }
+            int n = readUpTo(data, length, size);
+            length += n;
+            if (n < size) break;
+        }
+        return length;
+    }
+
+    /**
+     * Decompresses {@code length} bytes of {@link #data} into up to {@code count} color indices
+     * and returns how many were produced.
+     */
+    private int decodeLzw(int minCodeSize, int length, byte[] out, int count) {
+        byte[] data = this.data;
+        short[] prefix = this.prefix;
+        byte[] suffix = this.suffix;
+        byte[] stack = this.stack;
+        int clear = 1 << minCodeSize;
+        int end = clear + 1;
+        for (int code = 0; code < clear; code++) {
+            prefix[code] = 0;
+            suffix[code] = (byte) code;
+        }
+        int available = clear + 2;
+        int codeSize = minCodeSize + 1;
+        int codeMask = (1 << codeSize) - 1;
+        int old = -1;
+        int first = 0;
+        int datum = 0;
+        int bits = 0;
+        int position = 0;
+        int written = 0;
+        while (written < count) {
+            while (bits < codeSize) {
+                if (position == length) return written;
+                datum |= (data[position++] & 0xFF) << bits;
+                bits += 8;
+            }
+            int code = datum & codeMask;
+            datum >>>= codeSize;
+            bits -= codeSize;
+            if (code == clear) {
+                available = clear + 2;
+                codeSize = minCodeSize + 1;
+                codeMask = (1 << codeSize) - 1;
+                old = -1;
+                continue;
+            }
+            if (code == end) break;
+            if (old == -1) {
+                if (code > clear) break;
+                out[written++] = suffix[code];
+                old = code;
+                first = code;
+                continue;
+            }
+            int current = code;
+            int top = 0;
+            if (code >= available) {
+                if (code > available) break;
+                // The code being defined right now: the previous string plus its own first index.
+                stack[top++] = (byte) first;
+                code = old;
+            }
+            while (code >= clear) {
+                stack[top++] = suffix[code];
+                code = prefix[code];
+            }
+            first = suffix[code] & 0xFF;
+            stack[top++] = (byte) first;
+            if (available < MAX_CODES) {
+                prefix[available] = (short) old;
+                suffix[available] = (byte) first;
+                available++;
+                if ((available & codeMask) == 0 && available < MAX_CODES) {
+                    codeSize++;
+                    codeMask = (1 << codeSize) - 1;
+                }
+            }
+            old = current;
+            while (top > 0 && written < count) {
+                out[written++] = stack[--top];
+            }
+        }
+        return written;
+    }
+
+    private int[] readColorTable(int[] colors, int size) throws IOException {
+        byte[] rgb = new byte[size * 3];
+        readFully(rgb, rgb.length);
+        Arrays.fill(colors, 0xFF000000);
+        for (int i = 0; i < size; i++) {
+            colors[i] = 0xFF000000 | (rgb[3 * i] & 0xFF) << 16 | (rgb[3 * i + 1] & 0xFF) << 8 | (rgb[3 * i + 2] & 0xFF);
+        }
+        return colors;
+    }
+
+    private int readSubBlock() throws IOException {
+        int size = readByte();
+        readFully(block, size);
+        return size;
+    }
+
+    private void skipSubBlocks() throws IOException {
+        int size;
+        while ((size = readByte()) > 0) {
+            skip(size);
+        }
+    }
+
+    private void skip(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readByte();
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private int readShort() throws IOException {
+        return readByte() | readByte() << 8;
+    }
+
+    private void readFully(byte[] target, int count) throws IOException {
+        if (readUpTo(target, 0, count) < count) {
+            throw new EOFException();
+        }
+    }
+
+    private int readUpTo(byte[] target, int offset, int count) throws IOException {
+        int total = 0;
+        while (total < count) {
+            int n = in.read(target, offset + total, count - total);
+            if (n < 0) break;
+            total += n;
+        }
+        return total;
+    }
+}
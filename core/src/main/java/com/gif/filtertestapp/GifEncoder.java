@@ -0,0 +1,322 @@
+package com.gif.filtertestapp;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Writes an animated GIF frame by frame, so the animation never has to exist in memory as a whole.
+ * <p>
+ * Encoding is split in two: a {@link FrameEncoder} maps a frame to a palette and compresses it
+ * into a self-contained block of bytes, which is the expensive part and can run on any thread,
+ * and {@link #writeFrame(byte[])} appends such blocks to the file in order. Every frame covers the
+ * whole canvas with its own color table and is cleared after it is shown, so frames can be encoded
+ * independently of each other. Pixels with an alpha below one half become transparent.
+ * <p>
+ * Call {@link #finish()} after the last frame. The underlying stream is not closed.
+ */
+public final class GifEncoder {
+
+    private static final byte[] SIGNATURE = "GIF89a".getBytes(StandardCharsets.US_ASCII);
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private int frameCount;
+
+    /**
+     * Writes the GIF header for a canvas of the given size.
+     *
+     * @param loopCount how often the animation repeats after the first time, 0 for forever, or
+     *                  -1 to play it once
+     */
+    public GifEncoder(OutputStream out, int width, int height, int loopCount) throws IOException {
+        if (width < 1 || height < 1 || width > 0xFFFF || height > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        out.write(SIGNATURE);
+        writeShort(width);
+        writeShort(height);
+        // No global color table: every frame brings its own.
+        out.write(0);
+        out.write(0); // background color
+        out.write(0); // pixel aspect ratio
+        if (loopCount >= 0) {
+            out.write(new byte[]{0x21, (byte) 0xFF, 11});
+            out.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+            out.write(new byte[]{3, 1, (byte) loopCount, (byte) (loopCount >> 8), 0});
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Appends a frame produced by a {@link FrameEncoder} for a canvas of this size.
+     */
+    public void writeFrame(byte[] frame) throws IOException {
+        out.write(frame);
+        frameCount++;
+    }
+
+    /**
+     * Encodes and appends a frame on the calling thread.
+     */
+    public void writeFrame(PixelBuffer image, int delayMillis) throws IOException {
+        writeFrame(new FrameEncoder().encode(image, delayMillis));
+    }
+
+    /**
+     * Writes the end of the file.
+     */
+    public void finish() throws IOException {
+        if (frameCount == 0) {
+            throw new IllegalStateException("No frames written");
+        }
+        out.write(0x3B);
+        out.flush();
+    }
+
+    private void writeShort(int value) throws IOException {
+        out.write(value);
+        out.write(value >> 8);
+    }
+
+    /**
+     * Turns frames into encoded blocks for {@link #writeFrame(byte[])}. An instance keeps its
+     * buffers between frames and is not thread-safe; use one per thread.
+     * <p>
+     * By default every frame gets a {@link ColorPalette} of up to 255 colors built from its own
+     * pixels, and the color table is only as large as that palette needs, which also shortens the
+     * codes of frames with few colors. The index after the last color is used for transparency.
+     */
+    public static final class FrameEncoder {
+
+        private static final int MAX_CODES = 1 << 12;
+        /** A prime comfortably above {@link #MAX_CODES}, probed with a secondary hash. */
+        private static final int HASH_SIZE = 5003;
+        private static final int HASH_SHIFT = 4;
+
+        private static final int DISPOSE_BACKGROUND = 2;
+
+        private final ColorPalette palette;
+        private final DitherKernel dither;
+        private PixelBuffer dithered;
+        private byte[] indices = new byte[0];
+        private final int[] hashKeys = new int[HASH_SIZE];
+        private final short[] hashCodes = new short[HASH_SIZE];
+        private byte[] buffer = new byte[1 << 16];
+        private int length;
+        private final byte[] block = new byte[255];
+        private int blockLength;
+        private int bitBuffer;
+        private int bitCount;
+
+        public FrameEncoder() {
+            this(null, null);
+        }
+
+        /**
+         * Uses {@code palette} for every frame, which keeps colors from flickering between
+         * frames of an animation whose colors change little.
+         */
+        public FrameEncoder(ColorPalette palette) {
+            this(palette, null);
+        }
+
+        /**
+         * Uses {@code palette} for every frame, or a palette per frame if it is {@code null}, and
+         * dithers each frame to it with {@code dither} rather than mapping every pixel to the
+         * nearest color, unless that is {@code null}.
+         */
+        public FrameEncoder(ColorPalette palette, DitherKernel dither) {
+            if (palette != null && palette.size() >= ColorPalette.MAX_COLORS) {
+                throw new IllegalArgumentException("No index left for transparency");
+            }
+            this.palette = palette;
+            this.dither = dither;
+        }
+
+        /**
+         * Maps {@code image} to the palette and compresses it into a frame shown for
+         * {@code delayMillis}, rounded to the hundredths of a second GIF counts in.
+         */
+        public byte[] encode(PixelBuffer image, int delayMillis) {
+            int count = image.size();
+            if (indices.length < count) {
+                indices = new byte[count];
+            }
+            ColorPalette colors;
+            boolean transparent;
+            try (PerfStats.Span span = PerfStats.getDefault().begin("gif:quantize")) {
+                span.setPixels(count);
+                colors = palette != null ? palette : ColorPalette.fromImage(image, ColorPalette.MAX_COLORS - 1);
+                int[] pixels = image.getPixels();
+                if (dither != null) {
+                    if (dithered == null) {
+                        dithered = new PixelBuffer(1, 1);
+                    }
+                    Dither.apply(image, dithered, colors, dither);
+                    pixels = dithered.getPixels();
+                }
+                transparent = colors.index(pixels, indices, count, colors.size());
+            }
+            int tableBits = 1;
+            while (1 << tableBits < colors.size() + (transparent ? 1 : 0)) {
+                tableBits++;
+            }
+
+            length = 0;
+            int delay = Math.max(0, Math.min(0xFFFF, (delayMillis + 5) / 10));
+            write(0x21);
+            write(0xF9);
+            write(4);
+            write(DISPOSE_BACKGROUND << 2 | (transparent ? 1 : 0));
+            write(delay);
+            write(delay >> 8);
+            write(transparent ? colors.size() : 0);
+            write(0);
+
+            write(0x2C);
+            write(0);
+            write(0);
+            write(0);
+            write(0);
+            write(image.getWidth());
+            write(image.getWidth() >> 8);
+            write(image.getHeight());
+            write(image.getHeight() >> 8);
+            // Local color table, not interlaced.
+            write(0x80 | (tableBits - 1));
+            for (int i = 0; i < 1 << tableBits; i++) {
+                int color = i < colors.size() ? colors.getColor(i) : 0;
+                write(color >> 16);
+                write(color >> 8);
+                write(color);
+            }
+            try (PerfStats.Span span = PerfStats.getDefault().begin("gif:compress")) {
+                span.setPixels(count);
+                writeImageData(indices, count, Math.max(2, tableBits));
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+
+        /**
+         * Returns the code size byte, LZW-compressed sub-blocks and terminator for
+         * {@code indices}, as they follow an image descriptor.
+         */
+        static byte[] compress(byte[] indices, int count, int minCodeSize) {
+            FrameEncoder encoder = new FrameEncoder();
+            encoder.writeImageData(indices, count, minCodeSize);
+            return Arrays.copyOf(encoder.buffer, encoder.length);
+        }
+
+        private void writeImageData(byte[] indices, int count, int minCodeSize) {
+            write(minCodeSize);
+            blockLength = 0;
+            bitBuffer = 0;
+            bitCount = 0;
+            int clear = 1 << minCodeSize;
+            int end = clear + 1;
+            int[] keys = hashKeys;
+            short[] codes = hashCodes;
+            Arrays.fill(keys, -1);
+            int nextCode = clear + 2;
+            int codeSize = minCodeSize + 1;
+            writeCode(clear, codeSize);
+            int current = indices[0] & 0xFF;
+            for (int i = 1; i < count; i++) {
+                int c = indices[i] & 0xFF;
+                int key = c << 12 | current;
+                int h = (c << HASH_SHIFT) ^ current;
+                int step = h == 0 ? 1 : HASH_SIZE - h;
+                int found = -1;
+                while (keys[h] >= 0) {
+                    if (keys[h] == key) {
+                        found = codes[h];
+                        break;
+                    }
+                    h -= step;
+                    if (h < 0) {
+                        h += HASH_SIZE;
+                    }
+                }
+                if (found >= 0) {
+                    current = found;
+                    continue;
+                }
+                writeCode(current, codeSize);
+                current = c;
+                if (nextCode < MAX_CODES) {
+                    keys[h] = key;
+                    codes[h] = (short) nextCode++;
+                    // The decoder adds each string one code later, so it widens its codes only
+                    // once the table holds one more entry than fits the current width.
+                    if (nextCode > 1 << codeSize && codeSize < 12) {
+                        codeSize++;
+                    }
+                } else {
+                    writeCode(clear, codeSize);
+                    Arrays.fill(keys, -1);
+                    nextCode = clear + 2;
+                    codeSize = minCodeSize + 1;
+                }
+            }
+            writeCode(current, codeSize);
+            writeCode(end, codeSize);
+            if (bitCount > 0) {
+                writeDataByte(bitBuffer);
+            }
+            flushBlock();
+            write(0);
+        }
+
+        private void writeCode(int code, int codeSize) {
+            bitBuffer |= code << bitCount;
+            bitCount += codeSize;
+            while (bitCount >= 8) {
+                writeDataByte(bitBuffer);
+                bitBuffer >>>= 8;
+                bitCount -= 8;
+            }
+        }
+
+        private void writeDataByte(int value) {
+            block[blockLength++] = (byte) value;
+            if (blockLength == block.length) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() {
+            if (blockLength == 0) return;
+            write(blockLength);
+            write(block, blockLength);
+            blockLength = 0;
+        }
+
+        private void write(int value) {
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        private void write(byte[] bytes, int count) {
+            if (length + count > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + count));
+            }
+            System.arraycopy(bytes, 0, buffer, length, count);
+            length += count;
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Edits an image according to a text prompt and returns the encoded result.
+ */
+public interface ImageEditModel {
+    ListenableFuture<byte[]> edit(ImagePayload image, String prompt);
+}
@@ -0,0 +1,145 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Sends image edits to an {@link ImageEditModel} and keeps the results in a disk cache.
+ * <p>
+ * Results are stored as files named after the hash of the image and the prompt, so the same edit
+ * of the same image is answered from disk. The cache is bounded in bytes and drops the least
+ * recently used files first. Model calls fail with a {@link java.util.concurrent.TimeoutException}
+ * once the timeout expires, and cancelling the returned future cancels the model call. Disk work
+ * runs on the shared executor passed in.
+ */
+public final class ImageEditPipeline {
+
+    private static final Logger LOG = Logger.getLogger(ImageEditPipeline.class.getName());
+
+    private final ImageEditModel model;
+    private final File cacheDir;
+    private final long maxCacheBytes;
+    private final ListeningExecutorService executor;
+    private final ScheduledExecutorService timeoutScheduler;
+    private final long timeoutMillis;
+
+    public ImageEditPipeline(ImageEditModel model, File cacheDir, long maxCacheBytes,
+                             ListeningExecutorService executor, ScheduledExecutorService timeoutScheduler,
+                             long timeoutMillis) {
+        this.model = model;
+        this.cacheDir = cacheDir;
+        this.maxCacheBytes = maxCacheBytes;
+        this.executor = executor;
+        this.timeoutScheduler = timeoutScheduler;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Creates an executor with at most {@code threads} threads and {@code queueCapacity} waiting
+     * tasks for model calls and the work around them. Further tasks are rejected instead of piling
+     * up, and idle threads exit.
+     */
+    public static ListeningExecutorService newBoundedExecutor(int threads, int queueCapacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity));
+        executor.allowCoreThreadTimeOut(true);
+        return MoreExecutors.listeningDecorator(executor);
+    }
+
+    /**
+     * Returns the edited image, from the disk cache if this edit was made before.
+     */
+    public ListenableFuture<byte[]> edit(ImagePayload image, String prompt) {
+        File file = new File(cacheDir, cacheKey(image, prompt));
+        try {
+            return Futures.submitAsync(() -> {
+                if (file.exists()) {
+                    byte[] cached = readFile(file);
+                    // Keeps recently used results at the end of the eviction order.
+                    file.setLastModified(System.currentTimeMillis());
+                    return Futures.immediateFuture(cached);
+                }
+                ListenableFuture<byte[]> reply = Futures.withTimeout(
+                        PerfStats.getDefault().recordFuture("model:imageEdit", model.edit(image, prompt)),
+                        timeoutMillis, TimeUnit.MILLISECONDS, timeoutScheduler);
+                return Futures.transform(reply, data -> {
+                    store(file, data);
+                    return data;
+                }, executor);
+            }, executor);
+        } catch (RejectedExecutionException e) {
+            return Futures.immediateFailedFuture(e);
+        }
+    }
+
+    static String cacheKey(ImagePayload image, String prompt) {
+        return ImagePayload.sha256((image.getHash() + "\n" + prompt.trim()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private void store(File file, byte[] data) {
+        try {
+            if (!cacheDir.isDirectory() && !cacheDir.mkdirs()) {
+                throw new IOException("Cannot create " + cacheDir);
+            }
+            File temp = new File(cacheDir, file.getName() + ".tmp");
+            try (OutputStream out = new FileOutputStream(temp)) {
+                out.write(data);
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Failed to cache edit result", e);
+            return;
+        }
+        trim();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream((int) file.length());
+            byte[] buffer = new byte[8192];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private void trim() {
+        File[] files = cacheDir.listFiles();
+        if (files == null) return;
+        long total = 0;
+        for (File f : files) {
+            total += f.length();
+        }
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (int i = 0; i < files.length && total > maxCacheBytes; i++) {
+            long length = files[i].length();
+            if (files[i].delete()) {
+                total -= length;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.gif.filtertestapp;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An encoded image ready to be sent to a model, together with a content hash that identifies it in
+ * caches. Encode once per source image and reuse the payload for every request.
+ */
+public final class ImagePayload {
+
+    private final byte[] data;
+    private final String mimeType;
+    private final String hash;
+
+    /**
+     * Wraps {@code data} without copying it; the array must not be modified afterwards.
+     */
+    public ImagePayload(byte[] data, String mimeType) {
+        this.data = data;
+        this.mimeType = mimeType;
+        this.hash = sha256(data);
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    /**
+     * Hex SHA-256 of the encoded bytes.
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    static String sha256(byte[] data) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : digest.digest(data)) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
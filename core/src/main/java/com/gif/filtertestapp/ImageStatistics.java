@@ -0,0 +1,119 @@
+package com.gif.filtertestapp;
+
+/**
+ * Per-channel and luminance histograms of an image, with the percentiles and means derived from
+ * them.
+ * <p>
+ * {@link #compute} builds all four histograms in a single read-only sweep over the pixels. The
+ * sweep is split into row bands on a {@link TileExecutor}; every band counts into its own small
+ * histogram and the band histograms are added up at the end, so workers never contend for a
+ * counter. Alpha is ignored and every pixel counts once. Luminance uses the Rec. 601 weights in
+ * 8-bit fixed point.
+ * <p>
+ * Instances are immutable. Computing them costs about as much as one point filter pass, so
+ * callers that derive several filters from the same image should keep the result.
+ */
+public final class ImageStatistics {
+
+    public enum Channel {
+        RED, GREEN, BLUE, LUMINANCE
+    }
+
+    private static final int BINS = 256;
+    private static final int CHANNELS = Channel.values().length;
+
+    private final int[] histograms;
+    private final long pixelCount;
+
+    private ImageStatistics(int[] histograms, long pixelCount) {
+        this.histograms = histograms;
+        this.pixelCount = pixelCount;
+    }
+
+    /**
+     * Computes the statistics of {@code image}, in row bands on {@code executor} or serially if it
+     * is {@code null}. Throws {@link java.util.concurrent.CancellationException} between bands once
+     * {@code token} (which may be {@code null}) is cancelled.
+     */
+    public static ImageStatistics compute(PixelBuffer image, TileExecutor executor, CancellationToken token) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        int[] pixels = image.getPixels();
+        try (PerfStats.Span span = PerfStats.getDefault().begin("statistics")) {
+            span.setPixels((long) width * height);
+            int[] histograms;
+            if (executor == null) {
+                histograms = new int[CHANNELS * BINS];
+                countRows(pixels, width, 0, height, histograms);
+            } else {
+                histograms = executor.reduceBands(width, height, () -> new int[CHANNELS * BINS],
+                        (partial, startRow, endRow) -> countRows(pixels, width, startRow, endRow, partial),
+                        ImageStatistics::add, token);
+            }
+            return new ImageStatistics(histograms, (long) width * height);
+        }
+    }
+
+    private static void countRows(int[] pixels, int width, int startRow, int endRow, int[] histograms) {
+        int end = endRow * width;
+        for (int i = startRow * width; i < end; i++) {
+            int p = pixels[i];
+            int r = (p >> 16) & 0xFF;
+            int g = (p >> 8) & 0xFF;
+            int b = p & 0xFF;
+            histograms[r]++;
+            histograms[BINS + g]++;
+            histograms[2 * BINS + b]++;
+            histograms[3 * BINS + ((77 * r + 150 * g + 29 * b + 128) >> 8)]++;
+        }
+    }
+
+    private static int[] add(int[] into, int[] other) {
+        for (int i = 0; i < into.length; i++) {
+            into[i] += other[i];
+        }
+        return into;
+    }
+
+    public long getPixelCount() {
+        return pixelCount;
+    }
+
+    /**
+     * Returns how many pixels have each of the 256 values in {@code channel}.
+     */
+    public int[] getHistogram(Channel channel) {
+        int[] histogram = new int[BINS];
+        System.arraycopy(histograms, channel.ordinal() * BINS, histogram, 0, BINS);
+        return histogram;
+    }
+
+    /**
+     * Returns the smallest value of {@code channel} that at least {@code percentile} percent (0 to
+     * 100) of the pixels do not exceed; 0 returns the darkest value present. Empty images return 0.
+     */
+    public int getPercentile(Channel channel, double percentile) {
+        if (pixelCount == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(pixelCount * Math.min(100, Math.max(0, percentile)) / 100));
+        int offset = channel.ordinal() * BINS;
+        long seen = 0;
+        for (int v = 0; v < BINS; v++) {
+            seen += histograms[offset + v];
+            if (seen >= rank) return v;
+        }
+        return BINS - 1;
+    }
+
+    /**
+     * Returns the mean value of {@code channel}, or 0 for an empty image.
+     */
+    public double getMean(Channel channel) {
+        if (pixelCount == 0) return 0;
+        int offset = channel.ordinal() * BINS;
+        long sum = 0;
+        for (int v = 0; v < BINS; v++) {
+            sum += (long) v * histograms[offset + v];
+        }
+        return (double) sum / pixelCount;
+    }
+}
@@ -0,0 +1,344 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Records how long each stage of the image pipeline takes: decoding, copying pixels in and out
+ * of bitmaps, every filter pass, encoding, model calls and display.
+ * <p>
+ * A stage is identified by a short name such as {@code "decode"} or {@code "pass:matrix"}. Every
+ * {@link Span} adds its duration to the latency histogram of its stage, together with the pixels
+ * it processed and the bytes allocated meanwhile, and opens a matching section on the
+ * {@link Tracer} so the same stages show up in system traces. {@link #snapshot()} summarizes all
+ * stages and can be dumped as JSON.
+ * <p>
+ * Both hooks are platform specific and off by default: the app forwards sections to
+ * {@code android.os.Trace} and reads the runtime's allocation counter. All methods are
+ * thread-safe.
+ */
+public final class PerfStats {
+
+    /**
+     * Receives the start and end of every span, on the thread that runs it.
+     */
+    public interface Tracer {
+        void beginSection(String name);
+
+        void endSection();
+    }
+
+    private static final Tracer NO_TRACER = new Tracer() {
+        @Override
+        public void beginSection(String name) {
+        }
+
+        @Override
+        public void endSection() {
+        }
+    };
+
+    private static PerfStats defaultStats;
+
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private volatile Tracer tracer = NO_TRACER;
+    private volatile LongSupplier allocatedBytes;
+    private volatile LongSupplier clock = System::nanoTime;
+
+    /**
+     * Returns the instance the pipeline reports to.
+     */
+    public static synchronized PerfStats getDefault() {
+        if (defaultStats == null) {
+            defaultStats = new PerfStats();
+        }
+        return defaultStats;
+    }
+
+    public void setTracer(Tracer tracer) {
+        this.tracer = tracer != null ? tracer : NO_TRACER;
+    }
+
+    /**
+     * Sets the source of a monotonically increasing count of allocated bytes, or {@code null} to
+     * stop measuring allocations. A process-wide counter also counts what other threads allocate
+     * while a span is open.
+     */
+    public void setAllocationCounter(LongSupplier allocatedBytes) {
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Replaces {@link System#nanoTime()}, for tests.
+     */
+    void setClock(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Starts timing {@code stage} on the calling thread. Close the span on the same thread,
+     * ideally with try-with-resources.
+     */
+    public Span begin(String stage) {
+        return new Span(this, stage);
+    }
+
+    /**
+     * Adds a duration measured elsewhere, for example across threads or frames, where no trace
+     * section can be opened.
+     */
+    public void record(String stage, long nanos, long pixels) {
+        stage(stage).add(nanos, pixels, 0);
+    }
+
+    /**
+     * Records the time from now until {@code future} completes, successfully or not, under
+     * {@code stage}, and returns {@code future}.
+     */
+    public <T> ListenableFuture<T> recordFuture(String stage, ListenableFuture<T> future) {
+        long start = clock.getAsLong();
+        future.addListener(() -> record(stage, clock.getAsLong() - start, 0), MoreExecutors.directExecutor());
+        return future;
+    }
+
+    /**
+     * Returns the current numbers of every stage that recorded anything, sorted by name.
+     */
+    public Snapshot snapshot() {
+        List<StageStats> result = new ArrayList<>();
+        for (Map.Entry<String, Stage> entry : stages.entrySet()) {
+            result.add(entry.getValue().stats(entry.getKey()));
+        }
+        Collections.sort(result, (a, b) -> a.getName().compareTo(b.getName()));
+        return new Snapshot(result);
+    }
+
+    public void reset() {
+        stages.clear();
+    }
+
+    private Stage stage(String name) {
+        return stages.computeIfAbsent(name, k -> new Stage());
+    }
+
+    private long allocatedBytes() {
+        LongSupplier counter = allocatedBytes;
+        return counter != null ? counter.getAsLong() : 0;
+    }
+
+    /**
+     * One timed run of a stage.
+     */
+    public static final class Span implements AutoCloseable {
+        private final PerfStats stats;
+        private final String stage;
+        private final Tracer tracer;
+        private final long startBytes;
+        private final long startNanos;
+        private long pixels;
+        private boolean closed;
+
+        private Span(PerfStats stats, String stage) {
+            this.stats = stats;
+            this.stage = stage;
+            this.tracer = stats.tracer;
+            tracer.beginSection(stage);
+            this.startBytes = stats.allocatedBytes();
+            this.startNanos = stats.clock.getAsLong();
+        }
+
+        /**
+         * Sets how many pixels this run processed, for the throughput of the stage.
+         */
+        public Span setPixels(long pixels) {
+            this.pixels = pixels;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+            long nanos = stats.clock.getAsLong() - startNanos;
+            long bytes = Math.max(0, stats.allocatedBytes() - startBytes);
+            tracer.endSection();
+            stats.stage(stage).add(nanos, pixels, bytes);
+        }
+    }
+
+    private static final class Stage {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder count = new LongAdder();
+        final LongAdder totalNanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+        final LongAdder pixels = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+
+        void add(long nanos, long pixelCount, long allocated) {
+            latency.record(nanos);
+            count.increment();
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            pixels.add(pixelCount);
+            bytes.add(allocated);
+        }
+
+        StageStats stats(String name) {
+            return new StageStats(name, count.sum(), totalNanos.sum(), maxNanos.get(),
+                    latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(99),
+                    pixels.sum(), bytes.sum());
+        }
+    }
+
+    /**
+     * The numbers of one stage at the time of a {@link #snapshot()}. Percentiles come from the
+     * histogram and are accurate to 12.5%.
+     */
+    public static final class StageStats {
+        private final String name;
+        private final long count;
+        private final long totalNanos;
+        private final long maxNanos;
+        private final long p50Nanos;
+        private final long p90Nanos;
+        private final long p99Nanos;
+        private final long pixels;
+        private final long bytesAllocated;
+
+        StageStats(String name, long count, long totalNanos, long maxNanos, long p50Nanos, long p90Nanos,
+                   long p99Nanos, long pixels, long bytesAllocated) {
+            this.name = name;
+            this.count = count;
+            this.totalNanos = totalNanos;
+            this.maxNanos = maxNanos;
+            this.p50Nanos = Math.min(p50Nanos, maxNanos);
+            this.p90Nanos = Math.min(p90Nanos, maxNanos);
+            this.p99Nanos = Math.min(p99Nanos, maxNanos);
+            this.pixels = pixels;
+            this.bytesAllocated = bytesAllocated;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getTotalNanos() {
+            return totalNanos;
+        }
+
+        public long getMaxNanos() {
+            return maxNanos;
+        }
+
+        public long getP50Nanos() {
+            return p50Nanos;
+        }
+
+        public long getP90Nanos() {
+            return p90Nanos;
+        }
+
+        public long getP99Nanos() {
+            return p99Nanos;
+        }
+
+        public long getPixels() {
+            return pixels;
+        }
+
+        public long getBytesAllocated() {
+            return bytesAllocated;
+        }
+
+        /**
+         * Pixels processed per second of time spent in this stage, in millions.
+         */
+        public double getMegapixelsPerSecond() {
+            return totalNanos > 0 ? pixels * 1e3 / totalNanos : 0;
+        }
+    }
+
+    /**
+     * The numbers of all stages at one point in time.
+     */
+    public static final class Snapshot {
+        private final List<StageStats> stages;
+
+        Snapshot(List<StageStats> stages) {
+            this.stages = Collections.unmodifiableList(stages);
+        }
+
+        public List<StageStats> getStages() {
+            return stages;
+        }
+
+        /**
+         * Returns the stage with the given name, or {@code null} if it never recorded anything.
+         */
+        public StageStats get(String name) {
+            for (StageStats stage : stages) {
+                if (stage.getName().equals(name)) return stage;
+            }
+            return null;
+        }
+
+        /**
+         * Returns the snapshot as a JSON object with one entry per stage; times are in
+         * milliseconds.
+         */
+        public String toJson() {
+            StringBuilder json = new StringBuilder("{\"stages\":[");
+            for (int i = 0; i < stages.size(); i++) {
+                StageStats stage = stages.get(i);
+                if (i > 0) json.append(',');
+                json.append("{\"name\":");
+                appendString(json, stage.getName());
+                json.append(",\"count\":").append(stage.getCount())
+                        .append(",\"totalMs\":").append(millis(stage.getTotalNanos()))
+                        .append(",\"p50Ms\":").append(millis(stage.getP50Nanos()))
+                        .append(",\"p90Ms\":").append(millis(stage.getP90Nanos()))
+                        .append(",\"p99Ms\":").append(millis(stage.getP99Nanos()))
+                        .append(",\"maxMs\":").append(millis(stage.getMaxNanos()))
+                        .append(",\"pixels\":").append(stage.getPixels())
+                        .append(",\"megapixelsPerSecond\":")
+                        .append(String.format(Locale.ROOT, "%.2f", stage.getMegapixelsPerSecond()))
+                        .append(",\"bytesAllocated\":").append(stage.getBytesAllocated())
+                        .append('}');
+            }
+            return json.append("]}").toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format(Locale.ROOT, "%.3f", nanos / 1e6);
+        }
+
+        private static void appendString(StringBuilder json, String value) {
+            json.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < 0x20) {
+                    json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append('"');
+        }
+    }
+}
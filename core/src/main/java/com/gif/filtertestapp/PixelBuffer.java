@@ -0,0 +1,106 @@
+package com.gif.filtertestapp;
+
+/**
+ * A reusable block of ARGB_8888 pixels backed by a plain {@code int[]}.
+ * <p>
+ * The layout matches {@code Bitmap.getPixels(pixels, 0, width, ...)}: one int per pixel,
+ * row-major, with a stride equal to the width. The backing array only grows, so a buffer that is
+ * reshaped to the same or a smaller size never allocates again.
+ */
+public final class PixelBuffer {
+
+    private int width;
+    private int height;
+    private int[] pixels;
+
+    /**
+     * Allocates a buffer for an image of the given size.
+     */
+    public PixelBuffer(int width, int height) {
+        checkSize(width, height);
+        this.width = width;
+        this.height = height;
+        this.pixels = new int[width * height];
+    }
+
+    private PixelBuffer(int[] pixels, int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    /**
+     * Wraps an existing array without copying it. The array must hold at least
+     * {@code width * height} pixels.
+     */
+    public static PixelBuffer wrap(int[] pixels, int width, int height) {
+        checkSize(width, height);
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Array too small for " + width + "x" + height);
+        }
+        return new PixelBuffer(pixels, width, height);
+    }
+
+    /**
+     * Changes the logical size of this buffer, reusing the backing array when it is large enough.
+     * Pixel contents are undefined afterwards.
+     */
+    public void reshape(int width, int height) {
+        checkSize(width, height);
+        int size = width * height;
+        if (pixels.length < size) {
+            pixels = new int[size];
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Reshapes this buffer to the size of {@code other} and copies its pixels.
+     */
+    public void copyFrom(PixelBuffer other) {
+        if (other == this) return;
+        reshape(other.width, other.height);
+        System.arraycopy(other.pixels, 0, pixels, 0, other.size());
+    }
+
+    public boolean hasSameSize(PixelBuffer other) {
+        return width == other.width && height == other.height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Number of pixels in the logical image, which may be smaller than the backing array.
+     */
+    public int size() {
+        return width * height;
+    }
+
+    /**
+     * Returns the backing array. Only the first {@link #size()} entries belong to the image.
+     */
+    public int[] getPixels() {
+        return pixels;
+    }
+
+    public int getPixel(int x, int y) {
+        return pixels[y * width + x];
+    }
+
+    public void setPixel(int x, int y, int color) {
+        pixels[y * width + x] = color;
+    }
+
+    private static void checkSize(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.gif.filtertestapp;
+
+/**
+ * Allocation-free versions of the {@code FilterUtils} filters that work on {@link PixelBuffer}s.
+ * <p>
+ * Every filter reads {@code src} and writes {@code dst}, which is reshaped to the size of the
+ * source. Unless stated otherwise {@code src} and {@code dst} may be the same buffer, in which case
+ * the filter runs in place. Nothing here touches the Android framework, so the kernels can be used
+ * from plain JVM unit tests and benchmarks.
+ */
+public final class PixelFilters {
+
+    static final int[] HEATMAP_COLORS = {
+            0xFF0000FF, // blue
+            0xFF00FFFF, // cyan
+            0xFF00FF00, // green
+            0xFFFFFF00, // yellow
+            0xFFFF0000  // red
+    };
+
+    private PixelFilters() {
+    }
+
+    public static void applyGrayscale(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.grayscale());
+    }
+
+    public static void applySepia(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.sepia());
+    }
+
+    public static void applyInvert(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.invert());
+    }
+
+    public static void applyVintage(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.vintage());
+    }
+
+    public static void applyBrightness(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.brightness(50));
+    }
+
+    public static void applyContrast(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.contrast(1.5f));
+    }
+
+    public static void applyWinter(PixelBuffer src, PixelBuffer dst) {
+        applyColorMatrix(src, dst, ColorMatrices.winter());
+    }
+
+    /**
+     * Applies a 4x5 color matrix as laid out by {@code android.graphics.ColorMatrix}.
+     */
+    public static void applyColorMatrix(PixelBuffer src, PixelBuffer dst, float[] matrix) {
+        dst.reshape(src.getWidth(), src.getHeight());
+        ColorMatrices.apply(ColorMatrices.toFixedPoint(matrix), src.getPixels(), dst.getPixels(), 0, src.size());
+    }
+
+    public static void applySolarize(PixelBuffer src, PixelBuffer dst) {
+        dst.reshape(src.getWidth(), src.getHeight());
+        solarize(src.getPixels(), dst.getPixels(), 0, src.size());
+    }
+
+    static void solarize(int[] in, int[] out, int from, int to) {
+        int threshold = 128;
+        for (int i = from; i < to; i++) {
+            int p = in[i];
+            int r = (p >> 16) & 0xFF;
+            int g = (p >> 8) & 0xFF;
+            int b = p & 0xFF;
+            if (r > threshold) r = 255 - r;
+            if (g > threshold) g = 255 - g;
+            if (b > threshold) b = 255 - b;
+            out[i] = (p & 0xFF000000) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    public static void applyPosterize(PixelBuffer src, PixelBuffer dst) {
+        dst.reshape(src.getWidth(), src.getHeight());
+        posterize(src.getPixels(), dst.getPixels(), 0, src.size());
+    }
+
+    static void posterize(int[] in, int[] out, int from, int to) {
+        int numLevels = 4;
+        int levelSize = 256 / numLevels;
+        for (int i = from; i < to; i++) {
+            int p = in[i];
+            int r = (((p >> 16) & 0xFF) / levelSize) * levelSize + levelSize / 2;
+            int g = (((p >> 8) & 0xFF) / levelSize) * levelSize + levelSize / 2;
+            int b = ((p & 0xFF) / levelSize) * levelSize + levelSize / 2;
+            out[i] = (p & 0xFF000000) | (r << 16) | (g << 8) | b;
+        }
+    }
+
+    /**
+     * Posterizes to the same four levels per channel as {@link #applyPosterize}, diffusing the
+     * error with {@code kernel} so that gradients do not band. Rows run as a wavefront on
+     * {@code executor}, or serially if it is {@code null}; see {@link Dither}.
+     */
+    public static void applyDitheredPosterize(PixelBuffer src, PixelBuffer dst, DitherKernel kernel,
+                                              TileExecutor executor) {
+        Dither.apply(src, dst, PosterizePalette.PALETTE, kernel, executor, null);
+    }
+
+    /**
+     * Posterizes to the {@code colors} colors that represent the image best, picked by
+     * {@link ColorPalette#fromImage}, instead of fixed levels per channel.
+     */
+    public static void applySmartPosterize(PixelBuffer src, PixelBuffer dst, int colors) {
+        ColorPalette palette = ColorPalette.fromImage(src, colors);
+        dst.reshape(src.getWidth(), src.getHeight());
+        palette.map(src.getPixels(), dst.getPixels(), 0, src.size());
+    }
+
+    /**
+     * Like {@link #applySmartPosterize}, diffusing the error with {@code kernel}.
+     */
+    public static void applyDitheredSmartPosterize(PixelBuffer src, PixelBuffer dst, int colors,
+                                                   DitherKernel kernel, TileExecutor executor) {
+        ColorPalette palette = ColorPalette.fromImage(src, colors);
+        Dither.apply(src, dst, palette, kernel, executor, null);
+    }
+
+    /**
+     * Darkens the image towards the corners with the same radial ramp as the app's
+     * {@code FilterUtils.applyVignette}: transparent up to half the radius, then a linear ramp to
+     * {@code 0xAA000000} at a radius of 70% of the width.
+     */
+    public static void applyVignette(PixelBuffer src, PixelBuffer dst) {
+        applyVignette(src, dst, FilterType.VIGNETTE.getDefaultValue());
+    }
+
+    /**
+     * Vignettes with the ramp ending at {@code radius} times the width.
+     */
+    public static void applyVignette(PixelBuffer src, PixelBuffer dst, float radius) {
+        dst.reshape(src.getWidth(), src.getHeight());
+        vignetteRows(src, dst, 0, src.getHeight(), src.getWidth(), src.getHeight(), 0, 0, radius);
+    }
+
+    /**
+     * Vignettes rows of {@code src}, which is the tile at ({@code left}, {@code top}) of an
+     * {@code imageWidth} x {@code imageHeight} image. The ramp is computed in image coordinates,
+     * so tiles come out exactly like the corresponding part of the whole image.
+     */
+    static void vignetteRows(PixelBuffer src, PixelBuffer dst, int startRow, int endRow,
+                             int imageWidth, int imageHeight, int left, int top, float radiusFraction) {
+        int width = src.getWidth();
+        int[] in = src.getPixels();
+        int[] out = dst.getPixels();
+        float radius = imageWidth * radiusFraction;
+        float cx = imageWidth / 2f;
+        float cy = imageHeight / 2f;
+        for (int y = startRow; y < endRow; y++) {
+            float dy = top + y + 0.5f - cy;
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                float dx = left + x + 0.5f - cx;
+                float t = (float) Math.sqrt(dx * dx + dy * dy) / radius;
+                int p = in[row + x];
+                if (t <= 0.5f) {
+                    out[row + x] = p;
+                    continue;
+                }
+                int shade = t >= 1f ? 0xAA : (int) ((t - 0.5f) * 2f * 0xAA + 0.5f);
+                out[row + x] = darken(p, shade);
+            }
+        }
+    }
+
+    /**
+     * Composites black with the given alpha over {@code p} (SRC_OVER).
+     */
+    static int darken(int p, int shade) {
+        int keep = 255 - shade;
+        int a = p >>> 24;
+        int r = ((p >> 16) & 0xFF) * keep / 255;
+        int g = ((p >> 8) & 0xFF) * keep / 255;
+        int b = (p & 0xFF) * keep / 255;
+        a = shade + a * keep / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    public static void applyHeatmap(PixelBuffer src, PixelBuffer dst) {
+        dst.reshape(src.getWidth(), src.getHeight());
+        heatmap(src.getPixels(), dst.getPixels(), 0, src.size());
+    }
+
+    static void heatmap(int[] in, int[] out, int from, int to) {
+        int[] gradientColors = HEATMAP_COLORS;
+        for (int i = from; i < to; i++) {
+            int p = in[i];
+            int luminance = (int) (0.299 * ((p >> 16) & 0xFF) + 0.587 * ((p >> 8) & 0xFF) + 0.114 * (p & 0xFF));
+            float position = luminance / 255f;
+            int colorIndex = (int) (position * (gradientColors.length - 1));
+            out[i] = gradientColors[colorIndex];
+        }
+    }
+
+    /**
+     * Sharpens with a 3x3 kernel, clamping at the image edges. {@code src} and {@code dst} must be
+     * different buffers.
+     */
+    public static void applySharpen(PixelBuffer src, PixelBuffer dst) {
+        Convolution.apply(src, dst, ConvolutionKernel.sharpen(), EdgeMode.CLAMP);
+    }
+
+    /**
+     * Highlights edges with a 3x3 Laplacian kernel. {@code src} and {@code dst} must be different
+     * buffers.
+     */
+    public static void applyEdgeDetect(PixelBuffer src, PixelBuffer dst) {
+        Convolution.apply(src, dst, ConvolutionKernel.edgeDetect(), EdgeMode.CLAMP);
+    }
+
+    /**
+     * Applies a diagonal emboss kernel. {@code src} and {@code dst} must be different buffers.
+     */
+    public static void applyEmboss(PixelBuffer src, PixelBuffer dst) {
+        Convolution.apply(src, dst, ConvolutionKernel.emboss(), EdgeMode.CLAMP);
+    }
+
+    /**
+     * Sharpens by adding back the difference to a 5x5 blur. {@code src} and {@code dst} must be
+     * different buffers.
+     */
+    public static void applyUnsharpMask(PixelBuffer src, PixelBuffer dst) {
+        Convolution.apply(src, dst, ConvolutionKernel.unsharpMask(1f), EdgeMode.CLAMP);
+    }
+
+    /**
+     * Gaussian blur with the default strength of {@link FilterType#BLUR}, mirrored at the image
+     * edges. {@code src} and {@code dst} must be different buffers.
+     */
+    public static void applyBlur(PixelBuffer src, PixelBuffer dst) {
+        Blur.apply(src, dst, BlurKernel.relativeGaussian(FilterType.BLUR.getDefaultValue(),
+                FilterType.BLUR_REFERENCE_SIZE), EdgeMode.MIRROR);
+    }
+
+    /**
+     * Blurs everything but an ellipse around the centre, with the default strength of
+     * {@link FilterType#BACKGROUND_BLUR}. {@code src} and {@code dst} must be different buffers.
+     */
+    public static void applyBackgroundBlur(PixelBuffer src, PixelBuffer dst) {
+        Blur.apply(src, dst, BlurKernel.relativeGaussian(FilterType.BACKGROUND_BLUR.getDefaultValue(),
+                FilterType.BLUR_REFERENCE_SIZE), EdgeMode.MIRROR);
+        Blur.backgroundRows(src, dst, 0, src.getHeight(), src.getWidth(), src.getHeight(), 0, 0);
+    }
+
+    /**
+     * The colors {@link #posterize} produces, built when first dithered to.
+     */
+    private static final class PosterizePalette {
+        static final ColorPalette PALETTE;
+
+        static {
+            int[] colors = new int[64];
+            for (int i = 0; i < colors.length; i++) {
+                int r = (i >> 4) * 64 + 32;
+                int g = ((i >> 2) & 3) * 64 + 32;
+                int b = (i & 3) * 64 + 32;
+                colors[i] = 0xFF000000 | r << 16 | g << 8 | b;
+            }
+            PALETTE = ColorPalette.of(colors);
+        }
+    }
+}
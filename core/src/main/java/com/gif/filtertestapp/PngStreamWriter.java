@@ -0,0 +1,156 @@
+package com.gif.filtertestapp;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Encodes a PNG row by row, so an image never has to exist in memory as a whole.
+ * <p>
+ * Rows are written with the "Sub" filter and deflated straight into IDAT chunks of at most
+ * {@value #CHUNK_SIZE} bytes. Call {@link #finish()} after the last row and {@link #close()} in
+ * any case to release the native deflater. The underlying stream is not closed.
+ */
+public final class PngStreamWriter implements Closeable {
+
+    private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 1 << 15;
+    private static final int FILTER_SUB = 1;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final boolean hasAlpha;
+    private final Deflater deflater;
+    private final DeflaterOutputStream idat;
+    private final byte[] row;
+    private int rowsWritten;
+
+    /**
+     * Writes the PNG header for an 8-bit RGB or RGBA image.
+     *
+     * @param compressionLevel a {@link Deflater} level; lower levels are much faster on photos
+     *                         at a modest cost in size
+     */
+    public PngStreamWriter(OutputStream out, int width, int height, boolean hasAlpha, int compressionLevel)
+            throws IOException {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid size " + width + "x" + height);
+        }
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.hasAlpha = hasAlpha;
+        this.row = new byte[1 + width * (hasAlpha ? 4 : 3)];
+        out.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8; // bit depth
+        header[9] = (byte) (hasAlpha ? 6 : 2); // color type RGBA or RGB
+        writeChunk("IHDR", header, 0, header.length);
+        this.deflater = new Deflater(compressionLevel);
+        this.idat = new DeflaterOutputStream(new IdatOutputStream(), deflater, CHUNK_SIZE);
+    }
+
+    /**
+     * Appends {@code rowCount} rows of ARGB pixels starting at {@code pixels[offset]}.
+     */
+    public void writeRows(int[] pixels, int offset, int rowCount) throws IOException {
+        if (rowsWritten + rowCount > height) {
+            throw new IllegalStateException("More rows than the image height");
+        }
+        for (int y = 0; y < rowCount; y++) {
+            encodeRow(pixels, offset + y * width);
+            idat.write(row);
+        }
+        rowsWritten += rowCount;
+    }
+
+    /**
+     * Flushes the compressed data and writes the end of the file.
+     */
+    public void finish() throws IOException {
+        if (rowsWritten != height) {
+            throw new IllegalStateException("Only " + rowsWritten + " of " + height + " rows written");
+        }
+        idat.finish();
+        idat.flush();
+        writeChunk("IEND", new byte[0], 0, 0);
+        out.flush();
+    }
+
+    @Override
+    public void close() {
+        deflater.end();
+    }
+
+    private void encodeRow(int[] pixels, int offset) {
+        byte[] row = this.row;
+        row[0] = FILTER_SUB;
+        int prevA = 0, prevR = 0, prevG = 0, prevB = 0;
+        int i = 1;
+        for (int x = 0; x < width; x++) {
+            int p = pixels[offset + x];
+            int r = (p >> 16) & 0xFF;
+            int g = (p >> 8) & 0xFF;
+            int b = p & 0xFF;
+            row[i++] = (byte) (r - prevR);
+            row[i++] = (byte) (g - prevG);
+            row[i++] = (byte) (b - prevB);
+            if (hasAlpha) {
+                int a = p >>> 24;
+                row[i++] = (byte) (a - prevA);
+                prevA = a;
+            }
+            prevR = r;
+            prevG = g;
+            prevB = b;
+        }
+    }
+
+    private void writeChunk(String type, byte[] data, int offset, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        byte[] number = new byte[4];
+        putInt(number, 0, length);
+        out.write(number);
+        out.write(typeBytes);
+        out.write(data, offset, length);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, offset, length);
+        putInt(number, 0, (int) crc.getValue());
+        out.write(number);
+    }
+
+    private static void putInt(byte[] target, int offset, int value) {
+        target[offset] = (byte) (value >>> 24);
+        target[offset + 1] = (byte) (value >>> 16);
+        target[offset + 2] = (byte) (value >>> 8);
+        target[offset + 3] = (byte) value;
+    }
+
+    /**
+     * Wraps whatever the deflater produces into IDAT chunks.
+     */
+    private final class IdatOutputStream extends OutputStream {
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, CHUNK_SIZE);
+                writeChunk("IDAT", b, off, n);
+                off += n;
+                len -= n;
+            }
+        }
+    }
+}
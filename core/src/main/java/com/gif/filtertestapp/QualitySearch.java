@@ -0,0 +1,77 @@
+package com.gif.filtertestapp;
+
+import java.io.IOException;
+
+/**
+ * Binary searches an encoder quality setting against a size or fidelity target.
+ * <p>
+ * Both searches assume that size and fidelity grow with quality, which holds closely enough for
+ * JPEG and WebP to land within one step of the best setting after about seven probes.
+ */
+public final class QualitySearch {
+
+    /**
+     * Encodes at a quality and measures the result.
+     */
+    public interface Probe {
+        double measure(int quality) throws IOException;
+    }
+
+    private QualitySearch() {
+    }
+
+    /**
+     * Returns the highest quality in {@code [minQuality, maxQuality]} whose measured size does not
+     * exceed {@code targetBytes}, or {@code minQuality} if even that is too large.
+     */
+    public static int forTargetSize(long targetBytes, int minQuality, int maxQuality, Probe size) throws IOException {
+        int low = minQuality;
+        int high = maxQuality;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (size.measure(middle) <= targetBytes) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Returns the lowest quality in {@code [minQuality, maxQuality]} whose measured score reaches
+     * {@code targetScore}, or {@code maxQuality} if none does.
+     */
+    public static int forTargetScore(double targetScore, int minQuality, int maxQuality, Probe score) throws IOException {
+        int low = minQuality;
+        int high = maxQuality;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (score.measure(middle) >= targetScore) {
+                high = middle;
+            } else {
+                low = middle + 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Peak signal-to-noise ratio in dB over the RGB channels of two equally sized images;
+     * {@link Double#POSITIVE_INFINITY} if they are identical.
+     */
+    public static double psnr(int[] expected, int[] actual, int count) {
+        long squaredError = 0;
+        for (int i = 0; i < count; i++) {
+            int p = expected[i];
+            int q = actual[i];
+            int dr = ((p >> 16) & 0xFF) - ((q >> 16) & 0xFF);
+            int dg = ((p >> 8) & 0xFF) - ((q >> 8) & 0xFF);
+            int db = (p & 0xFF) - (q & 0xFF);
+            squaredError += dr * dr + dg * dg + db * db;
+        }
+        if (squaredError == 0) return Double.POSITIVE_INFINITY;
+        double meanSquaredError = squaredError / (3.0 * count);
+        return 10 * Math.log10(255.0 * 255.0 / meanSquaredError);
+    }
+}
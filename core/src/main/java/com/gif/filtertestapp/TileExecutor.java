@@ -0,0 +1,261 @@
+package com.gif.filtertestapp;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.IntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Splits an image into horizontal bands of rows and processes them on a fork-join pool.
+ * <p>
+ * Bands are the unit of work because every kernel in this app walks pixels row by row, so a band
+ * is one contiguous slice of the {@code int[]}. The band height adapts to the image: small images
+ * run inline on the calling thread, larger ones are cut into a few bands per worker so that
+ * stealing can even out uneven rows.
+ * <p>
+ * Neighbourhood kernels get their halo rows by reading the shared source buffer outside their own
+ * band, which is safe because they never write to the buffer they read (see
+ * {@link FilterChain#apply(PixelBuffer, PixelBuffer, PixelBuffer, TileExecutor)}). Each output row
+ * is written by exactly one band with the same arithmetic as the serial loop, so the result is
+ * bit-identical regardless of the number of threads.
+ */
+public final class TileExecutor {
+
+    /**
+     * Processes rows {@code [startRow, endRow)} of an image.
+     */
+    public interface BandKernel {
+        void processRows(int startRow, int endRow);
+    }
+
+    /**
+     * Accumulates rows {@code [startRow, endRow)} of an image into {@code partial}.
+     */
+    public interface BandReducer<T> {
+        void processRows(T partial, int startRow, int endRow);
+    }
+
+    /** Bands smaller than this are not worth a task of their own. */
+    private static final int MIN_PIXELS_PER_BAND = 1 << 15;
+    /** Bands per worker, so faster workers can steal the remainder. */
+    private static final int BANDS_PER_THREAD = 4;
+
+    private static TileExecutor defaultExecutor;
+
+    private final int parallelism;
+    private final ForkJoinPool pool;
+
+    /**
+     * Creates an executor with its own pool of {@code parallelism} workers. A parallelism of one
+     * runs every kernel on the calling thread.
+     */
+    public TileExecutor(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+    }
+
+    /**
+     * Returns the shared executor sized to the number of available cores.
+     */
+    public static synchronized TileExecutor getDefault() {
+        if (defaultExecutor == null) {
+            defaultExecutor = new TileExecutor(Runtime.getRuntime().availableProcessors());
+        }
+        return defaultExecutor;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Returns the number of rows per band used for an image of the given size.
+     */
+    public int getBandHeight(int width, int height) {
+        if (parallelism == 1) return height;
+        int minRows = (MIN_PIXELS_PER_BAND + width - 1) / width;
+        int targetBands = parallelism * BANDS_PER_THREAD;
+        int rows = (height + targetBands - 1) / targetBands;
+        return Math.max(1, Math.min(height, Math.max(minRows, rows)));
+    }
+
+    /**
+     * Runs {@code kernel} over all rows of a {@code width} x {@code height} image and returns once
+     * every band has finished. Exceptions thrown by the kernel are rethrown here.
+     */
+    public void forEachBand(int width, int height, BandKernel kernel) {
+        forEachBand(width, height, kernel, null);
+    }
+
+    /**
+     * Like {@link #forEachBand(int, int, BandKernel)}, but checks {@code token} (which may be
+     * {@code null}) before each band and throws {@link java.util.concurrent.CancellationException}
+     * once it is cancelled. Bands that already started run to completion.
+     */
+    public void forEachBand(int width, int height, BandKernel kernel, CancellationToken token) {
+        int bandHeight = getBandHeight(width, height);
+        int bandCount = (height + bandHeight - 1) / bandHeight;
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+        if (bandCount <= 1) {
+            if (token == null) {
+                kernel.processRows(0, height);
+                return;
+            }
+            // Still check for cancellation every few rows when running inline.
+            int step = (MIN_PIXELS_PER_BAND + width - 1) / width;
+            for (int startRow = 0; startRow < height; startRow += step) {
+                token.throwIfCancelled();
+                kernel.processRows(startRow, Math.min(height, startRow + step));
+            }
+            return;
+        }
+        pool.invoke(new BandTask(kernel, token, height, bandHeight, 0, bandCount));
+    }
+
+    /**
+     * Reduces all rows of a {@code width} x {@code height} image to one result, for example a
+     * histogram. Every band accumulates into a fresh partial result from {@code identity}, so the
+     * workers share nothing while they run, and {@code combiner} merges the partial results
+     * pairwise as their bands finish. It may return either argument after merging the other one
+     * into it. Bands are merged in row order, so a combiner that is associative gives the same
+     * result regardless of the number of threads. {@code token} (which may be {@code null}) is
+     * checked before each band.
+     */
+    public <T> T reduceBands(int width, int height, Supplier<T> identity, BandReducer<T> reducer,
+                             BinaryOperator<T> combiner, CancellationToken token) {
+        int bandHeight = getBandHeight(width, height);
+        int bandCount = (height + bandHeight - 1) / bandHeight;
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+        if (bandCount <= 1) {
+            T result = identity.get();
+            reducer.processRows(result, 0, height);
+            return result;
+        }
+        return pool.invoke(new ReduceTask<>(identity, reducer, combiner, token, height, bandHeight, 0, bandCount));
+    }
+
+    /**
+     * Runs {@code task} once for every index in {@code [0, count)}, in parallel, and returns once
+     * all have finished. Meant for batches of small independent jobs that are not worth splitting
+     * into bands themselves. {@code token} (which may be {@code null}) is checked before each task.
+     */
+    public void forEachIndex(int count, IntConsumer task, CancellationToken token) {
+        BandKernel kernel = (start, end) -> {
+            for (int i = start; i < end; i++) {
+                task.accept(i);
+            }
+        };
+        if (token != null) {
+            token.throwIfCancelled();
+        }
+        if (pool == null || count <= 1) {
+            for (int i = 0; i < count; i++) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                task.accept(i);
+            }
+            return;
+        }
+        pool.invoke(new BandTask(kernel, token, count, 1, 0, count));
+    }
+
+    /**
+     * Stops the worker threads of an executor created with its own pool.
+     */
+    public void shutdown() {
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private static final class BandTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BandKernel kernel;
+        private final CancellationToken token;
+        private final int height;
+        private final int bandHeight;
+        private final int firstBand;
+        private final int endBand;
+
+        BandTask(BandKernel kernel, CancellationToken token, int height, int bandHeight, int firstBand, int endBand) {
+            this.kernel = kernel;
+            this.token = token;
+            this.height = height;
+            this.bandHeight = bandHeight;
+            this.firstBand = firstBand;
+            this.endBand = endBand;
+        }
+
+        @Override
+        protected void compute() {
+            if (endBand - firstBand == 1) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                int startRow = firstBand * bandHeight;
+                kernel.processRows(startRow, Math.min(height, startRow + bandHeight));
+                return;
+            }
+            int middle = (firstBand + endBand) >>> 1;
+            invokeAll(new BandTask(kernel, token, height, bandHeight, firstBand, middle),
+                    new BandTask(kernel, token, height, bandHeight, middle, endBand));
+        }
+    }
+
+    private static final class ReduceTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
+
+        private final Supplier<T> identity;
+        private final BandReducer<T> reducer;
+        private final BinaryOperator<T> combiner;
+        private final CancellationToken token;
+        private final int height;
+        private final int bandHeight;
+        private final int firstBand;
+        private final int endBand;
+
+        ReduceTask(Supplier<T> identity, BandReducer<T> reducer, BinaryOperator<T> combiner, CancellationToken token,
+                   int height, int bandHeight, int firstBand, int endBand) {
+            this.identity = identity;
+            this.reducer = reducer;
+            this.combiner = combiner;
+            this.token = token;
+            this.height = height;
+            this.bandHeight = bandHeight;
+            this.firstBand = firstBand;
+            this.endBand = endBand;
+        }
+
+        @Override
+        protected T compute() {
+            if (endBand - firstBand == 1) {
+                if (token != null) {
+                    token.throwIfCancelled();
+                }
+                int startRow = firstBand * bandHeight;
+                T partial = identity.get();
+                reducer.processRows(partial, startRow, Math.min(height, startRow + bandHeight));
+                return partial;
+            }
+            int middle = (firstBand + endBand) >>> 1;
+            ReduceTask<T> upper = new ReduceTask<>(identity, reducer, combiner, token, height, bandHeight,
+                    firstBand, middle);
+            ReduceTask<T> lower = new ReduceTask<>(identity, reducer, combiner, token, height, bandHeight,
+                    middle, endBand);
+            lower.fork();
+            T upperResult = upper.compute();
+            return combiner.apply(upperResult, lower.join());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.gif.filtertestapp;
+
+import java.io.IOException;
+
+/**
+ * Runs a {@link FilterChain} over an image that is too large to hold in memory, one horizontal
+ * strip at a time.
+ * <p>
+ * Every strip is read with {@link FilterChain#getHaloSize(int, int)} extra rows above and below,
+ * filtered, and only its own rows are passed on, so the output is identical to filtering the whole
+ * image at once. Strips span the full width so that rows reach the sink in order and can be
+ * streamed straight into an encoder. The strip buffers are reused, which keeps peak memory at a
+ * few strips regardless of the image height. Strips are filtered top to bottom with one
+ * {@link FilterChain.StripState}, so a dither goes on where the strip above stopped.
+ */
+public final class TiledRenderer {
+
+    /**
+     * Provides rows of the source image.
+     */
+    public interface RegionSource {
+        /**
+         * Fills {@code target}, already shaped to {@code width x (bottom - top)}, with rows
+         * {@code [top, bottom)} of the image.
+         */
+        void read(int top, int bottom, PixelBuffer target) throws IOException;
+    }
+
+    /**
+     * Receives the filtered image in row order.
+     */
+    public interface RowSink {
+        /**
+         * Consumes {@code rowCount} rows of ARGB pixels starting at {@code offset}.
+         */
+        void writeRows(int[] pixels, int offset, int rowCount) throws IOException;
+    }
+
+    private final FilterChain chain;
+    private final TileExecutor executor;
+    private final int stripHeight;
+
+    /**
+     * @param executor    runs the bands of each strip, or {@code null} to stay on the calling thread
+     * @param stripHeight number of output rows per strip, excluding the halo
+     */
+    public TiledRenderer(FilterChain chain, TileExecutor executor, int stripHeight) {
+        if (stripHeight < 1) {
+            throw new IllegalArgumentException("Invalid strip height " + stripHeight);
+        }
+        this.chain = chain;
+        this.executor = executor;
+        this.stripHeight = stripHeight;
+    }
+
+    /**
+     * Returns a strip height that keeps each strip at roughly {@code maxPixels} pixels for an image
+     * of the given width.
+     */
+    public static int stripHeightFor(int width, int maxPixels) {
+        return Math.max(1, maxPixels / Math.max(1, width));
+    }
+
+    /**
+     * Filters a {@code width} x {@code height} image from {@code source} into {@code sink}.
+     *
+     * @param token may be {@code null}; once cancelled, rendering stops with a
+     *              {@link java.util.concurrent.CancellationException}
+     */
+    public void render(int width, int height, RegionSource source, RowSink sink, CancellationToken token)
+            throws IOException {
+        int halo = chain.getHaloSize(width, height);
+        FilterChain.StripState state = chain.newStripState(width, height);
+        PixelBuffer strip = new PixelBuffer(width, Math.min(height, stripHeight + 2 * halo));
+        PixelBuffer scratch = new PixelBuffer(width, 1);
+        for (int top = 0; top < height; top += stripHeight) {
+            if (token != null) {
+                token.throwIfCancelled();
+            }
+            int bottom = Math.min(height, top + stripHeight);
+            int readTop = Math.max(0, top - halo);
+            int readBottom = Math.min(height, bottom + halo);
+            strip.reshape(width, readBottom - readTop);
+            source.read(readTop, readBottom, strip);
+            chain.applyStrip(strip, strip, scratch, executor, token, state, readTop);
+            sink.writeRows(strip.getPixels(), (top - readTop) * width, bottom - top);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class AnimatedGifProcessorTest {
+
+    /** An animation of {@code count} random frames, 40 ms each, looping forever. */
+    private static byte[] animation(int width, int height, int count, boolean sameFrames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(out, width, height, 0);
+        for (int i = 0; i < count; i++) {
+            encoder.writeFrame(TestImages.random(width, height, sameFrames ? 0 : i), 40);
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    private static final FilterChain CHAIN = new FilterChain.Builder()
+            .addBlur(BlurKernel.gaussian(2), EdgeMode.MIRROR)
+            .add(FilterType.SEPIA)
+            .build();
+
+    @Test
+    public void parallelRun_matchesFilteringEachFrameInOrder() throws Exception {
+        byte[] gif = animation(64, 48, 13, false);
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(gif));
+        PixelBuffer frame = new PixelBuffer(1, 1);
+        GifEncoder encoder = null;
+        while (decoder.readFrame(frame)) {
+            if (encoder == null) {
+                encoder = new GifEncoder(expected, 64, 48, decoder.getLoopCount());
+            }
+            CHAIN.apply(frame, frame);
+            encoder.writeFrame(frame, decoder.getDelayMillis());
+        }
+        encoder.finish();
+
+        for (int threads : new int[]{1, 4}) {
+            ByteArrayOutputStream actual = new ByteArrayOutputStream();
+            int frames = new AnimatedGifProcessor.Builder(CHAIN).setThreads(threads).build()
+                    .run(new ByteArrayInputStream(gif), actual, null);
+            assertEquals(13, frames);
+            assertArrayEquals("threads " + threads, expected.toByteArray(), actual.toByteArray());
+        }
+    }
+
+    @Test
+    public void slowOutput_holdsBackDecoding() throws Exception {
+        // Equal frames compress to equal sizes, so the bytes read tell how many were decoded.
+        int frameCount = 20;
+        byte[] gif = animation(100, 100, frameCount, true);
+        int frameSize = (gif.length - 1) / frameCount;
+        AtomicInteger read = new AtomicInteger();
+        InputStream in = new ByteArrayInputStream(gif) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                int n = super.read(b, off, len);
+                read.addAndGet(Math.max(0, n));
+                return n;
+            }
+        };
+        int[] maxAhead = new int[1];
+        int[] writes = new int[1];
+        OutputStream out = new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                // Frames are written whole, starting with their graphic control extension.
+                if (len < 256 * 3 || b[off] != 0x21) return;
+                writes[0]++;
+                maxAhead[0] = Math.max(maxAhead[0], read.get() / frameSize - writes[0]);
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+
+        new AnimatedGifProcessor.Builder(CHAIN).setThreads(2).setMaxFramesInFlight(3).build().run(in, out, null);
+
+        assertEquals(frameCount, writes[0]);
+        // Three frames in flight, plus what the decoder's buffer reads ahead.
+        assertTrue("frames ahead " + maxAhead[0], maxAhead[0] <= 3 + 1);
+    }
+
+    @Test
+    public void failures_stopTheRunWithoutHanging() throws Exception {
+        byte[] gif = animation(32, 32, 10, false);
+        OutputStream full = new OutputStream() {
+            int written;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++written > 2000) throw new IOException("disk full");
+            }
+        };
+        AnimatedGifProcessor processor = new AnimatedGifProcessor.Builder(CHAIN).setThreads(3).build();
+        try {
+            processor.run(new ByteArrayInputStream(gif), full, null);
+            fail();
+        } catch (IOException expected) {
+        }
+
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        try {
+            processor.run(new ByteArrayInputStream(gif), new ByteArrayOutputStream(), token);
+            fail();
+        } catch (CancellationException expected) {
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void errors_stopTheRunWithoutHanging() throws Exception {
+        byte[] gif = animation(32, 32, 10, false);
+        // The frame span opens inside the worker's try, like the chain, so it can stand in for a
+        // chain that runs out of memory.
+        PerfStats.getDefault().setTracer(new PerfStats.Tracer() {
+            @Override
+            public void beginSection(String name) {
+                if (name.equals("gif:frame")) throw new OutOfMemoryError("frame");
+            }
+
+            @Override
+            public void endSection() {
+            }
+        });
+        try {
+            new AnimatedGifProcessor.Builder(CHAIN).setThreads(3).build()
+                    .run(new ByteArrayInputStream(gif), new ByteArrayOutputStream(), null);
+            fail();
+        } catch (OutOfMemoryError expected) {
+        } finally {
+            PerfStats.getDefault().setTracer(null);
+        }
+    }
+}
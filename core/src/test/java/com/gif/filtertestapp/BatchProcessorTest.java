@@ -0,0 +1,193 @@
+package com.gif.filtertestapp;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Decodes source {@code n} to a 4x3 image filled with {@code n}, and keeps what is encoded. */
+    private static final class MemoryCodec implements BatchProcessor.Decoder<Integer>, BatchProcessor.Encoder<Integer> {
+        final Map<Integer, int[]> encoded = new ConcurrentHashMap<>();
+        final Map<Integer, AtomicInteger> encodeCounts = new ConcurrentHashMap<>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        volatile long encodeDelayMillis;
+        volatile int failDecodeOf = -1;
+        volatile int failEncodeOf = -1;
+        volatile int outOfMemoryEncodeOf = -1;
+
+        @Override
+        public PixelBuffer decode(Integer source, PixelBuffer reuse) throws IOException {
+            if (source == failDecodeOf) throw new IOException("corrupt " + source);
+            PixelBuffer image = reuse != null ? reuse : new PixelBuffer(4, 3);
+            image.reshape(4, 3);
+            Arrays.fill(image.getPixels(), 0, image.size(), 0xFF000000 | source);
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            return image;
+        }
+
+        @Override
+        public void encode(Integer source, PixelBuffer image) throws IOException {
+            try {
+                if (encodeDelayMillis > 0) {
+                    Thread.sleep(encodeDelayMillis);
+                }
+                if (source == failEncodeOf) throw new IOException("disk full");
+                if (source == outOfMemoryEncodeOf) throw new OutOfMemoryError("encoder");
+                encoded.put(source, Arrays.copyOf(image.getPixels(), image.size()));
+                encodeCounts.computeIfAbsent(source, k -> new AtomicInteger()).incrementAndGet();
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+
+    private static List<Integer> sources(int count) {
+        List<Integer> sources = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            sources.add(i);
+        }
+        return sources;
+    }
+
+    @Test
+    public void everySource_isFilteredAndEncoded() throws Exception {
+        MemoryCodec codec = new MemoryCodec();
+        BatchProcessor<Integer> processor = new BatchProcessor.Builder<>(codec, codec, FilterChain.of(FilterType.INVERT))
+                .setThreads(2, 3, 2)
+                .build();
+
+        BatchProcessor.Progress progress = processor.run(sources(40), null);
+
+        assertTrue(progress.isFinished());
+        assertEquals(40, progress.completed);
+        for (int i = 0; i < 40; i++) {
+            assertEquals(0xFF000000 | (0xFFFFFF & ~i), codec.encoded.get(i)[11]);
+        }
+    }
+
+    @Test
+    public void slowEncoder_holdsBackDecoders() throws Exception {
+        MemoryCodec codec = new MemoryCodec();
+        codec.encodeDelayMillis = 2;
+        BatchProcessor<Integer> processor = new BatchProcessor.Builder<>(codec, codec, FilterChain.of(FilterType.SEPIA))
+                .setThreads(2, 1, 1)
+                .setQueueCapacity(1)
+                .build();
+
+        processor.run(sources(30), null);
+
+        // Two decoding, one in each queue, one filtering and one encoding.
+        assertTrue("max in flight " + codec.maxInFlight.get(), codec.maxInFlight.get() <= 6);
+        assertEquals(30, codec.encoded.size());
+    }
+
+    @Test
+    public void cancelledRun_resumesFromJournal() throws Exception {
+        File journal = new File(folder.getRoot(), "batch.journal");
+        MemoryCodec codec = new MemoryCodec();
+        CancellationToken token = new CancellationToken();
+        BatchProcessor<Integer> first = new BatchProcessor.Builder<>(codec, codec, FilterChain.of(FilterType.INVERT))
+                .setJournal(journal)
+                .setThreads(1, 2, 1)
+                .setListener(new BatchProcessor.Listener<Integer>() {
+                    @Override
+                    public void onProgress(BatchProcessor.Progress progress) {
+                        if (progress.completed == 5) token.cancel();
+                    }
+                })
+                .build();
+
+        BatchProcessor.Progress stopped = first.run(sources(25), token);
+        assertFalse(stopped.isFinished());
+        assertEquals(stopped.completed, Files.readAllLines(journal.toPath()).size());
+
+        BatchProcessor<Integer> second = new BatchProcessor.Builder<>(codec, codec, FilterChain.of(FilterType.INVERT))
+                .setJournal(journal)
+                .build();
+        BatchProcessor.Progress resumed = second.run(sources(25), null);
+
+        assertTrue(resumed.isFinished());
+        assertEquals(stopped.completed, resumed.skipped);
+        assertEquals(25, codec.encoded.size());
+        for (AtomicInteger count : codec.encodeCounts.values()) {
+            assertEquals(1, count.get());
+        }
+    }
+
+    @Test
+    public void failedImages_areReportedAndRetriedOnResume() throws Exception {
+        File journal = new File(folder.getRoot(), "batch.journal");
+        MemoryCodec codec = new MemoryCodec();
+        codec.failDecodeOf = 3;
+        codec.failEncodeOf = 7;
+        List<Integer> failures = new ArrayList<>();
+        BatchProcessor<Integer> processor = new BatchProcessor.Builder<>(codec, codec, FilterChain.of(FilterType.GRAYSCALE))
+                .setJournal(journal)
+                .setListener(new BatchProcessor.Listener<Integer>() {
+                    @Override
+                    public synchronized void onFailed(Integer source, Throwable error) {
+                        failures.add(source);
+                    }
+                })
+                .build();
+
+        BatchProcessor.Progress progress = processor.run(sources(10), null);
+        assertTrue(progress.isFinished());
+        assertEquals(8, progress.completed);
+        assertEquals(2, progress.failed);
+        failures.sort(null);
+        assertEquals(List.of(3, 7), failures);
+
+        codec.failDecodeOf = -1;
+        codec.failEncodeOf = -1;
+        BatchProcessor.Progress retried = processor.run(sources(10), null);
+        assertEquals(8, retried.skipped);
+        assertEquals(2, retried.completed);
+        assertEquals(10, codec.encoded.size());
+    }
+
+    @Test(timeout = 10000)
+    public void errors_cancelTheRunWithoutHanging() throws Exception {
+        MemoryCodec codec = new MemoryCodec();
+        codec.outOfMemoryEncodeOf = 2;
+        List<Throwable> failures = new ArrayList<>();
+        BatchProcessor<Integer> processor = new BatchProcessor.Builder<>(codec, codec, FilterChain.of(FilterType.SEPIA))
+                .setThreads(1, 1, 1)
+                .setQueueCapacity(1)
+                .setListener(new BatchProcessor.Listener<Integer>() {
+                    @Override
+                    public synchronized void onFailed(Integer source, Throwable error) {
+                        failures.add(error);
+                    }
+                })
+                .build();
+
+        CancellationToken token = new CancellationToken();
+        BatchProcessor.Progress progress = processor.run(sources(20), token);
+        assertTrue(token.isCancelled());
+        assertFalse(progress.isFinished());
+        assertEquals(2, progress.completed);
+        assertEquals(1, progress.failed);
+        assertEquals(1, failures.size());
+        assertTrue(failures.get(0) instanceof OutOfMemoryError);
+    }
+}
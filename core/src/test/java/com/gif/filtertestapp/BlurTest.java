@@ -0,0 +1,159 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class BlurTest {
+
+    /**
+     * Straightforward reference: every output pixel is the weighted average of the window around
+     * it, first along rows and then along columns, rounded after each direction.
+     */
+    private static PixelBuffer reference(PixelBuffer src, int radius, boolean triangular, EdgeMode edgeMode) {
+        PixelBuffer rows = new PixelBuffer(src.getWidth(), src.getHeight());
+        PixelBuffer result = new PixelBuffer(src.getWidth(), src.getHeight());
+        for (int pass = 0; pass < 2; pass++) {
+            PixelBuffer in = pass == 0 ? src : rows;
+            PixelBuffer out = pass == 0 ? rows : result;
+            int width = src.getWidth();
+            int height = src.getHeight();
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int[] sums = new int[3];
+                    int weightSum = 0;
+                    for (int k = -radius; k <= radius; k++) {
+                        int weight = triangular ? radius + 1 - Math.abs(k) : 1;
+                        int p = pass == 0
+                                ? in.getPixel(edgeMode.map(x + k, width), y)
+                                : in.getPixel(x, edgeMode.map(y + k, height));
+                        sums[0] += weight * ((p >> 16) & 0xFF);
+                        sums[1] += weight * ((p >> 8) & 0xFF);
+                        sums[2] += weight * (p & 0xFF);
+                        weightSum += weight;
+                    }
+                    int color = src.getPixel(x, y) & 0xFF000000;
+                    for (int c = 0; c < 3; c++) {
+                        color |= ((sums[c] + weightSum / 2) / weightSum) << (16 - 8 * c);
+                    }
+                    out.setPixel(x, y, color);
+                }
+            }
+        }
+        return result;
+    }
+
+    @Test
+    public void box_matchesWindowAverage() {
+        PixelBuffer image = TestImages.random(37, 23, 1);
+        PixelBuffer blurred = new PixelBuffer(1, 1);
+        for (EdgeMode edgeMode : EdgeMode.values()) {
+            // Radius 30 reaches past the image in both directions.
+            for (int radius : new int[]{0, 1, 4, 30}) {
+                Blur.apply(image, blurred, BlurKernel.box(radius), edgeMode);
+                assertArrayEquals(edgeMode + " radius " + radius,
+                        reference(image, radius, false, edgeMode).getPixels(), blurred.getPixels());
+            }
+        }
+    }
+
+    @Test
+    public void stack_matchesTriangleWeightedAverage() {
+        PixelBuffer image = TestImages.random(41, 19, 2);
+        PixelBuffer blurred = new PixelBuffer(1, 1);
+        for (int radius : new int[]{1, 2, 6}) {
+            Blur.apply(image, blurred, BlurKernel.stack(radius), EdgeMode.MIRROR);
+            assertArrayEquals("radius " + radius,
+                    reference(image, radius, true, EdgeMode.MIRROR).getPixels(), blurred.getPixels());
+        }
+    }
+
+    @Test
+    public void gaussian_boxesMatchTheVarianceAndKeepFlatImages() {
+        for (float sigma : new float[]{1.5f, 4f, 12f, 50f}) {
+            double variance = 0;
+            for (int radius : BlurKernel.gaussianBoxRadii(sigma, 3)) {
+                variance += radius * (radius + 1) / 3.0;
+            }
+            assertEquals("sigma " + sigma, sigma, Math.sqrt(variance), 0.1 * sigma);
+        }
+
+        PixelBuffer flat = new PixelBuffer(30, 20);
+        Arrays.fill(flat.getPixels(), 0xFF4080C0);
+        PixelBuffer blurred = new PixelBuffer(1, 1);
+        Blur.apply(flat, blurred, BlurKernel.gaussian(8), EdgeMode.CLAMP);
+        assertArrayEquals(flat.getPixels(), blurred.getPixels());
+    }
+
+    @Test
+    public void parallelBlur_matchesSerial() {
+        PixelBuffer image = TestImages.random(301, 517, 3);
+        PixelBuffer serial = new PixelBuffer(1, 1);
+        PixelBuffer parallel = new PixelBuffer(1, 1);
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            for (BlurKernel kernel : new BlurKernel[]{BlurKernel.box(7), BlurKernel.stack(5), BlurKernel.gaussian(9)}) {
+                Blur.apply(image, serial, kernel, EdgeMode.MIRROR);
+                Blur.apply(image, parallel, kernel, EdgeMode.MIRROR, executor, null);
+                assertArrayEquals(kernel.getName(), serial.getPixels(), parallel.getPixels());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void relativeGaussian_scalesWithTheShorterSide() {
+        BlurKernel kernel = BlurKernel.relativeGaussian(6, 800);
+        assertEquals(BlurKernel.gaussian(6).toString(), kernel.forImage(1200, 800).toString());
+        assertEquals(BlurKernel.gaussian(3).toString(), kernel.forImage(400, 900).toString());
+        assertEquals(BlurKernel.gaussian(24).toString(), kernel.forImage(4000, 3200).toString());
+        BlurKernel fixed = BlurKernel.box(2);
+        assertSame(fixed, fixed.forImage(10, 10));
+
+        FilterChain chain = FilterChain.of(FilterType.BLUR, 6);
+        assertEquals(BlurKernel.gaussian(6).getRadius(), chain.getHaloSize());
+        assertEquals(BlurKernel.gaussian(24).getRadius(), chain.getHaloSize(4000, 3200));
+
+        // The proxy at half the size gets half the blur.
+        PixelBuffer image = TestImages.random(120, 80, 5);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        Blur.apply(image, expected, BlurKernel.gaussian(6 * 80 / 800f), EdgeMode.MIRROR);
+        PixelBuffer actual = new PixelBuffer(1, 1);
+        chain.apply(image, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void blurChains_tilesMatchWholeImage() {
+        PixelBuffer image = TestImages.random(96, 64, 4);
+        FilterChain chain = new FilterChain.Builder()
+                .addUnsharpMask(BlurKernel.stack(3), 1.5f)
+                .add(FilterType.SEPIA)
+                .addBackgroundBlur(BlurKernel.gaussian(3))
+                .build();
+        assertEquals(3 + BlurKernel.gaussian(3).getRadius(), chain.getHaloSize());
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        chain.apply(image, expected);
+
+        int halo = chain.getHaloSize();
+        int left = 30;
+        int top = 20;
+        int size = 24;
+        PixelBuffer tile = new PixelBuffer(size + 2 * halo, size + 2 * halo);
+        for (int y = 0; y < tile.getHeight(); y++) {
+            for (int x = 0; x < tile.getWidth(); x++) {
+                tile.setPixel(x, y, image.getPixel(left - halo + x, top - halo + y));
+            }
+        }
+        PixelBuffer result = new PixelBuffer(1, 1);
+        chain.applyTile(tile, result, null, null, null, 96, 64, left - halo, top - halo);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                assertEquals(expected.getPixel(left + x, top + y), result.getPixel(halo + x, halo + y));
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.*;
+
+public class ColorMatrixCacheTest {
+
+    private static final String SEPIA = "0.213,0.715,0.072,0,0,0.213,0.715,0.072,0,0,0.17,0.572,0.058,0,0,0,0,0,1,0";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Stands in for the network model: replies are completed by the test. */
+    private static final class StubModel implements ColorMatrixModel {
+        final List<String> requests = new ArrayList<>();
+        final List<SettableFuture<String>> replies = new ArrayList<>();
+
+        @Override
+        public ListenableFuture<String> generate(String description) {
+            requests.add(description);
+            SettableFuture<String> reply = SettableFuture.create();
+            replies.add(reply);
+            return reply;
+        }
+    }
+
+    private ColorMatrixCache newCache(ColorMatrixModel model) {
+        return new ColorMatrixCache(model, new File(folder.getRoot(), "matrices.txt"), 10,
+                MoreExecutors.directExecutor());
+    }
+
+    @Test
+    public void inFlightRequests_areDeduplicated() throws Exception {
+        StubModel model = new StubModel();
+        ColorMatrixCache cache = newCache(model);
+        ListenableFuture<float[]> first = cache.get("Warm sepia");
+        ListenableFuture<float[]> second = cache.get("  warm   SEPIA ");
+        assertEquals(1, model.requests.size());
+        assertFalse(first.isDone());
+
+        model.replies.get(0).set(SEPIA);
+        assertArrayEquals(ColorMatrices.parse(SEPIA), first.get(), 0f);
+        assertArrayEquals(ColorMatrices.parse(SEPIA), second.get(), 0f);
+
+        ListenableFuture<float[]> third = cache.get("warm sepia");
+        assertTrue(third.isDone());
+        assertEquals(1, model.requests.size());
+    }
+
+    @Test
+    public void matrices_surviveRestart() throws Exception {
+        StubModel model = new StubModel();
+        newCache(model).get("sepia");
+        model.replies.get(0).set(SEPIA);
+
+        ColorMatrixCache restarted = newCache(description -> {
+            throw new AssertionError("Model called for a cached description");
+        });
+        assertArrayEquals(ColorMatrices.parse(SEPIA), restarted.get("Sepia").get(), 0f);
+    }
+
+    @Test
+    public void invalidReply_failsAndIsNotCached() throws Exception {
+        StubModel model = new StubModel();
+        ColorMatrixCache cache = newCache(model);
+        ListenableFuture<float[]> result = cache.get("sepia");
+        model.replies.get(0).set("Here is your matrix!");
+        try {
+            result.get();
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+        cache.get("sepia");
+        assertEquals(2, model.requests.size());
+    }
+
+    @Test
+    public void returnedMatrices_areCopies() throws Exception {
+        ColorMatrixCache cache = newCache(description -> Futures.immediateFuture(SEPIA));
+        cache.get("sepia").get()[0] = 42f;
+        assertArrayEquals(ColorMatrices.parse(SEPIA), cache.get("sepia").get(), 0f);
+    }
+}
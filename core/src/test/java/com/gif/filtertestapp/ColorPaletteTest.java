@@ -0,0 +1,117 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ColorPaletteTest {
+
+    private static int distance(int a, int b) {
+        int dr = ((a >> 16) & 0xFF) - ((b >> 16) & 0xFF);
+        int dg = ((a >> 8) & 0xFF) - ((b >> 8) & 0xFF);
+        int db = (a & 0xFF) - (b & 0xFF);
+        return dr * dr + dg * dg + db * db;
+    }
+
+    @Test
+    public void fewColors_areKeptExactly() {
+        int[] colors = {0xFF102030, 0xFF102031, 0xFFFFFFFF, 0xFF000000};
+        PixelBuffer image = new PixelBuffer(40, 30);
+        Random random = new Random(1);
+        for (int i = 0; i < image.size(); i++) {
+            image.getPixels()[i] = colors[random.nextInt(colors.length)];
+        }
+        // Fully transparent pixels do not count.
+        image.getPixels()[7] = 0x00ABCDEF;
+
+        ColorPalette palette = ColorPalette.fromImage(image, 4);
+        assertEquals(4, palette.size());
+        PixelBuffer mapped = new PixelBuffer(40, 30);
+        palette.map(image.getPixels(), mapped.getPixels(), 0, image.size());
+        for (int i = 0; i < image.size(); i++) {
+            if (i != 7) {
+                assertEquals(image.getPixels()[i], mapped.getPixels()[i]);
+            }
+        }
+        assertEquals(0, mapped.getPixels()[7] >>> 24);
+    }
+
+    @Test
+    public void inverseCube_findsTheNearestColor() {
+        Random random = new Random(2);
+        for (int size : new int[]{1, 2, 17, 256}) {
+            int[] colors = new int[size];
+            for (int i = 0; i < size; i++) {
+                colors[i] = random.nextInt();
+            }
+            ColorPalette palette = ColorPalette.of(colors);
+            for (int i = 0; i < size; i++) {
+                assertEquals(palette.getColor(i), palette.getColor(palette.indexOf(colors[i])));
+            }
+            // Cell centres are exact; everything else is at most half a cell off.
+            for (int n = 0; n < 2000; n++) {
+                int color = random.nextInt() & 0xF8F8F8 | 0x040404;
+                int best = Integer.MAX_VALUE;
+                for (int c : colors) {
+                    best = Math.min(best, distance(color, c));
+                }
+                assertEquals("size " + size, best, distance(color, palette.getColor(palette.indexOf(color))));
+            }
+        }
+    }
+
+    @Test
+    public void medianCut_findsColorClusters() {
+        int[] centres = {0xFF202020, 0xFFE0E0E0, 0xFFC03020, 0xFF2080C0, 0xFF30B040, 0xFFF0D060};
+        PixelBuffer image = new PixelBuffer(600, 400);
+        Random random = new Random(3);
+        for (int i = 0; i < image.size(); i++) {
+            int centre = centres[random.nextInt(centres.length)];
+            int noisy = 0xFF000000;
+            for (int shift = 0; shift <= 16; shift += 8) {
+                int value = ((centre >> shift) & 0xFF) + random.nextInt(13) - 6;
+                noisy |= Math.max(0, Math.min(255, value)) << shift;
+            }
+            image.getPixels()[i] = noisy;
+        }
+
+        ColorPalette palette = ColorPalette.fromImage(image, centres.length);
+        assertEquals(centres.length, palette.size());
+        for (int centre : centres) {
+            int found = palette.getColor(palette.indexOf(centre));
+            assertTrue(Integer.toHexString(centre) + " became " + Integer.toHexString(found),
+                    distance(centre, found) <= 3 * 2 * 2);
+        }
+    }
+
+    @Test
+    public void manyColors_areReducedToTheLimit() {
+        PixelBuffer image = TestImages.random(256, 256, 4);
+        for (int limit : new int[]{1, 2, 16, 255}) {
+            ColorPalette palette = ColorPalette.fromImage(image, limit);
+            assertEquals(limit, palette.size());
+            int[] colors = palette.getColors();
+            assertEquals(limit, Arrays.stream(colors).distinct().count());
+        }
+    }
+
+    @Test
+    public void paletteAfterCurves_fusesIntoOnePassWithTheSameResult() {
+        PixelBuffer image = TestImages.random(80, 60, 5);
+        ColorPalette palette = ColorPalette.fromImage(image, 12);
+        FilterChain fused = new FilterChain.Builder().add(FilterType.SOLARIZE).addPalette(palette).build();
+        assertEquals(1, fused.getPassCount());
+
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        FilterChain.of(FilterType.SOLARIZE).apply(image, expected);
+        palette.map(expected.getPixels(), expected.getPixels(), 0, expected.size());
+        PixelBuffer actual = new PixelBuffer(1, 1);
+        fused.apply(image, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+        assertNotEquals(fused.getKey(),
+                new FilterChain.Builder().addPalette(ColorPalette.fromImage(image, 13)).build().getKey());
+    }
+}
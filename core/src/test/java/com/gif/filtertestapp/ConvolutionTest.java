@@ -0,0 +1,86 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class ConvolutionTest {
+
+    /** Straightforward per-tap reference implementation. */
+    private static PixelBuffer reference(PixelBuffer src, ConvolutionKernel kernel, EdgeMode edgeMode) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int size = kernel.getSize();
+        int radius = kernel.getRadius();
+        int[] weights = kernel.getWeights();
+        int shift = kernel.getShift();
+        PixelBuffer dst = new PixelBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int[] sums = new int[3];
+                for (int ky = 0; ky < size; ky++) {
+                    for (int kx = 0; kx < size; kx++) {
+                        int p = src.getPixel(edgeMode.map(x + kx - radius, width), edgeMode.map(y + ky - radius, height));
+                        int w = weights[ky * size + kx];
+                        sums[0] += w * ((p >> 16) & 0xFF);
+                        sums[1] += w * ((p >> 8) & 0xFF);
+                        sums[2] += w * (p & 0xFF);
+                    }
+                }
+                int color = src.getPixel(x, y) & 0xFF000000;
+                for (int c = 0; c < 3; c++) {
+                    int v = (sums[c] + ((1 << shift) >> 1)) >> shift;
+                    color |= Math.max(0, Math.min(255, v)) << (16 - 8 * c);
+                }
+                dst.setPixel(x, y, color);
+            }
+        }
+        return dst;
+    }
+
+    @Test
+    public void edgeModes_mapOutOfRangeCoordinates() {
+        assertEquals(0, EdgeMode.CLAMP.map(-3, 5));
+        assertEquals(4, EdgeMode.CLAMP.map(7, 5));
+        assertEquals(1, EdgeMode.MIRROR.map(-1, 5));
+        assertEquals(3, EdgeMode.MIRROR.map(5, 5));
+        assertEquals(4, EdgeMode.WRAP.map(-1, 5));
+        assertEquals(0, EdgeMode.WRAP.map(5, 5));
+    }
+
+    @Test
+    public void commonKernels_areDetectedAsSeparable() {
+        assertTrue(ConvolutionKernel.sharpen().isSeparable());
+        assertTrue(ConvolutionKernel.edgeDetect().isSeparable());
+        assertTrue(ConvolutionKernel.unsharpMask(0.75f).isSeparable());
+        assertFalse(ConvolutionKernel.emboss().isSeparable());
+    }
+
+    @Test
+    public void allKernelsAndEdgeModes_matchReference() {
+        PixelBuffer src = TestImages.random(37, 23, 11);
+        ConvolutionKernel[] kernels = {
+                ConvolutionKernel.sharpen(), ConvolutionKernel.edgeDetect(),
+                ConvolutionKernel.emboss(), ConvolutionKernel.unsharpMask(1.5f)
+        };
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        for (ConvolutionKernel kernel : kernels) {
+            for (EdgeMode edgeMode : EdgeMode.values()) {
+                Convolution.apply(src, dst, kernel, edgeMode);
+                assertArrayEquals(kernel + " " + edgeMode,
+                        reference(src, kernel, edgeMode).getPixels(), dst.getPixels());
+            }
+        }
+    }
+
+    @Test
+    public void sharpen_keepsBorderPixels() {
+        PixelBuffer src = new PixelBuffer(8, 8);
+        java.util.Arrays.fill(src.getPixels(), 0xFF808080);
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        PixelFilters.applySharpen(src, dst);
+        assertEquals(0xFF808080, dst.getPixel(0, 0));
+        assertEquals(0xFF808080, dst.getPixel(7, 3));
+    }
+}
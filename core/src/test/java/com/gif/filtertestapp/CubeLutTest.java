@@ -0,0 +1,149 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.*;
+
+public class CubeLutTest {
+
+    private interface ColorFunction {
+        float[] map(float r, float g, float b);
+    }
+
+    private static String cube(String title, int size, ColorFunction function) {
+        StringBuilder text = new StringBuilder();
+        text.append("# generated\nTITLE \"").append(title).append("\"\nLUT_3D_SIZE ").append(size).append("\n\n");
+        for (int b = 0; b < size; b++) {
+            for (int g = 0; g < size; g++) {
+                for (int r = 0; r < size; r++) {
+                    float[] rgb = function.map(r / (size - 1f), g / (size - 1f), b / (size - 1f));
+                    text.append(String.format(Locale.ROOT, "%.6f %.6f %.6f%n", rgb[0], rgb[1], rgb[2]));
+                }
+            }
+        }
+        return text.toString();
+    }
+
+    /** A look with crossed channels that no color matrix can express. */
+    private static float[] crossed(float r, float g, float b) {
+        return new float[]{
+                (float) Math.sqrt(r * g),
+                g * g * 0.8f + b * 0.2f,
+                Math.min(1f, b + 0.3f * r * (1 - g))
+        };
+    }
+
+    /** Float tetrahedral interpolation of {@code function} sampled on a {@code size}^3 lattice. */
+    private static int reference(int p, int size, ColorFunction function) {
+        float[] position = {
+                ((p >> 16) & 0xFF) / 255f * (size - 1),
+                ((p >> 8) & 0xFF) / 255f * (size - 1),
+                (p & 0xFF) / 255f * (size - 1)};
+        int[] cell = new int[3];
+        float[] f = new float[3];
+        for (int c = 0; c < 3; c++) {
+            cell[c] = Math.min(size - 2, (int) position[c]);
+            f[c] = position[c] - cell[c];
+        }
+        // Axes by decreasing fraction; walk the corners of the tetrahedron along them.
+        Integer[] axes = {0, 1, 2};
+        Arrays.sort(axes, (a, b) -> Float.compare(f[b], f[a]));
+        int[] corner = cell.clone();
+        float[] out = new float[3];
+        float previous = 1;
+        for (int step = 0; step <= 3; step++) {
+            float weight = previous - (step < 3 ? f[axes[step]] : 0);
+            float[] value = function.map(corner[0] / (size - 1f), corner[1] / (size - 1f), corner[2] / (size - 1f));
+            for (int c = 0; c < 3; c++) {
+                out[c] += weight * Math.max(0, Math.min(1, value[c]));
+            }
+            if (step < 3) {
+                previous = f[axes[step]];
+                corner[axes[step]]++;
+            }
+        }
+        return (p & 0xFF000000) | Math.round(out[0] * 255) << 16 | Math.round(out[1] * 255) << 8 | Math.round(out[2] * 255);
+    }
+
+    @Test
+    public void identityLut_keepsEveryPixel() throws IOException {
+        CubeLut lut = CubeLut.parse(new StringReader(cube("identity", 17, (r, g, b) -> new float[]{r, g, b})));
+        assertEquals("identity", lut.getTitle());
+        assertEquals(17, lut.getSize());
+        PixelBuffer image = TestImages.random(64, 64, 1);
+        PixelBuffer result = new PixelBuffer(1, 1);
+        new FilterChain.Builder().addLut(lut).build().apply(image, result);
+        assertArrayEquals(image.getPixels(), result.getPixels());
+    }
+
+    @Test
+    public void crossedLut_matchesFloatTetrahedralInterpolation() throws IOException {
+        for (int size : new int[]{2, 17, 33}) {
+            CubeLut lut = CubeLut.parse(new StringReader(cube("crossed", size, CubeLutTest::crossed)));
+            PixelBuffer image = TestImages.random(97, 31, size);
+            PixelBuffer result = new PixelBuffer(1, 1);
+            new FilterChain.Builder().addLut(lut).build().apply(image, result);
+            for (int i = 0; i < image.size(); i++) {
+                int expected = reference(image.getPixels()[i], size, CubeLutTest::crossed);
+                int actual = result.getPixels()[i];
+                assertEquals(expected >>> 24, actual >>> 24);
+                for (int shift = 0; shift <= 16; shift += 8) {
+                    assertEquals("size " + size + " pixel " + i, (expected >> shift) & 0xFF, (actual >> shift) & 0xFF, 1);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void curvesBeforeLut_fuseIntoOnePassWithTheSameResult() throws IOException {
+        CubeLut lut = CubeLut.parse(new StringReader(cube("crossed", 9, CubeLutTest::crossed)));
+        FilterChain curves = FilterChain.of(FilterType.POSTERIZE, 5);
+        FilterChain fused = new FilterChain.Builder().addChain(curves).addLut(lut).add(FilterType.SEPIA).build();
+        assertEquals(1, fused.getPassCount());
+
+        PixelBuffer image = TestImages.random(50, 40, 3);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        curves.apply(image, expected);
+        new FilterChain.Builder().addLut(lut).build().apply(expected, expected);
+        FilterChain.of(FilterType.SEPIA).apply(expected, expected);
+        PixelBuffer actual = new PixelBuffer(1, 1);
+        fused.apply(image, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void key_dependsOnTheTableOnly() throws IOException {
+        String text = cube("a", 5, CubeLutTest::crossed);
+        CubeLut lut = CubeLut.parse(new StringReader(text));
+        CubeLut renamed = CubeLut.parse(new StringReader(text.replace("TITLE \"a\"", "TITLE \"b\"\n# comment")));
+        CubeLut other = CubeLut.parse(new StringReader(cube("a", 5, (r, g, b) -> new float[]{r, g, b})));
+        assertEquals(lut.getKey(), renamed.getKey());
+        assertNotEquals(lut.getKey(), other.getKey());
+    }
+
+    @Test
+    public void invalidFiles_areRejected() {
+        String valid = cube("x", 2, (r, g, b) -> new float[]{r, g, b});
+        String[] invalid = {
+                valid.substring(0, valid.lastIndexOf('\n', valid.length() - 2) + 1),
+                valid + "0 0 0\n",
+                "0 0 0\n" + valid,
+                "LUT_1D_SIZE 4\n0\n0\n0\n0\n",
+                valid.replace("LUT_3D_SIZE 2", "LUT_3D_SIZE 1"),
+                valid.replace("1.000000 1.000000 1.000000", "1.0 one 1.0"),
+                "DOMAIN_MIN 1 1 1\nDOMAIN_MAX 0 0 0\n" + valid,
+        };
+        for (String text : invalid) {
+            try {
+                CubeLut.parse(new StringReader(text));
+                fail("Accepted:\n" + text);
+            } catch (IOException expected) {
+            }
+        }
+    }
+}
@@ -0,0 +1,208 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.*;
+
+public class DitherTest {
+
+    /** Smooth ramps with a little noise, where banding would show. */
+    private static PixelBuffer gradient(int width, int height, long seed) {
+        Random random = new Random(seed);
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / Math.max(1, width - 1);
+                int g = y * 255 / Math.max(1, height - 1);
+                int b = Math.min(255, (x + y) / 2 + random.nextInt(8));
+                buffer.setPixel(x, y, (random.nextInt() & 0xFF000000) | r << 16 | g << 8 | b);
+            }
+        }
+        return buffer;
+    }
+
+    /**
+     * Textbook error diffusion: pixel by pixel, adding each share of the error to the pixel that
+     * receives it.
+     */
+    private static int[] serialDither(PixelBuffer src, ColorPalette palette, DitherKernel kernel) {
+        int width = src.getWidth();
+        int height = src.getHeight();
+        int[][] error = new int[3][width * height];
+        int[] out = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int i = y * width + x;
+                int p = src.getPixel(x, y);
+                int[] value = new int[3];
+                for (int c = 0; c < 3; c++) {
+                    value[c] = Math.max(0, Math.min(255, ((p >> (16 - 8 * c)) & 0xFF) + error[c][i]));
+                }
+                int color = palette.getColor(palette.indexOf(value[0] << 16 | value[1] << 8 | value[2]));
+                out[i] = (p & 0xFF000000) | (color & 0xFFFFFF);
+                for (int t = 0; t < kernel.taps.length; t += 3) {
+                    int tx = x + kernel.taps[t];
+                    int ty = y + kernel.taps[t + 1];
+                    if (tx < 0 || tx >= width || ty >= height) continue;
+                    for (int c = 0; c < 3; c++) {
+                        int e = value[c] - ((color >> (16 - 8 * c)) & 0xFF);
+                        error[c][ty * width + tx] += (e * kernel.taps[t + 2] + (1 << (kernel.shift - 1))) >> kernel.shift;
+                    }
+                }
+            }
+        }
+        return out;
+    }
+
+    @Test
+    public void wavefront_matchesSerialDiffusionForAnyThreadCount() {
+        TileExecutor[] executors = {null, new TileExecutor(1), new TileExecutor(3), new TileExecutor(8)};
+        try {
+            int[][] sizes = {{257, 63}, {1, 40}, {40, 1}, {Dither.CHUNK, 9}, {Dither.CHUNK + 1, 17}};
+            for (int[] size : sizes) {
+                PixelBuffer image = gradient(size[0], size[1], size[0]);
+                ColorPalette[] palettes = {
+                        ColorPalette.of(0xFF000000, 0xFFFFFFFF),
+                        ColorPalette.fromImage(TestImages.random(50, 50, 1), 16),
+                        ColorPalette.fromImage(image, 7),
+                };
+                for (ColorPalette palette : palettes) {
+                    for (DitherKernel kernel : DitherKernel.values()) {
+                        int[] expected = serialDither(image, palette, kernel);
+                        for (TileExecutor executor : executors) {
+                            PixelBuffer dst = new PixelBuffer(1, 1);
+                            Dither.apply(image, dst, palette, kernel, executor, null);
+                            String message = kernel + " " + size[0] + "x" + size[1] + " on "
+                                    + (executor == null ? 0 : executor.getParallelism());
+                            assertArrayEquals(message, expected, Arrays.copyOf(dst.getPixels(), dst.size()));
+                        }
+                    }
+                }
+            }
+        } finally {
+            for (TileExecutor executor : executors) {
+                if (executor != null) executor.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void strips_continueTheDiffusionOfTheStripAbove() {
+        PixelBuffer image = gradient(70, 50, 6);
+        ColorPalette palette = ColorPalette.fromImage(image, 5);
+        TileExecutor executor = new TileExecutor(3);
+        try {
+            for (DitherKernel kernel : DitherKernel.values()) {
+                PixelBuffer expected = new PixelBuffer(1, 1);
+                Dither.apply(image, expected, palette, kernel);
+                int width = image.getWidth();
+                for (int stripHeight : new int[]{1, 3, 17}) {
+                    Dither.Strips strips = new Dither.Strips(palette, kernel, image.getHeight(), 0);
+                    PixelBuffer actual = new PixelBuffer(width, image.getHeight());
+                    for (int top = 0; top < image.getHeight(); top += stripHeight) {
+                        PixelBuffer strip = new PixelBuffer(width, Math.min(stripHeight, image.getHeight() - top));
+                        System.arraycopy(image.getPixels(), top * width, strip.getPixels(), 0, strip.size());
+                        strips.apply(strip, strip, top, executor, null);
+                        System.arraycopy(strip.getPixels(), 0, actual.getPixels(), top * width, strip.size());
+                    }
+                    assertArrayEquals(kernel + " in strips of " + stripHeight,
+                            expected.getPixels(), actual.getPixels());
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void inPlace_matchesSeparateDestination() {
+        PixelBuffer src = gradient(100, 30, 2);
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        PixelFilters.applyDitheredPosterize(src, dst, DitherKernel.ATKINSON, null);
+        PixelFilters.applyDitheredPosterize(src, src, DitherKernel.ATKINSON, null);
+        assertArrayEquals(dst.getPixels(), src.getPixels());
+    }
+
+    @Test
+    public void flatGray_averagesOutWithBlackAndWhite() {
+        PixelBuffer gray = new PixelBuffer(64, 64);
+        Arrays.fill(gray.getPixels(), 0xFF404040);
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        Dither.apply(gray, dst, ColorPalette.of(0xFF000000, 0xFFFFFFFF), DitherKernel.FLOYD_STEINBERG);
+        long white = Arrays.stream(dst.getPixels(), 0, dst.size()).filter(p -> p == 0xFFFFFFFF).count();
+        // A quarter of the pixels, give or take the error pushed off the edges.
+        assertEquals(64 * 64 * 0x40 / 255.0, white, 64);
+        assertEquals(64 * 64 - white,
+                Arrays.stream(dst.getPixels(), 0, dst.size()).filter(p -> p == 0xFF000000).count());
+    }
+
+    @Test
+    public void posterize_staysOnItsLevels() {
+        PixelBuffer src = gradient(80, 40, 3);
+        PixelBuffer plain = new PixelBuffer(1, 1);
+        PixelFilters.applyPosterize(src, plain);
+        PixelBuffer dithered = new PixelBuffer(1, 1);
+        PixelFilters.applyDitheredPosterize(src, dithered, DitherKernel.FLOYD_STEINBERG, null);
+        for (int i = 0; i < src.size(); i++) {
+            int p = dithered.getPixels()[i];
+            assertEquals(src.getPixels()[i] >>> 24, p >>> 24);
+            for (int shift = 0; shift <= 16; shift += 8) {
+                assertEquals(32, ((p >> shift) & 0xFF) % 64);
+            }
+        }
+        assertFalse(Arrays.equals(plain.getPixels(), dithered.getPixels()));
+    }
+
+    @Test
+    public void chainPass_matchesDitherBetweenItsNeighbours() {
+        PixelBuffer image = gradient(90, 70, 5);
+        ColorPalette palette = ColorPalette.fromImage(image, 6);
+        FilterChain chain = new FilterChain.Builder()
+                .add(FilterType.SEPIA)
+                .addDither(palette, DitherKernel.ATKINSON)
+                .add(FilterType.INVERT)
+                .build();
+        assertEquals(3, chain.getPassCount());
+        assertEquals(0, chain.getHaloSize(90, 70));
+        assertNotEquals(chain.getKey(), new FilterChain.Builder()
+                .add(FilterType.SEPIA)
+                .addDither(palette, DitherKernel.FLOYD_STEINBERG)
+                .add(FilterType.INVERT)
+                .build().getKey());
+
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        FilterChain.of(FilterType.SEPIA).apply(image, expected);
+        Dither.apply(expected, expected, palette, DitherKernel.ATKINSON);
+        FilterChain.of(FilterType.INVERT).apply(expected, expected);
+        TileExecutor executor = new TileExecutor(3);
+        try {
+            PixelBuffer actual = new PixelBuffer(1, 1);
+            chain.apply(image, actual, null, executor);
+            assertArrayEquals(expected.getPixels(), actual.getPixels());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void cancelledToken_stopsEveryWorker() {
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            CancellationToken token = new CancellationToken();
+            token.cancel();
+            PixelBuffer image = TestImages.random(300, 200, 4);
+            try {
+                Dither.apply(image, new PixelBuffer(1, 1), ColorPalette.of(0, 0xFFFFFF), DitherKernel.ATKINSON,
+                        executor, token);
+                fail();
+            } catch (CancellationException expected) {
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
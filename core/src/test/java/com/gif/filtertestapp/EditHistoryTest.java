@@ -0,0 +1,121 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class EditHistoryTest {
+
+    /** Applies the steps one at a time, the slow way the history must match. */
+    private static PixelBuffer applyInOrder(PixelBuffer source, List<FilterChain> steps) {
+        PixelBuffer result = new PixelBuffer(1, 1);
+        result.copyFrom(source);
+        for (FilterChain step : steps) {
+            step.apply(result, result);
+        }
+        return result;
+    }
+
+    private static final FilterChain[] STEPS = {
+            FilterChain.of(FilterType.SEPIA),
+            FilterChain.of(FilterType.BRIGHTNESS, 90),
+            FilterChain.of(FilterType.SHARPEN),
+            FilterChain.of(FilterType.POSTERIZE, 6),
+            FilterChain.of(FilterType.VIGNETTE, 1.1f),
+            FilterChain.of(FilterType.CONTRAST, 0.8f),
+            FilterChain.of(FilterType.EMBOSS),
+            FilterChain.of(FilterType.HEATMAP),
+    };
+
+    @Test
+    public void render_matchesStepsAppliedInOrderAtEveryPosition() {
+        PixelBuffer source = TestImages.randomOpaque(48, 32, 1);
+        EditHistory history = new EditHistory(source, 3L * 4 * source.size());
+        List<FilterChain> applied = new ArrayList<>();
+        for (FilterChain step : STEPS) {
+            history.push(step);
+            applied.add(step);
+            PixelBuffer rendered = new PixelBuffer(1, 1);
+            history.render(history.getPosition(), rendered, null, null);
+            assertArrayEquals(applyInOrder(source, applied).getPixels(), rendered.getPixels());
+        }
+        // Again backwards and out of order, now from keyframes.
+        for (int position : new int[]{8, 3, 0, 6, 1, 7, 5, 2, 4}) {
+            PixelBuffer rendered = new PixelBuffer(1, 1);
+            history.render(position, rendered, null, null);
+            assertArrayEquals("position " + position,
+                    applyInOrder(source, applied.subList(0, position)).getPixels(), rendered.getPixels());
+        }
+        assertTrue(history.getKeyframeCount() <= 3);
+    }
+
+    @Test
+    public void undoAndRedo_moveTheCursorAndPushDropsTheRedoTail() {
+        EditHistory history = new EditHistory(TestImages.randomOpaque(8, 8, 2), 1 << 20);
+        history.push(STEPS[0]);
+        history.push(STEPS[2]);
+        history.push(STEPS[3]);
+        history.undo();
+        history.undo();
+        assertEquals(1, history.getPosition());
+        assertTrue(history.canRedo());
+        assertEquals(new FilterChain.Builder().addChain(STEPS[0]).build().getKey(), history.getChain().getKey());
+
+        history.redo();
+        assertEquals(2, history.getPosition());
+        history.push(STEPS[4]);
+        assertEquals(3, history.getSize());
+        assertFalse(history.canRedo());
+        assertSame(STEPS[4], history.getStep(2));
+
+        history.replaceCurrent(STEPS[5]);
+        assertEquals(3, history.getPosition());
+        assertSame(STEPS[5], history.getStep(2));
+
+        history.jumpTo(0);
+        assertFalse(history.canUndo());
+        assertEquals("", history.getChain().getKey());
+    }
+
+    @Test
+    public void keyframes_stayWithinBudgetForLongHistories() {
+        PixelBuffer source = TestImages.randomOpaque(40, 30, 3);
+        EditHistory history = new EditHistory(source, 4L * 4 * source.size());
+        long[] now = {0};
+        // Every render takes one tick, so only the distance from the cursor decides.
+        history.setClock(() -> now[0]++);
+        List<FilterChain> applied = new ArrayList<>();
+        PixelBuffer rendered = new PixelBuffer(1, 1);
+        for (int i = 0; i < 200; i++) {
+            FilterChain step = STEPS[i % STEPS.length];
+            history.push(step);
+            applied.add(step);
+            history.render(history.getPosition(), rendered, null, null);
+            assertTrue(history.getKeyframeCount() <= 4);
+        }
+        history.undo();
+        history.undo();
+        history.render(history.getPosition(), rendered, null, null);
+        assertArrayEquals(applyInOrder(source, applied.subList(0, 198)).getPixels(), rendered.getPixels());
+    }
+
+    @Test
+    public void replacedSteps_invalidateTheirKeyframes() {
+        PixelBuffer source = TestImages.randomOpaque(24, 24, 4);
+        EditHistory history = new EditHistory(source, 1 << 20);
+        history.push(STEPS[2]);
+        history.push(STEPS[3]);
+        PixelBuffer rendered = new PixelBuffer(1, 1);
+        history.render(2, rendered, null, null);
+
+        history.replaceCurrent(FilterChain.of(FilterType.POSTERIZE, 3));
+        history.render(2, rendered, null, null);
+        List<FilterChain> expected = new ArrayList<>();
+        expected.add(STEPS[2]);
+        expected.add(FilterChain.of(FilterType.POSTERIZE, 3));
+        assertArrayEquals(applyInOrder(source, expected).getPixels(), rendered.getPixels());
+    }
+}
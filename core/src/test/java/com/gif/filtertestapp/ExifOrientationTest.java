@@ -0,0 +1,75 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ExifOrientationTest {
+
+    // 3 x 2 image, pixel value = 10 * y + x:
+    //  0  1  2
+    // 10 11 12
+    private static final int[] STORED = {0, 1, 2, 10, 11, 12};
+
+    @Test
+    public void fromExif_mapsTagValues() {
+        for (ExifOrientation orientation : ExifOrientation.values()) {
+            assertEquals(orientation, ExifOrientation.fromExif(orientation.getExifValue()));
+        }
+        assertEquals(ExifOrientation.NORMAL, ExifOrientation.fromExif(0));
+        assertEquals(ExifOrientation.NORMAL, ExifOrientation.fromExif(42));
+    }
+
+    @Test
+    public void wholeImage_matchesExifDefinition() {
+        assertArrayEquals(new int[]{0, 1, 2, 10, 11, 12}, orient(ExifOrientation.NORMAL));
+        assertArrayEquals(new int[]{2, 1, 0, 12, 11, 10}, orient(ExifOrientation.FLIP_HORIZONTAL));
+        assertArrayEquals(new int[]{12, 11, 10, 2, 1, 0}, orient(ExifOrientation.ROTATE_180));
+        assertArrayEquals(new int[]{10, 11, 12, 0, 1, 2}, orient(ExifOrientation.FLIP_VERTICAL));
+        assertArrayEquals(new int[]{0, 10, 1, 11, 2, 12}, orient(ExifOrientation.TRANSPOSE));
+        assertArrayEquals(new int[]{10, 0, 11, 1, 12, 2}, orient(ExifOrientation.ROTATE_90));
+        assertArrayEquals(new int[]{12, 2, 11, 1, 10, 0}, orient(ExifOrientation.TRANSVERSE));
+        assertArrayEquals(new int[]{2, 12, 1, 11, 0, 10}, orient(ExifOrientation.ROTATE_270));
+    }
+
+    @Test
+    public void strips_matchWholeImage() {
+        int storedWidth = 7;
+        int storedHeight = 5;
+        int[] stored = new int[storedWidth * storedHeight];
+        for (int i = 0; i < stored.length; i++) {
+            stored[i] = i;
+        }
+        for (ExifOrientation orientation : ExifOrientation.values()) {
+            int width = orientation.displayedWidth(storedWidth, storedHeight);
+            int height = orientation.displayedHeight(storedWidth, storedHeight);
+            PixelBuffer whole = new PixelBuffer(width, height);
+            orientation.copyRows(stored, 0, 0, storedWidth, storedWidth, storedHeight, 0, whole);
+
+            int[] bounds = new int[4];
+            for (int top = 0; top < height; top += 2) {
+                int bottom = Math.min(height, top + 2);
+                orientation.sourceRegion(storedWidth, storedHeight, top, bottom, bounds);
+                int regionWidth = bounds[2] - bounds[0];
+                int regionHeight = bounds[3] - bounds[1];
+                int[] region = new int[regionWidth * regionHeight];
+                for (int y = 0; y < regionHeight; y++) {
+                    System.arraycopy(stored, (bounds[1] + y) * storedWidth + bounds[0],
+                            region, y * regionWidth, regionWidth);
+                }
+                PixelBuffer strip = new PixelBuffer(width, bottom - top);
+                orientation.copyRows(region, bounds[0], bounds[1], regionWidth,
+                        storedWidth, storedHeight, top, strip);
+                for (int i = 0; i < strip.size(); i++) {
+                    assertEquals(orientation + " row " + top, whole.getPixels()[top * width + i], strip.getPixels()[i]);
+                }
+            }
+        }
+    }
+
+    private static int[] orient(ExifOrientation orientation) {
+        PixelBuffer out = new PixelBuffer(orientation.displayedWidth(3, 2), orientation.displayedHeight(3, 2));
+        orientation.copyRows(STORED, 0, 0, 3, 3, 2, 0, out);
+        return out.getPixels();
+    }
+}
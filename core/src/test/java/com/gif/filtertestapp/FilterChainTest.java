@@ -0,0 +1,146 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+
+import static org.junit.Assert.*;
+
+public class FilterChainTest {
+
+    @Test
+    public void affineAndPointFilters_compileToOnePass() {
+        FilterChain chain = FilterChain.of(FilterType.GRAYSCALE, FilterType.CONTRAST, FilterType.POSTERIZE);
+        assertEquals(1, chain.getPassCount());
+        assertNull(chain.getColorMatrix());
+    }
+
+    @Test
+    public void matrices_concatenateIntoOneColorMatrix() {
+        FilterChain chain = FilterChain.of(FilterType.GRAYSCALE, FilterType.BRIGHTNESS);
+        float[] expected = ColorMatrices.concat(ColorMatrices.grayscale(), ColorMatrices.brightness(50));
+        assertArrayEquals(expected, chain.getColorMatrix(), 0f);
+    }
+
+    @Test
+    public void pointFilters_matchStandaloneKernels() {
+        PixelBuffer src = TestImages.randomOpaque(64, 48, 1);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        PixelBuffer actual = new PixelBuffer(1, 1);
+
+        PixelFilters.applySolarize(src, expected);
+        FilterChain.of(FilterType.SOLARIZE).apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+
+        PixelFilters.applyHeatmap(src, expected);
+        FilterChain.of(FilterType.HEATMAP).apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void fusedLookupTables_matchSequentialApplication() {
+        PixelBuffer src = TestImages.randomOpaque(40, 30, 2);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        PixelFilters.applyPosterize(src, expected);
+        PixelFilters.applySolarize(expected, expected);
+        PixelFilters.applyHeatmap(expected, expected);
+        PixelFilters.applyInvert(expected, expected);
+
+        FilterChain chain = FilterChain.of(FilterType.POSTERIZE, FilterType.SOLARIZE, FilterType.HEATMAP, FilterType.INVERT);
+        assertEquals(1, chain.getPassCount());
+        PixelBuffer actual = new PixelBuffer(1, 1);
+        chain.apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void neighbourhoodFilters_runInPlaceThroughScratch() {
+        PixelBuffer src = TestImages.randomOpaque(20, 20, 3);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        PixelFilters.applySharpen(src, expected);
+
+        FilterChain chain = FilterChain.of(FilterType.SHARPEN);
+        chain.apply(src, src);
+        assertArrayEquals(expected.getPixels(), src.getPixels());
+    }
+
+    @Test
+    public void key_identifiesStepsAndParameters() {
+        assertEquals(FilterChain.of(FilterType.SHARPEN, FilterType.SEPIA).getKey(),
+                FilterChain.of(FilterType.SHARPEN, FilterType.SEPIA).getKey());
+        assertNotEquals(FilterChain.of(FilterType.SHARPEN, FilterType.SEPIA).getKey(),
+                FilterChain.of(FilterType.SEPIA, FilterType.SHARPEN).getKey());
+        assertNotEquals(new FilterChain.Builder().addPosterize(4).build().getKey(),
+                new FilterChain.Builder().addPosterize(5).build().getKey());
+        assertNotEquals(new FilterChain.Builder().addConvolution(ConvolutionKernel.sharpen(), EdgeMode.CLAMP).build().getKey(),
+                new FilterChain.Builder().addConvolution(ConvolutionKernel.sharpen(), EdgeMode.MIRROR).build().getKey());
+    }
+
+    @Test
+    public void adjustableFilters_applyTheirParameter() {
+        PixelBuffer src = TestImages.randomOpaque(31, 17, 4);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        PixelBuffer actual = new PixelBuffer(1, 1);
+
+        PixelFilters.applyColorMatrix(src, expected, ColorMatrices.brightness(-30));
+        FilterChain.of(FilterType.BRIGHTNESS, -30).apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+
+        PixelFilters.applyVignette(src, expected, 1.2f);
+        FilterChain.of(FilterType.VIGNETTE, 1.2f).apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+
+        new FilterChain.Builder().addPosterize(7).build().apply(src, expected);
+        FilterChain.of(FilterType.POSTERIZE, 7.2f).apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void adjustableFilters_defaultToTheFixedStrength() {
+        PixelBuffer src = TestImages.randomOpaque(31, 17, 5);
+        for (FilterType type : FilterType.values()) {
+            PixelBuffer expected = new PixelBuffer(1, 1);
+            PixelBuffer actual = new PixelBuffer(1, 1);
+            FilterChain.of(type).apply(src, expected);
+            FilterChain.of(type, type.getDefaultValue()).apply(src, actual);
+            assertArrayEquals(type.name(), expected.getPixels(), actual.getPixels());
+        }
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        PixelBuffer actual = new PixelBuffer(1, 1);
+        PixelFilters.applyContrast(src, expected);
+        FilterChain.of(FilterType.CONTRAST).apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+    }
+
+    @Test
+    public void adjustableFilters_keyDependsOnValueAndRejectsOutOfRange() {
+        assertNotEquals(FilterChain.of(FilterType.CONTRAST, 1.2f).getKey(),
+                FilterChain.of(FilterType.CONTRAST, 1.3f).getKey());
+        assertNotEquals(FilterChain.of(FilterType.VIGNETTE, 0.7f).getKey(),
+                FilterChain.of(FilterType.VIGNETTE, 0.8f).getKey());
+        try {
+            FilterChain.of(FilterType.SOLARIZE, 300);
+            fail();
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void addChain_matchesChainsAppliedOneAfterAnother() {
+        PixelBuffer src = TestImages.randomOpaque(40, 20, 6);
+        FilterChain brighter = FilterChain.of(FilterType.BRIGHTNESS, 80);
+        FilterChain darker = FilterChain.of(FilterType.BRIGHTNESS, -80);
+        FilterChain posterize = FilterChain.of(FilterType.POSTERIZE, 5);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        expected.copyFrom(src);
+        brighter.apply(expected, expected);
+        darker.apply(expected, expected);
+        posterize.apply(expected, expected);
+
+        FilterChain combined = new FilterChain.Builder()
+                .addChain(brighter).addChain(darker).addChain(posterize).build();
+        PixelBuffer actual = new PixelBuffer(1, 1);
+        combined.apply(src, actual);
+        assertArrayEquals(expected.getPixels(), actual.getPixels());
+        assertEquals(1, combined.getPassCount());
+    }
+}
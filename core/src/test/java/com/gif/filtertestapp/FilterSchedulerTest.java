@@ -0,0 +1,149 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class FilterSchedulerTest {
+
+    /** Runs queued tasks only when asked to, so the tests control the interleaving. */
+    private static final class ManualExecutor implements Executor {
+        final Queue<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        void runAll() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                task.run();
+            }
+        }
+    }
+
+    private static final class Recorder implements FilterScheduler.Callback<Integer> {
+        final List<Integer> results = new ArrayList<>();
+
+        @Override
+        public void onResult(Integer result) {
+            results.add(result);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            throw new AssertionError(error);
+        }
+    }
+
+    @Test
+    public void burst_runsOnlyTheLastJob() {
+        ManualExecutor background = new ManualExecutor();
+        ManualExecutor main = new ManualExecutor();
+        FilterScheduler scheduler = new FilterScheduler(background, main);
+        Recorder recorder = new Recorder();
+        List<Integer> started = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int value = i;
+            scheduler.submit(token -> {
+                started.add(value);
+                return value;
+            }, recorder);
+        }
+        background.runAll();
+        main.runAll();
+        assertEquals(List.of(4), started);
+        assertEquals(List.of(4), recorder.results);
+    }
+
+    @Test
+    public void newerSubmit_cancelsRunningJob() {
+        ManualExecutor background = new ManualExecutor();
+        ManualExecutor main = new ManualExecutor();
+        FilterScheduler scheduler = new FilterScheduler(background, main);
+        Recorder recorder = new Recorder();
+        boolean[] cancelled = new boolean[1];
+        scheduler.submit(token -> {
+            // Simulates a tap arriving while the first filter is halfway through its bands.
+            scheduler.submit(t -> 2, recorder);
+            cancelled[0] = token.isCancelled();
+            token.throwIfCancelled();
+            return 1;
+        }, recorder);
+        background.runAll();
+        main.runAll();
+        assertTrue(cancelled[0]);
+        assertEquals(List.of(2), recorder.results);
+    }
+
+    @Test
+    public void staleResult_isDropped() {
+        ManualExecutor background = new ManualExecutor();
+        ManualExecutor main = new ManualExecutor();
+        FilterScheduler scheduler = new FilterScheduler(background, main);
+        Recorder recorder = new Recorder();
+        scheduler.submit(token -> 1, recorder);
+        background.runAll();
+        // The result is queued on the main thread when the user removes the filter.
+        scheduler.cancelAll();
+        main.runAll();
+        assertTrue(recorder.results.isEmpty());
+    }
+
+    @Test
+    public void preview_arrivesBeforeResultAndIsDroppedWhenSuperseded() {
+        ManualExecutor background = new ManualExecutor();
+        ManualExecutor main = new ManualExecutor();
+        FilterScheduler scheduler = new FilterScheduler(background, main);
+        List<String> events = new ArrayList<>();
+        FilterScheduler.Callback<Integer> callback = new FilterScheduler.Callback<Integer>() {
+            @Override
+            public void onPreview(Integer preview) {
+                events.add("preview " + preview);
+            }
+
+            @Override
+            public void onResult(Integer result) {
+                events.add("result " + result);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                throw new AssertionError(error);
+            }
+        };
+        scheduler.submit((token, preview) -> {
+            preview.accept(1);
+            return 10;
+        }, callback);
+        background.runAll();
+        main.runAll();
+        assertEquals(List.of("preview 1", "result 10"), events);
+
+        events.clear();
+        scheduler.submit((token, preview) -> {
+            preview.accept(2);
+            return 20;
+        }, callback);
+        background.runAll();
+        scheduler.cancelAll();
+        main.runAll();
+        assertTrue(events.isEmpty());
+    }
+
+    @Test(expected = CancellationException.class)
+    public void cancelledToken_stopsTileExecutor() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        new TileExecutor(1).forEachBand(10, 10, (startRow, endRow) -> {
+        }, token);
+    }
+}
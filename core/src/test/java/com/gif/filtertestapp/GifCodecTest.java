@@ -0,0 +1,234 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class GifCodecTest {
+
+    /** An image of at most {@code colors} random opaque colors, some pixels fully transparent. */
+    private static PixelBuffer fewColors(int width, int height, int colors, long seed) {
+        Random random = new Random(seed);
+        int[] palette = new int[colors];
+        for (int i = 0; i < colors; i++) {
+            palette[i] = 0xFF000000 | random.nextInt();
+        }
+        PixelBuffer image = new PixelBuffer(width, height);
+        for (int i = 0; i < image.size(); i++) {
+            image.getPixels()[i] = random.nextInt(10) == 0 ? 0 : palette[random.nextInt(colors)];
+        }
+        return image;
+    }
+
+    private static PixelBuffer decodeFirst(byte[] gif) throws IOException {
+        PixelBuffer frame = new PixelBuffer(1, 1);
+        assertTrue(new GifDecoder(new ByteArrayInputStream(gif)).readFrame(frame));
+        return frame;
+    }
+
+    private static byte[] encode(int loopCount, int delayMillis, PixelBuffer... frames) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        GifEncoder encoder = new GifEncoder(out, frames[0].getWidth(), frames[0].getHeight(), loopCount);
+        for (PixelBuffer frame : frames) {
+            encoder.writeFrame(frame, delayMillis);
+        }
+        encoder.finish();
+        return out.toByteArray();
+    }
+
+    @Test
+    public void roundTrip_keepsFramesDelaysAndLoopCount() throws IOException {
+        // Frames with few colors get them exactly, whatever the size of their color table.
+        PixelBuffer first = fewColors(31, 17, 255, 1);
+        PixelBuffer second = fewColors(31, 17, 3, 2);
+        byte[] gif = encode(3, 120, first, second);
+
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(gif));
+        assertEquals(31, decoder.getWidth());
+        assertEquals(17, decoder.getHeight());
+        PixelBuffer frame = new PixelBuffer(1, 1);
+        for (PixelBuffer expected : new PixelBuffer[]{first, second}) {
+            assertTrue(decoder.readFrame(frame));
+            assertEquals(120, decoder.getDelayMillis());
+            // Each frame clears the canvas, so nothing of the first shows through the second.
+            assertArrayEquals(Arrays.copyOf(expected.getPixels(), expected.size()),
+                    Arrays.copyOf(frame.getPixels(), frame.size()));
+        }
+        assertFalse(decoder.readFrame(frame));
+        assertEquals(3, decoder.getLoopCount());
+        assertEquals(2, decoder.getFrameCount());
+    }
+
+    @Test
+    public void encodedNoise_readsTheSameInImageIo() throws IOException {
+        // Enough noise to fill the code table several times over.
+        PixelBuffer image = TestImages.random(300, 200, 3);
+        for (int i = 0; i < image.size(); i++) {
+            image.getPixels()[i] |= 0xFF000000;
+        }
+        byte[] gif = encode(-1, 0, image);
+        BufferedImage read = ImageIO.read(new ByteArrayInputStream(gif));
+        PixelBuffer decoded = decodeFirst(gif);
+        assertEquals(300, read.getWidth());
+        for (int y = 0; y < 200; y++) {
+            for (int x = 0; x < 300; x++) {
+                assertEquals(decoded.getPixel(x, y), read.getRGB(x, y));
+            }
+        }
+    }
+
+    @Test
+    public void imageIoOutput_decodesToTheSamePixels() throws IOException {
+        byte[] rgb = new byte[3 * 256];
+        new Random(4).nextBytes(rgb);
+        byte[] reds = new byte[256];
+        byte[] greens = new byte[256];
+        byte[] blues = new byte[256];
+        for (int i = 0; i < 256; i++) {
+            reds[i] = rgb[3 * i];
+            greens[i] = rgb[3 * i + 1];
+            blues[i] = rgb[3 * i + 2];
+        }
+        BufferedImage image = new BufferedImage(173, 91, BufferedImage.TYPE_BYTE_INDEXED,
+                new IndexColorModel(8, 256, reds, greens, blues));
+        Random random = new Random(5);
+        for (int y = 0; y < 91; y++) {
+            for (int x = 0; x < 173; x++) {
+                // Runs of equal indices next to noise, so both short and long strings occur.
+                image.getRaster().setSample(x, y, 0, x % 40 < 20 ? y : random.nextInt(256));
+            }
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertTrue(ImageIO.write(image, "gif", out));
+
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(out.toByteArray()));
+        PixelBuffer frame = new PixelBuffer(1, 1);
+        assertTrue(decoder.readFrame(frame));
+        for (int y = 0; y < 91; y++) {
+            for (int x = 0; x < 173; x++) {
+                assertEquals(x + "," + y, image.getRGB(x, y), frame.getPixel(x, y));
+            }
+        }
+    }
+
+    /**
+     * Writes a GIF with a four-color global table (red, blue, green, white) and frames given as
+     * {left, top, width, height, disposal, transparent index or -1, indices...}.
+     */
+    private static byte[] handMade(int width, int height, int[]... frames) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.writeBytes("GIF89a".getBytes());
+        out.writeBytes(new byte[]{(byte) width, 0, (byte) height, 0, (byte) 0x81, 0, 0});
+        out.writeBytes(new byte[]{(byte) 255, 0, 0, 0, 0, (byte) 255, 0, (byte) 255, 0, (byte) 255, (byte) 255, (byte) 255});
+        for (int[] frame : frames) {
+            int transparent = frame[5];
+            out.writeBytes(new byte[]{0x21, (byte) 0xF9, 4, (byte) (frame[4] << 2 | (transparent >= 0 ? 1 : 0)),
+                    5, 0, (byte) Math.max(0, transparent), 0});
+            out.writeBytes(new byte[]{0x2C, (byte) frame[0], 0, (byte) frame[1], 0, (byte) frame[2], 0, (byte) frame[3], 0, 0});
+            byte[] indices = new byte[frame.length - 6];
+            for (int i = 0; i < indices.length; i++) {
+                indices[i] = (byte) frame[6 + i];
+            }
+            out.writeBytes(GifEncoder.FrameEncoder.compress(indices, indices.length, 2));
+        }
+        out.write(0x3B);
+        return out.toByteArray();
+    }
+
+    @Test
+    public void disposalMethods_compositeLikeBrowsers() throws IOException {
+        int r = 0xFFFF0000;
+        int b = 0xFF0000FF;
+        int g = 0xFF00FF00;
+        int w = 0xFFFFFFFF;
+        byte[] gif = handMade(3, 3,
+                // Red at the top left, kept.
+                new int[]{0, 0, 2, 2, 1, -1, 0, 0, 0, 0},
+                // Blue over the middle with a hole, then restored to what was before.
+                new int[]{1, 1, 2, 2, 3, 2, 1, 2, 1, 1},
+                // Green in the corner, then cleared.
+                new int[]{2, 2, 1, 1, 2, -1, 2},
+                new int[]{2, 0, 1, 1, 1, -1, 3});
+        int[][] expected = {
+                {r, r, 0, r, r, 0, 0, 0, 0},
+                {r, r, 0, r, b, 0, 0, b, b},
+                {r, r, 0, r, r, 0, 0, 0, g},
+                {r, r, w, r, r, 0, 0, 0, 0},
+        };
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(gif));
+        PixelBuffer frame = new PixelBuffer(1, 1);
+        for (int[] pixels : expected) {
+            assertTrue(decoder.readFrame(frame));
+            assertEquals(50, decoder.getDelayMillis());
+            assertArrayEquals(pixels, Arrays.copyOf(frame.getPixels(), 9));
+        }
+        assertFalse(decoder.readFrame(frame));
+        assertEquals(-1, decoder.getLoopCount());
+    }
+
+    @Test
+    public void ditheredFrames_mixPaletteColors() throws IOException {
+        PixelBuffer gray = new PixelBuffer(32, 32);
+        Arrays.fill(gray.getPixels(), 0xFF606060);
+        ColorPalette blackAndWhite = ColorPalette.of(0xFF000000, 0xFFFFFFFF);
+        for (DitherKernel dither : new DitherKernel[]{null, DitherKernel.FLOYD_STEINBERG}) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            GifEncoder encoder = new GifEncoder(out, 32, 32, 0);
+            encoder.writeFrame(new GifEncoder.FrameEncoder(blackAndWhite, dither).encode(gray, 100));
+            encoder.finish();
+            PixelBuffer decoded = decodeFirst(out.toByteArray());
+            long white = Arrays.stream(decoded.getPixels(), 0, decoded.size()).filter(p -> p == 0xFFFFFFFF).count();
+            long black = Arrays.stream(decoded.getPixels(), 0, decoded.size()).filter(p -> p == 0xFF000000).count();
+            assertEquals(gray.size(), white + black);
+            if (dither == null) {
+                assertEquals(0, white);
+            } else {
+                assertEquals(gray.size() * 0x60 / 255.0, white, 32);
+            }
+        }
+    }
+
+    @Test
+    public void hugeFrame_isRejected() throws IOException {
+        byte[] gif = handMade(3, 3, new int[]{0, 0, 1, 1, 1, -1, 0});
+        // 65535x65535 at offset 38, after the header, the color table and the control extension.
+        Arrays.fill(gif, 38, 42, (byte) 0xFF);
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(gif));
+        try {
+            decoder.readFrame(new PixelBuffer(1, 1));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void truncatedFile_endsWithThePartialFrame() throws IOException {
+        PixelBuffer image = TestImages.random(64, 64, 6);
+        byte[] gif = encode(0, 40, image, image);
+        byte[] truncated = Arrays.copyOf(gif, gif.length * 3 / 4);
+
+        GifDecoder decoder = new GifDecoder(new ByteArrayInputStream(truncated));
+        PixelBuffer frame = new PixelBuffer(1, 1);
+        assertTrue(decoder.readFrame(frame));
+        assertTrue(decoder.readFrame(frame));
+        assertEquals(decodeFirst(gif).getPixels()[0], frame.getPixels()[0]);
+        assertEquals(0, frame.getPixels()[image.size() - 1]);
+        assertFalse(decoder.readFrame(frame));
+
+        try {
+            new GifDecoder(new ByteArrayInputStream("GIF90a".getBytes()));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+}
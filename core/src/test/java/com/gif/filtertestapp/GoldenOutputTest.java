@@ -0,0 +1,104 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.*;
+
+/**
+ * Pins the exact output of every built-in filter, so that a faster kernel cannot change pixels
+ * without the change showing up here. When a filter is changed on purpose, update its checksum
+ * in the same commit.
+ */
+public class GoldenOutputTest {
+
+    private static final Map<FilterType, Long> GOLDEN = new EnumMap<>(FilterType.class);
+
+    static {
+        GOLDEN.put(FilterType.GRAYSCALE, 0xE23FAD4BL);
+        GOLDEN.put(FilterType.SEPIA, 0x30CEC031L);
+        GOLDEN.put(FilterType.INVERT, 0x0DE432A0L);
+        GOLDEN.put(FilterType.VINTAGE, 0x533F6878L);
+        GOLDEN.put(FilterType.BRIGHTNESS, 0xA9A5069BL);
+        GOLDEN.put(FilterType.CONTRAST, 0x466A1878L);
+        GOLDEN.put(FilterType.WINTER, 0x78879B6CL);
+        GOLDEN.put(FilterType.SOLARIZE, 0xF9DB97FBL);
+        GOLDEN.put(FilterType.POSTERIZE, 0x32319295L);
+        GOLDEN.put(FilterType.VIGNETTE, 0xE4AEAD9CL);
+        GOLDEN.put(FilterType.HEATMAP, 0x1E3A61EBL);
+        GOLDEN.put(FilterType.SHARPEN, 0xDF237CEBL);
+        GOLDEN.put(FilterType.EDGE_DETECT, 0x9676A828L);
+        GOLDEN.put(FilterType.EMBOSS, 0x08D7A6E5L);
+        GOLDEN.put(FilterType.UNSHARP_MASK, 0xBA4342C0L);
+        GOLDEN.put(FilterType.BLUR, 0x16076AC0L);
+        GOLDEN.put(FilterType.BACKGROUND_BLUR, 0x79D6A329L);
+    }
+
+    /**
+     * An odd-sized image with gradients, noise and a few translucent pixels, the same on every run.
+     */
+    static PixelBuffer goldenImage() {
+        int width = 409;
+        int height = 263;
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        long state = 0x9E3779B97F4A7C15L;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                state ^= state << 13;
+                state ^= state >>> 7;
+                state ^= state << 17;
+                int noise = (int) state;
+                int r = (x * 255 / (width - 1) + (noise & 0x1F)) & 0xFF;
+                int g = (y * 255 / (height - 1) + ((noise >> 8) & 0x1F)) & 0xFF;
+                int b = (noise >> 16) & 0xFF;
+                int a = (x + y) % 29 == 0 ? 0x80 : 0xFF;
+                buffer.setPixel(x, y, (a << 24) | (r << 16) | (g << 8) | b);
+            }
+        }
+        return buffer;
+    }
+
+    static long checksum(PixelBuffer buffer) {
+        CRC32 crc = new CRC32();
+        int[] pixels = buffer.getPixels();
+        for (int i = 0; i < buffer.size(); i++) {
+            int p = pixels[i];
+            crc.update(p >>> 24);
+            crc.update(p >>> 16);
+            crc.update(p >>> 8);
+            crc.update(p);
+        }
+        return crc.getValue();
+    }
+
+    @Test
+    public void everyFilter_matchesGoldenChecksum() {
+        PixelBuffer src = goldenImage();
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        for (FilterType type : FilterType.values()) {
+            FilterChain.of(type).apply(src, dst);
+            long actual = checksum(dst);
+            assertEquals(type + " output changed, checksum is now " + Long.toHexString(actual),
+                    GOLDEN.get(type).longValue(), actual);
+        }
+    }
+
+    @Test
+    public void parallelBands_matchGoldenChecksum() {
+        PixelBuffer src = goldenImage();
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        PixelBuffer scratch = new PixelBuffer(1, 1);
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            for (FilterType type : FilterType.values()) {
+                FilterChain.of(type).apply(src, dst, scratch, executor);
+                assertEquals(type.toString(), GOLDEN.get(type).longValue(), checksum(dst));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+public class ImageEditPipelineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final ListeningExecutorService executor = ImageEditPipeline.newBoundedExecutor(2, 8);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /** Offline stand-in for the image model that "edits" by appending the prompt. */
+    private static final class FakeModel implements ImageEditModel {
+        final List<String> prompts = new ArrayList<>();
+
+        @Override
+        public synchronized ListenableFuture<byte[]> edit(ImagePayload image, String prompt) {
+            prompts.add(prompt);
+            String result = new String(image.getData(), StandardCharsets.UTF_8) + "+" + prompt;
+            return Futures.immediateFuture(result.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        scheduler.shutdownNow();
+    }
+
+    private static ImagePayload payload(String content) {
+        return new ImagePayload(content.getBytes(StandardCharsets.UTF_8), "image/jpeg");
+    }
+
+    private ImageEditPipeline newPipeline(ImageEditModel model, long maxCacheBytes, long timeoutMillis) {
+        return new ImageEditPipeline(model, folder.getRoot(), maxCacheBytes, executor, scheduler, timeoutMillis);
+    }
+
+    @Test
+    public void repeatedEdit_isServedFromDisk() throws Exception {
+        FakeModel model = new FakeModel();
+        ImagePayload image = payload("cat");
+        byte[] first = newPipeline(model, 1 << 20, 1000).edit(image, "make it blue").get();
+        // A new pipeline over the same directory, as after an app restart.
+        byte[] second = newPipeline(model, 1 << 20, 1000).edit(payload("cat"), "make it blue").get();
+        assertArrayEquals(first, second);
+        assertEquals(1, model.prompts.size());
+
+        newPipeline(model, 1 << 20, 1000).edit(image, "make it red").get();
+        newPipeline(model, 1 << 20, 1000).edit(payload("dog"), "make it blue").get();
+        assertEquals(3, model.prompts.size());
+    }
+
+    @Test
+    public void slowModel_timesOutAndIsCancelled() throws Exception {
+        SettableFuture<byte[]> reply = SettableFuture.create();
+        ImageEditPipeline pipeline = newPipeline((image, prompt) -> reply, 1 << 20, 50);
+        try {
+            pipeline.edit(payload("cat"), "blue").get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof TimeoutException);
+        }
+        // The model call is cancelled right after the timeout fires.
+        CountDownLatch done = new CountDownLatch(1);
+        reply.addListener(done::countDown, Runnable::run);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(reply.isCancelled());
+    }
+
+    @Test
+    public void diskCache_staysWithinLimit() throws Exception {
+        FakeModel model = new FakeModel();
+        ImageEditPipeline pipeline = newPipeline(model, 40, 1000);
+        for (int i = 0; i < 10; i++) {
+            pipeline.edit(payload("image" + i), "prompt").get();
+        }
+        long total = 0;
+        for (File file : folder.getRoot().listFiles()) {
+            total += file.length();
+        }
+        assertTrue(total <= 40);
+    }
+}
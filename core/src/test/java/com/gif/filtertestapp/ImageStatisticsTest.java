@@ -0,0 +1,99 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ImageStatisticsTest {
+
+    /** A dull image: every channel between {@code low} and {@code high}, scaled per channel. */
+    private static PixelBuffer dullImage(int width, int height, int low, int high, float r, float g, float b) {
+        Random random = new Random(9);
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        int[] pixels = buffer.getPixels();
+        for (int i = 0; i < buffer.size(); i++) {
+            int v = low + random.nextInt(high - low + 1);
+            pixels[i] = 0xFF000000 | Math.round(v * r) << 16 | Math.round(v * g) << 8 | Math.round(v * b);
+        }
+        return buffer;
+    }
+
+    @Test
+    public void histograms_countEveryPixelOfEveryChannel() {
+        PixelBuffer image = TestImages.randomOpaque(37, 23, 1);
+        ImageStatistics statistics = ImageStatistics.compute(image, null, null);
+
+        int[] red = new int[256];
+        long lumaSum = 0;
+        for (int p : image.getPixels()) {
+            red[(p >> 16) & 0xFF]++;
+            lumaSum += (77 * ((p >> 16) & 0xFF) + 150 * ((p >> 8) & 0xFF) + 29 * (p & 0xFF) + 128) >> 8;
+        }
+        assertEquals(37 * 23, statistics.getPixelCount());
+        assertArrayEquals(red, statistics.getHistogram(ImageStatistics.Channel.RED));
+        assertEquals((double) lumaSum / image.size(), statistics.getMean(ImageStatistics.Channel.LUMINANCE), 1e-9);
+    }
+
+    @Test
+    public void parallelReduction_matchesSerialCount() {
+        PixelBuffer image = TestImages.randomOpaque(640, 997, 2);
+        ImageStatistics serial = ImageStatistics.compute(image, null, null);
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            ImageStatistics parallel = ImageStatistics.compute(image, executor, null);
+            for (ImageStatistics.Channel channel : ImageStatistics.Channel.values()) {
+                assertArrayEquals(channel.name(), serial.getHistogram(channel), parallel.getHistogram(channel));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void percentile_returnsSmallestValueCoveringTheShare() {
+        PixelBuffer image = new PixelBuffer(4, 1);
+        image.getPixels()[0] = 0xFF0A0000;
+        image.getPixels()[1] = 0xFF140000;
+        image.getPixels()[2] = 0xFF1E0000;
+        image.getPixels()[3] = 0xFF280000;
+        ImageStatistics statistics = ImageStatistics.compute(image, null, null);
+
+        assertEquals(10, statistics.getPercentile(ImageStatistics.Channel.RED, 0));
+        assertEquals(10, statistics.getPercentile(ImageStatistics.Channel.RED, 25));
+        assertEquals(20, statistics.getPercentile(ImageStatistics.Channel.RED, 26));
+        assertEquals(40, statistics.getPercentile(ImageStatistics.Channel.RED, 100));
+        assertEquals(25, statistics.getMean(ImageStatistics.Channel.RED), 1e-9);
+    }
+
+    @Test
+    public void autoLevels_stretchesEachChannelToFullRange() {
+        PixelBuffer image = dullImage(200, 100, 60, 180, 1f, 0.9f, 0.7f);
+        ImageStatistics before = ImageStatistics.compute(image, null, null);
+        FilterChain chain = AutoAdjustment.LEVELS.addTo(new FilterChain.Builder(), before).build();
+        assertEquals(1, chain.getPassCount());
+
+        PixelBuffer result = new PixelBuffer(1, 1);
+        chain.apply(image, result);
+        ImageStatistics after = ImageStatistics.compute(result, null, null);
+        for (ImageStatistics.Channel channel : new ImageStatistics.Channel[]{
+                ImageStatistics.Channel.RED, ImageStatistics.Channel.GREEN, ImageStatistics.Channel.BLUE}) {
+            assertTrue(channel.name(), after.getPercentile(channel, 1) < 5);
+            assertTrue(channel.name(), after.getPercentile(channel, 99) > 250);
+        }
+    }
+
+    @Test
+    public void whiteBalance_equalizesChannelMeans() {
+        PixelBuffer image = dullImage(200, 100, 40, 200, 1f, 0.8f, 0.6f);
+        ImageStatistics before = ImageStatistics.compute(image, null, null);
+        PixelBuffer result = new PixelBuffer(1, 1);
+        AutoAdjustment.WHITE_BALANCE.addTo(new FilterChain.Builder(), before).build().apply(image, result);
+
+        ImageStatistics after = ImageStatistics.compute(result, null, null);
+        double red = after.getMean(ImageStatistics.Channel.RED);
+        assertEquals(red, after.getMean(ImageStatistics.Channel.GREEN), 2);
+        assertEquals(red, after.getMean(ImageStatistics.Channel.BLUE), 2);
+    }
+}
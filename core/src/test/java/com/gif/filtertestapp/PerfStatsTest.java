@@ -0,0 +1,107 @@
+package com.gif.filtertestapp;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+public class PerfStatsTest {
+
+    @Test
+    public void histogram_bucketsCoverEveryValueWithinOneEighth() {
+        long[] values = {0, 1, 7, 8, 9, 15, 16, 17, 1000, 123_456_789, Long.MAX_VALUE / 3, Long.MAX_VALUE};
+        for (long value : values) {
+            int bucket = LatencyHistogram.bucketOf(value);
+            long upper = LatencyHistogram.upperBound(bucket);
+            assertTrue(value + " above its bucket", value <= upper);
+            assertTrue(value + " below its bucket", bucket == 0 || value > LatencyHistogram.upperBound(bucket - 1));
+            assertTrue(value + " too coarse", upper - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void histogram_percentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500_000, histogram.getPercentile(50), 500_000 / 8);
+        assertEquals(990_000, histogram.getPercentile(99), 990_000 / 8);
+        assertTrue(histogram.getPercentile(100) >= 1_000_000);
+    }
+
+    @Test
+    public void span_recordsTimePixelsAndAllocations() {
+        PerfStats stats = new PerfStats();
+        AtomicLong clock = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        stats.setClock(clock::get);
+        stats.setAllocationCounter(allocated::get);
+        List<String> sections = new ArrayList<>();
+        stats.setTracer(new PerfStats.Tracer() {
+            @Override
+            public void beginSection(String name) {
+                sections.add("begin " + name);
+            }
+
+            @Override
+            public void endSection() {
+                sections.add("end");
+            }
+        });
+
+        for (int i = 1; i <= 2; i++) {
+            try (PerfStats.Span span = stats.begin("pass:matrix")) {
+                span.setPixels(2_000_000);
+                clock.addAndGet(i * 1_000_000L);
+                allocated.addAndGet(64);
+            }
+        }
+
+        PerfStats.StageStats stage = stats.snapshot().get("pass:matrix");
+        assertEquals(2, stage.getCount());
+        assertEquals(3_000_000, stage.getTotalNanos());
+        assertEquals(2_000_000, stage.getMaxNanos());
+        assertEquals(4_000_000, stage.getPixels());
+        assertEquals(128, stage.getBytesAllocated());
+        assertEquals(4_000_000 / 3e-3 / 1e6, stage.getMegapixelsPerSecond(), 1e-6);
+        assertEquals(List.of("begin pass:matrix", "end", "begin pass:matrix", "end"), sections);
+    }
+
+    @Test
+    public void recordFuture_timesUntilCompletion() {
+        PerfStats stats = new PerfStats();
+        AtomicLong clock = new AtomicLong();
+        stats.setClock(clock::get);
+        SettableFuture<String> reply = SettableFuture.create();
+        assertSame(reply, stats.recordFuture("model:colorMatrix", reply));
+        assertNull(stats.snapshot().get("model:colorMatrix"));
+
+        clock.set(42_000_000);
+        reply.setException(new RuntimeException("offline"));
+        PerfStats.StageStats stage = stats.snapshot().get("model:colorMatrix");
+        assertEquals(1, stage.getCount());
+        assertEquals(42_000_000, stage.getTotalNanos());
+    }
+
+    @Test
+    public void snapshot_isSortedJson() {
+        PerfStats stats = new PerfStats();
+        stats.record("encode:\"PNG\"", 1_500_000, 0);
+        stats.record("decode", 2_000_000, 100);
+        String json = stats.snapshot().toJson();
+        assertTrue(json, json.startsWith("{\"stages\":[{\"name\":\"decode\",\"count\":1,\"totalMs\":2.000,"));
+        assertTrue(json, json.contains("{\"name\":\"encode:\\\"PNG\\\"\",\"count\":1,\"totalMs\":1.500,"));
+        assertTrue(json, json.endsWith("}]}"));
+
+        stats.reset();
+        assertEquals("{\"stages\":[]}", stats.snapshot().toJson());
+    }
+}
@@ -0,0 +1,106 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * JVM tests for the {@link PixelBuffer} based filter kernels.
+ */
+public class PixelFiltersTest {
+
+    private static PixelBuffer gradient(int width, int height) {
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255) / Math.max(1, width - 1);
+                int g = (y * 255) / Math.max(1, height - 1);
+                int b = (x * 7 + y * 13) & 0xFF;
+                buffer.setPixel(x, y, 0xFF000000 | (r << 16) | (g << 8) | b);
+            }
+        }
+        return buffer;
+    }
+
+    @Test
+    public void reshape_reusesBackingArray() {
+        PixelBuffer buffer = new PixelBuffer(10, 10);
+        int[] pixels = buffer.getPixels();
+        buffer.reshape(5, 8);
+        assertSame(pixels, buffer.getPixels());
+        assertEquals(40, buffer.size());
+    }
+
+    @Test
+    public void identityMatrix_keepsPixels() {
+        PixelBuffer src = gradient(16, 9);
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        PixelFilters.applyColorMatrix(src, dst, ColorMatrices.identity());
+        assertArrayEquals(src.getPixels(), dst.getPixels());
+    }
+
+    @Test
+    public void invert_flipsChannelsAndKeepsAlpha() {
+        PixelBuffer buffer = PixelBuffer.wrap(new int[]{0x80102030}, 1, 1);
+        PixelFilters.applyInvert(buffer, buffer);
+        assertEquals(0x80EFDFCF, buffer.getPixel(0, 0));
+    }
+
+    @Test
+    public void sepia_matchesConcatenatedMatrix() {
+        float[] expected = ColorMatrices.concat(ColorMatrices.saturation(0), ColorMatrices.scale(1f, 1f, 0.8f, 1f));
+        assertArrayEquals(expected, ColorMatrices.sepia(), 0f);
+        assertEquals(0.8f * 0.072f, ColorMatrices.sepia()[12], 1e-6f);
+    }
+
+    @Test
+    public void posterize_inPlaceMatchesSeparateDestination() {
+        PixelBuffer src = gradient(31, 17);
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        PixelFilters.applyPosterize(src, dst);
+        PixelFilters.applyPosterize(src, src);
+        assertArrayEquals(dst.getPixels(), src.getPixels());
+        assertEquals(0xFF202020, posterizeSingle(0xFF000000));
+        assertEquals(0xFFE0A060, posterizeSingle(0xFFFF8040));
+    }
+
+    private static int posterizeSingle(int color) {
+        PixelBuffer buffer = PixelBuffer.wrap(new int[]{color}, 1, 1);
+        PixelFilters.applyPosterize(buffer, buffer);
+        return buffer.getPixel(0, 0);
+    }
+
+    @Test
+    public void smartPosterize_usesAtMostTheGivenColors() {
+        PixelBuffer src = gradient(64, 48);
+        PixelBuffer dst = new PixelBuffer(1, 1);
+        PixelFilters.applySmartPosterize(src, dst, 5);
+        assertEquals(64, dst.getWidth());
+        assertEquals(5, Arrays.stream(dst.getPixels(), 0, dst.size()).distinct().count());
+        PixelFilters.applySmartPosterize(src, src, 5);
+        assertArrayEquals(dst.getPixels(), src.getPixels());
+    }
+
+    @Test
+    public void solarize_foldsBrightChannels() {
+        PixelBuffer buffer = PixelBuffer.wrap(new int[]{0xFF80FF10}, 1, 1);
+        PixelFilters.applySolarize(buffer, buffer);
+        assertEquals(0xFF800010, buffer.getPixel(0, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void sharpen_rejectsInPlace() {
+        PixelBuffer buffer = gradient(4, 4);
+        PixelFilters.applySharpen(buffer, buffer);
+    }
+
+    @Test
+    public void parse_rejectsWrongLength() {
+        assertNull(ColorMatrices.parse("1,0,0"));
+        assertNull(ColorMatrices.parse("a,b"));
+        assertArrayEquals(ColorMatrices.identity(),
+                ColorMatrices.parse("[1,0,0,0,0, 0,1,0,0,0, 0,0,1,0,0, 0,0,0,1,0]"), 0f);
+    }
+}
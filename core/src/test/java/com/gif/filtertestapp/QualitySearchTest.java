@@ -0,0 +1,45 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class QualitySearchTest {
+
+    @Test
+    public void targetSize_findsHighestQualityThatFits() throws IOException {
+        AtomicInteger probes = new AtomicInteger();
+        // Size grows faster than linearly with quality, like real encoders.
+        QualitySearch.Probe size = quality -> {
+            probes.incrementAndGet();
+            return 1000 + quality * quality * 10.0;
+        };
+        int quality = QualitySearch.forTargetSize(50_000, 30, 100, size);
+        assertTrue(size.measure(quality) <= 50_000);
+        assertTrue(size.measure(quality + 1) > 50_000);
+        assertTrue(probes.get() <= 10);
+
+        assertEquals(30, QualitySearch.forTargetSize(10, 30, 100, size));
+        assertEquals(100, QualitySearch.forTargetSize(Long.MAX_VALUE, 30, 100, size));
+    }
+
+    @Test
+    public void targetScore_findsLowestQualityThatReachesIt() throws IOException {
+        QualitySearch.Probe psnr = quality -> 20 + quality * 0.25;
+        assertEquals(80, QualitySearch.forTargetScore(40, 30, 100, psnr));
+        assertEquals(100, QualitySearch.forTargetScore(99, 30, 100, psnr));
+        assertEquals(30, QualitySearch.forTargetScore(0, 30, 100, psnr));
+    }
+
+    @Test
+    public void psnr_matchesDefinition() {
+        int[] a = {0xFF000000, 0xFFFFFFFF};
+        assertEquals(Double.POSITIVE_INFINITY, QualitySearch.psnr(a, a.clone(), 2), 0);
+        int[] b = {0xFF0A0A0A, 0xFFFFFFFF};
+        // MSE = 100 * 3 / 6 = 50
+        assertEquals(10 * Math.log10(255.0 * 255.0 / 50), QualitySearch.psnr(a, b, 2), 1e-9);
+    }
+}
@@ -0,0 +1,38 @@
+package com.gif.filtertestapp;
+
+import java.util.Random;
+
+/**
+ * Reproducible images for tests.
+ */
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Returns an image of random pixels, alpha included, the same for the same seed.
+     */
+    static PixelBuffer random(int width, int height, long seed) {
+        Random random = new Random(seed);
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        int[] pixels = buffer.getPixels();
+        for (int i = 0; i < buffer.size(); i++) {
+            pixels[i] = random.nextInt();
+        }
+        return buffer;
+    }
+
+    /**
+     * Like {@link #random}, but every pixel is opaque.
+     */
+    static PixelBuffer randomOpaque(int width, int height, long seed) {
+        Random random = new Random(seed);
+        PixelBuffer buffer = new PixelBuffer(width, height);
+        int[] pixels = buffer.getPixels();
+        for (int i = 0; i < buffer.size(); i++) {
+            pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+        }
+        return buffer;
+    }
+}
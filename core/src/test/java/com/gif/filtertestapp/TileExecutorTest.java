@@ -0,0 +1,101 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.*;
+
+public class TileExecutorTest {
+
+    @Test
+    public void bands_coverEveryRowOnce() {
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            int height = 1001;
+            AtomicIntegerArray visits = new AtomicIntegerArray(height);
+            executor.forEachBand(640, height, (startRow, endRow) -> {
+                for (int y = startRow; y < endRow; y++) visits.incrementAndGet(y);
+            });
+            for (int y = 0; y < height; y++) {
+                assertEquals(1, visits.get(y));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void bandHeight_adaptsToImageAndCores() {
+        TileExecutor executor = new TileExecutor(8);
+        try {
+            assertEquals(64, executor.getBandHeight(64, 64));
+            assertEquals(1000 / 32 + 1, executor.getBandHeight(4000, 1000));
+            assertEquals(1, new TileExecutor(1).getBandHeight(100, 1));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelChain_isBitIdenticalToSerial() {
+        Random random = new Random(7);
+        PixelBuffer src = new PixelBuffer(523, 611);
+        int[] pixels = src.getPixels();
+        for (int i = 0; i < src.size(); i++) pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+
+        FilterChain chain = FilterChain.of(FilterType.SOLARIZE, FilterType.SHARPEN, FilterType.POSTERIZE,
+                FilterType.VIGNETTE, FilterType.SHARPEN, FilterType.HEATMAP);
+        PixelBuffer serial = new PixelBuffer(1, 1);
+        chain.apply(src, serial);
+
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            PixelBuffer parallel = new PixelBuffer(1, 1);
+            chain.apply(src, parallel, null, executor);
+            assertArrayEquals(serial.getPixels(), parallel.getPixels());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void forEachIndex_runsEveryTaskOnce() {
+        TileExecutor executor = new TileExecutor(3);
+        try {
+            AtomicIntegerArray runs = new AtomicIntegerArray(17);
+            executor.forEachIndex(17, runs::incrementAndGet, null);
+            for (int i = 0; i < 17; i++) {
+                assertEquals(1, runs.get(i));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void thumbnails_matchSerialChains() {
+        TileExecutor executor = new TileExecutor(4);
+        try {
+            Random random = new Random(11);
+            PixelBuffer thumbnail = new PixelBuffer(48, 36);
+            int[] pixels = thumbnail.getPixels();
+            for (int i = 0; i < thumbnail.size(); i++) pixels[i] = 0xFF000000 | random.nextInt(0x1000000);
+            List<FilterChain> chains = new ArrayList<>();
+            for (FilterType type : FilterType.values()) {
+                chains.add(FilterChain.of(type));
+            }
+            PixelBuffer[] thumbnails = FilterThumbnails.render(thumbnail, chains, executor, null);
+            for (int i = 0; i < chains.size(); i++) {
+                PixelBuffer expected = new PixelBuffer(1, 1);
+                chains.get(i).apply(thumbnail, expected);
+                assertArrayEquals(FilterType.values()[i].name(), expected.getPixels(), thumbnails[i].getPixels());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.gif.filtertestapp;
+
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.Deflater;
+
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class TiledRendererTest {
+
+    private static PixelBuffer renderInStrips(PixelBuffer image, FilterChain chain, int stripHeight) throws IOException {
+        int width = image.getWidth();
+        PixelBuffer result = new PixelBuffer(width, image.getHeight());
+        int[] written = new int[1];
+        TiledRenderer.RegionSource source = (top, bottom, target) ->
+                System.arraycopy(image.getPixels(), top * width, target.getPixels(), 0, (bottom - top) * width);
+        TiledRenderer.RowSink sink = (pixels, offset, rowCount) -> {
+            System.arraycopy(pixels, offset, result.getPixels(), written[0] * width, rowCount * width);
+            written[0] += rowCount;
+        };
+        new TiledRenderer(chain, null, stripHeight).render(width, image.getHeight(), source, sink, null);
+        assertEquals(image.getHeight(), written[0]);
+        return result;
+    }
+
+    @Test
+    public void haloSize_sumsConvolutionRadii() {
+        assertEquals(0, FilterChain.of(FilterType.SEPIA, FilterType.VIGNETTE).getHaloSize());
+        assertEquals(3, FilterChain.of(FilterType.SHARPEN, FilterType.UNSHARP_MASK).getHaloSize());
+    }
+
+    @Test
+    public void strips_matchWholeImage() throws IOException {
+        PixelBuffer image = TestImages.randomOpaque(57, 83, 7);
+        FilterChain chain = FilterChain.of(FilterType.SHARPEN, FilterType.SEPIA, FilterType.UNSHARP_MASK,
+                FilterType.VIGNETTE, FilterType.EMBOSS);
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        chain.apply(image, expected);
+        for (int stripHeight : new int[]{1, 2, 5, 16, 83, 100}) {
+            assertArrayEquals("strip height " + stripHeight, expected.getPixels(),
+                    renderInStrips(image, chain, stripHeight).getPixels());
+        }
+    }
+
+    @Test
+    public void strips_sizeRelativeBlursForTheWholeImage() throws IOException {
+        PixelBuffer image = TestImages.randomOpaque(160, 90, 8);
+        FilterChain chain = new FilterChain.Builder()
+                .add(FilterType.BLUR, 30)
+                .add(FilterType.BACKGROUND_BLUR, 20)
+                .build();
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        chain.apply(image, expected);
+        for (int stripHeight : new int[]{3, 16, 90}) {
+            assertArrayEquals("strip height " + stripHeight, expected.getPixels(),
+                    renderInStrips(image, chain, stripHeight).getPixels());
+        }
+    }
+
+    @Test
+    public void strips_ditherLikeTheWholeImage() throws IOException {
+        PixelBuffer image = TestImages.randomOpaque(45, 61, 9);
+        FilterChain chain = new FilterChain.Builder()
+                .add(FilterType.SHARPEN)
+                .addDither(ColorPalette.fromImage(image, 8), DitherKernel.FLOYD_STEINBERG)
+                .add(FilterType.EMBOSS)
+                .addDither(ColorPalette.of(0xFF000000, 0xFF808080, 0xFFFFFFFF), DitherKernel.ATKINSON)
+                .build();
+        assertEquals(2, chain.getHaloSize(45, 61));
+        PixelBuffer expected = new PixelBuffer(1, 1);
+        chain.apply(image, expected);
+        for (int stripHeight : new int[]{1, 2, 5, 16, 61}) {
+            assertArrayEquals("strip height " + stripHeight, expected.getPixels(),
+                    renderInStrips(image, chain, stripHeight).getPixels());
+        }
+    }
+
+    @Test
+    public void pngWriter_roundTripsThroughImageIo() throws IOException {
+        PixelBuffer image = TestImages.randomOpaque(37, 21, 3);
+        int[] pixels = image.getPixels();
+        for (int i = 0; i < pixels.length; i += 3) {
+            pixels[i] &= 0x7FFFFFFF;
+        }
+        for (boolean hasAlpha : new boolean[]{false, true}) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (PngStreamWriter writer = new PngStreamWriter(bytes, 37, 21, hasAlpha, Deflater.BEST_SPEED)) {
+                writer.writeRows(pixels, 0, 10);
+                writer.writeRows(pixels, 10 * 37, 11);
+                writer.finish();
+            }
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+            for (int y = 0; y < 21; y++) {
+                for (int x = 0; x < 37; x++) {
+                    int p = pixels[y * 37 + x];
+                    assertEquals(hasAlpha ? p : p | 0xFF000000, decoded.getRGB(x, y));
+                }
+            }
+        }
+    }
+}